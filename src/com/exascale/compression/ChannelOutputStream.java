@@ -0,0 +1,68 @@
+package com.exascale.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking writes to a channel that is in non blocking mode because an
+ * ExchangeSelector is reading it. Only meant for the small control messages
+ * a receiver sends back to its senders. A write that can't go out at once
+ * waits for the channel to become writable on a selector of its own.
+ */
+public final class ChannelOutputStream extends OutputStream
+{
+	private final SocketChannel ch;
+	// opened the first time the socket buffer is full
+	private Selector selector;
+
+	public ChannelOutputStream(final SocketChannel ch)
+	{
+		this.ch = ch;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (selector != null)
+		{
+			selector.close();
+		}
+
+		ch.close();
+	}
+
+	@Override
+	public synchronized void write(final byte[] b, final int off, final int len) throws IOException
+	{
+		final ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+		while (bb.hasRemaining())
+		{
+			if (ch.write(bb) == 0)
+			{
+				awaitWritable();
+			}
+		}
+	}
+
+	private void awaitWritable() throws IOException
+	{
+		if (selector == null)
+		{
+			selector = Selector.open();
+			ch.register(selector, SelectionKey.OP_WRITE);
+		}
+
+		selector.select();
+		selector.selectedKeys().clear();
+	}
+
+	@Override
+	public void write(final int b) throws IOException
+	{
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+}
@@ -74,16 +74,26 @@ public final class CompressedInputStream extends FilterInputStream
 				}
 				bb.position(0);
 				final int original = bb.getInt();
+				// stored frames are read straight into buff
+				final boolean stored = (original & CompressedOutputStream.STORED) != 0;
+				final byte[] target = stored ? buff : inBuff;
 				tempIndex = 0;
 				toRead = remaining - 4;
 				while (toRead > 0)
 				{
-					final int temp2 = in.read(inBuff, tempIndex, toRead);
+					final int temp2 = in.read(target, tempIndex, toRead);
 					toRead -= temp2;
 					tempIndex += temp2;
 				}
-				decompress.decompress(inBuff, buff, original);
-				limit = original;
+				if (stored)
+				{
+					limit = original & ~CompressedOutputStream.STORED;
+				}
+				else
+				{
+					decompress.decompress(inBuff, buff, original);
+					limit = original;
+				}
 			}
 
 			final int available = limit - index;
@@ -3,48 +3,122 @@ package com.exascale.compression;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import com.exascale.managers.HRDBMSWorker;
 import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
 
+/**
+ * Writes frames of [int length + 4][int uncompressed length][data]. If the
+ * high bit of the uncompressed length is set the data is stored as is,
+ * otherwise it is an LZ4 block, from either the fast or the high compressor.
+ *
+ * With exchange_compression=adaptive every 32nd frame is compressed with both
+ * compressors and timed. A stream only compresses while the time the link
+ * needs for the bytes it saves, at exchange_link_mbps, is more than the CPU
+ * time it costs. Streams to the same host are never compressed.
+ */
 public final class CompressedOutputStream extends FilterOutputStream
 {
+	public static final int STORED = 0x80000000;
+	private static final int BLOCK_SIZE = 128 * 1024;
+	// frames smaller than this are left out of the samples
+	private static final int MIN_SAMPLE = 16 * 1024;
+	private static final int SAMPLE_EVERY = 32;
+	// decompressing costs a fraction of compressing
+	private static final double CPU_FACTOR = 1.25;
+	private static final long REPORT_EVERY = 1024L * 1024L * 1024L;
+	private static final int NONE = 0;
+	private static final int FAST = 1;
+	private static final int HIGH = 2;
 	private static LZ4Factory factory;
+	private static String MODE;
+	private static double LINK_BYTES_PER_NANO;
+	private static final AtomicLong totalIn = new AtomicLong(0);
+	private static final AtomicLong totalOut = new AtomicLong(0);
+	private static final AtomicLong[] frames = new AtomicLong[] { new AtomicLong(0), new AtomicLong(0), new AtomicLong(0) };
 
 	static
 	{
 		factory = LZ4Factory.nativeInstance();
+		MODE = HRDBMSWorker.getHParms().getProperty("exchange_compression");
+		LINK_BYTES_PER_NANO = Double.parseDouble(HRDBMSWorker.getHParms().getProperty("exchange_link_mbps")) / 8000.0;
 	}
-	private final byte[] buff = new byte[128 * 1024];
+	private final byte[] buff = new byte[BLOCK_SIZE];
 	private int index = 0;
 	private final LZ4Compressor compress = factory.fastCompressor();
-	// private LZ4Compressor compress = factory.highCompressor();
-	private final byte[] outBuff;
+	private LZ4Compressor high;
+	private byte[] outBuff;
+	private byte[] sampleBuff;
+	private final byte[] header = new byte[8];
+	private final boolean adaptive;
+	private int codec;
+	private int count = 0;
 
 	public CompressedOutputStream(final OutputStream out)
+	{
+		this(out, false);
+	}
+
+	/** Streams to the same host are stored uncompressed */
+	public CompressedOutputStream(final OutputStream out, final Socket sock)
+	{
+		this(out, isLocal(sock));
+	}
+
+	private CompressedOutputStream(final OutputStream out, final boolean local)
 	{
 		super(out);
-		outBuff = new byte[compress.maxCompressedLength(128 * 1024) + 8];
+		outBuff = new byte[compress.maxCompressedLength(BLOCK_SIZE) + 8];
+		adaptive = MODE.equals("adaptive") && !local;
+		if (local || MODE.equals("none"))
+		{
+			codec = NONE;
+		}
+		else
+		{
+			codec = FAST;
+		}
+	}
+
+	private static boolean isLocal(final Socket sock)
+	{
+		if (sock == null)
+		{
+			return false;
+		}
+
+		final InetAddress addr = sock.getInetAddress();
+		return addr != null && (addr.isLoopbackAddress() || addr.equals(sock.getLocalAddress()));
+	}
+
+	/** Counts bytes before and after compression over all streams */
+	private static void report(final int in, final int out)
+	{
+		final long before = totalIn.get();
+		final long after = totalIn.addAndGet(in);
+		final long sent = totalOut.addAndGet(out);
+		if (before / REPORT_EVERY != after / REPORT_EVERY)
+		{
+			HRDBMSWorker.logger.debug("Exchange compression: " + (after >> 20) + "MB written as " + (sent >> 20) + "MB, ratio " + String.format("%.2f", after * 1.0 / sent) + ", " + ((after - sent) >> 20) + "MB saved. Frames stored/fast/high: " + frames[NONE].get() + "/" + frames[FAST].get() + "/" + frames[HIGH].get());
+		}
 	}
 
 	@Override
 	public void flush() throws IOException
 	{
-		final int compLen = compress.compress(buff, 0, index, outBuff, 8);
-		final ByteBuffer bb = ByteBuffer.wrap(outBuff);
-		bb.position(0);
-		bb.putInt(compLen + 4);
-		bb.putInt(index);
-		out.write(outBuff, 0, compLen + 8);
+		writeFrame(index);
 		out.flush();
-		index = 0;
 	}
 
 	@Override
 	public void write(final byte[] b) throws IOException
 	{
 		int toWrite = b.length;
-		int ableToWrite = 128 * 1024 - index;
+		int ableToWrite = BLOCK_SIZE - index;
 		int bIndex = 0;
 
 		while (true)
@@ -58,16 +132,16 @@ public final class CompressedOutputStream extends FilterOutputStream
 			else if (toWrite == ableToWrite)
 			{
 				System.arraycopy(b, bIndex, buff, index, toWrite);
-				flushFull();
+				writeFrame(BLOCK_SIZE);
 				return;
 			}
 			else
 			{
 				System.arraycopy(b, bIndex, buff, index, ableToWrite);
-				flushFull();
+				writeFrame(BLOCK_SIZE);
 				toWrite -= ableToWrite;
 				bIndex += ableToWrite;
-				ableToWrite = 128 * 1024;
+				ableToWrite = BLOCK_SIZE;
 			}
 		}
 	}
@@ -80,14 +154,92 @@ public final class CompressedOutputStream extends FilterOutputStream
 		write(buff);
 	}
 
-	private void flushFull() throws IOException
+	/** True if the link time for saved bytes is worth nanos of CPU */
+	private boolean pays(final int saved, final long nanos)
+	{
+		return saved > 0 && saved / LINK_BYTES_PER_NANO > nanos * CPU_FACTOR;
+	}
+
+	/**
+	 * Compresses the frame with both compressors, picks the codec for the
+	 * next frames and leaves the chosen compressed frame in outBuff. Returns
+	 * its length.
+	 */
+	private int sample(final int len)
+	{
+		if (high == null)
+		{
+			high = factory.highCompressor();
+			sampleBuff = new byte[outBuff.length];
+		}
+
+		long start = System.nanoTime();
+		final int fastLen = compress.compress(buff, 0, len, outBuff, 8);
+		final long fastNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		final int highLen = high.compress(buff, 0, len, sampleBuff, 8);
+		final long highNanos = System.nanoTime() - start;
+
+		if (!pays(len - fastLen, fastNanos))
+		{
+			codec = NONE;
+			return len;
+		}
+
+		if (pays(fastLen - highLen, highNanos - fastNanos))
+		{
+			codec = HIGH;
+			final byte[] temp = outBuff;
+			outBuff = sampleBuff;
+			sampleBuff = temp;
+			return highLen;
+		}
+
+		codec = FAST;
+		return fastLen;
+	}
+
+	private void writeFrame(final int len) throws IOException
 	{
-		final int compLen = compress.compress(buff, 0, 128 * 1024, outBuff, 8);
-		final ByteBuffer bb = ByteBuffer.wrap(outBuff);
-		bb.position(0);
-		bb.putInt(compLen + 4);
-		bb.putInt(128 * 1024);
-		out.write(outBuff, 0, compLen + 8);
+		int compLen;
+		if (adaptive && len >= MIN_SAMPLE && count++ % SAMPLE_EVERY == 0)
+		{
+			compLen = sample(len);
+		}
+		else if (codec == FAST)
+		{
+			compLen = compress.compress(buff, 0, len, outBuff, 8);
+		}
+		else if (codec == HIGH)
+		{
+			compLen = high.compress(buff, 0, len, outBuff, 8);
+		}
+		else
+		{
+			compLen = len;
+		}
+
+		final ByteBuffer bb;
+		if (codec == NONE || compLen >= len)
+		{
+			bb = ByteBuffer.wrap(header);
+			bb.putInt(len + 4);
+			bb.putInt(len | STORED);
+			out.write(header, 0, 8);
+			out.write(buff, 0, len);
+			frames[NONE].getAndIncrement();
+			report(len, len + 8);
+		}
+		else
+		{
+			bb = ByteBuffer.wrap(outBuff);
+			bb.putInt(compLen + 4);
+			bb.putInt(len);
+			out.write(outBuff, 0, compLen + 8);
+			frames[codec].getAndIncrement();
+			report(len, compLen + 8);
+		}
+
 		index = 0;
 	}
 }
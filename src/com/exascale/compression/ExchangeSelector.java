@@ -0,0 +1,456 @@
+package com.exascale.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.threads.ThreadPoolThread;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Reads the row streams of network receive operators on a few selector
+ * threads per node instead of one blocking thread per connection. A stream
+ * is what CompressedOutputStream writes, [int compressed length + 4][int
+ * length][LZ4 or stored block], and the blocks hold records of [int
+ * size][data].
+ *
+ * Each block is read with a scattering read into a pooled direct buffer
+ * for its body and the header of the next block, decompressed straight out
+ * of that buffer, and the records in it are handed to the stream's Handler
+ * on the selector thread. A handler that would have to block pauses its
+ * stream instead, the stream isn't read again until the blocking part has
+ * been done on a pool thread.
+ */
+public final class ExchangeSelector extends ThreadPoolThread
+{
+	/** Handler.record() results */
+	public static final int MORE = 0;
+	public static final int END = 1;
+	public static final int PAUSE = 2;
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static LZ4Factory factory;
+	private static int MAX_BLOCK;
+	private static ExchangeSelector[] selectors;
+	private static final AtomicInteger nextSelector = new AtomicInteger(0);
+	private static final ConcurrentLinkedQueue<ByteBuffer> freeBodies = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	static
+	{
+		factory = LZ4Factory.nativeInstance();
+		MAX_BLOCK = factory.fastCompressor().maxCompressedLength(BLOCK_SIZE);
+	}
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Stream> pending = new ConcurrentLinkedQueue<Stream>();
+	// paused streams whose blocking work is done
+	private final ConcurrentLinkedQueue<Stream> resumed = new ConcurrentLinkedQueue<Stream>();
+	private final LZ4FastDecompressor decompress = factory.fastDecompressor();
+	// shared by the streams of this thread, only used inside read()
+	private final byte[] raw = new byte[BLOCK_SIZE];
+	private final ByteBuffer rawBuffer = ByteBuffer.wrap(raw);
+
+	private ExchangeSelector() throws IOException
+	{
+		selector = Selector.open();
+	}
+
+	/**
+	 * Starts reading a connected channel, the channel is switched to non
+	 * blocking mode
+	 */
+	public static void register(final SocketChannel ch, final Handler handler) throws IOException
+	{
+		ch.configureBlocking(false);
+		final ExchangeSelector selector = selectors()[(nextSelector.getAndIncrement() & 0x7fffffff) % selectors.length];
+		selector.pending.add(new Stream(selector, ch, handler));
+		selector.selector.wakeup();
+	}
+
+	private static synchronized ExchangeSelector[] selectors() throws IOException
+	{
+		if (selectors == null)
+		{
+			final ExchangeSelector[] temp = new ExchangeSelector[Integer.parseInt(HRDBMSWorker.getHParms().getProperty("exchange_selector_threads"))];
+			int i = 0;
+			while (i < temp.length)
+			{
+				temp[i] = new ExchangeSelector();
+				temp[i].start();
+				i++;
+			}
+
+			selectors = temp;
+		}
+
+		return selectors;
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				selector.select();
+				Stream stream = pending.poll();
+				while (stream != null)
+				{
+					try
+					{
+						stream.key = stream.ch.register(selector, SelectionKey.OP_READ, stream);
+					}
+					catch (final Exception e)
+					{
+						stream.close(e);
+					}
+
+					stream = pending.poll();
+				}
+
+				stream = resumed.poll();
+				while (stream != null)
+				{
+					resume(stream);
+					stream = resumed.poll();
+				}
+
+				final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext())
+				{
+					final SelectionKey key = it.next();
+					it.remove();
+					final Stream s = (Stream)key.attachment();
+					try
+					{
+						if (key.isValid())
+						{
+							handle(s, read(s));
+						}
+					}
+					catch (final Exception e)
+					{
+						key.cancel();
+						s.close(e);
+					}
+				}
+			}
+			catch (final Throwable e)
+			{
+				HRDBMSWorker.logger.error("", e);
+			}
+		}
+	}
+
+	/** Acts on what the handler returned for the records read so far */
+	private void handle(final Stream s, final int status)
+	{
+		if (status == END)
+		{
+			s.key.cancel();
+			s.close(null);
+		}
+		else if (status == PAUSE)
+		{
+			s.key.interestOps(0);
+			new Unblock(s).start();
+		}
+	}
+
+	/** Picks a paused stream back up once its blocking work is done */
+	private void resume(final Stream s)
+	{
+		try
+		{
+			if (s.error != null)
+			{
+				throw s.error;
+			}
+
+			int status = s.ended ? END : s.replay();
+			if (status == MORE)
+			{
+				// the next block may already be sitting in the buffers
+				status = read(s);
+			}
+
+			if (status == MORE)
+			{
+				s.key.interestOps(SelectionKey.OP_READ);
+			}
+			else
+			{
+				handle(s, status);
+			}
+		}
+		catch (final Exception e)
+		{
+			s.key.cancel();
+			s.close(e);
+		}
+	}
+
+	/**
+	 * Hands the complete records of the stream to its handler, returns MORE
+	 * once the channel has no data left for now
+	 */
+	private int read(final Stream s) throws Exception
+	{
+		while (true)
+		{
+			final int status = drain(s);
+			if (status != MORE)
+			{
+				return status;
+			}
+
+			final long num;
+			if (s.inBody)
+			{
+				num = s.ch.read(s.buffers);
+			}
+			else
+			{
+				num = s.ch.read(s.header);
+			}
+
+			if (num == -1)
+			{
+				throw new Exception("Early EOF reading from socket connected to " + s.ch.socket().getRemoteSocketAddress());
+			}
+
+			if (num == 0)
+			{
+				return MORE;
+			}
+		}
+	}
+
+	/** Processes the blocks that are already complete in the buffers */
+	private int drain(final Stream s) throws Exception
+	{
+		while (true)
+		{
+			if (!s.inBody)
+			{
+				if (s.header.hasRemaining())
+				{
+					return MORE;
+				}
+
+				final int compLen = s.header.getInt(0) - 4;
+				if (compLen < 0 || compLen > MAX_BLOCK)
+				{
+					throw new Exception("Invalid block length " + compLen + " from " + s.ch.socket().getRemoteSocketAddress());
+				}
+
+				s.length = s.header.getInt(4);
+				s.header.clear();
+				s.body.clear();
+				s.body.limit(compLen);
+				s.inBody = true;
+			}
+
+			if (s.body.hasRemaining())
+			{
+				return MORE;
+			}
+
+			// the header of the next block may have been read along with
+			// the end of this one
+			s.body.flip();
+			int length = s.length;
+			if ((length & CompressedOutputStream.STORED) != 0)
+			{
+				length &= ~CompressedOutputStream.STORED;
+				s.body.get(raw, 0, length);
+			}
+			else if (length > 0)
+			{
+				decompress.decompress(s.body, 0, rawBuffer, 0, length);
+			}
+
+			s.inBody = false;
+			final int status = s.records(raw, 0, length);
+			if (status != MORE)
+			{
+				return status;
+			}
+		}
+	}
+
+	public interface Handler
+	{
+		/** Called when the stream is finished, e is null if it ended cleanly */
+		public void done(Exception e);
+
+		/**
+		 * Called for each record on the selector thread, data[0, size) is only
+		 * valid during the call. Returns END when the record ends the stream,
+		 * PAUSE if the handler has work left that would block, or MORE.
+		 */
+		public int record(byte[] data, int size) throws Exception;
+
+		/**
+		 * Called on a pool thread after record() returned PAUSE, the stream
+		 * is read again once this returns. Returns true if the stream ended.
+		 */
+		public boolean blocked() throws Exception;
+	}
+
+	private static final class Stream
+	{
+		private final ExchangeSelector owner;
+		private final SocketChannel ch;
+		private SelectionKey key;
+		private final Handler handler;
+		private final ByteBuffer header = ByteBuffer.allocateDirect(8);
+		private final ByteBuffer body;
+		private final ByteBuffer[] buffers;
+		private boolean inBody = false;
+		// uncompressed length of the block being read, with the stored flag
+		private int length;
+		private final byte[] size = new byte[4];
+		private int sizePos = 0;
+		private byte[] rec = new byte[256];
+		private int recSize = -1;
+		private int recPos;
+		// the rest of the block a PAUSE interrupted
+		private byte[] rest;
+		private int restLen = 0;
+		// outcome of Handler.blocked()
+		private boolean ended = false;
+		private Exception error;
+
+		public Stream(final ExchangeSelector owner, final SocketChannel ch, final Handler handler)
+		{
+			this.owner = owner;
+			this.ch = ch;
+			this.handler = handler;
+			final ByteBuffer temp = freeBodies.poll();
+			if (temp == null)
+			{
+				body = ByteBuffer.allocateDirect(MAX_BLOCK);
+			}
+			else
+			{
+				body = temp;
+			}
+
+			buffers = new ByteBuffer[] { body, header };
+		}
+
+		private void close(final Exception e)
+		{
+			freeBodies.add(body);
+			handler.done(e);
+		}
+
+		/** Copies the part of a block after a PAUSE, raw may be rest itself */
+		private void park(final byte[] raw, final int off, final int length)
+		{
+			restLen = length - off;
+			if (rest == null || rest.length < restLen)
+			{
+				final byte[] temp = new byte[restLen];
+				System.arraycopy(raw, off, temp, 0, restLen);
+				rest = temp;
+			}
+			else
+			{
+				System.arraycopy(raw, off, rest, 0, restLen);
+			}
+		}
+
+		/** Hands the records left over from a PAUSE to the handler */
+		private int replay() throws Exception
+		{
+			final int length = restLen;
+			restLen = 0;
+			return records(rest, 0, length);
+		}
+
+		/** Splits a decompressed block into records, which can span blocks */
+		private int records(final byte[] raw, final int off, final int length) throws Exception
+		{
+			int i = off;
+			while (i < length)
+			{
+				if (recSize < 0)
+				{
+					while (sizePos < 4 && i < length)
+					{
+						size[sizePos++] = raw[i++];
+					}
+
+					if (sizePos < 4)
+					{
+						return MORE;
+					}
+
+					recSize = ((size[0] & 0xff) << 24) | ((size[1] & 0xff) << 16) | ((size[2] & 0xff) << 8) | (size[3] & 0xff);
+					recPos = 0;
+					if (rec.length < recSize)
+					{
+						rec = new byte[recSize];
+					}
+				}
+
+				final int toCopy = Math.min(recSize - recPos, length - i);
+				System.arraycopy(raw, i, rec, recPos, toCopy);
+				recPos += toCopy;
+				i += toCopy;
+				if (recPos == recSize)
+				{
+					recSize = -1;
+					sizePos = 0;
+					final int status = handler.record(rec, recPos);
+					if (status != MORE)
+					{
+						if (status == PAUSE)
+						{
+							park(raw, i, length);
+						}
+
+						return status;
+					}
+				}
+			}
+
+			return MORE;
+		}
+	}
+
+	/** Does the blocking work of a paused stream, then gives it back to its selector */
+	private static final class Unblock extends ThreadPoolThread
+	{
+		private final Stream s;
+
+		public Unblock(final Stream s)
+		{
+			this.s = s;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				s.ended = s.handler.blocked();
+			}
+			catch (final Exception e)
+			{
+				s.error = e;
+			}
+
+			s.owner.resumed.add(s);
+			s.owner.selector.wakeup();
+		}
+	}
+}
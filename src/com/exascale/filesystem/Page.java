@@ -54,7 +54,7 @@ public class Page
 	{
 		try
 		{
-			this.contents = ByteBuffer.allocate(BLOCK_SIZE);
+			this.contents = PageArena.take();
 			lock = new ScalableStampedReentrantRWLock();
 		}
 		catch (final Throwable e)
@@ -781,8 +781,9 @@ public class Page
 		try
 		{
 			final byte[] hb = (byte[])unsafe.getObject(contents, offset);
+			final byte retval = hb == null ? contents.get(pos) : hb[pos];
 			lock.readLock().unlock();
-			return hb[pos];
+			return retval;
 			// return contents.get(pos);
 		}
 		catch (final Exception e)
@@ -804,7 +805,17 @@ public class Page
 			// contents.position(off);
 			// contents.get(buff);
 			final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-			System.arraycopy(hb, off, buff, 0, buff.length);
+			if (hb == null)
+			{
+				final ByteBuffer dup = contents.duplicate();
+				dup.position(off);
+				dup.get(buff);
+			}
+			else
+			{
+				System.arraycopy(hb, off, buff, 0, buff.length);
+			}
+
 			lock.readLock().unlock();
 		}
 		catch (final Exception e)
@@ -828,7 +839,7 @@ public class Page
 		int i = 0;
 		while (i < buff.length)
 		{
-			buff[i] = ((hb[off]) << 24) | ((hb[off + 1] & 0xff) << 16) | ((hb[off + 2] & 0xff) << 8) | (hb[off + 3] & 0xff);
+			buff[i] = hb == null ? contents.getInt(off) : ((hb[off]) << 24) | ((hb[off + 1] & 0xff) << 16) | ((hb[off + 2] & 0xff) << 8) | (hb[off + 3] & 0xff);
 			i++;
 			off += 4;
 		}
@@ -878,7 +889,7 @@ public class Page
 
 		// return contents.getInt(pos);
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		final int retval = (hb[pos] << 24) | ((hb[pos + 1] & 0xff) << 16) | ((hb[pos + 2] & 0xff) << 8) | (hb[pos + 3] & 0xff);
+		final int retval = hb == null ? contents.getInt(pos) : (hb[pos] << 24) | ((hb[pos + 1] & 0xff) << 16) | ((hb[pos + 2] & 0xff) << 8) | (hb[pos + 3] & 0xff);
 		lock.readLock().unlock();
 		return retval;
 	}
@@ -892,7 +903,7 @@ public class Page
 
 		// return contents.getLong(pos);
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		final long retval = (((long)hb[pos]) << 56) | ((((long)hb[pos + 1]) & 0xff) << 48) | ((((long)hb[pos + 2]) & 0xff) << 40) | ((((long)hb[pos + 3]) & 0xff) << 32) | ((((long)hb[pos + 4]) & 0xff) << 24) | ((((long)hb[pos + 5]) & 0xff) << 16) | ((((long)hb[pos + 6]) & 0xff) << 8) | (((long)hb[pos + 7]) & 0xff);
+		final long retval = hb == null ? contents.getLong(pos) : (((long)hb[pos]) << 56) | ((((long)hb[pos + 1]) & 0xff) << 48) | ((((long)hb[pos + 2]) & 0xff) << 40) | ((((long)hb[pos + 3]) & 0xff) << 32) | ((((long)hb[pos + 4]) & 0xff) << 24) | ((((long)hb[pos + 5]) & 0xff) << 16) | ((((long)hb[pos + 6]) & 0xff) << 8) | (((long)hb[pos + 7]) & 0xff);
 		lock.readLock().unlock();
 		return retval;
 	}
@@ -906,7 +917,7 @@ public class Page
 
 		// return contents.getInt(pos);
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		final int retval = (hb[pos] << 16) | ((hb[pos + 1] & 0xff) << 8) | ((hb[pos + 2] & 0xff));
+		final int retval = hb == null ? (contents.get(pos) << 16) | ((contents.get(pos + 1) & 0xff) << 8) | ((contents.get(pos + 2) & 0xff)) : (hb[pos] << 16) | ((hb[pos + 1] & 0xff) << 8) | ((hb[pos + 2] & 0xff));
 		lock.readLock().unlock();
 		return retval;
 	}
@@ -923,7 +934,7 @@ public class Page
 		int i = 0;
 		while (i < num)
 		{
-			retval[i] = (hb[pos] << 16) | ((hb[pos + 1] & 0xff) << 8) | ((hb[pos + 2] & 0xff));
+			retval[i] = hb == null ? (contents.get(pos) << 16) | ((contents.get(pos + 1) & 0xff) << 8) | ((contents.get(pos + 2) & 0xff)) : (hb[pos] << 16) | ((hb[pos + 1] & 0xff) << 8) | ((hb[pos + 2] & 0xff));
 			pos += 3;
 			i++;
 		}
@@ -940,7 +951,7 @@ public class Page
 
 		// return contents.getShort(off);
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		final short retval = (short)((hb[pos] << 8) | (hb[pos + 1] & 0xff));
+		final short retval = hb == null ? contents.getShort(pos) : (short)((hb[pos] << 8) | (hb[pos + 1] & 0xff));
 		lock.readLock().unlock();
 		return retval;
 	}
@@ -1026,7 +1037,16 @@ public class Page
 		}
 		final byte[] retval = new byte[length];
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		System.arraycopy(hb, off, retval, 0, length);
+		if (hb == null)
+		{
+			final ByteBuffer dup = contents.duplicate();
+			dup.position(off);
+			dup.get(retval);
+		}
+		else
+		{
+			System.arraycopy(hb, off, retval, 0, length);
+		}
 		// contents.position(off);
 		// contents.get(retval);
 		lock.readLock().unlock();
@@ -1107,8 +1127,7 @@ public class Page
 		// }
 		// LockManager.lock.unlock();
 		// BufferManager.write(this, off, data);
-		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		System.arraycopy(data, 0, hb, off, data.length);
+		put(off, data);
 		lock.writeLock().unlock();
 	}
 
@@ -1117,8 +1136,7 @@ public class Page
 		// contents.position(off);
 		// contents.put(data);
 		lock.writeLock().lock();
-		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		System.arraycopy(data, 0, hb, off, data.length);
+		put(off, data);
 		lock.writeLock().unlock();
 	}
 
@@ -1136,10 +1154,38 @@ public class Page
 		this.modifiedBy = txnum;
 
 		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
-		System.arraycopy(hb, srcOff, hb, destOff, len);
+		if (hb == null)
+		{
+			// the ranges can overlap
+			final byte[] temp = new byte[len];
+			final ByteBuffer dup = contents.duplicate();
+			dup.position(srcOff);
+			dup.get(temp);
+			dup.position(destOff);
+			dup.put(temp);
+		}
+		else
+		{
+			System.arraycopy(hb, srcOff, hb, destOff, len);
+		}
 		lock.writeLock().unlock();
 	}
 
+	private void put(final int off, final byte[] data)
+	{
+		final byte[] hb = (byte[])unsafe.getObject(contents, offset);
+		if (hb == null)
+		{
+			final ByteBuffer dup = contents.duplicate();
+			dup.position(off);
+			dup.put(data);
+		}
+		else
+		{
+			System.arraycopy(data, 0, hb, off, data.length);
+		}
+	}
+
 	private void flush() throws Exception
 	{
 		LogManager.flush(lsn);
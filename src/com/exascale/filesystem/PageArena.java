@@ -0,0 +1,204 @@
+package com.exascale.filesystem;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import com.exascale.managers.HRDBMSWorker;
+
+/**
+ * Off heap memory for the buffer pool, turned on with bp_off_heap. It is
+ * allocated once, when the first page is created, with room for bp_max_pages
+ * pages (bp_pages if that is less) and carved into page frames, so the pool
+ * neither shows up on the heap nor grows past what was set at startup. A
+ * ByteBuffer can't be bigger than 2GB, so the arena is made of as many
+ * regions as it takes.
+ *
+ * If bp_huge_page_dir names a hugetlbfs mount, the regions are mapped from a
+ * file there, which backs them with huge pages. Otherwise they are direct
+ * buffers, which -XX:MaxDirectMemorySize has to leave room for.
+ *
+ * The frame of a page that was dropped from the pool is only reused once the
+ * page itself has been collected. A scan or read thread can still hold the
+ * page for a while, and it must not see another block's data through it.
+ */
+public final class PageArena
+{
+	private static final long HUGE_PAGE = 2 * 1024 * 1024;
+	private static boolean warned = false;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	// keeps the references to dropped pages alive until they are enqueued
+	private final Set<Dropped> dropped = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Allocates frames of frameSize bytes for pages pages, from a file in dir
+	 * if it isn't empty
+	 */
+	PageArena(final long pages, final int frameSize, final String dir) throws Exception
+	{
+		final int perRegion = (int)((Integer.MAX_VALUE - HUGE_PAGE) / frameSize);
+		RandomAccessFile file = null;
+		File f = null;
+		if (dir.length() > 0)
+		{
+			f = new File(dir, "hrdbms_arena_" + System.nanoTime());
+			file = new RandomAccessFile(f, "rw");
+		}
+
+		try
+		{
+			long done = 0;
+			long mapped = 0;
+			while (done < pages)
+			{
+				final int frames = (int)Math.min(perRegion, pages - done);
+				final ByteBuffer region;
+				if (file == null)
+				{
+					region = ByteBuffer.allocateDirect(frames * frameSize);
+				}
+				else
+				{
+					// hugetlbfs mappings are whole huge pages
+					long size = ((long)frames) * frameSize;
+					if (size % HUGE_PAGE != 0)
+					{
+						size += HUGE_PAGE - (size % HUGE_PAGE);
+					}
+
+					region = file.getChannel().map(FileChannel.MapMode.READ_WRITE, mapped, size);
+					mapped += size;
+				}
+
+				int i = 0;
+				while (i < frames)
+				{
+					region.limit((i + 1) * frameSize);
+					region.position(i * frameSize);
+					free.offer(region.slice());
+					i++;
+				}
+
+				done += frames;
+			}
+		}
+		finally
+		{
+			if (file != null)
+			{
+				// the mappings stay valid after the file is gone
+				file.close();
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Called when a page is dropped from the pool, its frame is given back
+	 * once nothing references the page anymore
+	 */
+	public static void release(final Page page)
+	{
+		final ByteBuffer frame = page.buffer();
+		if (frame.isDirect() && Shared.ARENA != null)
+		{
+			Shared.ARENA.release(page, frame);
+		}
+	}
+
+	/**
+	 * A frame for a new page. Once the arena is used up, or if it is off,
+	 * pages go on the heap.
+	 */
+	public static ByteBuffer take()
+	{
+		if (Shared.ARENA != null)
+		{
+			final ByteBuffer retval = Shared.ARENA.frame();
+			if (retval != null)
+			{
+				return retval;
+			}
+
+			if (!warned)
+			{
+				warned = true;
+				HRDBMSWorker.logger.warn("The off heap arena is used up, new pages will go on the heap");
+			}
+		}
+
+		return ByteBuffer.allocate(Page.BLOCK_SIZE);
+	}
+
+	/** A free frame, or null if the arena is used up */
+	ByteBuffer frame()
+	{
+		Reference<?> ref = collected.poll();
+		while (ref != null)
+		{
+			dropped.remove(ref);
+			free.offer(((Dropped)ref).frame);
+			ref = collected.poll();
+		}
+
+		final ByteBuffer retval = free.poll();
+		if (retval != null)
+		{
+			retval.clear();
+		}
+
+		return retval;
+	}
+
+	/** Gives the frame back once owner has been collected */
+	void release(final Object owner, final ByteBuffer frame)
+	{
+		dropped.add(new Dropped(owner, frame, collected));
+	}
+
+	private static final class Dropped extends PhantomReference<Object>
+	{
+		private final ByteBuffer frame;
+
+		private Dropped(final Object owner, final ByteBuffer frame, final ReferenceQueue<Object> collected)
+		{
+			super(owner, collected);
+			this.frame = frame;
+		}
+	}
+
+	/** The arena of the buffer pool, created with the first page */
+	private static final class Shared
+	{
+		private static final PageArena ARENA;
+
+		static
+		{
+			PageArena arena = null;
+			if (HRDBMSWorker.getHParms().getProperty("bp_off_heap").equals("true"))
+			{
+				try
+				{
+					final long pages = Math.max(Long.parseLong(HRDBMSWorker.getHParms().getProperty("bp_max_pages")), Long.parseLong(HRDBMSWorker.getHParms().getProperty("bp_pages")));
+					final String dir = HRDBMSWorker.getHParms().getProperty("bp_huge_page_dir");
+					arena = new PageArena(pages, Page.BLOCK_SIZE, dir);
+					HRDBMSWorker.logger.debug("Allocated an off heap arena of " + pages + " pages" + (dir.length() == 0 ? "" : " on huge pages in " + dir));
+				}
+				catch (final Throwable e)
+				{
+					HRDBMSWorker.logger.error("Bufferpool manager failed to allocate the off heap arena", e);
+					System.exit(1);
+				}
+			}
+
+			ARENA = arena;
+		}
+	}
+}
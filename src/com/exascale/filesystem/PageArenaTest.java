@@ -0,0 +1,105 @@
+package com.exascale.filesystem;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Carves direct and file backed PageArenas and checks that the frames are
+ * distinct, don't overlap and run out when they should, and that a released
+ * frame is only handed out again after its page has been collected. The
+ * file backed arena is made in java.io.tmpdir, a hugetlbfs mount isn't
+ * needed to test it.
+ */
+public class PageArenaTest
+{
+	private static final int FRAME = 8192;
+	private static final int PAGES = 300;
+
+	public static void main(final String[] args) throws Exception
+	{
+		test(new PageArena(PAGES, FRAME, ""), "direct");
+
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "page_arena_test_" + System.nanoTime());
+		check(dir.mkdir(), "can't make " + dir);
+		try
+		{
+			test(new PageArena(PAGES, FRAME, dir.getAbsolutePath()), "mapped");
+			check(dir.list().length == 0, "the backing file was left in " + dir);
+		}
+		finally
+		{
+			for (final File f : dir.listFiles())
+			{
+				f.delete();
+			}
+
+			dir.delete();
+		}
+
+		System.out.println("PageArenaTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("PageArenaTest failed: " + what);
+		}
+	}
+
+	private static void test(final PageArena arena, final String what) throws Exception
+	{
+		final ArrayList<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+		final IdentityHashMap<ByteBuffer, Boolean> seen = new IdentityHashMap<ByteBuffer, Boolean>();
+		int i = 0;
+		while (i < PAGES)
+		{
+			final ByteBuffer frame = arena.frame();
+			check(frame != null, what + " arena ran out after " + i + " frames");
+			check(frame.isDirect() && frame.capacity() == FRAME && frame.position() == 0 && frame.limit() == FRAME, what + " frame " + i + " has the wrong shape");
+			check(seen.put(frame, Boolean.TRUE) == null, what + " frame " + i + " handed out twice");
+			frame.putInt(0, i);
+			frame.putInt(FRAME - 4, i);
+			frames.add(frame);
+			i++;
+		}
+
+		check(arena.frame() == null, what + " arena has more than " + PAGES + " frames");
+		i = 0;
+		while (i < PAGES)
+		{
+			check(frames.get(i).getInt(0) == i && frames.get(i).getInt(FRAME - 4) == i, what + " frame " + i + " overlaps another one");
+			i++;
+		}
+
+		// a page that is still referenced keeps its frame
+		Object page = new Object();
+		final ByteBuffer frame = frames.get(7);
+		frame.position(100);
+		arena.release(page, frame);
+		collect();
+		check(arena.frame() == null, what + " frame reused while its page is alive");
+
+		page = null;
+		ByteBuffer again = null;
+		i = 0;
+		while (again == null && i < 50)
+		{
+			collect();
+			again = arena.frame();
+			i++;
+		}
+
+		check(again == frame, what + " frame wasn't given back after its page was collected");
+		check(again.position() == 0 && again.limit() == FRAME, what + " frame wasn't cleared");
+		check(arena.frame() == null, what + " frame given back twice");
+	}
+
+	private static void collect() throws Exception
+	{
+		System.gc();
+		Thread.sleep(20);
+	}
+}
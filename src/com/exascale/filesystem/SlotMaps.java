@@ -0,0 +1,115 @@
+package com.exascale.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read only mappings of the whole slots of a .0 file, for the mmap_files of
+ * SparseCompressedFileChannel2. Slots sit at fixed offsets, so finding one
+ * in the mappings is just arithmetic. A mapping is at most slotsPerMap
+ * slots, the limit of a MappedByteBuffer.
+ */
+final class SlotMaps
+{
+	private final FileChannel fc;
+	private final long slotSize;
+	private final int slotsPerMap;
+	private volatile MappedByteBuffer[] maps = new MappedByteBuffer[0];
+	private volatile int mappedSlots = 0;
+	// length when remap() last looked at the file, the number of whole slots
+	// only changes along with it
+	private volatile int remappedLength = -1;
+
+	SlotMaps(final FileChannel fc, final long slotSize, final int slotsPerMap)
+	{
+		this.fc = fc;
+		this.slotSize = slotSize;
+		this.slotsPerMap = slotsPerMap;
+	}
+
+	/** Drops the mappings, they can't outlive what they map */
+	void clear()
+	{
+		maps = new MappedByteBuffer[0];
+		mappedSlots = 0;
+		remappedLength = -1;
+	}
+
+	int mappedSlots()
+	{
+		return mappedSlots;
+	}
+
+	/**
+	 * A view of num slots from page on of a file that is length pages long,
+	 * or null if they aren't all in one mapping
+	 */
+	ByteBuffer slots(final int page, final int num, final int length) throws IOException
+	{
+		MappedByteBuffer[] regions = maps;
+		// the last page is never mapped, it only costs a remap once the file
+		// has grown
+		if (page + num > mappedSlots && length != remappedLength)
+		{
+			regions = remap(length);
+		}
+
+		final int region = page / slotsPerMap;
+		final int first = page % slotsPerMap;
+		if (page + num <= mappedSlots && first + num <= slotsPerMap && region < regions.length)
+		{
+			final ByteBuffer retval = regions[region].duplicate();
+			retval.limit((int)((first + num) * slotSize));
+			retval.position((int)(first * slotSize));
+			return retval.slice();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Maps the whole slots of the file. The last slot is only as long as its
+	 * compressed page until another one is written after it, so it stays
+	 * unmapped. A replaced mapping is left to the garbage collector, readers
+	 * may still be decompressing from views of it.
+	 */
+	private synchronized MappedByteBuffer[] remap(final int length) throws IOException
+	{
+		if (length == remappedLength)
+		{
+			return maps;
+		}
+
+		final int slots = (int)(fc.size() / slotSize);
+		remappedLength = length;
+		if (slots <= mappedSlots)
+		{
+			return maps;
+		}
+
+		final MappedByteBuffer[] retval = new MappedByteBuffer[(slots + slotsPerMap - 1) / slotsPerMap];
+		int i = 0;
+		while (i < retval.length)
+		{
+			final long start = i * slotsPerMap * slotSize;
+			final long size = Math.min(slotsPerMap, slots - i * slotsPerMap) * slotSize;
+			if (i < maps.length && maps[i].capacity() == size)
+			{
+				retval[i] = maps[i];
+			}
+			else
+			{
+				retval[i] = fc.map(MapMode.READ_ONLY, start, size);
+			}
+
+			i++;
+		}
+
+		maps = retval;
+		mappedSlots = slots;
+		return retval;
+	}
+}
@@ -0,0 +1,141 @@
+package com.exascale.filesystem;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Checks the SlotMaps of a file written slot by slot the way
+ * SparseCompressedFileChannel2 writes them: the whole slots are mapped, the
+ * last one isn't, views hold the right slots and see later writes, reads
+ * across two mappings fall back, and the file is only remapped once its
+ * length has changed. Mappings are 3 small slots so there are several.
+ */
+public class SlotMapsTest
+{
+	private static final int SLOT = 4096;
+	private static final int PER_MAP = 3;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final File file = File.createTempFile("slot_maps_test", ".0");
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			test(raf.getChannel());
+		}
+		finally
+		{
+			raf.close();
+			file.delete();
+		}
+
+		System.out.println("SlotMapsTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("SlotMapsTest failed: " + what);
+		}
+	}
+
+	/** Checks that view holds num slots from page on */
+	private static void check(final ByteBuffer view, final int page, final int num) throws Exception
+	{
+		check(view != null, "slots " + page + " to " + (page + num) + " aren't mapped");
+		check(view.isDirect() && view.position() == 0 && view.remaining() == num * SLOT, "bad view of slots " + page + " to " + (page + num));
+		int i = 0;
+		while (i < num * SLOT)
+		{
+			check(view.get(i) == fill(page + i / SLOT), "slot " + (page + i / SLOT) + " has the wrong bytes at " + i % SLOT);
+			i += 97;
+		}
+	}
+
+	private static byte fill(final int page)
+	{
+		return (byte)(page * 7 + 1);
+	}
+
+	private static void test(final FileChannel fc) throws Exception
+	{
+		final SlotMaps maps = new SlotMaps(fc, SLOT, PER_MAP);
+		check(maps.slots(0, 1, 0) == null, "an empty file has mappings");
+
+		// 6 pages, the last one shorter than its slot
+		int page = 0;
+		while (page < 6)
+		{
+			write(fc, page);
+			page++;
+		}
+
+		check(maps.slots(5, 1, 6) == null, "the last slot is mapped");
+		check(maps.mappedSlots() == 5, "mapped " + maps.mappedSlots() + " slots instead of 5");
+		check(maps.slots(0, 1, 6), 0, 1);
+		check(maps.slots(1, 2, 6), 1, 2);
+		check(maps.slots(3, 2, 6), 3, 2);
+		check(maps.slots(2, 2, 6) == null, "a view spans two mappings");
+		check(maps.slots(4, 2, 6) == null, "a view includes the last slot");
+
+		// the last slot is whole on disk now, but with the same length
+		// there is no remap
+		write(fc, 6);
+		check(maps.slots(5, 1, 6) == null, "remapped without a new length");
+		check(maps.mappedSlots() == 5, "remapped without a new length");
+		check(maps.slots(5, 1, 7), 5, 1);
+		check(maps.mappedSlots() == 6, "mapped " + maps.mappedSlots() + " slots instead of 6");
+		check(maps.slots(6, 1, 7) == null, "the last slot is mapped");
+
+		// a rewrite shows through the mappings
+		final ByteBuffer bb = ByteBuffer.allocate(SLOT);
+		while (bb.hasRemaining())
+		{
+			bb.put(fill(40));
+		}
+
+		bb.flip();
+		fc.write(bb, SLOT);
+		final ByteBuffer view = maps.slots(1, 1, 7);
+		check(view != null && view.get(0) == fill(40) && view.get(SLOT - 1) == fill(40), "a rewrite of slot 1 isn't seen");
+
+		// after a truncate it all starts over
+		maps.clear();
+		fc.truncate(2 * SLOT);
+		check(maps.mappedSlots() == 0, "clear() kept mappings");
+		write(fc, 2);
+		check(maps.slots(1, 1, 3) != null, "slot 1 isn't mapped after clear()");
+		check(maps.mappedSlots() == 2, "mapped " + maps.mappedSlots() + " slots instead of 2");
+		check(maps.slots(0, 1, 3), 0, 1);
+	}
+
+	/**
+	 * Writes the slot of page as the last one, only partly, and makes the
+	 * slot before it whole
+	 */
+	private static void write(final FileChannel fc, final int page) throws Exception
+	{
+		if (page > 0)
+		{
+			write(fc, page - 1, SLOT);
+		}
+
+		fc.truncate((long)page * SLOT);
+		write(fc, page, SLOT / 2 + 1);
+	}
+
+	private static void write(final FileChannel fc, final int page, final int bytes) throws Exception
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(bytes);
+		while (bb.hasRemaining())
+		{
+			bb.put(fill(page));
+		}
+
+		bb.flip();
+		fc.write(bb, (long)page * SLOT);
+	}
+}
@@ -11,6 +11,7 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.LockSupport;
@@ -26,6 +27,8 @@ public class SparseCompressedFileChannel2 extends FileChannel
 {
 	private static LZ4Factory factory;
 	private static long SLOT_SIZE;
+	private static int SLOTS_PER_MAP;
+	private static final String[] MMAP_FILES = HRDBMSWorker.getHParms().getProperty("mmap_files").split(",");
 	private static ArrayBlockingQueue<ByteBuffer> cache = new ArrayBlockingQueue<ByteBuffer>(2048);
 	private static ArrayBlockingQueue<ByteBuffer> cache2 = new ArrayBlockingQueue<ByteBuffer>(2048);
 
@@ -41,6 +44,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 
 		// SLOT_SIZE = 512 * 1024;
 		SLOT_SIZE = slot;
+		SLOTS_PER_MAP = (int)(Integer.MAX_VALUE / SLOT_SIZE);
 
 		int i = 0;
 		while (i < Runtime.getRuntime().availableProcessors())
@@ -59,6 +63,10 @@ public class SparseCompressedFileChannel2 extends FileChannel
 
 	public String fn;
 	private FileChannel theFC;
+	// whether the .0 file is read through mappings, see slots()
+	private boolean mmap;
+	// read only mappings of the whole slots of the .0 file
+	private SlotMaps maps;
 	private volatile int length; // in 128k pages
 	private long pos = 0;
 	private final ScalableStampedReentrantRWLock lock = new ScalableStampedReentrantRWLock();
@@ -67,6 +75,14 @@ public class SparseCompressedFileChannel2 extends FileChannel
 	public SparseCompressedFileChannel2(final File file) throws IOException
 	{
 		this.fn = file.getAbsolutePath();
+		for (final String name : MMAP_FILES)
+		{
+			if (name.length() > 0 && (name.equals("*") || fn.contains(name)))
+			{
+				mmap = true;
+			}
+		}
+
 		int high = -1;
 		final int split = this.fn.lastIndexOf('/');
 		final String dir = this.fn.substring(0, split);
@@ -104,6 +120,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 			// theFC = FileChannel.open(theFile.toPath(),
 			// StandardOpenOption.SPARSE, StandardOpenOption.CREATE,
 			// StandardOpenOption.READ, StandardOpenOption.WRITE);
+			maps = new SlotMaps(theFC, SLOT_SIZE, SLOTS_PER_MAP);
 			return;
 		}
 
@@ -117,6 +134,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 		// StandardOpenOption.WRITE);
 		final RandomAccessFile raf = new RandomAccessFile(this.fn + ".0", "rw");
 		theFC = raf.getChannel();
+		maps = new SlotMaps(theFC, SLOT_SIZE, SLOTS_PER_MAP);
 	}
 
 	public SparseCompressedFileChannel2(final File file, final int suffix) throws IOException
@@ -162,8 +180,27 @@ public class SparseCompressedFileChannel2 extends FileChannel
 		}
 	}
 
+	/** Compresses a whole page, which is off heap with bp_off_heap */
+	private static byte[] compress(final LZ4Compressor comp, final ByteBuffer page)
+	{
+		if (page.hasArray())
+		{
+			return comp.compress(page.array());
+		}
+
+		final byte[] retval = new byte[comp.maxCompressedLength(page.capacity())];
+		final int len = comp.compress(page, 0, page.capacity(), ByteBuffer.wrap(retval), 0, retval.length);
+		return Arrays.copyOf(retval, len);
+	}
+
 	private static void deallocateByteBuffer(final ByteBuffer bb)
 	{
+		if (bb.isDirect())
+		{
+			// a view of a mapping
+			return;
+		}
+
 		if (bb.capacity() == SLOT_SIZE)
 		{
 			cache.offer(bb);
@@ -175,6 +212,42 @@ public class SparseCompressedFileChannel2 extends FileChannel
 		}
 	}
 
+	private static void decompress(final LZ4FastDecompressor decomp, final ByteBuffer slots, final int off, final ByteBuffer page)
+	{
+		if (slots.hasArray() && page.hasArray())
+		{
+			decomp.decompress(slots.array(), off, page.array(), 0, Page.BLOCK_SIZE);
+		}
+		else
+		{
+			decomp.decompress(slots, off, page, 0, Page.BLOCK_SIZE);
+		}
+	}
+
+	/**
+	 * The compressed slots from page on. For a file named in mmap_files it is
+	 * a view of a read only mapping of the .0 file, so decompressing reads
+	 * straight from the page cache. The file isn't copied to the heap first
+	 * and there is no read call per slot. Slots sit at fixed offsets, so
+	 * finding one in the mappings is just arithmetic. Otherwise, or if the
+	 * slots aren't all mapped, they are read into a pooled buffer.
+	 */
+	private ByteBuffer slots(final int page, final int num) throws IOException
+	{
+		if (mmap)
+		{
+			final ByteBuffer retval = maps.slots(page, num, length);
+			if (retval != null)
+			{
+				return retval;
+			}
+		}
+
+		final ByteBuffer retval = allocateByteBuffer((int)SLOT_SIZE * num);
+		theFC.read(retval, page * SLOT_SIZE);
+		return retval;
+	}
+
 	public void copyFromFC(final SparseCompressedFileChannel2 source) throws Exception
 	{
 		lock.writeLock().lock();
@@ -268,15 +341,14 @@ public class SparseCompressedFileChannel2 extends FileChannel
 					// int mod = block & 31;
 					final FileChannel fc = theFC;
 
-					final ByteBuffer bb = allocateByteBuffer((int)SLOT_SIZE);
-					fc.read(bb, page * SLOT_SIZE);
+					final ByteBuffer bb = slots(page, 1);
 					// bb.position(bb.array().length - (int)SLOT_SIZE);
 					// int size = bb.getInt();
 
 					// byte[] target = new byte[128 * 1024];
 					try
 					{
-						decomp.decompress(bb.array(), 0, arg0.array(), 0, Page.BLOCK_SIZE);
+						decompress(decomp, bb, 0, arg0);
 						deallocateByteBuffer(bb);
 					}
 					catch (final Exception e)
@@ -340,15 +412,14 @@ public class SparseCompressedFileChannel2 extends FileChannel
 					// int mod = block & 31;
 					final FileChannel fc = theFC;
 
-					final ByteBuffer bb = allocateByteBuffer((int)SLOT_SIZE);
-					fc.read(bb, page * SLOT_SIZE);
+					final ByteBuffer bb = slots(page, 1);
 					// bb.position(bb.array().length - (int)SLOT_SIZE);
 					// int size = bb.getInt();
 
 					// byte[] target = new byte[128 * 1024 * 3]; // 3 pages
 					try
 					{
-						decomp.decompress(bb.array(), 0, arg0.array(), 0, Page.BLOCK_SIZE);
+						decompress(decomp, bb, 0, arg0);
 						deallocateByteBuffer(bb);
 					}
 					catch (final Exception e)
@@ -416,13 +487,12 @@ public class SparseCompressedFileChannel2 extends FileChannel
 			final LZ4FastDecompressor decomp = factory.fastDecompressor();
 			final FileChannel fc = theFC;
 
-			final ByteBuffer bb = allocateByteBuffer((int)SLOT_SIZE * num);
-			fc.read(bb, page * SLOT_SIZE);
+			final ByteBuffer bb = slots(page, num);
 
 			i = 0;
 			while (i < num)
 			{
-				decomp.decompress(bb.array(), i * (int)SLOT_SIZE, bbs[i].array(), 0, Page.BLOCK_SIZE);
+				decompress(decomp, bb, i * (int)SLOT_SIZE, bbs[i]);
 				i++;
 			}
 			deallocateByteBuffer(bb);
@@ -448,6 +518,74 @@ public class SparseCompressedFileChannel2 extends FileChannel
 		return bbs[0].capacity();
 	}
 
+	/**
+	 * The I/O half of read(bbs, offset), reads the compressed slots of num
+	 * pages for decompress() so the caller can decompress on another thread.
+	 * Returns null for a mapped file, which has no read call to split off,
+	 * read() does all of it then.
+	 */
+	public ByteBuffer readCompressed(final long offset, final int num) throws IOException
+	{
+		if (mmap)
+		{
+			return null;
+		}
+
+		Exception ex = null;
+		ByteBuffer retval = null;
+		final int page = (int)(offset / Page.BLOCK_SIZE);
+		lock.readLock().lock();
+		int i = 0;
+		while (i < num)
+		{
+			while (writeLocks.putIfAbsent(page + i, page + i) != null)
+			{
+				LockSupport.parkNanos(500);
+			}
+
+			i++;
+		}
+
+		try
+		{
+			retval = allocateByteBuffer((int)SLOT_SIZE * num);
+			theFC.read(retval, page * SLOT_SIZE);
+		}
+		catch (final Exception e)
+		{
+			ex = e;
+		}
+
+		i = 0;
+		while (i < num)
+		{
+			writeLocks.remove(page + i);
+			i++;
+		}
+		lock.readLock().unlock();
+
+		if (ex != null)
+		{
+			throw new IOException(ex);
+		}
+
+		return retval;
+	}
+
+	/** The CPU half, decompresses slots from readCompressed() into bbs */
+	public void decompress(final ByteBuffer slots, final ByteBuffer[] bbs)
+	{
+		final LZ4FastDecompressor decomp = factory.fastDecompressor();
+		int i = 0;
+		while (i < bbs.length)
+		{
+			decompress(decomp, slots, i * (int)SLOT_SIZE, bbs[i]);
+			i++;
+		}
+
+		deallocateByteBuffer(slots);
+	}
+
 	public int read3(final ByteBuffer bb, final ByteBuffer bb2, final ByteBuffer bb3, final long arg1) throws IOException
 	{
 		read(bb, arg1);
@@ -493,6 +631,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 		{
 			pos = arg0;
 			final int desiredPages = (int)(arg0 / Page.BLOCK_SIZE);
+			maps.clear();
 			theFC.truncate(desiredPages * SLOT_SIZE);
 			length = desiredPages;
 		}
@@ -567,7 +706,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 				// write it
 				// fc.truncate(0);
 				// int oldSize = (int)fc.size();
-				final byte[] data = comp.compress(arg0.array());
+				final byte[] data = compress(comp, arg0);
 
 				final ByteBuffer bb = ByteBuffer.wrap(data);
 				final FileChannel fc = theFC;
@@ -598,7 +737,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 				// need to write to new block
 				{
 					final LZ4Compressor comp = factory.fastCompressor();
-					final byte[] data = comp.compress(arg0.array());
+					final byte[] data = compress(comp, arg0);
 
 					final ByteBuffer bb = ByteBuffer.wrap(data);
 					final FileChannel fc = theFC;
@@ -652,7 +791,9 @@ public class SparseCompressedFileChannel2 extends FileChannel
 			ByteBuffer bb;
 			while (i < pages)
 			{
-				System.arraycopy(input.array(), i * Page.BLOCK_SIZE, data, 0, Page.BLOCK_SIZE);
+				final ByteBuffer dup = input.duplicate();
+				dup.position(i * Page.BLOCK_SIZE);
+				dup.get(data);
 				bb = ByteBuffer.wrap(data);
 				write(bb, offset + i * Page.BLOCK_SIZE);
 				i++;
@@ -670,6 +811,7 @@ public class SparseCompressedFileChannel2 extends FileChannel
 	@Override
 	protected void implCloseChannel() throws IOException
 	{
+		maps.clear();
 		theFC.force(false);
 		theFC.close();
 		theFC = null;
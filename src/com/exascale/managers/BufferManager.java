@@ -224,6 +224,25 @@ public class BufferManager extends HRDBMSThread
 		managers[hash].pinSync(b, tx, schema, schemaMap, fetchPos);
 	}
 
+	/**
+	 * The most pages a scan of fn should have read ahead, its share of half
+	 * the frames of the SubBufferManager that caches fn
+	 */
+	public static int readAheadLimit(final String fn)
+	{
+		final int hash = (fn.hashCode() & 0x7FFFFFFF) % mLength;
+		int scans = 0;
+		for (final String file : threadFiles.values())
+		{
+			if ((file.hashCode() & 0x7FFFFFFF) % mLength == hash)
+			{
+				scans++;
+			}
+		}
+
+		return managers[hash].bp.length / 2 / Math.max(scans, 1);
+	}
+
 	public static void registerInterest(final TableScanOperator.ReaderThread op, final String fn, final int low, final int high)
 	{
 		final Range range = new Range(low, high);
@@ -0,0 +1,71 @@
+package com.exascale.managers;
+
+import java.util.ArrayList;
+import com.exascale.filesystem.Block;
+import com.exascale.filesystem.Page;
+
+/** Takes the next replaceable frame after the last one taken */
+final class ClockPolicy implements ReplacementPolicy
+{
+	private int clock;
+
+	public ClockPolicy(final int frames)
+	{
+		clock = frames / 2;
+	}
+
+	@Override
+	public void hit(final int frame)
+	{
+	}
+
+	@Override
+	public void placed(final int frame, final Block b)
+	{
+	}
+
+	@Override
+	public void resize(final int frames)
+	{
+	}
+
+	@Override
+	public int victim(final Page[] bp, final ArrayList<Integer> taken)
+	{
+		int retval = sweep(bp, taken, true);
+		if (retval == -1)
+		{
+			retval = sweep(bp, taken, false);
+		}
+
+		return retval;
+	}
+
+	private int sweep(final Page[] bp, final ArrayList<Integer> taken, final boolean skipInterest)
+	{
+		if (clock >= bp.length)
+		{
+			clock = 0;
+		}
+
+		final int initialClock = clock;
+		boolean start = true;
+		while (start || clock != initialClock)
+		{
+			start = false;
+			final int index = clock;
+			clock++;
+			if (clock == bp.length)
+			{
+				clock = 0;
+			}
+
+			if (SubBufferManager.replaceable(bp[index], skipInterest) && (taken == null || !taken.contains(index)))
+			{
+				return index;
+			}
+		}
+
+		return -1;
+	}
+}
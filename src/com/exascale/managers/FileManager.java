@@ -296,7 +296,7 @@ public class FileManager
 		// + b.fileName() + " which doesn't exist");
 		// }
 		final ReadThread retval = new ReadThread(p, b, bb);
-		retval.start();
+		IOScheduler.submit(retval, true);
 		return retval;
 	}
 
@@ -309,7 +309,7 @@ public class FileManager
 		// + b.fileName() + " which doesn't exist");
 		// }
 		final ReadThread retval = new ReadThread(p, b, bb, cols, layoutSize);
-		retval.start();
+		IOScheduler.submit(retval, true);
 		return retval;
 	}
 
@@ -324,7 +324,7 @@ public class FileManager
 		final ReadThread retval = new ReadThread(p, b, bb, cols, layoutSize);
 		retval.setRank(rank);
 		retval.setRankSize(rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 		return retval;
 	}
 
@@ -350,14 +350,14 @@ public class FileManager
 		final ReadThread retval = new ReadThread(p, b, bb);
 		retval.setRank(rank);
 		retval.setRankSize(rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 		return retval;
 	}
 
 	public static void read(final Page p, final Block b, final ByteBuffer bb, final Schema schema, final ConcurrentHashMap<Integer, Schema> schemaMap, final Transaction tx, final ArrayList<Integer> fetchPos) throws Exception
 	{
 		final ReadThread retval = new ReadThread(p, b, bb, schema, schemaMap, tx, fetchPos);
-		retval.start();
+		IOScheduler.submit(retval, true);
 	}
 
 	public static void read(final Page p, final Block b, final ByteBuffer bb, final Schema schema, final ConcurrentHashMap<Integer, Schema> schemaMap, final Transaction tx, final ArrayList<Integer> fetchPos, final int rank, final int rankSize) throws Exception
@@ -365,7 +365,7 @@ public class FileManager
 		final ReadThread retval = new ReadThread(p, b, bb, schema, schemaMap, tx, fetchPos);
 		retval.setRank(rankSize);
 		retval.setRankSize(rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 	}
 
 	public static ReadThread read(final Page p, final int num, final ArrayList<Integer> indexes, final Page[] bp, final int rank, final int rankSize) throws Exception
@@ -377,7 +377,7 @@ public class FileManager
 		// + b.fileName() + " which doesn't exist");
 		// }
 		final ReadThread retval = new ReadThread(p, num, indexes, bp, rank, rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 		return retval;
 	}
 
@@ -390,7 +390,7 @@ public class FileManager
 		// + b.fileName() + " which doesn't exist");
 		// }
 		final Read3Thread retval = new Read3Thread(p, p2, p3, b, bb, bb2, bb3);
-		retval.start();
+		IOScheduler.submit(retval, true);
 		return retval;
 	}
 
@@ -403,7 +403,7 @@ public class FileManager
 		// + b.fileName() + " which doesn't exist");
 		// }
 		final Read3Thread retval = new Read3Thread(p, p2, p3, b, bb, bb2, bb3, cols, layoutSize);
-		retval.start();
+		IOScheduler.submit(retval, true);
 		return retval;
 	}
 
@@ -418,14 +418,14 @@ public class FileManager
 		final Read3Thread retval = new Read3Thread(p, p2, p3, b, bb, bb2, bb3);
 		retval.setRank(rank);
 		retval.setRankSize(rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 		return retval;
 	}
 
 	public static void read3(final Page p, final Page p2, final Page p3, final Block b, final ByteBuffer bb, final ByteBuffer bb2, final ByteBuffer bb3, final Schema schema1, final Schema schema2, final Schema schema3, final ConcurrentHashMap<Integer, Schema> schemaMap, final Transaction tx, final ArrayList<Integer> fetchPos) throws Exception
 	{
 		final Read3Thread retval = new Read3Thread(p, p2, p3, b, bb, bb2, bb3, schema1, schema2, schema3, schemaMap, tx, fetchPos);
-		retval.start();
+		IOScheduler.submit(retval, true);
 	}
 
 	public static void read3(final Page p, final Page p2, final Page p3, final Block b, final ByteBuffer bb, final ByteBuffer bb2, final ByteBuffer bb3, final Schema schema1, final Schema schema2, final Schema schema3, final ConcurrentHashMap<Integer, Schema> schemaMap, final Transaction tx, final ArrayList<Integer> fetchPos, final int rank, final int rankSize) throws Exception
@@ -433,7 +433,7 @@ public class FileManager
 		final Read3Thread retval = new Read3Thread(p, p2, p3, b, bb, bb2, bb3, schema1, schema2, schema3, schemaMap, tx, fetchPos);
 		retval.setRank(rank);
 		retval.setRankSize(rankSize);
-		retval.start();
+		IOScheduler.submit(retval, false);
 	}
 
 	public static ReadThread readSync(final Page p, final Block b, final ByteBuffer bb) throws Exception
@@ -453,6 +453,7 @@ public class FileManager
 	{
 		final ReadThread retval = new ReadThread(p, b, bb, schema, schemaMap, tx, fetchPos);
 		retval.run();
+		retval.parse();
 	}
 
 	public static void redoExtend(final Block bl) throws Exception
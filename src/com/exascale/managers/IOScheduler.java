@@ -0,0 +1,560 @@
+package com.exascale.managers;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import com.exascale.filesystem.Page;
+import com.exascale.filesystem.SparseCompressedFileChannel2;
+import com.exascale.threads.ThreadPoolThread;
+
+/**
+ * Runs the buffer pool's page reads. Each device that holds a data directory
+ * gets a queue and io_threads_per_device threads, instead of every read
+ * getting a pool thread of its own. A thread takes demand reads before
+ * prefetches, but lets a prefetch through after DEMAND_BURST demand reads in
+ * a row. Before it reads, it merges in every queued read of the adjacent
+ * blocks of the same file, up to io_max_coalesce blocks, so concurrent scans
+ * on one disk read long runs instead of interleaving single pages. The device
+ * threads only read the compressed blocks, decompressing them and everything
+ * after that runs on pool threads, so decompression isn't limited to a few
+ * threads per device. Prefetches wait, for up to MAX_WAIT ms, while io_queue_size reads are
+ * queued for the device.
+ */
+public final class IOScheduler
+{
+	private static final int THREADS = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("io_threads_per_device"));
+	private static final int QUEUE_SIZE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("io_queue_size"));
+	private static final int MAX_COALESCE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("io_max_coalesce"));
+	private static final int DEMAND_BURST = 8;
+	// ms a prefetch waits for room in the queue
+	private static final long MAX_WAIT = 100;
+	// data directory to its device
+	private static final ConcurrentHashMap<String, Device> dirs = new ConcurrentHashMap<String, Device>();
+	// device name to its queues
+	private static final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<String, Device>();
+
+	/**
+	 * Queues the read. demand is false for prefetches, which nothing waits
+	 * on yet.
+	 */
+	public static void submit(final Request r, final boolean demand)
+	{
+		final Entry entry = new Entry(r, demand);
+		r.setFuture(entry.done);
+		device(r.file()).put(entry);
+	}
+
+	/**
+	 * Moving average of how long the device that holds the file takes to
+	 * serve a block, -1 if it hasn't served any yet
+	 */
+	public static double nanosPerBlock(final String file)
+	{
+		return device(file).nanosPerBlock;
+	}
+
+	/**
+	 * Completes a read, after its parse() if it has one. A pool thread does
+	 * that itself, a device thread hands it to a ParseThread.
+	 */
+	private static void done(final Entry e, final boolean onPool)
+	{
+		if (!e.r.parses())
+		{
+			e.done.complete(null);
+		}
+		else if (onPool)
+		{
+			parse(e);
+		}
+		else
+		{
+			new ParseThread(e).start();
+		}
+	}
+
+	private static void finishRead(final Entry e, final boolean onPool)
+	{
+		try
+		{
+			e.r.finish();
+		}
+		catch (final Throwable t)
+		{
+			HRDBMSWorker.logger.warn("Error finishing a read", t);
+		}
+
+		done(e, onPool);
+	}
+
+	private static void parse(final Entry e)
+	{
+		try
+		{
+			e.r.parse();
+		}
+		catch (final Throwable t)
+		{
+			HRDBMSWorker.logger.warn("Error parsing a read", t);
+		}
+
+		e.done.complete(null);
+	}
+
+	private static void runRead(final Entry e, final boolean onPool)
+	{
+		try
+		{
+			e.r.run();
+		}
+		catch (final Throwable t)
+		{
+			HRDBMSWorker.logger.warn("Error running a read", t);
+		}
+
+		done(e, onPool);
+	}
+
+	private static Device device(final String file)
+	{
+		String dir = "";
+		final File[] all = FileManager.getDirs();
+		if (all != null)
+		{
+			for (final File d : all)
+			{
+				final String path = d.getPath();
+				if (file.startsWith(path) && path.length() > dir.length())
+				{
+					dir = path;
+				}
+			}
+		}
+
+		Device retval = dirs.get(dir);
+		if (retval != null)
+		{
+			return retval;
+		}
+
+		String name = dir;
+		try
+		{
+			name = Files.getFileStore(new File(dir.length() == 0 ? "." : dir).toPath()).name();
+		}
+		catch (final Exception e)
+		{
+		}
+
+		synchronized (devices)
+		{
+			retval = devices.get(name);
+			if (retval == null)
+			{
+				retval = new Device(name, QUEUE_SIZE, MAX_COALESCE);
+				retval.start();
+				devices.put(name, retval);
+			}
+		}
+
+		dirs.put(dir, retval);
+		return retval;
+	}
+
+	/** A read of consecutive blocks of one file */
+	public interface Request extends Runnable
+	{
+		/**
+		 * The buffers the blocks are read into, in block order, or null if the
+		 * read can't be merged with others
+		 */
+		ByteBuffer[] buffers();
+
+		/** The file the blocks are in */
+		String file();
+
+		/**
+		 * Called instead of run() once a merged read filled the buffers,
+		 * does whatever run() does after reading
+		 */
+		void finish();
+
+		/** The first block */
+		int first();
+
+		/**
+		 * Works through the pages once they are ready. This can wait on row
+		 * locks, so it runs on a thread of its own instead of one of the
+		 * device's, and the read isn't done until it returns. Only called if
+		 * parses() is true.
+		 */
+		void parse();
+
+		boolean parses();
+
+		void setFuture(Future forJoin);
+	}
+
+	/** The queues of a device, package private for IOSchedulerTest */
+	static final class Device
+	{
+		private final String name;
+		private final int queueSize;
+		private final int maxCoalesce;
+		private final ArrayDeque<Entry> demand = new ArrayDeque<Entry>();
+		private final ArrayDeque<Entry> prefetch = new ArrayDeque<Entry>();
+		private int demandRun = 0;
+		// moving average of the time it takes to serve a block, -1 until measured
+		private volatile double nanosPerBlock = -1;
+
+		Device(final String name, final int queueSize, final int maxCoalesce)
+		{
+			this.name = name;
+			this.queueSize = queueSize;
+			this.maxCoalesce = maxCoalesce;
+		}
+
+		private void start()
+		{
+			int i = 0;
+			while (i < THREADS)
+			{
+				new Worker(this).start();
+				i++;
+			}
+
+			HRDBMSWorker.logger.debug("Started " + THREADS + " I/O threads for device " + name);
+		}
+
+		/** Takes the next read plus every queued read it can be merged with */
+		synchronized ArrayList<Entry> next() throws InterruptedException
+		{
+			while (demand.isEmpty() && prefetch.isEmpty())
+			{
+				wait();
+			}
+
+			final boolean takeDemand = !demand.isEmpty() && (prefetch.isEmpty() || demandRun < DEMAND_BURST);
+			demandRun = takeDemand ? demandRun + 1 : 0;
+			final Entry head = takeDemand ? demand.poll() : prefetch.poll();
+			final ArrayList<Entry> retval = new ArrayList<Entry>();
+			retval.add(head);
+			notifyAll();
+			if (head.buffers == null)
+			{
+				return retval;
+			}
+
+			int first = head.r.first();
+			int end = first + head.buffers.length;
+			boolean found = true;
+			while (found && end - first < maxCoalesce)
+			{
+				found = false;
+				final Iterator<Entry> it = new Chain(demand, prefetch);
+				while (it.hasNext())
+				{
+					final Entry e = it.next();
+					if (e.buffers == null || !e.r.file().equals(head.r.file()) || end - first + e.buffers.length > maxCoalesce)
+					{
+						continue;
+					}
+
+					if (e.r.first() == end)
+					{
+						retval.add(e);
+						end += e.buffers.length;
+					}
+					else if (e.r.first() + e.buffers.length == first)
+					{
+						retval.add(0, e);
+						first = e.r.first();
+					}
+					else
+					{
+						continue;
+					}
+
+					it.remove();
+					found = true;
+				}
+			}
+
+			return retval;
+		}
+
+		private void served(final int blocks, final long nanos)
+		{
+			final double sample = nanos * 1.0 / blocks;
+			nanosPerBlock = nanosPerBlock < 0 ? sample : 0.1 * sample + 0.9 * nanosPerBlock;
+		}
+
+		synchronized void put(final Entry entry)
+		{
+			if (entry.demand)
+			{
+				demand.add(entry);
+			}
+			else
+			{
+				// the caller can hold buffer pool locks, so it doesn't wait for good
+				final long deadline = System.currentTimeMillis() + MAX_WAIT;
+				long left = MAX_WAIT;
+				while (demand.size() + prefetch.size() >= queueSize && left > 0)
+				{
+					try
+					{
+						wait(left);
+					}
+					catch (final InterruptedException e)
+					{
+					}
+
+					left = deadline - System.currentTimeMillis();
+				}
+
+				prefetch.add(entry);
+			}
+
+			notifyAll();
+		}
+	}
+
+	/** Iterates over two queues, one after the other */
+	private static final class Chain implements Iterator<Entry>
+	{
+		private final Iterator<Entry> first;
+		private final Iterator<Entry> second;
+		private Iterator<Entry> current;
+
+		private Chain(final ArrayDeque<Entry> first, final ArrayDeque<Entry> second)
+		{
+			this.first = first.iterator();
+			this.second = second.iterator();
+			current = this.first;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (current == first && !first.hasNext())
+			{
+				current = second;
+			}
+
+			return current.hasNext();
+		}
+
+		@Override
+		public Entry next()
+		{
+			hasNext();
+			return current.next();
+		}
+
+		@Override
+		public void remove()
+		{
+			current.remove();
+		}
+	}
+
+	static final class Entry
+	{
+		private final Request r;
+		private final boolean demand;
+		private final ByteBuffer[] buffers;
+		private final CompletableFuture<Object> done = new CompletableFuture<Object>();
+
+		Entry(final Request r, final boolean demand)
+		{
+			this.r = r;
+			this.demand = demand;
+			buffers = r.buffers();
+		}
+	}
+
+	/**
+	 * Decompresses the blocks a device thread read for the entries and
+	 * finishes them, or runs a read that can't be split as a whole
+	 */
+	private static final class CPUThread extends ThreadPoolThread
+	{
+		private final ArrayList<Entry> entries;
+		private final SparseCompressedFileChannel2 fc;
+		private final ByteBuffer[] bbs;
+		private final long offset;
+		private final ByteBuffer slots;
+
+		private CPUThread(final ArrayList<Entry> entries, final SparseCompressedFileChannel2 fc, final ByteBuffer[] bbs, final long offset, final ByteBuffer slots)
+		{
+			this.entries = entries;
+			this.fc = fc;
+			this.bbs = bbs;
+			this.offset = offset;
+			this.slots = slots;
+		}
+
+		@Override
+		public void run()
+		{
+			if (fc == null)
+			{
+				for (final Entry e : entries)
+				{
+					runRead(e, true);
+				}
+
+				return;
+			}
+
+			boolean ok = true;
+			try
+			{
+				if (slots == null)
+				{
+					fc.read(bbs, offset);
+				}
+				else
+				{
+					fc.decompress(slots, bbs);
+				}
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("Decompressing a read of " + bbs.length + " blocks failed, reading them one by one", e);
+				ok = false;
+			}
+
+			for (final Entry e : entries)
+			{
+				if (ok)
+				{
+					finishRead(e, true);
+				}
+				else
+				{
+					runRead(e, true);
+				}
+			}
+		}
+	}
+
+	/** Runs a read's parse() and then completes it */
+	private static final class ParseThread extends ThreadPoolThread
+	{
+		private final Entry entry;
+
+		private ParseThread(final Entry entry)
+		{
+			this.entry = entry;
+		}
+
+		@Override
+		public void run()
+		{
+			parse(entry);
+		}
+	}
+
+	private static final class Worker extends ThreadPoolThread
+	{
+		private final Device device;
+
+		private Worker(final Device device)
+		{
+			this.device = device;
+		}
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				ArrayList<Entry> entries;
+				try
+				{
+					entries = device.next();
+				}
+				catch (final InterruptedException e)
+				{
+					continue;
+				}
+
+				final long start = System.nanoTime();
+				int blocks = 0;
+				for (final Entry e : entries)
+				{
+					blocks += e.buffers == null ? 1 : e.buffers.length;
+				}
+
+				if (entries.get(0).buffers == null)
+				{
+					// can't be split into I/O and decompression, so it runs
+					// on a pool thread of its own as before
+					new CPUThread(entries, null, null, 0, null).start();
+				}
+				else if (!read(entries))
+				{
+					for (final Entry e : entries)
+					{
+						runRead(e, false);
+					}
+				}
+
+				device.served(blocks, System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Reads the compressed blocks of all the entries and leaves the
+		 * decompression to a pool thread, so the device's few threads only
+		 * wait on the disk. Returns false if they have to be read one by one.
+		 */
+		private boolean read(final ArrayList<Entry> entries)
+		{
+			int count = 0;
+			for (final Entry e : entries)
+			{
+				count += e.buffers.length;
+			}
+
+			final ByteBuffer[] bbs = new ByteBuffer[count];
+			int i = 0;
+			for (final Entry e : entries)
+			{
+				for (final ByteBuffer bb : e.buffers)
+				{
+					bb.clear();
+					bbs[i++] = bb;
+				}
+			}
+
+			try
+			{
+				final FileChannel fc = FileManager.getFile(entries.get(0).r.file());
+				if (!(fc instanceof SparseCompressedFileChannel2))
+				{
+					return false;
+				}
+
+				final long offset = ((long)entries.get(0).r.first()) * Page.BLOCK_SIZE;
+				final ByteBuffer slots = ((SparseCompressedFileChannel2)fc).readCompressed(offset, count);
+				new CPUThread(entries, (SparseCompressedFileChannel2)fc, bbs, offset, slots).start();
+				return true;
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("A read of " + count + " blocks on " + device.name + " failed, reading them one by one", e);
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.exascale.managers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+
+/**
+ * Checks how a device queue of the IOScheduler picks and merges reads:
+ * demand reads go before prefetches but let one through after a burst,
+ * queued reads of the adjacent blocks of the same file are merged on both
+ * sides up to the coalesce limit, and reads that can't be merged are served
+ * alone. No device threads are started, next() is called directly.
+ */
+public class IOSchedulerTest
+{
+	private static final int MAX_COALESCE = 8;
+
+	public static void main(final String[] args) throws Exception
+	{
+		IOScheduler.Device device = new IOScheduler.Device("test", 64, MAX_COALESCE);
+		final IOScheduler.Entry a10 = put(device, "a", 10, 1, true);
+		final IOScheduler.Entry a11 = put(device, "a", 11, 2, true);
+		final IOScheduler.Entry a8 = put(device, "a", 8, 2, true);
+		final IOScheduler.Entry a20 = put(device, "a", 20, 1, true);
+		final IOScheduler.Entry b13 = put(device, "b", 13, 1, true);
+		final IOScheduler.Entry a13 = put(device, "a", 13, 1, false);
+		// merged on both sides, a prefetch included, in block order
+		check(device.next(), a8, a10, a11, a13);
+		check(device.next(), a20);
+		check(device.next(), b13);
+
+		// up to MAX_COALESCE blocks
+		device = new IOScheduler.Device("test", 64, MAX_COALESCE);
+		final IOScheduler.Entry c0 = put(device, "c", 0, 3, true);
+		final IOScheduler.Entry c3 = put(device, "c", 3, 3, true);
+		final IOScheduler.Entry c6 = put(device, "c", 6, 3, true);
+		final IOScheduler.Entry c9 = put(device, "c", 9, 1, true);
+		check(device.next(), c0, c3);
+		check(device.next(), c6, c9);
+
+		// a read without buffers isn't merged with anything
+		device = new IOScheduler.Device("test", 64, MAX_COALESCE);
+		final IOScheduler.Entry whole = put(device, "d", 5, 0, true);
+		final IOScheduler.Entry d6 = put(device, "d", 6, 1, true);
+		final IOScheduler.Entry d4 = put(device, "d", 4, 1, true);
+		check(device.next(), whole);
+		check(device.next(), d6);
+		check(device.next(), d4);
+
+		// a prefetch gets through after 8 demand reads in a row
+		device = new IOScheduler.Device("test", 64, MAX_COALESCE);
+		final IOScheduler.Entry prefetch = put(device, "e", 0, 1, false);
+		final IOScheduler.Entry[] demands = new IOScheduler.Entry[10];
+		int i = 0;
+		while (i < demands.length)
+		{
+			demands[i] = put(device, "f" + i, 0, 1, true);
+			i++;
+		}
+
+		i = 0;
+		while (i < 8)
+		{
+			check(device.next(), demands[i]);
+			i++;
+		}
+
+		check(device.next(), prefetch);
+		check(device.next(), demands[8]);
+		check(device.next(), demands[9]);
+		System.out.println("IOSchedulerTest passed");
+	}
+
+	private static void check(final ArrayList<IOScheduler.Entry> actual, final IOScheduler.Entry... expected) throws Exception
+	{
+		if (!actual.equals(Arrays.asList(expected)))
+		{
+			throw new Exception("IOSchedulerTest failed: got " + actual + " expected " + Arrays.asList(expected));
+		}
+	}
+
+	/** Queues a read of blocks blocks from first on, 0 blocks means a read without buffers */
+	private static IOScheduler.Entry put(final IOScheduler.Device device, final String file, final int first, final int blocks, final boolean demand)
+	{
+		final IOScheduler.Entry retval = new IOScheduler.Entry(new TestRequest(file, first, blocks), demand);
+		device.put(retval);
+		return retval;
+	}
+
+	private static final class TestRequest implements IOScheduler.Request
+	{
+		private final String file;
+		private final int first;
+		private final ByteBuffer[] buffers;
+
+		private TestRequest(final String file, final int first, final int blocks)
+		{
+			this.file = file;
+			this.first = first;
+			buffers = blocks == 0 ? null : new ByteBuffer[blocks];
+		}
+
+		@Override
+		public ByteBuffer[] buffers()
+		{
+			return buffers;
+		}
+
+		@Override
+		public String file()
+		{
+			return file;
+		}
+
+		@Override
+		public void finish()
+		{
+		}
+
+		@Override
+		public int first()
+		{
+			return first;
+		}
+
+		@Override
+		public void parse()
+		{
+		}
+
+		@Override
+		public boolean parses()
+		{
+			return false;
+		}
+
+		@Override
+		public void run()
+		{
+		}
+
+		@Override
+		public void setFuture(final Future forJoin)
+		{
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package com.exascale.managers;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.exascale.misc.ConnectionPool;
+import com.exascale.optimizer.MetaData;
+import com.exascale.threads.ThreadPoolThread;
+
+/**
+ * Measures the links from this node to its neighbors in the routing overlay.
+ * A probe thread times a TEST command to every neighbor every
+ * link_probe_interval ms, and RoutingOperator wraps its sockets with timed()
+ * so the time spent writing to each next hop is measured where the bytes
+ * reach the socket, under the compression and buffering. That time grows
+ * when the link or the node behind it is congested. Both are kept as moving
+ * averages.
+ *
+ * RoutingOperator asks pick() for the next hop of every row. Among the
+ * primary hop and the alternate middlemen, it takes the one that would have
+ * spent the least time on the bytes sent through it so far, plus the round
+ * trip time, and it avoids links whose last probe failed.
+ */
+public final class LinkMonitor
+{
+	private static final long INTERVAL = Long.parseLong(HRDBMSWorker.getHParms().getProperty("link_probe_interval"));
+	// weight of a new sample in the moving averages
+	private static final double ALPHA = 0.2;
+	// writes are averaged over at least this many bytes
+	private static final long WINDOW = 1024 * 1024;
+	// the matrix is logged every this many probe rounds
+	private static final int REPORT_EVERY = 60;
+	private static final ConcurrentHashMap<Integer, Link> links = new ConcurrentHashMap<Integer, Link>();
+	// stand ins for links that aren't measured yet, refreshed by the probe
+	// thread so pick() doesn't walk all links per row
+	private static volatile double defaultNanos = 1;
+	private static volatile double defaultRtt = 0;
+
+	/** The measured links from this node, one line per neighbor */
+	public static String matrix()
+	{
+		final StringBuilder retval = new StringBuilder();
+		retval.append("Links from node ").append(MetaData.myNodeNum()).append(": to, rtt us, MB/s while writing, MB written, state\n");
+		for (final Map.Entry<Integer, Link> entry : new TreeMap<Integer, Link>(links).entrySet())
+		{
+			final Link link = entry.getValue();
+			retval.append(entry.getKey()).append(", ");
+			retval.append(link.rtt < 0 ? "-" : String.format("%.1f", link.rtt / 1000.0)).append(", ");
+			retval.append(link.nanosPerByte < 0 ? "-" : String.format("%.1f", 1000.0 / link.nanosPerByte / 1.048576)).append(", ");
+			retval.append(link.total.get() >> 20).append(", ");
+			retval.append(link.down ? "down" : "up").append("\n");
+		}
+
+		return retval.toString();
+	}
+
+	/**
+	 * Chooses the next hop for bytes among the primary hop and the
+	 * alternatives. usage holds the bytes the caller sent to each hop so far
+	 * and is updated for the choice.
+	 */
+	public static int pick(final int primary, final ArrayList<Integer> alternatives, final ConcurrentHashMap<Integer, AtomicLong> usage, final int bytes)
+	{
+		final double defaultNanos = LinkMonitor.defaultNanos;
+		final double defaultRtt = LinkMonitor.defaultRtt;
+		int retval = primary;
+		double best = cost(primary, usage, defaultNanos, defaultRtt);
+		for (final int alt : alternatives)
+		{
+			final double cost = cost(alt, usage, defaultNanos, defaultRtt);
+			if (cost < best)
+			{
+				best = cost;
+				retval = alt;
+			}
+		}
+
+		AtomicLong used = usage.get(retval);
+		if (used == null)
+		{
+			used = new AtomicLong(0);
+			final AtomicLong prev = usage.putIfAbsent(retval, used);
+			if (prev != null)
+			{
+				used = prev;
+			}
+		}
+
+		used.addAndGet(bytes);
+		return retval;
+	}
+
+	/** Wraps the socket stream to a next hop so its writes and flushes are timed */
+	public static OutputStream timed(final OutputStream out, final int to)
+	{
+		return new TimedOutputStream(out, link(to));
+	}
+
+	/** Starts the probe thread, on worker nodes only */
+	public static void start()
+	{
+		if (INTERVAL > 0 && HRDBMSWorker.type == HRDBMSWorker.TYPE_WORKER)
+		{
+			new ProbeThread().start();
+		}
+	}
+
+	/** Average over the measured links of nanos per byte or of the round trip time */
+	private static double average(final boolean nanosPerByte)
+	{
+		double sum = 0;
+		int count = 0;
+		for (final Link link : links.values())
+		{
+			final double val = nanosPerByte ? link.nanosPerByte : link.rtt;
+			if (val >= 0)
+			{
+				sum += val;
+				count++;
+			}
+		}
+
+		return count == 0 ? (nanosPerByte ? 1 : 0) : sum / count;
+	}
+
+	private static double cost(final int hop, final ConcurrentHashMap<Integer, AtomicLong> usage, final double defaultNanos, final double defaultRtt)
+	{
+		final Link link = links.get(hop);
+		if (link != null && link.down)
+		{
+			return Double.MAX_VALUE;
+		}
+
+		final AtomicLong used = usage.get(hop);
+		final double nanosPerByte = link == null || link.nanosPerByte < 0 ? defaultNanos : link.nanosPerByte;
+		final double rtt = link == null || link.rtt < 0 ? defaultRtt : link.rtt;
+		return (used == null ? 0 : used.get()) * nanosPerByte + rtt;
+	}
+
+	private static Link link(final int to)
+	{
+		Link link = links.get(to);
+		if (link == null)
+		{
+			link = new Link();
+			final Link prev = links.putIfAbsent(to, link);
+			if (prev != null)
+			{
+				link = prev;
+			}
+		}
+
+		return link;
+	}
+
+	/** Times a TEST command to the node over a pooled connection */
+	private static void probe(final int node)
+	{
+		final Link link = link(node);
+		final String host = MetaData.getHostNameForNode(node);
+		Socket sock = null;
+		try
+		{
+			final long start = System.nanoTime();
+			sock = ConnectionPool.get(host);
+			final OutputStream out = sock.getOutputStream();
+			final byte[] outMsg = "TEST            ".getBytes(StandardCharsets.UTF_8);
+			outMsg[8] = 0;
+			outMsg[9] = 0;
+			outMsg[10] = 0;
+			outMsg[11] = 0;
+			outMsg[12] = 0;
+			outMsg[13] = 0;
+			outMsg[14] = 0;
+			outMsg[15] = 0;
+			out.write(outMsg);
+			out.flush();
+			final InputStream in = sock.getInputStream();
+			final byte[] inMsg = new byte[2];
+			int count = 0;
+			while (count < 2)
+			{
+				final int temp = in.read(inMsg, count, 2 - count);
+				if (temp == -1)
+				{
+					throw new Exception("Early EOF probing node " + node);
+				}
+
+				count += temp;
+			}
+
+			link.probed(System.nanoTime() - start);
+			ConnectionPool.release(host, sock);
+		}
+		catch (final Exception e)
+		{
+			ConnectionPool.discard(sock);
+			if (!link.down)
+			{
+				HRDBMSWorker.logger.debug("Link to node " + node + " is down", e);
+			}
+
+			link.down = true;
+		}
+	}
+
+	private static final class Link
+	{
+		// moving averages, -1 until measured
+		private volatile double rtt = -1;
+		private volatile double nanosPerByte = -1;
+		private volatile boolean down = false;
+		private final AtomicLong total = new AtomicLong(0);
+		private long bytes = 0;
+		private long nanos = 0;
+
+		private synchronized void probed(final long nanos)
+		{
+			rtt = rtt < 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * rtt;
+			down = false;
+		}
+
+		private void sent(final long bytes, final long nanos)
+		{
+			total.addAndGet(bytes);
+			synchronized (this)
+			{
+				this.bytes += bytes;
+				this.nanos += nanos;
+				if (this.bytes < WINDOW)
+				{
+					return;
+				}
+
+				final double sample = this.nanos * 1.0 / this.bytes;
+				nanosPerByte = nanosPerByte < 0 ? sample : ALPHA * sample + (1 - ALPHA) * nanosPerByte;
+				this.bytes = 0;
+				this.nanos = 0;
+			}
+		}
+	}
+
+	private static final class TimedOutputStream extends FilterOutputStream
+	{
+		private final Link link;
+
+		private TimedOutputStream(final OutputStream out, final Link link)
+		{
+			super(out);
+			this.link = link;
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			final long start = System.nanoTime();
+			out.flush();
+			link.sent(0, System.nanoTime() - start);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException
+		{
+			final long start = System.nanoTime();
+			out.write(b, off, len);
+			link.sent(len, System.nanoTime() - start);
+		}
+
+		@Override
+		public void write(final int b) throws IOException
+		{
+			final long start = System.nanoTime();
+			out.write(b);
+			link.sent(1, System.nanoTime() - start);
+		}
+	}
+
+	private static final class ProbeThread extends ThreadPoolThread
+	{
+		@Override
+		public void run()
+		{
+			final int me = MetaData.myNodeNum();
+			int rounds = 0;
+			while (true)
+			{
+				try
+				{
+					Thread.sleep(INTERVAL);
+				}
+				catch (final InterruptedException e)
+				{
+				}
+
+				try
+				{
+					for (final int node : ResourceManager.getNetworkTargetsForNode(me))
+					{
+						if (node != me)
+						{
+							probe(node);
+						}
+					}
+
+					defaultNanos = average(true);
+					defaultRtt = average(false);
+					if (++rounds % REPORT_EVERY == 0)
+					{
+						HRDBMSWorker.logger.debug(matrix());
+					}
+				}
+				catch (final Exception e)
+				{
+					HRDBMSWorker.logger.debug("", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.exascale.managers;
+
+import java.util.ArrayList;
+import com.exascale.filesystem.Block;
+import com.exascale.filesystem.Page;
+
+/**
+ * Decides which page a SubBufferManager gives up when it needs a frame. The
+ * SubBufferManager calls it with its lock held, and frames are indexes into
+ * its pool. bp_replacement picks the implementation.
+ */
+interface ReplacementPolicy
+{
+	/** A pin found the page in the frame */
+	void hit(int frame);
+
+	/** The frame was just assigned to the block */
+	void placed(int frame, Block b);
+
+	/** The pool now has this many frames, frames past the end are gone */
+	void resize(int frames);
+
+	/**
+	 * A frame whose page can be replaced and that isn't in taken, or -1. Pages
+	 * in a registered range of interest are only taken when nothing else is
+	 * left.
+	 */
+	int victim(Page[] bp, ArrayList<Integer> taken);
+}
@@ -478,6 +478,7 @@ public final class ResourceManager extends HRDBMSThread
 		{
 			HRDBMSWorker.logger.debug("", e);
 		}
+		LinkMonitor.start();
 		// new GCThread().start();
 		if (DEADLOCK_DETECT)
 		{
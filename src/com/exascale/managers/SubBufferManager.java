@@ -10,6 +10,7 @@ import java.util.concurrent.locks.Lock;
 import com.exascale.exceptions.BufferPoolExhaustedException;
 import com.exascale.filesystem.Block;
 import com.exascale.filesystem.Page;
+import com.exascale.filesystem.PageArena;
 import com.exascale.misc.MultiHashMap;
 import com.exascale.misc.ScalableStampedReentrantRWLock;
 import com.exascale.tables.Schema;
@@ -26,7 +27,11 @@ public class SubBufferManager
 	private final HashMap<Block, Integer> pageLookup;
 	private final boolean log;
 	private final MultiHashMap<Long, Page> myBuffers;
-	private volatile int clock = 0;
+	private final ReplacementPolicy policy;
+	// the pool doesn't grow past this many frames, 0 if it has no limit
+	private final int maxFrames;
+	// the first frame added by the last expandBP()
+	private int firstNew;
 	private final ScalableStampedReentrantRWLock lock2 = new ScalableStampedReentrantRWLock();
 	public Lock lock;
 
@@ -38,7 +43,17 @@ public class SubBufferManager
 		numAvailable = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("bp_pages")) / BufferManager.mLength;
 		numNotTouched = numAvailable;
 		bp = new Page[numAvailable];
-		clock = numAvailable / 2;
+		final int maxPages = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("bp_max_pages"));
+		// 0 means bp_pages, and the pool can't be capped below where it starts
+		maxFrames = maxPages < 0 ? 0 : maxPages == 0 ? numAvailable : Math.max(maxPages / BufferManager.mLength, numAvailable);
+		if (HRDBMSWorker.getHParms().getProperty("bp_replacement").equals("clock"))
+		{
+			policy = new ClockPolicy(numAvailable);
+		}
+		else
+		{
+			policy = new TwoQueuePolicy(numAvailable);
+		}
 		int i = 0;
 		while (i < numAvailable)
 		{
@@ -120,6 +135,7 @@ public class SubBufferManager
 		while (i >= 0 && starting - toTrim > desired && !bp[i].isModified() && !bp[i].isPinned())
 		{
 			pageLookup.remove(bp[i].block());
+			PageArena.release(bp[i]);
 			toTrim++;
 			i--;
 		}
@@ -131,6 +147,7 @@ public class SubBufferManager
 			final Page[] bp2 = new Page[newLength];
 			System.arraycopy(bp, 0, bp2, 0, newLength);
 			bp = bp2;
+			policy.resize(bp.length);
 			HRDBMSWorker.logger.debug("Trimmed " + toTrim + " pages off of an SBP");
 		}
 
@@ -254,7 +271,7 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -352,7 +369,7 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -450,7 +467,7 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -548,7 +565,7 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -685,7 +702,7 @@ public class SubBufferManager
 								final Block nb = new Block(fn, page++);
 								// HRDBMSWorker.logger.debug(nb + " in slot " +
 								// indexes.get(i));
-								pageLookup.put(nb, indexes.get(i));
+								place(nb, indexes.get(i));
 								i++;
 							}
 
@@ -784,7 +801,7 @@ public class SubBufferManager
 								lock.unlock();
 								throw e;
 							}
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -882,7 +899,7 @@ public class SubBufferManager
 								lock.unlock();
 								throw e;
 							}
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -1037,9 +1054,9 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
-							pageLookup.put(b2, index2);
-							pageLookup.put(b3, index3);
+							place(b, index);
+							place(b2, index2);
+							place(b3, index3);
 							long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							lsn = LogManager.getLSN();
@@ -1186,9 +1203,9 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
-							pageLookup.put(b2, index2);
-							pageLookup.put(b3, index3);
+							place(b, index);
+							place(b2, index2);
+							place(b3, index3);
 							long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							lsn = LogManager.getLSN();
@@ -1335,9 +1352,9 @@ public class SubBufferManager
 								throw e;
 							}
 
-							pageLookup.put(b, index);
-							pageLookup.put(b2, index2);
-							pageLookup.put(b3, index3);
+							place(b, index);
+							place(b2, index2);
+							place(b3, index3);
 							long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							lsn = LogManager.getLSN();
@@ -1460,9 +1477,9 @@ public class SubBufferManager
 								lock.unlock();
 								throw e;
 							}
-							pageLookup.put(b, index);
-							pageLookup.put(b2, index2);
-							pageLookup.put(b3, index3);
+							place(b, index);
+							place(b2, index2);
+							place(b3, index3);
 							long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							lsn = LogManager.getLSN();
@@ -1585,9 +1602,9 @@ public class SubBufferManager
 								lock.unlock();
 								throw e;
 							}
-							pageLookup.put(b, index);
-							pageLookup.put(b2, index2);
-							pageLookup.put(b3, index3);
+							place(b, index);
+							place(b2, index2);
+							place(b3, index3);
 							long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							lsn = LogManager.getLSN();
@@ -1675,7 +1692,7 @@ public class SubBufferManager
 							throw e;
 						}
 
-						pageLookup.put(b, index);
+						place(b, index);
 						// HRDBMSWorker.logger.debug("Page lookup has " +
 						// pageLookup); //DEBUG
 						final long lsn = LogManager.getLSN();
@@ -1750,7 +1767,7 @@ public class SubBufferManager
 
 							bp[index].preAssignToBlock(b, log);
 							bp[index].pins.clear();
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -1850,7 +1867,7 @@ public class SubBufferManager
 
 							bp[index].preAssignToBlock(b, log);
 							bp[index].pins.clear();
-							pageLookup.put(b, index);
+							place(b, index);
 							final long lsn = LogManager.getLSN();
 							bp[index].pin(lsn, txnum);
 							myBuffers.multiPut(txnum, bp[index]);
@@ -1959,6 +1976,7 @@ public class SubBufferManager
 			while (i >= 0 && starting - toTrim > desired && !bp[i].isModified() && !bp[i].isPinned())
 			{
 				pageLookup.remove(bp[i].block());
+				PageArena.release(bp[i]);
 				toTrim++;
 				i--;
 			}
@@ -1970,6 +1988,7 @@ public class SubBufferManager
 				final Page[] bp2 = new Page[newLength];
 				System.arraycopy(bp, 0, bp2, 0, newLength);
 				bp = bp2;
+				policy.resize(bp.length);
 				// HRDBMSWorker.logger.debug("Trimmed " + toTrim + " pages off
 				// of an SBP");
 			}
@@ -2151,6 +2170,20 @@ public class SubBufferManager
 		p.buffer().put(data);
 	}
 
+	/**
+	 * Whether the page can be given up. Before recovery is done only empty
+	 * pages can.
+	 */
+	static boolean replaceable(final Page p, final boolean skipInterest)
+	{
+		if (p.isPinned() || (skipInterest && BufferManager.isInterest(p.block())))
+		{
+			return false;
+		}
+
+		return (XAManager.rP1 && XAManager.rP2) || p.block() == null;
+	}
+
 	private ReadThread bail(final Block b, final int num, final long txnum) throws Exception
 	{
 		int page = b.number();
@@ -2180,94 +2213,14 @@ public class SubBufferManager
 				return numAvailable - numNotTouched;
 			}
 
-			// String partial = newFN.substring(newFN.lastIndexOf('/') + 1);
-
-			// int checked = 0;
-			if (clock >= bp.length)
-			{
-				clock = 0;
-			}
-
-			final int initialClock = clock;
-			boolean start = true;
-
-			while (start || clock != initialClock)
-			{
-				start = false;
-				final Page p = bp[clock];
-				final int index = clock;
-				clock++;
-				if (clock == bp.length)
-				{
-					clock = 0;
-				}
-				if (!p.isPinned() && !BufferManager.isInterest(p.block()))
-				{
-					if ((!XAManager.rP1) || (!XAManager.rP2))
-					{
-						if (p.block() == null)
-						{
-							lock.unlock();
-							return index;
-						}
-					}
-					else
-					{
-						lock.unlock();
-						return index;
-					}
-				}
-			}
-
-			start = true;
-
-			while (start || clock != initialClock)
-			{
-				start = false;
-				final Page p = bp[clock];
-				final int index = clock;
-				clock++;
-				if (clock == bp.length)
-				{
-					clock = 0;
-				}
-				if (!p.isPinned())
-				{
-					if ((!XAManager.rP1) || (!XAManager.rP2))
-					{
-						if (p.block() == null)
-						{
-							lock.unlock();
-							return index;
-						}
-					}
-					else
-					{
-						lock.unlock();
-						return index;
-					}
-				}
-			}
-
-			// expand bufferpool
-			int newLength = (int)(bp.length * 1.1);
-			if (newLength == bp.length)
-			{
-				newLength = bp.length + 1;
-			}
-
-			final Page[] bp2 = new Page[newLength];
-			System.arraycopy(bp, 0, bp2, 0, bp.length);
-			int z = bp.length;
-			final int limit = bp2.length;
-			while (z < limit)
+			int index = policy.victim(bp, null);
+			if (index == -1 && expandBP(1))
 			{
-				bp2[z++] = new Page();
+				index = firstNew;
 			}
 
-			bp = bp2;
 			lock.unlock();
-			return chooseUnpinnedPage(newFN);
+			return index;
 		}
 		catch (final Exception e)
 		{
@@ -2277,14 +2230,14 @@ public class SubBufferManager
 		}
 	}
 
-	private ArrayList<Integer> chooseUnpinnedPages(final int num)
+	private ArrayList<Integer> chooseUnpinnedPages(final int num) throws BufferPoolExhaustedException
 	{
 		final ArrayList<Integer> retval = new ArrayList<Integer>(num);
 		lock.lock();
-		int i = 0;
-		outer: while (i < num)
+		try
 		{
-			try
+			int i = 0;
+			while (i < num)
 			{
 				if (numNotTouched - i > 0)
 				{
@@ -2293,176 +2246,67 @@ public class SubBufferManager
 					continue;
 				}
 
-				// String partial = newFN.substring(newFN.lastIndexOf('/') + 1);
-
-				// int checked = 0;
-				if (clock >= bp.length)
+				final int index = policy.victim(bp, retval);
+				if (index == -1)
 				{
-					clock = 0;
+					break;
 				}
 
-				final int initialClock = clock;
-				boolean start = true;
-				boolean attempt2 = false;
-
-				while (!attempt2 || clock != initialClock)
-				{
-					if (clock == initialClock && !start)
-					{
-						attempt2 = true;
-					}
-					start = false;
-					final Page p = bp[clock];
-					final int index = clock;
-					clock++;
-					if (clock == bp.length)
-					{
-						clock = 0;
-					}
-					if (!p.isPinned() && !retval.contains(index) && (attempt2 || (p.block() != null && !BufferManager.isInterest(p.block()))))
-					{
-						if ((!XAManager.rP1) || (!XAManager.rP2))
-						{
-							if (p.block() == null)
-							{
-								retval.add(index);
-								i++;
-								continue outer;
-							}
-						}
-						else
-						{
-							retval.add(index);
-							i++;
-							continue outer;
-						}
-					}
-				}
-
-				expandBP(i, num, retval);
-				lock.unlock();
-				return retval;
-			}
-			catch (final Throwable e)
-			{
-				lock.unlock();
-				throw e;
+				retval.add(index);
+				i++;
 			}
-		}
-
-		lock.unlock();
-		return retval;
-	}
 
-	private ArrayList<Integer> chooseUnpinnedPages(final String newFN)
-	{
-		final ArrayList<Integer> retval = new ArrayList<Integer>(3);
-		lock.lock();
-		int i = 0;
-		outer: while (i < 3)
-		{
-			try
+			if (i < num)
 			{
-				if (numNotTouched - i > 0)
-				{
-					retval.add(numAvailable - (numNotTouched - i));
-					i++;
-					continue;
-				}
-
-				// String partial = newFN.substring(newFN.lastIndexOf('/') + 1);
-
-				// int checked = 0;
-				if (clock >= bp.length)
-				{
-					clock = 0;
-				}
-
-				final int initialClock = clock;
-				boolean start = true;
-
-				while (start || clock != initialClock)
-				{
-					start = false;
-					final Page p = bp[clock];
-					final int index = clock;
-					clock++;
-					if (clock == bp.length)
-					{
-						clock = 0;
-					}
-					if (p.block() != null && !p.isPinned() && !BufferManager.isInterest(p.block()) && !retval.contains(index))
-					{
-						retval.add(index);
-						i++;
-						continue outer;
-					}
-				}
-
-				start = true;
-
-				while (start || clock != initialClock)
-				{
-					start = false;
-					final Page p = bp[clock];
-					final int index = clock;
-					clock++;
-					if (clock == bp.length)
-					{
-						clock = 0;
-					}
-					if (!p.isPinned() && !retval.contains(index))
-					{
-						retval.add(index);
-						i++;
-						continue outer;
-					}
-				}
-
-				// expand bufferpool
-				int newLength = (int)(bp.length * 1.1);
-				if (newLength < bp.length + 3)
+				if (!expandBP(num - i))
 				{
-					newLength = bp.length + 3;
+					HRDBMSWorker.logger.error("Buffer pool exhausted.");
+					throw new BufferPoolExhaustedException();
 				}
 
-				final Page[] bp2 = new Page[newLength];
-				System.arraycopy(bp, 0, bp2, 0, bp.length);
-				int z = bp.length;
-				final int limit = bp2.length;
-				while (z < limit)
-				{
-					bp2[z++] = new Page();
-				}
-
-				int j = bp.length;
-				while (i < 3)
+				int j = firstNew;
+				while (i < num)
 				{
 					retval.add(j++);
 					i++;
 				}
-
-				bp = bp2;
-			}
-			catch (final Exception e)
-			{
-				HRDBMSWorker.logger.debug("", e);
-				lock.unlock();
-				throw e;
 			}
+
+			lock.unlock();
+			return retval;
+		}
+		catch (final Throwable e)
+		{
+			lock.unlock();
+			throw e;
 		}
+	}
 
-		lock.unlock();
-		return retval;
+	private ArrayList<Integer> chooseUnpinnedPages(final String newFN) throws BufferPoolExhaustedException
+	{
+		return chooseUnpinnedPages(3);
 	}
 
-	private void expandBP(int i, final int num, final ArrayList<Integer> retval)
+	/**
+	 * Adds at least needed frames to the pool, as long as it stays within
+	 * bp_max_pages. firstNew is the first of them.
+	 */
+	private boolean expandBP(final int needed)
 	{
-		// expand bufferpool
 		int newLength = (int)(bp.length * 1.1);
-		if (newLength < bp.length + num)
+		if (newLength < bp.length + needed)
 		{
-			newLength = bp.length + num;
+			newLength = bp.length + needed;
+		}
+
+		if (maxFrames > 0 && newLength > maxFrames)
+		{
+			if (bp.length + needed > maxFrames)
+			{
+				return false;
+			}
+
+			newLength = maxFrames;
 		}
 
 		final Page[] bp2 = new Page[newLength];
@@ -2474,14 +2318,10 @@ public class SubBufferManager
 			bp2[z++] = new Page();
 		}
 
-		int j = bp.length;
-		while (i < num)
-		{
-			retval.add(j++);
-			i++;
-		}
-
+		firstNew = bp.length;
 		bp = bp2;
+		policy.resize(bp.length);
+		return true;
 	}
 
 	private int findExistingPage(final Block b)
@@ -2496,6 +2336,7 @@ public class SubBufferManager
 				return -1;
 			}
 
+			policy.hit(temp);
 			lock.unlock();
 			return temp.intValue();
 		}
@@ -2507,6 +2348,12 @@ public class SubBufferManager
 		}
 	}
 
+	private void place(final Block b, final int index)
+	{
+		pageLookup.put(b, index);
+		policy.placed(index, b);
+	}
+
 	private class ParseThread extends HRDBMSThread
 	{
 		private final Page p;
@@ -0,0 +1,216 @@
+package com.exascale.managers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.exascale.filesystem.Block;
+import com.exascale.filesystem.Page;
+
+/**
+ * 2Q replacement. A block read for the first time goes on the in queue, a
+ * FIFO that gets a quarter of the frames, and further pins while it is there
+ * don't count. When it is replaced its block is remembered on the out list
+ * for a while, and only a block that is read again while it is on the out
+ * list goes on the main queue, which is kept in LRU order. A table scan reads
+ * each page once, so its pages cycle through the in queue and can't push the
+ * index and catalog pages that point lookups keep coming back to off the main
+ * queue.
+ */
+final class TwoQueuePolicy implements ReplacementPolicy
+{
+	private static final byte NONE = 0;
+	private static final byte IN = 1;
+	private static final byte MAIN = 2;
+	private int frames;
+	private Block[] blocks;
+	private byte[] queue;
+	private int[] prev;
+	private int[] next;
+	// oldest first
+	private final int[] heads = new int[] { -1, -1, -1 };
+	private final int[] tails = new int[] { -1, -1, -1 };
+	private final int[] sizes = new int[3];
+	private final LinkedHashMap<Block, Boolean> out;
+
+	public TwoQueuePolicy(final int frames)
+	{
+		blocks = new Block[frames];
+		queue = new byte[frames];
+		prev = new int[frames];
+		next = new int[frames];
+		this.frames = frames;
+		out = new LinkedHashMap<Block, Boolean>()
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Block, Boolean> eldest)
+			{
+				return size() > TwoQueuePolicy.this.frames / 2;
+			}
+		};
+	}
+
+	@Override
+	public void hit(final int frame)
+	{
+		if (frame < queue.length && queue[frame] == MAIN)
+		{
+			unlink(frame);
+			append(frame, MAIN);
+		}
+	}
+
+	@Override
+	public void placed(final int frame, final Block b)
+	{
+		if (frame >= queue.length)
+		{
+			resize(frame + 1);
+		}
+
+		if (queue[frame] == IN && blocks[frame] != null)
+		{
+			out.put(blocks[frame], Boolean.TRUE);
+		}
+
+		unlink(frame);
+		blocks[frame] = b;
+		append(frame, out.remove(b) != null ? MAIN : IN);
+	}
+
+	@Override
+	public void resize(final int frames)
+	{
+		int i = frames;
+		while (i < queue.length)
+		{
+			unlink(i++);
+		}
+
+		final int oldLength = queue.length;
+		blocks = Arrays.copyOf(blocks, frames);
+		queue = Arrays.copyOf(queue, frames);
+		prev = Arrays.copyOf(prev, frames);
+		next = Arrays.copyOf(next, frames);
+		i = oldLength;
+		while (i < frames)
+		{
+			queue[i++] = NONE;
+		}
+
+		this.frames = frames;
+	}
+
+	/** The queued frames in the order victim() tries them, for TwoQueuePolicyTest */
+	int[] order()
+	{
+		final int[] retval = new int[sizes[IN] + sizes[MAIN]];
+		final boolean inFirst = inFirst();
+		int i = 0;
+		for (final byte q : new byte[] { inFirst ? IN : MAIN, inFirst ? MAIN : IN })
+		{
+			int frame = heads[q];
+			while (frame != -1)
+			{
+				retval[i++] = frame;
+				frame = next[frame];
+			}
+		}
+
+		return retval;
+	}
+
+	@Override
+	public int victim(final Page[] bp, final ArrayList<Integer> taken)
+	{
+		int retval = victim(bp, taken, true);
+		if (retval == -1)
+		{
+			retval = victim(bp, taken, false);
+		}
+
+		return retval;
+	}
+
+	private void append(final int frame, final byte q)
+	{
+		queue[frame] = q;
+		prev[frame] = tails[q];
+		next[frame] = -1;
+		if (tails[q] == -1)
+		{
+			heads[q] = frame;
+		}
+		else
+		{
+			next[tails[q]] = frame;
+		}
+
+		tails[q] = frame;
+		sizes[q]++;
+	}
+
+	// the in queue gives up its pages first once it is over its share
+	private boolean inFirst()
+	{
+		return sizes[IN] > frames / 4 || sizes[MAIN] == 0;
+	}
+
+	private int oldest(final Page[] bp, final ArrayList<Integer> taken, final boolean skipInterest, final byte q)
+	{
+		int frame = heads[q];
+		while (frame != -1)
+		{
+			if (frame < bp.length && SubBufferManager.replaceable(bp[frame], skipInterest) && (taken == null || !taken.contains(frame)))
+			{
+				return frame;
+			}
+
+			frame = next[frame];
+		}
+
+		return -1;
+	}
+
+	private void unlink(final int frame)
+	{
+		final byte q = queue[frame];
+		if (q == NONE)
+		{
+			return;
+		}
+
+		if (prev[frame] == -1)
+		{
+			heads[q] = next[frame];
+		}
+		else
+		{
+			next[prev[frame]] = next[frame];
+		}
+
+		if (next[frame] == -1)
+		{
+			tails[q] = prev[frame];
+		}
+		else
+		{
+			prev[next[frame]] = prev[frame];
+		}
+
+		queue[frame] = NONE;
+		sizes[q]--;
+	}
+
+	private int victim(final Page[] bp, final ArrayList<Integer> taken, final boolean skipInterest)
+	{
+		final boolean inFirst = inFirst();
+		int retval = oldest(bp, taken, skipInterest, inFirst ? IN : MAIN);
+		if (retval == -1)
+		{
+			retval = oldest(bp, taken, skipInterest, inFirst ? MAIN : IN);
+		}
+
+		return retval;
+	}
+}
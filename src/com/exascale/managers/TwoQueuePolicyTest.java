@@ -0,0 +1,104 @@
+package com.exascale.managers;
+
+import java.util.Arrays;
+import com.exascale.filesystem.Block;
+
+/**
+ * Drives TwoQueuePolicy through placements, hits and resizes and checks the
+ * order it would give frames up in. First reads stay on the FIFO in queue,
+ * only blocks read again while they are remembered on the out list reach
+ * the LRU main queue, and the in queue goes first while it is over a quarter
+ * of the frames. The order is checked through order(), victim() needs a
+ * running buffer pool to tell whether pages can be replaced.
+ */
+public class TwoQueuePolicyTest
+{
+	private static final int FRAMES = 16;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final TwoQueuePolicy policy = new TwoQueuePolicy(FRAMES);
+		int i = 0;
+		while (i < FRAMES)
+		{
+			policy.placed(i, block(i));
+			i++;
+		}
+
+		// a scan: all on the in queue in FIFO order, hits don't move them
+		policy.hit(3);
+		check(policy.order(), 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+
+		// blocks 0 and 1 are replaced and remembered, then read again
+		policy.placed(0, block(100));
+		policy.placed(1, block(101));
+		policy.placed(2, block(0));
+		policy.placed(3, block(1));
+		check(policy.order(), 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 1, 2, 3);
+
+		// main is in LRU order
+		policy.hit(2);
+		check(policy.order(), 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 1, 3, 2);
+
+		// a block replaced again comes back on main
+		policy.placed(4, block(2));
+		policy.placed(5, block(3));
+		policy.placed(6, block(4));
+		policy.placed(7, block(5));
+		policy.placed(8, block(6));
+		policy.placed(9, block(7));
+		policy.placed(10, block(8));
+		policy.placed(11, block(9));
+		policy.placed(12, block(10));
+		policy.placed(13, block(11));
+		policy.placed(14, block(12));
+		policy.placed(15, block(13));
+
+		// in now holds 0 and 1, which is within its quarter, so main goes first
+		check(policy.order(), 3, 2, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 1);
+
+		// the out list only remembers FRAMES / 2 blocks, the oldest replaced
+		// ones are forgotten and come back on the in queue
+		i = 0;
+		while (i < FRAMES)
+		{
+			policy.placed(i < 2 ? i : 0, block(200 + i));
+			i++;
+		}
+
+		policy.placed(1, block(200));
+		policy.placed(0, block(214));
+		check(policy.order(), 3, 2, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 1);
+		policy.hit(3);
+		check(policy.order(), 2, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 3, 1);
+
+		// shrinking drops the frames past the end, growing adds empty ones
+		policy.resize(8);
+		check(policy.order(), 2, 4, 5, 6, 7, 0, 3, 1);
+		policy.resize(12);
+		policy.placed(10, block(300));
+		check(policy.order(), 2, 4, 5, 6, 7, 0, 3, 1, 10);
+		policy.placed(20, block(301));
+		check(policy.order(), 2, 4, 5, 6, 7, 0, 3, 1, 10, 20);
+
+		// over its quarter of the now 21 frames, the in queue goes first
+		policy.placed(11, block(302));
+		policy.placed(9, block(303));
+		policy.placed(8, block(304));
+		check(policy.order(), 1, 10, 20, 11, 9, 8, 2, 4, 5, 6, 7, 0, 3);
+		System.out.println("TwoQueuePolicyTest passed");
+	}
+
+	private static Block block(final int number)
+	{
+		return new Block("/data/test.tbl", number);
+	}
+
+	private static void check(final int[] order, final int... expected) throws Exception
+	{
+		if (!Arrays.equals(order, expected))
+		{
+			throw new Exception("TwoQueuePolicyTest failed: order " + Arrays.toString(order) + " expected " + Arrays.toString(expected));
+		}
+	}
+}
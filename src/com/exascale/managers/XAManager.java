@@ -18,6 +18,7 @@ import com.exascale.logging.PrepareLogRec;
 import com.exascale.logging.ReadyLogRec;
 import com.exascale.logging.XAAbortLogRec;
 import com.exascale.logging.XACommitLogRec;
+import com.exascale.misc.ConnectionPool;
 import com.exascale.misc.Utils;
 import com.exascale.misc.VHJOMultiHashMap;
 import com.exascale.optimizer.CreateIndexOperator;
@@ -573,14 +574,6 @@ public class XAManager extends HRDBMSThread
 			in.close();
 			throw new Exception();
 		}
-
-		try
-		{
-			in.close();
-		}
-		catch (final Exception e)
-		{
-		}
 	}
 
 	private static ArrayList<Integer> getLoadNodes(final Operator o, final Transaction tx) throws Exception
@@ -849,12 +842,7 @@ public class XAManager extends HRDBMSThread
 		{
 			// new MetaData();
 			final String hostname = MetaData.getHostNameForNode((Integer)obj, tx);
-			// sock = new Socket(hostname,
-			// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-			sock = new Socket();
-			sock.setReceiveBufferSize(4194304);
-			sock.setSendBufferSize(4194304);
-			sock.connect(new InetSocketAddress(hostname, PORT_NUMBER));
+			sock = ConnectionPool.get(hostname);
 			final OutputStream out = sock.getOutputStream();
 			final byte[] outMsg = "CHECKPNT        ".getBytes(StandardCharsets.UTF_8);
 			outMsg[8] = 0;
@@ -871,8 +859,7 @@ public class XAManager extends HRDBMSThread
 			objOut.flush();
 			out.flush();
 			getConfirmation(sock);
-			objOut.close();
-			sock.close();
+			ConnectionPool.release(hostname, sock);
 			return true;
 		}
 		catch (final Exception e)
@@ -935,12 +922,7 @@ public class XAManager extends HRDBMSThread
 			{
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, PORT_NUMBER));
+					sock = ConnectionPool.get(hostname);
 					break;
 				}
 				catch (final Exception e)
@@ -974,8 +956,7 @@ public class XAManager extends HRDBMSThread
 			objOut.flush();
 			out.flush();
 			getConfirmation(sock);
-			objOut.close();
-			sock.close();
+			ConnectionPool.release(hostname, sock);
 		}
 		catch (final Exception e)
 		{
@@ -1200,12 +1181,7 @@ public class XAManager extends HRDBMSThread
 			final String host = MetaData.getMyHostName(tx);
 			final byte[] data = host.getBytes(StandardCharsets.UTF_8);
 			final byte[] length = intToBytes(data.length);
-			// sock = new Socket(hostname,
-			// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-			sock = new Socket();
-			sock.setReceiveBufferSize(4194304);
-			sock.setSendBufferSize(4194304);
-			sock.connect(new InetSocketAddress(hostname, PORT_NUMBER));
+			sock = ConnectionPool.get(hostname);
 			final OutputStream out = sock.getOutputStream();
 			final byte[] outMsg = "PREPARE         ".getBytes(StandardCharsets.UTF_8);
 			outMsg[8] = 0;
@@ -1225,8 +1201,7 @@ public class XAManager extends HRDBMSThread
 			objOut.flush();
 			out.flush();
 			getConfirmation(sock);
-			objOut.close();
-			sock.close();
+			ConnectionPool.release(hostname, sock);
 			return true;
 		}
 		catch (final Exception e)
@@ -1265,12 +1240,7 @@ public class XAManager extends HRDBMSThread
 			{
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, PORT_NUMBER));
+					sock = ConnectionPool.get(hostname);
 					break;
 				}
 				catch (final Exception e)
@@ -1304,8 +1274,7 @@ public class XAManager extends HRDBMSThread
 			objOut.flush();
 			out.flush();
 			getConfirmation(sock);
-			objOut.close();
-			sock.close();
+			ConnectionPool.release(hostname, sock);
 		}
 		catch (final Exception e)
 		{
@@ -0,0 +1,375 @@
+package com.exascale.misc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Group by hash table with fixed width aggregate state. Keys are serialized
+ * group values appended to byte[] slabs, the aggregates of a group are a run
+ * of long slots in paged long[] arrays, and the open addressing index only
+ * holds ints. Nothing is allocated per group or per update apart from slab
+ * and page growth. Not thread safe, each thread aggregates into its own table
+ * and the tables are merged afterwards.
+ *
+ * Double valued slots hold the raw bits of the double. A DSUM slot is a
+ * Kahan compensated sum and uses the slot after it for the compensation. It
+ * is not exact like BigDecimalReplacement, the result can differ from the
+ * exact sum in the last bits, so it is only used when
+ * slot_aggregation_double_sums is on.
+ *
+ * The first page starts with room for FIRST_PAGE groups and doubles up to
+ * a full page, so a table with a few groups stays small.
+ */
+public final class AggregationHashTable
+{
+	public static final byte SUM = 0;
+	public static final byte DSUM = 1;
+	public static final byte MIN = 2;
+	public static final byte MAX = 3;
+	public static final byte DMIN = 4;
+	public static final byte DMAX = 5;
+	// compensation of the DSUM slot before it
+	public static final byte COMP = 6;
+
+	private static final int MAX_SLAB = 16 * 1024 * 1024;
+	private static final int PAGE_SHIFT = 14;
+	private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+	private static final int FIRST_PAGE = 16;
+	private final byte[] kinds;
+	private final int width;
+	private final long[] init;
+	// group + 1, 0 means empty
+	private int[] index;
+	private int mask;
+	private long[] hashes;
+	private long[] keyAddrs;
+	private int numGroups;
+	private long[][] pages;
+	private byte[][] slabs;
+	private int numSlabs;
+	private int slabPos;
+
+	public AggregationHashTable(final byte[] kinds)
+	{
+		this.kinds = kinds;
+		width = kinds.length;
+		init = new long[width];
+		int i = 0;
+		while (i < width)
+		{
+			switch (kinds[i])
+			{
+				case MIN:
+					init[i] = Long.MAX_VALUE;
+					break;
+				case MAX:
+					init[i] = Long.MIN_VALUE;
+					break;
+				case DMIN:
+					init[i] = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+					break;
+				case DMAX:
+					init[i] = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+					break;
+				default:
+					init[i] = 0;
+			}
+
+			i++;
+		}
+
+		index = new int[64];
+		mask = 63;
+		hashes = new long[32];
+		keyAddrs = new long[32];
+		pages = new long[4][];
+		slabs = new byte[4][];
+	}
+
+	public long get(final int group, final int slot)
+	{
+		return pages[group >>> PAGE_SHIFT][(group & PAGE_MASK) * width + slot];
+	}
+
+	public double getDouble(final int group, final int slot)
+	{
+		final long[] page = pages[group >>> PAGE_SHIFT];
+		final int off = (group & PAGE_MASK) * width + slot;
+		if (kinds[slot] == DSUM)
+		{
+			return Double.longBitsToDouble(page[off]) - Double.longBitsToDouble(page[off + 1]);
+		}
+
+		return Double.longBitsToDouble(page[off]);
+	}
+
+	/** Returns the group for the key, adding it if it is new */
+	public int group(final byte[] key, final int len, final long hash)
+	{
+		int slot = (int)hash & mask;
+		while (true)
+		{
+			final int g = index[slot];
+			if (g == 0)
+			{
+				return insert(slot, key, 0, len, hash);
+			}
+
+			if (hashes[g - 1] == hash && keyEquals(g - 1, key, len))
+			{
+				return g - 1;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public long hash(final int group)
+	{
+		return hashes[group];
+	}
+
+	/** Returns a buffer positioned at the start of the key */
+	public ByteBuffer key(final int group)
+	{
+		final long addr = keyAddrs[group];
+		final byte[] slab = slabs[(int)(addr >>> 32)];
+		final int off = (int)addr;
+		return ByteBuffer.wrap(slab, off + 4, getInt(slab, off));
+	}
+
+	/** Folds all groups of another table with the same slot layout into this one */
+	public void merge(final AggregationHashTable rhs)
+	{
+		int g = 0;
+		while (g < rhs.numGroups)
+		{
+			final long addr = rhs.keyAddrs[g];
+			final byte[] slab = rhs.slabs[(int)(addr >>> 32)];
+			final int off = (int)addr;
+			final int len = getInt(slab, off);
+			final int group = group(slab, off + 4, len, rhs.hashes[g]);
+			final long[] src = rhs.pages[g >>> PAGE_SHIFT];
+			final int srcOff = (g & PAGE_MASK) * width;
+			int i = 0;
+			while (i < width)
+			{
+				if (kinds[i] == DSUM)
+				{
+					update(group, i, Double.doubleToRawLongBits(Double.longBitsToDouble(src[srcOff + i]) - Double.longBitsToDouble(src[srcOff + i + 1])));
+				}
+				else if (kinds[i] != COMP)
+				{
+					update(group, i, src[srcOff + i]);
+				}
+
+				i++;
+			}
+
+			g++;
+		}
+	}
+
+	public int size()
+	{
+		return numGroups;
+	}
+
+	/** For double slots val is the raw bits of the double */
+	public void update(final int group, final int slot, final long val)
+	{
+		final long[] page = pages[group >>> PAGE_SHIFT];
+		final int off = (group & PAGE_MASK) * width + slot;
+		switch (kinds[slot])
+		{
+			case SUM:
+				page[off] += val;
+				break;
+			case DSUM:
+			{
+				final double sum = Double.longBitsToDouble(page[off]);
+				final double y = Double.longBitsToDouble(val) - Double.longBitsToDouble(page[off + 1]);
+				final double t = sum + y;
+				page[off + 1] = Double.doubleToRawLongBits((t - sum) - y);
+				page[off] = Double.doubleToRawLongBits(t);
+				break;
+			}
+			case MIN:
+				if (val < page[off])
+				{
+					page[off] = val;
+				}
+				break;
+			case MAX:
+				if (val > page[off])
+				{
+					page[off] = val;
+				}
+				break;
+			case DMIN:
+				if (Double.longBitsToDouble(val) < Double.longBitsToDouble(page[off]))
+				{
+					page[off] = val;
+				}
+				break;
+			case DMAX:
+				if (Double.longBitsToDouble(val) > Double.longBitsToDouble(page[off]))
+				{
+					page[off] = val;
+				}
+				break;
+			default:
+		}
+	}
+
+	private static int getInt(final byte[] slab, final int off)
+	{
+		return ((slab[off] & 0xff) << 24) | ((slab[off + 1] & 0xff) << 16) | ((slab[off + 2] & 0xff) << 8) | (slab[off + 3] & 0xff);
+	}
+
+	private void addSlab(final int minSize)
+	{
+		int size = numSlabs == 0 ? 4096 : Math.min(MAX_SLAB, slabs[numSlabs - 1].length << 1);
+		if (size < minSize)
+		{
+			size = minSize;
+		}
+
+		if (numSlabs == slabs.length)
+		{
+			final byte[][] temp = new byte[slabs.length << 1][];
+			System.arraycopy(slabs, 0, temp, 0, numSlabs);
+			slabs = temp;
+		}
+
+		slabs[numSlabs++] = new byte[size];
+		slabPos = 0;
+	}
+
+	private int group(final byte[] key, final int keyOff, final int len, final long hash)
+	{
+		int slot = (int)hash & mask;
+		while (true)
+		{
+			final int g = index[slot];
+			if (g == 0)
+			{
+				return insert(slot, key, keyOff, len, hash);
+			}
+
+			if (hashes[g - 1] == hash && keyEquals(g - 1, key, keyOff, len))
+			{
+				return g - 1;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int insert(final int slot, final byte[] key, final int keyOff, final int len, final long hash)
+	{
+		final int needed = len + 4;
+		if (numSlabs == 0 || slabPos + needed > slabs[numSlabs - 1].length)
+		{
+			addSlab(needed);
+		}
+
+		final byte[] slab = slabs[numSlabs - 1];
+		final int off = slabPos;
+		slab[off] = (byte)(len >>> 24);
+		slab[off + 1] = (byte)(len >>> 16);
+		slab[off + 2] = (byte)(len >>> 8);
+		slab[off + 3] = (byte)len;
+		System.arraycopy(key, keyOff, slab, off + 4, len);
+		slabPos += needed;
+
+		if (numGroups == hashes.length)
+		{
+			final long[] temp = new long[hashes.length << 1];
+			System.arraycopy(hashes, 0, temp, 0, numGroups);
+			hashes = temp;
+			final long[] temp2 = new long[keyAddrs.length << 1];
+			System.arraycopy(keyAddrs, 0, temp2, 0, numGroups);
+			keyAddrs = temp2;
+		}
+
+		final int group = numGroups++;
+		hashes[group] = hash;
+		keyAddrs[group] = (((long)(numSlabs - 1)) << 32) | off;
+
+		final int p = group >>> PAGE_SHIFT;
+		if (p == pages.length)
+		{
+			final long[][] temp = new long[pages.length << 1][];
+			System.arraycopy(pages, 0, temp, 0, p);
+			pages = temp;
+		}
+
+		final int room = ((group & PAGE_MASK) + 1) * width;
+		if (pages[p] == null)
+		{
+			pages[p] = new long[(p == 0 ? FIRST_PAGE : PAGE_MASK + 1) * width];
+		}
+		else if (pages[p].length < room)
+		{
+			pages[p] = Arrays.copyOf(pages[p], Math.min(pages[p].length << 1, (PAGE_MASK + 1) * width));
+		}
+
+		System.arraycopy(init, 0, pages[p], (group & PAGE_MASK) * width, width);
+
+		index[slot] = group + 1;
+		if (numGroups > (index.length >>> 1))
+		{
+			rehash();
+		}
+
+		return group;
+	}
+
+	private boolean keyEquals(final int group, final byte[] key, final int len)
+	{
+		return keyEquals(group, key, 0, len);
+	}
+
+	private boolean keyEquals(final int group, final byte[] key, final int keyOff, final int len)
+	{
+		final long addr = keyAddrs[group];
+		final byte[] slab = slabs[(int)(addr >>> 32)];
+		final int off = (int)addr;
+		if (getInt(slab, off) != len)
+		{
+			return false;
+		}
+
+		int i = 0;
+		while (i < len)
+		{
+			if (slab[off + 4 + i] != key[keyOff + i])
+			{
+				return false;
+			}
+
+			i++;
+		}
+
+		return true;
+	}
+
+	private void rehash()
+	{
+		index = new int[index.length << 1];
+		mask = index.length - 1;
+		int g = 0;
+		while (g < numGroups)
+		{
+			int slot = (int)hashes[g] & mask;
+			while (index[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+
+			index[slot] = g + 1;
+			g++;
+		}
+	}
+}
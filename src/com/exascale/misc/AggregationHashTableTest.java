@@ -0,0 +1,116 @@
+package com.exascale.misc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Aggregates random updates into two AggregationHashTables, merges them and
+ * checks every slot against a plain HashMap. Enough groups are used to span
+ * several pages and slabs, and some hashes collide on purpose so that those
+ * groups are told apart by their keys.
+ */
+public class AggregationHashTableTest
+{
+	private static final byte[] KINDS = { AggregationHashTable.SUM, AggregationHashTable.MIN, AggregationHashTable.MAX, AggregationHashTable.DSUM, AggregationHashTable.COMP, AggregationHashTable.DMIN, AggregationHashTable.DMAX };
+	private static final int GROUPS = 50000;
+	private static final int UPDATES = 400000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final AggregationHashTable left = new AggregationHashTable(KINDS);
+		final AggregationHashTable right = new AggregationHashTable(KINDS);
+		final HashMap<String, double[]> expected = new HashMap<String, double[]>();
+		final Random random = new Random(11);
+		int i = 0;
+		while (i < UPDATES)
+		{
+			final String name = key(random.nextInt(GROUPS));
+			final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+			final AggregationHashTable table = (i & 1) == 0 ? left : right;
+			final int group = table.group(key, key.length, hash(name));
+			final long l = random.nextInt(2000001) - 1000000;
+			final double d = random.nextDouble() * 1000 - 500;
+			table.update(group, 0, l);
+			table.update(group, 1, l);
+			table.update(group, 2, l);
+			table.update(group, 3, Double.doubleToRawLongBits(d));
+			table.update(group, 5, Double.doubleToRawLongBits(d));
+			table.update(group, 6, Double.doubleToRawLongBits(d));
+
+			double[] vals = expected.get(name);
+			if (vals == null)
+			{
+				vals = new double[] { 0, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+				expected.put(name, vals);
+			}
+
+			vals[0] += l;
+			vals[1] = Math.min(vals[1], l);
+			vals[2] = Math.max(vals[2], l);
+			vals[3] += d;
+			vals[5] = Math.min(vals[5], d);
+			vals[6] = Math.max(vals[6], d);
+			i++;
+		}
+
+		left.merge(right);
+		check(left.size() == expected.size(), "size " + left.size() + " expected " + expected.size());
+		for (final String name : expected.keySet())
+		{
+			final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+			final int before = left.size();
+			final int group = left.group(key, key.length, hash(name));
+			check(left.size() == before, "lookup of " + name + " added a group");
+			final byte[] stored = new byte[key.length];
+			left.key(group).get(stored);
+			check(Arrays.equals(stored, key), "key of " + name);
+			check(left.hash(group) == hash(name), "hash of " + name);
+
+			final double[] vals = expected.get(name);
+			check(left.get(group, 0) == (long)vals[0], "SUM of " + name);
+			check(left.get(group, 1) == (long)vals[1], "MIN of " + name);
+			check(left.get(group, 2) == (long)vals[2], "MAX of " + name);
+			check(Math.abs(left.getDouble(group, 3) - vals[3]) <= 1e-9 * Math.max(1, Math.abs(vals[3])), "DSUM of " + name + " " + left.getDouble(group, 3) + " expected " + vals[3]);
+			check(left.getDouble(group, 5) == vals[5], "DMIN of " + name);
+			check(left.getDouble(group, 6) == vals[6], "DMAX of " + name);
+		}
+
+		System.out.println("AggregationHashTableTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("AggregationHashTableTest failed: " + what);
+		}
+	}
+
+	// every group ending in 00 has the same hash, those have to be told
+	// apart by their keys
+	private static long hash(final String name)
+	{
+		if (name.endsWith("00"))
+		{
+			return 42;
+		}
+
+		return name.hashCode() * 0x9E3779B97F4A7C15L;
+	}
+
+	// keys of different lengths
+	private static String key(final int n)
+	{
+		final StringBuilder retval = new StringBuilder();
+		int i = 0;
+		while (i <= n % 5)
+		{
+			retval.append("group");
+			i++;
+		}
+
+		return retval.append(n).toString();
+	}
+}
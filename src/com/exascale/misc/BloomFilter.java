@@ -1,42 +1,131 @@
 package com.exascale.misc;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * Blocked Bloom filter over 64 bit hashes. The filter is sized from the
+ * expected number of keys, each key maps to one 512 bit block (a cache line)
+ * and sets K bits inside it, so a lookup touches a single line.
+ */
 public class BloomFilter
 {
-	private byte[][] bits;
+	private static final int BITS_PER_KEY = 10;
+	private static final int K = 6;
+	// 8 longs = 512 bits per block
+	private static final int BLOCK_SHIFT = 3;
+	private static final int MAX_BLOCKS = 1 << 22;
+	private AtomicLongArray words;
+	private int blockMask;
+	private long expected;
 	private ConcurrentHashMap<Long, ArrayList<Object>> cache;
 
-	public BloomFilter()
+	public BloomFilter(final boolean flag)
+	{
+		cache = new ConcurrentHashMap<Long, ArrayList<Object>>(4 * 1024 * 1024, 1.0f);
+	}
+
+	public BloomFilter(final long expected)
+	{
+		this.expected = expected < 1024 ? 1024 : expected;
+		final long wanted = (this.expected * BITS_PER_KEY) >>> 9;
+		int blocks = 1;
+		while (blocks < wanted && blocks < MAX_BLOCKS)
+		{
+			blocks <<= 1;
+		}
+
+		words = new AtomicLongArray(blocks << BLOCK_SHIFT);
+		blockMask = blocks - 1;
+	}
+
+	private BloomFilter(final long expected, final long[] data)
+	{
+		this.expected = expected;
+		words = new AtomicLongArray(data);
+		blockMask = (data.length >>> BLOCK_SHIFT) - 1;
+	}
+
+	/**
+	 * Returns a filter sized for keys, folding the upper half of the blocks
+	 * onto the lower half while that is still large enough. Blocks are picked
+	 * by the low bits of the hash, so every added key still passes.
+	 */
+	public BloomFilter shrink(final long keys)
 	{
-		bits = new byte[32][];
+		final long target = keys < 1024 ? 1024 : keys;
+		final long wanted = (target * BITS_PER_KEY) >>> 9;
+		int blocks = blockMask + 1;
+		if (blocks <= 1 || (blocks >>> 1) < wanted)
+		{
+			return this;
+		}
+
+		while (blocks > 1 && (blocks >>> 1) >= wanted)
+		{
+			blocks >>>= 1;
+		}
+
+		final long[] data = new long[blocks << BLOCK_SHIFT];
+		final int limit = words.length();
 		int i = 0;
-		while (i < 32)
+		while (i < limit)
 		{
-			bits[i] = new byte[8 * 1024 * 1024];
+			data[i & (data.length - 1)] |= words.get(i);
 			i++;
 		}
+
+		return new BloomFilter(target, data);
 	}
 
-	public BloomFilter(final boolean flag)
+	public static BloomFilter fromBytes(final ByteBuffer bb)
 	{
-		cache = new ConcurrentHashMap<Long, ArrayList<Object>>(4 * 1024 * 1024, 1.0f);
+		final long expected = bb.getLong();
+		final long[] data = new long[bb.getInt()];
+		int i = 0;
+		while (i < data.length)
+		{
+			data[i++] = bb.getLong();
+		}
+
+		return new BloomFilter(expected, data);
+	}
+
+	private static long mix(long h)
+	{
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
 	}
 
 	public void add(final long hash)
 	{
-		final long offset = hash & 0x7FFFFFFFl;
-		final int bytePos = (int)(offset >> 3);
-		final int bitPos = (int)(offset & 0x07);
-		final int x = bytePos >>> 23;
-		final int y = bytePos & 0x7fffff;
-		final byte val = (byte)(1 << bitPos);
-		synchronized (bits[x])
+		final long h = mix(hash);
+		final int base = ((int)(h >>> 32) & blockMask) << BLOCK_SHIFT;
+		long bits = mix(h ^ 0x9E3779B97F4A7C15L);
+		int i = 0;
+		while (i < K)
 		{
-			bits[x][y] |= val;
+			// 9 bits pick the word (3) and the bit (6) within the block
+			final int index = base + (int)((bits >>> 6) & 0x07);
+			final long mask = 1L << (bits & 0x3f);
+			while (true)
+			{
+				final long old = words.get(index);
+				if ((old & mask) != 0 || words.compareAndSet(index, old, old | mask))
+				{
+					break;
+				}
+			}
+
+			bits = Long.rotateRight(bits, 9);
+			i++;
 		}
-		return;
 	}
 
 	public void add(final long hash, final ArrayList<Object> val)
@@ -44,12 +133,59 @@ public class BloomFilter
 		cache.put(hash & 0x3FFFFFl, val);
 	}
 
+	/** Number of keys the filter was sized for */
+	public long expected()
+	{
+		return expected;
+	}
+
+	/** Ors in the bits of a filter with the same geometry, returns false if the sizes differ */
+	public boolean merge(final BloomFilter rhs)
+	{
+		if (rhs.words.length() != words.length())
+		{
+			return false;
+		}
+
+		int i = 0;
+		final int limit = words.length();
+		while (i < limit)
+		{
+			final long mask = rhs.words.get(i);
+			while (true)
+			{
+				final long old = words.get(i);
+				if ((old | mask) == old || words.compareAndSet(i, old, old | mask))
+				{
+					break;
+				}
+			}
+
+			i++;
+		}
+
+		expected += rhs.expected;
+		return true;
+	}
+
 	public boolean passes(final long hash)
 	{
-		final long offset = hash & 0x7FFFFFFFl;
-		final int bytePos = (int)(offset >> 3);
-		final int bitPos = (int)(offset & 0x07);
-		return (bits[bytePos >>> 23][bytePos & 0x7fffff] & ((byte)(1 << bitPos))) != 0;
+		final long h = mix(hash);
+		final int base = ((int)(h >>> 32) & blockMask) << BLOCK_SHIFT;
+		long bits = mix(h ^ 0x9E3779B97F4A7C15L);
+		int i = 0;
+		while (i < K)
+		{
+			if ((words.get(base + (int)((bits >>> 6) & 0x07)) & (1L << (bits & 0x3f))) == 0)
+			{
+				return false;
+			}
+
+			bits = Long.rotateRight(bits, 9);
+			i++;
+		}
+
+		return true;
 	}
 
 	public boolean passes(final long hash, final ArrayList<Object> val)
@@ -57,4 +193,22 @@ public class BloomFilter
 		final ArrayList<Object> o = cache.get(hash & 0x3FFFFFl);
 		return !val.equals(o);
 	}
-}
\ No newline at end of file
+
+	/** Serialized size in bytes */
+	public int size()
+	{
+		return 12 + (words.length() << 3);
+	}
+
+	public void toBytes(final ByteBuffer bb)
+	{
+		bb.putLong(expected);
+		final int limit = words.length();
+		bb.putInt(limit);
+		int i = 0;
+		while (i < limit)
+		{
+			bb.putLong(words.get(i++));
+		}
+	}
+}
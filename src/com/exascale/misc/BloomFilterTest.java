@@ -0,0 +1,101 @@
+package com.exascale.misc;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks that the blocked BloomFilter never rejects an added key, that its
+ * false positive rate stays near what 10 bits per key give, and that
+ * merge(), shrink() and the byte round trip keep every key.
+ */
+public class BloomFilterTest
+{
+	private static final int KEYS = 100000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(5);
+		final long[] keys = new long[KEYS];
+		final BloomFilter left = new BloomFilter(KEYS);
+		final BloomFilter right = new BloomFilter(KEYS);
+		int i = 0;
+		while (i < KEYS)
+		{
+			keys[i] = random.nextLong();
+			if ((i & 1) == 0)
+			{
+				left.add(keys[i]);
+			}
+			else
+			{
+				right.add(keys[i]);
+			}
+
+			i++;
+		}
+
+		check(left.merge(right), "merge of filters with the same size");
+		check(!left.merge(new BloomFilter(KEYS * 4L)), "merge of filters with different sizes");
+		check(left.expected() == KEYS * 2L, "expected after merge " + left.expected());
+		checkAll(left, keys, "merged");
+		final double rate = falsePositives(left, random);
+		check(rate < 0.02, "false positive rate " + rate);
+
+		final ByteBuffer bb = ByteBuffer.allocate(left.size());
+		left.toBytes(bb);
+		bb.flip();
+		final BloomFilter copy = BloomFilter.fromBytes(bb);
+		checkAll(copy, keys, "deserialized");
+		check(copy.size() == left.size(), "size after round trip");
+
+		// sized for far more keys than it got, as when the build side has
+		// many duplicates
+		final BloomFilter big = new BloomFilter(KEYS * 64L);
+		for (final long key : keys)
+		{
+			big.add(key);
+		}
+
+		final BloomFilter shrunk = big.shrink(KEYS);
+		check(shrunk.size() < big.size() / 16, "shrunk from " + big.size() + " to " + shrunk.size());
+		check(shrunk.expected() == KEYS, "expected after shrink " + shrunk.expected());
+		checkAll(shrunk, keys, "shrunk");
+		final double shrunkRate = falsePositives(shrunk, random);
+		check(shrunkRate < 0.02, "false positive rate after shrink " + shrunkRate);
+		check(left.shrink(KEYS * 4L) == left, "shrink to more keys");
+		System.out.println("BloomFilterTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("BloomFilterTest failed: " + what);
+		}
+	}
+
+	private static void checkAll(final BloomFilter filter, final long[] keys, final String what) throws Exception
+	{
+		for (final long key : keys)
+		{
+			check(filter.passes(key), what + " filter rejected " + key);
+		}
+	}
+
+	private static double falsePositives(final BloomFilter filter, final Random random)
+	{
+		int passed = 0;
+		int i = 0;
+		while (i < 1000000)
+		{
+			if (filter.passes(random.nextLong()))
+			{
+				passed++;
+			}
+
+			i++;
+		}
+
+		return passed / 1000000.0;
+	}
+}
@@ -0,0 +1,132 @@
+package com.exascale.misc;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import com.exascale.managers.HRDBMSWorker;
+
+/**
+ * Long lived connections to the other nodes for short request/response
+ * commands. A ConnectionWorker keeps reading commands from a connection after
+ * it answered one, so a connection whose last command was confirmed can carry
+ * the next command to the same node instead of a new TCP handshake.
+ *
+ * A connection is only used by one caller at a time, which gives every
+ * logical channel its own TCP flow control. At most
+ * pooled_connections_per_node idle connections are kept per node, each for
+ * at most pooled_connection_timeout ms.
+ */
+public final class ConnectionPool
+{
+	private static final int PORT_NUMBER = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"));
+	private static final int MAX_IDLE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("pooled_connections_per_node"));
+	private static final long TIMEOUT = Long.parseLong(HRDBMSWorker.getHParms().getProperty("pooled_connection_timeout"));
+	private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<Idle>> idle = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Idle>>();
+
+	/** Closes a connection that failed or is in an unknown state */
+	public static void discard(final Socket sock)
+	{
+		if (sock == null)
+		{
+			return;
+		}
+
+		try
+		{
+			sock.close();
+		}
+		catch (final Exception e)
+		{
+		}
+	}
+
+	/** An idle connection to the host, or a new one */
+	public static Socket get(final String host) throws Exception
+	{
+		final ConcurrentLinkedQueue<Idle> q = idle.get(host);
+		if (q != null)
+		{
+			Idle conn = q.poll();
+			while (conn != null)
+			{
+				if (System.currentTimeMillis() - conn.time < TIMEOUT && isOpen(conn.sock))
+				{
+					return conn.sock;
+				}
+
+				discard(conn.sock);
+				conn = q.poll();
+			}
+		}
+
+		final Socket sock = SocketChannel.open().socket();
+		sock.setReceiveBufferSize(4194304);
+		sock.setSendBufferSize(4194304);
+		sock.setTcpNoDelay(true);
+		sock.connect(new InetSocketAddress(host, PORT_NUMBER));
+		return sock;
+	}
+
+	/**
+	 * Hands back a connection whose last command was answered. Anything
+	 * wrapping its streams must not be closed.
+	 */
+	public static void release(final String host, final Socket sock)
+	{
+		ConcurrentLinkedQueue<Idle> q = idle.get(host);
+		if (q == null)
+		{
+			q = new ConcurrentLinkedQueue<Idle>();
+			final ConcurrentLinkedQueue<Idle> prev = idle.putIfAbsent(host, q);
+			if (prev != null)
+			{
+				q = prev;
+			}
+		}
+
+		// size() walks the queue, but it never holds more than a few
+		if (q.size() >= MAX_IDLE)
+		{
+			discard(sock);
+			return;
+		}
+
+		q.add(new Idle(sock));
+	}
+
+	/**
+	 * The peer closes its end when its ConnectionWorker goes away, which
+	 * shows up as EOF on a non blocking read. Nothing else can be waiting
+	 * on an idle connection.
+	 */
+	private static boolean isOpen(final Socket sock)
+	{
+		final SocketChannel ch = sock.getChannel();
+		try
+		{
+			ch.configureBlocking(false);
+			final int num = ch.read(ByteBuffer.allocate(1));
+			ch.configureBlocking(true);
+			return num == 0;
+		}
+		catch (final Exception e)
+		{
+			return false;
+		}
+	}
+
+	private static final class Idle
+	{
+		private final Socket sock;
+		private final long time;
+
+		public Idle(final Socket sock)
+		{
+			this.sock = sock;
+			time = System.currentTimeMillis();
+		}
+	}
+}
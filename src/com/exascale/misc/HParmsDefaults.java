@@ -86,6 +86,8 @@ public class HParmsDefaults extends Properties
 		retval.setProperty("sort_bucket_size", "300000");
 		retval.setProperty("pbpe_externalize_interval_s", "300");
 		retval.setProperty("hjo_bin_size", "300000");
+		retval.setProperty("hjo_partitioned", "true");
+		retval.setProperty("hjo_partition_rows", "65536");
 		retval.setProperty("mo_bin_size", "3000000");
 		retval.setProperty("lock_timeout_ms", "60000");
 		retval.setProperty("max_rr", "1200");
@@ -93,6 +95,47 @@ public class HParmsDefaults extends Properties
 		retval.setProperty("direct_buffer_size", "8388608");
 		retval.setProperty("pbpe_version", "2");
 		retval.setProperty("do_min_max", "true");
+		retval.setProperty("column_batch_size", "1024");
+		retval.setProperty("compile_expressions", "true");
+		retval.setProperty("compile_predicates", "true");
+		retval.setProperty("runtime_filters", "true");
+		retval.setProperty("runtime_filter_max_bytes", "8388608");
+		retval.setProperty("slot_aggregation", "true");
+		// double SUM/AVG in slot aggregation are Kahan compensated doubles,
+		// close to but not always equal to the exact sums of the row path
+		retval.setProperty("slot_aggregation_double_sums", "false");
+		retval.setProperty("normalized_sort", "true");
+		retval.setProperty("hll_precision", "14");
+		retval.setProperty("columnar_exchange", "true");
+		retval.setProperty("nio_exchange", "true");
+		retval.setProperty("exchange_selector_threads", "4");
+		retval.setProperty("pooled_connections_per_node", "4");
+		retval.setProperty("pooled_connection_timeout", "60000");
+		retval.setProperty("exchange_credit_rows", "32768");
+		retval.setProperty("exchange_credit_timeout", "10000");
+		retval.setProperty("exchange_buffered_rows", "500000");
+		retval.setProperty("exchange_compression", "adaptive");
+		retval.setProperty("exchange_link_mbps", "25000");
+		retval.setProperty("skew_aware_hash", "true");
+		retval.setProperty("skew_sample_rows", "65536");
+		retval.setProperty("skew_sketch_keys", "64");
+		retval.setProperty("skew_keys_timeout", "5000");
+		retval.setProperty("max_broadcast_rows", "250000");
+		retval.setProperty("local_exchange", "true");
+		retval.setProperty("local_exchange_queue_size", "4096");
+		retval.setProperty("link_probe_interval", "5000");
+		retval.setProperty("bp_replacement", "2q");
+		// most pages the buffer pool grows to when every page is pinned, 0
+		// means bp_pages and -1 no limit. Once it is reached, pinning another
+		// page fails with BufferPoolExhaustedException.
+		retval.setProperty("bp_max_pages", "0");
+		retval.setProperty("bp_off_heap", "false");
+		retval.setProperty("bp_huge_page_dir", "");
+		retval.setProperty("io_threads_per_device", "2");
+		retval.setProperty("io_queue_size", "256");
+		retval.setProperty("io_max_coalesce", "16");
+		retval.setProperty("adaptive_read_ahead", "true");
+		retval.setProperty("mmap_files", "");
 		HParmsDefaults.retval = retval;
 		return retval;
 	}
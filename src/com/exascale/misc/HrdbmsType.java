@@ -96,7 +96,9 @@ public enum HrdbmsType {
     ALO, // 92 - ArrayList of Objects
     CSVEXTERNALTABLE, // 93 - External Table Implementation
     CSVEXTERNALPARAMS, // 94 - External Table Parameters
-    HDFSCSVEXTERNALTABLE; // 95 - HDFS External Table Implementation
+    HDFSCSVEXTERNALTABLE, // 95 - HDFS External Table Implementation
+    TOPN, // 96 - TopN
+    APPROXCOUNTDISTINCT; // 97 - ApproxCountDistinct
     // Make sure to add new values at the end to maintain the above ordinals as they should be.
 
     public static HrdbmsType fromInt(int value) { return HrdbmsType.values()[value]; }
@@ -0,0 +1,294 @@
+package com.exascale.misc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog++ distinct value sketch over 64 bit hashes. Small sketches use
+ * the sparse representation, a hash set of (register, value) pairs, and are
+ * converted to the dense array of 2^p registers once that is smaller.
+ * Sketches with the same precision can be merged, so partial sketches built
+ * by different threads or nodes can be combined into one.
+ *
+ * The estimate is linear counting while the raw HyperLogLog estimate is
+ * below 2.5 * 2^p and the raw estimate above that, the empirical bias
+ * correction tables of HLL++ are not used.
+ */
+public final class HyperLogLog
+{
+	private final int p;
+	private final int m;
+	private byte[] dense;
+	// (register << 6) | value, 0 means empty
+	private int[] sparse;
+	private int sparseSize;
+
+	public HyperLogLog(final int p)
+	{
+		if (p < 4 || p > 18)
+		{
+			throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+		}
+
+		this.p = p;
+		m = 1 << p;
+		sparse = new int[16];
+	}
+
+	public static HyperLogLog fromBytes(final byte[] data)
+	{
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final HyperLogLog retval = new HyperLogLog(bb.get());
+		if (bb.get() == 0)
+		{
+			final int size = bb.getInt();
+			int i = 0;
+			while (i < size)
+			{
+				final int entry = bb.getInt();
+				retval.add(entry >>> 6, entry & 0x3f);
+				i++;
+			}
+		}
+		else
+		{
+			retval.sparse = null;
+			retval.dense = new byte[retval.m];
+			bb.get(retval.dense);
+		}
+
+		return retval;
+	}
+
+	/** Sketches are carried in rows as strings with one char per byte */
+	public static HyperLogLog fromString(final String data)
+	{
+		return fromBytes(data.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static int mix(final int reg)
+	{
+		return reg * 0x9E3779B1;
+	}
+
+	public void add(final long hash)
+	{
+		final int reg = (int)(hash >>> (64 - p));
+		final long w = (hash << p) | (1L << (p - 1));
+		add(reg, Long.numberOfLeadingZeros(w) + 1);
+	}
+
+	public long cardinality()
+	{
+		int zeros;
+		if (dense == null)
+		{
+			zeros = m - sparseSize;
+		}
+		else
+		{
+			zeros = 0;
+			for (final byte b : dense)
+			{
+				if (b == 0)
+				{
+					zeros++;
+				}
+			}
+		}
+
+		double sum = 0;
+		if (dense == null)
+		{
+			sum = zeros;
+			for (final int entry : sparse)
+			{
+				if (entry != 0)
+				{
+					sum += 1.0 / (1L << (entry & 0x3f));
+				}
+			}
+		}
+		else
+		{
+			for (final byte b : dense)
+			{
+				sum += 1.0 / (1L << b);
+			}
+		}
+
+		final double raw = alpha() * m * m / sum;
+		if (zeros > 0 && raw <= 2.5 * m)
+		{
+			return Math.round(m * Math.log((double)m / zeros));
+		}
+
+		return Math.round(raw);
+	}
+
+	public int getPrecision()
+	{
+		return p;
+	}
+
+	public void merge(final HyperLogLog rhs)
+	{
+		if (rhs.p != p)
+		{
+			throw new IllegalArgumentException("Can't merge HyperLogLog sketches of different precisions");
+		}
+
+		if (rhs.dense == null)
+		{
+			for (final int entry : rhs.sparse)
+			{
+				if (entry != 0)
+				{
+					add(entry >>> 6, entry & 0x3f);
+				}
+			}
+
+			return;
+		}
+
+		if (dense == null)
+		{
+			toDense();
+		}
+
+		int i = 0;
+		while (i < m)
+		{
+			if (rhs.dense[i] > dense[i])
+			{
+				dense[i] = rhs.dense[i];
+			}
+
+			i++;
+		}
+	}
+
+	public byte[] toBytes()
+	{
+		if (dense == null)
+		{
+			final ByteBuffer bb = ByteBuffer.allocate(6 + (sparseSize << 2));
+			bb.put((byte)p);
+			bb.put((byte)0);
+			bb.putInt(sparseSize);
+			for (final int entry : sparse)
+			{
+				if (entry != 0)
+				{
+					bb.putInt(entry);
+				}
+			}
+
+			return bb.array();
+		}
+
+		final byte[] retval = new byte[2 + m];
+		retval[0] = (byte)p;
+		retval[1] = 1;
+		System.arraycopy(dense, 0, retval, 2, m);
+		return retval;
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(toBytes(), StandardCharsets.ISO_8859_1);
+	}
+
+	private void add(final int reg, final int val)
+	{
+		if (dense != null)
+		{
+			if (val > dense[reg])
+			{
+				dense[reg] = (byte)val;
+			}
+
+			return;
+		}
+
+		final int mask = sparse.length - 1;
+		int slot = mix(reg) & mask;
+		while (true)
+		{
+			final int entry = sparse[slot];
+			if (entry == 0)
+			{
+				sparse[slot] = (reg << 6) | val;
+				sparseSize++;
+				break;
+			}
+
+			if ((entry >>> 6) == reg)
+			{
+				if (val > (entry & 0x3f))
+				{
+					sparse[slot] = (reg << 6) | val;
+				}
+
+				return;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		// a sparse entry costs 8 bytes of table at half load
+		if ((sparseSize << 3) > m)
+		{
+			toDense();
+		}
+		else if (sparseSize > (sparse.length >>> 1))
+		{
+			final int[] old = sparse;
+			sparse = new int[old.length << 1];
+			sparseSize = 0;
+			for (final int entry : old)
+			{
+				if (entry != 0)
+				{
+					add(entry >>> 6, entry & 0x3f);
+				}
+			}
+		}
+	}
+
+	private double alpha()
+	{
+		if (m == 16)
+		{
+			return 0.673;
+		}
+
+		if (m == 32)
+		{
+			return 0.697;
+		}
+
+		if (m == 64)
+		{
+			return 0.709;
+		}
+
+		return 0.7213 / (1.0 + 1.079 / m);
+	}
+
+	private void toDense()
+	{
+		dense = new byte[m];
+		for (final int entry : sparse)
+		{
+			if (entry != 0)
+			{
+				dense[entry >>> 6] = (byte)(entry & 0x3f);
+			}
+		}
+
+		sparse = null;
+		sparseSize = 0;
+	}
+}
@@ -0,0 +1,90 @@
+package com.exascale.misc;
+
+/**
+ * Checks the HyperLogLog estimates against exact counts, that merging
+ * partial sketches, sparse or dense, gives the same estimate as one sketch
+ * over all the values, and that sketches survive the string round trip rows
+ * carry them in.
+ */
+public class HyperLogLogTest
+{
+	private static final int P = 14;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final long[] counts = { 0, 1, 10, 100, 1000, 10000, 100000, 1000000 };
+		for (final long n : counts)
+		{
+			final HyperLogLog hll = new HyperLogLog(P);
+			long i = 0;
+			while (i < n)
+			{
+				// every value twice, duplicates must not count
+				hll.add(hash(i));
+				hll.add(hash(i));
+				i++;
+			}
+
+			final long estimate = hll.cardinality();
+			// the standard error at p = 14 is about 0.8%
+			check(Math.abs(estimate - n) <= Math.max(1, n * 0.04), "estimate " + estimate + " for " + n);
+			check(HyperLogLog.fromString(hll.toString()).cardinality() == estimate, "round trip of " + n);
+		}
+
+		// four overlapping partial sketches, two stay sparse
+		final long[] sizes = { 50, 500, 50000, 200000 };
+		final HyperLogLog all = new HyperLogLog(P);
+		final HyperLogLog merged = new HyperLogLog(P);
+		long start = 0;
+		for (final long size : sizes)
+		{
+			final HyperLogLog part = new HyperLogLog(P);
+			long i = start;
+			while (i < start + size)
+			{
+				part.add(hash(i));
+				all.add(hash(i));
+				i++;
+			}
+
+			merged.merge(HyperLogLog.fromBytes(part.toBytes()));
+			start += size / 2;
+		}
+
+		check(merged.cardinality() == all.cardinality(), "merged " + merged.cardinality() + " vs " + all.cardinality());
+
+		// a dense sketch merged into a sparse one
+		final HyperLogLog small = new HyperLogLog(P);
+		small.add(hash(-1));
+		small.merge(all);
+		all.add(hash(-1));
+		check(small.cardinality() == all.cardinality(), "sparse merged with dense");
+
+		try
+		{
+			small.merge(new HyperLogLog(P - 1));
+			check(false, "merged sketches of different precisions");
+		}
+		catch (final IllegalArgumentException e)
+		{
+		}
+
+		System.out.println("HyperLogLogTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("HyperLogLogTest failed: " + what);
+		}
+	}
+
+	private static long hash(final long val)
+	{
+		long h = val + 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+}
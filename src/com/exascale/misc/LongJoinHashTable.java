@@ -0,0 +1,297 @@
+package com.exascale.misc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hash join build table keyed by 64-bit hashes. Each stripe is an open
+ * addressing table with linear probing that maps a key to the head of a chain
+ * of entries. Entries are held in parallel primitive arrays (next pointer and
+ * payload offset) and the payload bytes are appended to large byte[] slabs,
+ * so the number of objects the GC has to trace does not grow with the number
+ * of rows. Inserts may come from several threads, each stripe is locked on
+ * its own. Lookups must not overlap with inserts.
+ *
+ * An entry is referenced by a long holding the stripe in the upper half and
+ * the entry index in the lower half, -1 means no entry.
+ */
+public final class LongJoinHashTable
+{
+	private static final int MAX_SLAB = 16 * 1024 * 1024;
+	private final Stripe[] stripes;
+	private final int stripeShift;
+
+	public LongJoinHashTable(final int concurrency)
+	{
+		int num = 1;
+		while (num < concurrency)
+		{
+			num <<= 1;
+		}
+
+		stripes = new Stripe[num];
+		int i = 0;
+		while (i < num)
+		{
+			stripes[i++] = new Stripe();
+		}
+
+		stripeShift = 64 - Integer.numberOfTrailingZeros(num);
+	}
+
+	private static long mix(final long key)
+	{
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	public void clear()
+	{
+		for (final Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				stripe.clear();
+			}
+		}
+	}
+
+	/** Number of rows with the given key */
+	public int count(final long key)
+	{
+		int retval = 0;
+		long ref = first(key);
+		while (ref != -1)
+		{
+			retval++;
+			ref = next(ref);
+		}
+
+		return retval;
+	}
+
+	/** Number of distinct keys */
+	public long keys()
+	{
+		long retval = 0;
+		for (final Stripe stripe : stripes)
+		{
+			retval += stripe.numKeys;
+		}
+
+		return retval;
+	}
+
+	public long first(final long key)
+	{
+		final long h = mix(key);
+		final int s = stripeShift == 64 ? 0 : (int)(h >>> stripeShift);
+		final int entry = stripes[s].head(key, h);
+		if (entry == -1)
+		{
+			return -1;
+		}
+
+		return (((long)s) << 32) | entry;
+	}
+
+	public long next(final long ref)
+	{
+		final int s = (int)(ref >>> 32);
+		final int entry = stripes[s].next[(int)ref];
+		if (entry == -1)
+		{
+			return -1;
+		}
+
+		return (ref & 0xFFFFFFFF00000000L) | entry;
+	}
+
+	public void put(final long key, final byte[] row)
+	{
+		final long h = mix(key);
+		final Stripe stripe = stripes[stripeShift == 64 ? 0 : (int)(h >>> stripeShift)];
+		synchronized (stripe)
+		{
+			stripe.put(key, h, row);
+		}
+	}
+
+	/** Returns a buffer positioned at the start of the payload */
+	public ByteBuffer row(final long ref)
+	{
+		final Stripe stripe = stripes[(int)(ref >>> 32)];
+		final long addr = stripe.addrs[(int)ref];
+		final byte[] slab = stripe.slabs[(int)(addr >>> 32)];
+		final int off = (int)addr;
+		final int len = ((slab[off] & 0xff) << 24) | ((slab[off + 1] & 0xff) << 16) | ((slab[off + 2] & 0xff) << 8) | (slab[off + 3] & 0xff);
+		return ByteBuffer.wrap(slab, off + 4, len);
+	}
+
+	public long size()
+	{
+		long retval = 0;
+		for (final Stripe stripe : stripes)
+		{
+			retval += stripe.numEntries;
+		}
+
+		return retval;
+	}
+
+	private static final class Stripe
+	{
+		private long[] keys;
+		// entry index + 1 of the newest entry for the slot, 0 means empty
+		private int[] heads;
+		private int mask;
+		private int numKeys;
+		private int[] next;
+		private long[] addrs;
+		private int numEntries;
+		private byte[][] slabs;
+		private int numSlabs;
+		private int slabPos;
+
+		private Stripe()
+		{
+			clear();
+		}
+
+		private void addSlab(final int minSize)
+		{
+			int size = numSlabs == 0 ? 4096 : Math.min(MAX_SLAB, slabs[numSlabs - 1].length << 1);
+			if (size < minSize)
+			{
+				size = minSize;
+			}
+
+			if (numSlabs == slabs.length)
+			{
+				final byte[][] temp = new byte[slabs.length << 1][];
+				System.arraycopy(slabs, 0, temp, 0, numSlabs);
+				slabs = temp;
+			}
+
+			slabs[numSlabs++] = new byte[size];
+			slabPos = 0;
+		}
+
+		private void clear()
+		{
+			keys = new long[16];
+			heads = new int[16];
+			mask = 15;
+			numKeys = 0;
+			next = new int[16];
+			addrs = new long[16];
+			numEntries = 0;
+			slabs = new byte[4][];
+			numSlabs = 0;
+			slabPos = 0;
+		}
+
+		private int head(final long key, final long h)
+		{
+			int slot = (int)h & mask;
+			while (true)
+			{
+				final int head = heads[slot];
+				if (head == 0)
+				{
+					return -1;
+				}
+
+				if (keys[slot] == key)
+				{
+					return head - 1;
+				}
+
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		private void put(final long key, final long h, final byte[] row)
+		{
+			final int needed = row.length + 4;
+			if (numSlabs == 0 || slabPos + needed > slabs[numSlabs - 1].length)
+			{
+				addSlab(needed);
+			}
+
+			final byte[] slab = slabs[numSlabs - 1];
+			final int off = slabPos;
+			slab[off] = (byte)(row.length >>> 24);
+			slab[off + 1] = (byte)(row.length >>> 16);
+			slab[off + 2] = (byte)(row.length >>> 8);
+			slab[off + 3] = (byte)row.length;
+			System.arraycopy(row, 0, slab, off + 4, row.length);
+			slabPos += needed;
+
+			if (numEntries == next.length)
+			{
+				final int[] temp = new int[next.length << 1];
+				System.arraycopy(next, 0, temp, 0, numEntries);
+				next = temp;
+				final long[] temp2 = new long[addrs.length << 1];
+				System.arraycopy(addrs, 0, temp2, 0, numEntries);
+				addrs = temp2;
+			}
+
+			final int entry = numEntries++;
+			addrs[entry] = (((long)(numSlabs - 1)) << 32) | off;
+
+			int slot = (int)h & mask;
+			while (true)
+			{
+				final int head = heads[slot];
+				if (head == 0)
+				{
+					keys[slot] = key;
+					heads[slot] = entry + 1;
+					next[entry] = -1;
+					if (++numKeys > (heads.length >>> 1))
+					{
+						rehash();
+					}
+
+					return;
+				}
+
+				if (keys[slot] == key)
+				{
+					next[entry] = head - 1;
+					heads[slot] = entry + 1;
+					return;
+				}
+
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		private void rehash()
+		{
+			final long[] oldKeys = keys;
+			final int[] oldHeads = heads;
+			keys = new long[oldKeys.length << 1];
+			heads = new int[oldHeads.length << 1];
+			mask = heads.length - 1;
+			int i = 0;
+			while (i < oldHeads.length)
+			{
+				if (oldHeads[i] != 0)
+				{
+					int slot = (int)mix(oldKeys[i]) & mask;
+					while (heads[slot] != 0)
+					{
+						slot = (slot + 1) & mask;
+					}
+
+					keys[slot] = oldKeys[i];
+					heads[slot] = oldHeads[i];
+				}
+
+				i++;
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.exascale.misc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Checks LongJoinHashTable against a HashMap of lists, with concurrent
+ * inserts, duplicate keys, edge case keys and enough rows to grow the tables
+ * and fill more than one slab.
+ */
+public class LongJoinHashTableTest
+{
+	private static final int THREADS = 4;
+	private static final int ROWS = 200000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final LongJoinHashTable table = new LongJoinHashTable(THREADS);
+		final ArrayList<HashMap<Long, ArrayList<Integer>>> expected = new ArrayList<HashMap<Long, ArrayList<Integer>>>();
+		final Thread[] threads = new Thread[THREADS];
+		int i = 0;
+		while (i < THREADS)
+		{
+			final HashMap<Long, ArrayList<Integer>> map = new HashMap<Long, ArrayList<Integer>>();
+			expected.add(map);
+			threads[i] = new PutThread(table, map, i);
+			threads[i].start();
+			i++;
+		}
+
+		for (final Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		final HashMap<Long, ArrayList<Integer>> all = new HashMap<Long, ArrayList<Integer>>();
+		for (final HashMap<Long, ArrayList<Integer>> map : expected)
+		{
+			for (final Long key : map.keySet())
+			{
+				ArrayList<Integer> vals = all.get(key);
+				if (vals == null)
+				{
+					vals = new ArrayList<Integer>();
+					all.put(key, vals);
+				}
+
+				vals.addAll(map.get(key));
+			}
+		}
+
+		check(table.size() == (long)ROWS * THREADS, "size " + table.size());
+		check(table.keys() == all.size(), "keys " + table.keys() + " expected " + all.size());
+		for (final Long key : all.keySet())
+		{
+			final ArrayList<Integer> vals = all.get(key);
+			check(table.count(key) == vals.size(), "count of " + key);
+			final ArrayList<Integer> found = new ArrayList<Integer>();
+			long ref = table.first(key);
+			while (ref != -1)
+			{
+				final ByteBuffer bb = table.row(ref);
+				check(bb.remaining() == 12, "payload length of " + key);
+				check(bb.getLong() == key, "payload key of " + key);
+				found.add(bb.getInt());
+				ref = table.next(ref);
+			}
+
+			check(found.containsAll(vals) && vals.containsAll(found), "payloads of " + key);
+		}
+
+		final Random random = new Random(7);
+		i = 0;
+		while (i < 10000)
+		{
+			final long key = random.nextLong();
+			if (!all.containsKey(key))
+			{
+				check(table.first(key) == -1, "missing key " + key + " found");
+			}
+
+			i++;
+		}
+
+		table.clear();
+		check(table.size() == 0 && table.keys() == 0, "clear");
+		check(table.first(0) == -1, "key 0 after clear");
+		table.put(0, row(0, 1));
+		check(table.count(0) == 1, "reuse after clear");
+		System.out.println("LongJoinHashTableTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("LongJoinHashTableTest failed: " + what);
+		}
+	}
+
+	private static byte[] row(final long key, final int val)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(12);
+		bb.putLong(key);
+		bb.putInt(val);
+		return bb.array();
+	}
+
+	private static final class PutThread extends Thread
+	{
+		private static final long[] EDGES = { 0, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE };
+		private final LongJoinHashTable table;
+		private final HashMap<Long, ArrayList<Integer>> map;
+		private final int id;
+
+		private PutThread(final LongJoinHashTable table, final HashMap<Long, ArrayList<Integer>> map, final int id)
+		{
+			this.table = table;
+			this.map = map;
+			this.id = id;
+		}
+
+		@Override
+		public void run()
+		{
+			final Random random = new Random(id);
+			int i = 0;
+			while (i < ROWS)
+			{
+				// mostly duplicated keys, some unique ones and the edge cases
+				final long key;
+				if (i < EDGES.length)
+				{
+					key = EDGES[i];
+				}
+				else if ((i & 3) == 0)
+				{
+					key = random.nextLong();
+				}
+				else
+				{
+					key = random.nextInt(5000);
+				}
+
+				final int val = id * ROWS + i;
+				table.put(key, row(key, val));
+				ArrayList<Integer> vals = map.get(key);
+				if (vals == null)
+				{
+					vals = new ArrayList<Integer>();
+					map.put(key, vals);
+				}
+
+				vals.add(val);
+				i++;
+			}
+		}
+	}
+}
@@ -35,6 +35,19 @@ public class SPSCQueue
 		return q[(int)((head + 1) & (length - 1))];
 	}
 
+	/** Puts o if there is room and returns false otherwise */
+	public boolean offer(final Object o)
+	{
+		if (tail - head > length)
+		{
+			return false;
+		}
+
+		q[(int)(tail & (length - 1))] = o;
+		tail++;
+		return true;
+	}
+
 	public void put(final Object o)
 	{
 		while (tail - head > length)
@@ -0,0 +1,92 @@
+package com.exascale.misc;
+
+import java.util.Arrays;
+
+/**
+ * Space-saving heavy hitter sketch over 64 bit keys. Keeps a fixed number of
+ * counters, a key that isn't counted yet takes over the smallest counter and
+ * remembers its count as the error. Any key that occurs more than n /
+ * capacity times is guaranteed to be counted.
+ */
+public final class SpaceSaving
+{
+	private final long[] keys;
+	private final long[] counts;
+	private final long[] errors;
+	private int size = 0;
+	private long total = 0;
+
+	public SpaceSaving(final int capacity)
+	{
+		keys = new long[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+	}
+
+	public void add(final long key)
+	{
+		total++;
+		int i = 0;
+		while (i < size)
+		{
+			if (keys[i] == key)
+			{
+				counts[i]++;
+				return;
+			}
+
+			i++;
+		}
+
+		if (size < keys.length)
+		{
+			keys[size] = key;
+			counts[size] = 1;
+			errors[size] = 0;
+			size++;
+			return;
+		}
+
+		int min = 0;
+		i = 1;
+		while (i < size)
+		{
+			if (counts[i] < counts[min])
+			{
+				min = i;
+			}
+
+			i++;
+		}
+
+		keys[min] = key;
+		errors[min] = counts[min];
+		counts[min]++;
+	}
+
+	/** Sorted keys that were seen at least min times for sure */
+	public long[] heavy(final long min)
+	{
+		final long[] retval = new long[size];
+		int num = 0;
+		int i = 0;
+		while (i < size)
+		{
+			if (counts[i] - errors[i] >= min)
+			{
+				retval[num++] = keys[i];
+			}
+
+			i++;
+		}
+
+		final long[] heavy = Arrays.copyOf(retval, num);
+		Arrays.sort(heavy);
+		return heavy;
+	}
+
+	public long total()
+	{
+		return total;
+	}
+}
@@ -0,0 +1,106 @@
+package com.exascale.misc;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Feeds SpaceSaving a skewed stream and checks its guarantees against exact
+ * counts: every key seen more than n / capacity times is kept, heavy(min)
+ * only returns keys seen at least min times, and it returns every key seen
+ * at least min + n / capacity times, sorted.
+ */
+public class SpaceSavingTest
+{
+	private static final int CAPACITY = 64;
+	private static final int N = 500000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final SpaceSaving sketch = new SpaceSaving(CAPACITY);
+		final HashMap<Long, Long> exact = new HashMap<Long, Long>();
+		final Random random = new Random(9);
+		int i = 0;
+		while (i < N)
+		{
+			// a few hot keys and a long tail
+			final long key;
+			final int r = random.nextInt(100);
+			if (r < 20)
+			{
+				key = -7;
+			}
+			else if (r < 30)
+			{
+				key = 1L << 40;
+			}
+			else if (r < 35)
+			{
+				key = random.nextInt(4);
+			}
+			else
+			{
+				key = random.nextInt(1000000) + 100;
+			}
+
+			sketch.add(key);
+			final Long count = exact.get(key);
+			exact.put(key, count == null ? 1 : count + 1);
+			i++;
+		}
+
+		check(sketch.total() == N, "total " + sketch.total());
+		final long bound = N / CAPACITY;
+		final long[] kept = sketch.heavy(0);
+		check(kept.length == CAPACITY, "kept " + kept.length + " keys");
+		for (final Long key : exact.keySet())
+		{
+			if (exact.get(key) > bound)
+			{
+				check(contains(kept, key), "heavy key " + key + " was dropped");
+			}
+		}
+
+		for (final long min : new long[] { 1000, 10000, 50000 })
+		{
+			final long[] heavy = sketch.heavy(min);
+			i = 0;
+			while (i < heavy.length)
+			{
+				check(i == 0 || heavy[i - 1] < heavy[i], "heavy(" + min + ") isn't sorted");
+				check(exact.get(heavy[i]) >= min, "heavy(" + min + ") returned " + heavy[i] + " seen " + exact.get(heavy[i]) + " times");
+				i++;
+			}
+
+			for (final Long key : exact.keySet())
+			{
+				if (exact.get(key) >= min + bound)
+				{
+					check(contains(heavy, key), "heavy(" + min + ") missed " + key);
+				}
+			}
+		}
+
+		System.out.println("SpaceSavingTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("SpaceSavingTest failed: " + what);
+		}
+	}
+
+	private static boolean contains(final long[] keys, final long key)
+	{
+		for (final long k : keys)
+		{
+			if (k == key)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
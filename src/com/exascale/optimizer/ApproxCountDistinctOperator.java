@@ -0,0 +1,323 @@
+package com.exascale.optimizer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.ResourceManager;
+import com.exascale.misc.HrdbmsType;
+import com.exascale.misc.HyperLogLog;
+import com.exascale.misc.MurmurHash;
+import com.exascale.misc.MyDate;
+
+/**
+ * APPROX_COUNT_DISTINCT(), estimates the number of distinct values with a
+ * HyperLogLog sketch per group instead of keeping the values. When the group
+ * by is split into partial and final aggregations, the partial operators
+ * output their sketches as CHAR columns and the final operator merges them.
+ */
+public final class ApproxCountDistinctOperator implements AggregateOperator, Serializable
+{
+	private static int PRECISION;
+	private static sun.misc.Unsafe unsafe;
+
+	static
+	{
+		try
+		{
+			final Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (sun.misc.Unsafe)f.get(null);
+			PRECISION = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("hll_precision"));
+		}
+		catch (final Exception e)
+		{
+			unsafe = null;
+			PRECISION = 14;
+		}
+	}
+
+	private String input;
+	private String output;
+	private transient final MetaData meta;
+
+	private long NUM_GROUPS = 16;
+	private int precision;
+	// input values are sketches from partial aggregations
+	private boolean merge = false;
+	// output the sketch instead of the estimate
+	private boolean partial = false;
+
+	public ApproxCountDistinctOperator(final String input, final String output, final MetaData meta)
+	{
+		this.input = input;
+		this.output = output;
+		this.meta = meta;
+		precision = PRECISION;
+	}
+
+	public static ApproxCountDistinctOperator deserialize(final InputStream in, final HashMap<Long, Object> prev) throws Exception
+	{
+		final ApproxCountDistinctOperator value = (ApproxCountDistinctOperator)unsafe.allocateInstance(ApproxCountDistinctOperator.class);
+		prev.put(OperatorUtils.readLong(in), value);
+		value.input = OperatorUtils.readString(in, prev);
+		value.output = OperatorUtils.readString(in, prev);
+		value.NUM_GROUPS = OperatorUtils.readLong(in);
+		value.precision = OperatorUtils.readInt(in);
+		value.merge = OperatorUtils.readBool(in);
+		value.partial = OperatorUtils.readBool(in);
+		return value;
+	}
+
+	private static long hash(final Object o)
+	{
+		byte[] data;
+		if (o instanceof String)
+		{
+			data = ((String)o).getBytes(StandardCharsets.UTF_8);
+		}
+		else
+		{
+			long val;
+			int len = 8;
+			if (o instanceof Long)
+			{
+				val = (Long)o;
+			}
+			else if (o instanceof Integer)
+			{
+				val = (Integer)o;
+				len = 4;
+			}
+			else if (o instanceof Double)
+			{
+				val = Double.doubleToLongBits((Double)o);
+			}
+			else
+			{
+				val = ((MyDate)o).getTime();
+				len = 4;
+			}
+
+			data = new byte[len];
+			int i = 0;
+			while (i < len)
+			{
+				data[i] = (byte)(val >>> (i << 3));
+				i++;
+			}
+		}
+
+		return MurmurHash.hash64(data, data.length);
+	}
+
+	@Override
+	public ApproxCountDistinctOperator clone()
+	{
+		final ApproxCountDistinctOperator retval = new ApproxCountDistinctOperator(input, output, meta);
+		retval.precision = precision;
+		retval.merge = merge;
+		retval.partial = partial;
+		return retval;
+	}
+
+	@Override
+	public AggregateResultThread getHashThread(final HashMap<String, Integer> cols2Pos)
+	{
+		return new ApproxHashThread(cols2Pos);
+	}
+
+	@Override
+	public String getInputColumn()
+	{
+		return input;
+	}
+
+	public boolean isMerge()
+	{
+		return merge;
+	}
+
+	public boolean isPartial()
+	{
+		return partial;
+	}
+
+	@Override
+	public AggregateResultThread newProcessingThread(final ArrayList<ArrayList<Object>> rows, final HashMap<String, Integer> cols2Pos)
+	{
+		return new ApproxThread(rows, cols2Pos);
+	}
+
+	@Override
+	public String outputColumn()
+	{
+		return output;
+	}
+
+	@Override
+	public String outputType()
+	{
+		if (partial)
+		{
+			return "CHAR";
+		}
+
+		return "LONG";
+	}
+
+	@Override
+	public void serialize(final OutputStream out, final IdentityHashMap<Object, Long> prev) throws Exception
+	{
+		final Long id = prev.get(this);
+		if (id != null)
+		{
+			OperatorUtils.serializeReference(id, out);
+			return;
+		}
+
+		OperatorUtils.writeType(HrdbmsType.APPROXCOUNTDISTINCT, out);
+		prev.put(this, OperatorUtils.writeID(out));
+		OperatorUtils.writeString(input, out, prev);
+		OperatorUtils.writeString(output, out, prev);
+		OperatorUtils.writeLong(NUM_GROUPS, out);
+		OperatorUtils.writeInt(precision, out);
+		OperatorUtils.writeBool(merge, out);
+		OperatorUtils.writeBool(partial, out);
+	}
+
+	@Override
+	public void setInput(final String col)
+	{
+		input = col;
+	}
+
+	@Override
+	public void setInputColumn(final String col)
+	{
+		input = col;
+	}
+
+	public void setMerge()
+	{
+		merge = true;
+	}
+
+	@Override
+	public void setNumGroups(final long groups)
+	{
+		NUM_GROUPS = groups;
+	}
+
+	public void setPartial()
+	{
+		partial = true;
+	}
+
+	private void add(final HyperLogLog sketch, final Object val)
+	{
+		if (merge)
+		{
+			sketch.merge(HyperLogLog.fromString((String)val));
+		}
+		else
+		{
+			sketch.add(hash(val));
+		}
+	}
+
+	private Object result(final HyperLogLog sketch)
+	{
+		if (partial)
+		{
+			return sketch.toString();
+		}
+
+		return sketch.cardinality();
+	}
+
+	private final class ApproxHashThread extends AggregateResultThread
+	{
+		private ConcurrentHashMap<ArrayList<Object>, HyperLogLog> results = new ConcurrentHashMap<ArrayList<Object>, HyperLogLog>(NUM_GROUPS <= Integer.MAX_VALUE ? (int)NUM_GROUPS : Integer.MAX_VALUE, 0.75f, 6 * ResourceManager.cpus);
+		private final int pos;
+
+		public ApproxHashThread(final HashMap<String, Integer> cols2Pos)
+		{
+			pos = cols2Pos.get(input);
+		}
+
+		@Override
+		public void close()
+		{
+			results = null;
+		}
+
+		@Override
+		public Object getResult(final ArrayList<Object> keys)
+		{
+			return result(results.get(keys));
+		}
+
+		// @Parallel
+		@Override
+		public final void put(final ArrayList<Object> row, final ArrayList<Object> group)
+		{
+			HyperLogLog sketch = results.get(group);
+			if (sketch == null)
+			{
+				sketch = new HyperLogLog(precision);
+				final HyperLogLog prev = results.putIfAbsent(group, sketch);
+				if (prev != null)
+				{
+					sketch = prev;
+				}
+			}
+
+			synchronized (sketch)
+			{
+				add(sketch, row.get(pos));
+			}
+		}
+	}
+
+	private final class ApproxThread extends AggregateResultThread
+	{
+		private final ArrayList<ArrayList<Object>> rows;
+		private final HyperLogLog sketch = new HyperLogLog(precision);
+		private final int pos;
+
+		public ApproxThread(final ArrayList<ArrayList<Object>> rows, final HashMap<String, Integer> cols2Pos)
+		{
+			this.rows = rows;
+			pos = cols2Pos.get(input);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public Object getResult()
+		{
+			return result(sketch);
+		}
+
+		@Override
+		public void run()
+		{
+			int z = 0;
+			final int limit = rows.size();
+			while (z < limit)
+			{
+				add(sketch, rows.get(z++).get(pos));
+			}
+		}
+	}
+}
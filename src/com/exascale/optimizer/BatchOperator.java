@@ -0,0 +1,12 @@
+package com.exascale.optimizer;
+
+/** An operator that can hand its output to a parent as typed column vectors */
+public interface BatchOperator extends Operator
+{
+	/**
+	 * Returns a ColumnBatch with at least one selected row, or a
+	 * DataEndMarker once the operator is exhausted. A parent must use either
+	 * next() or nextBatch() on a given child, never both.
+	 */
+	public Object nextBatch(Operator op) throws Exception;
+}
@@ -23,6 +23,7 @@ public class CNFFilter implements Serializable
 	private static final int HASH_THRESHOLD = 10;
 	private static int pbpeVer;
 	private static boolean isV7;
+	private static boolean compile;
 
 	static
 	{
@@ -33,6 +34,7 @@ public class CNFFilter implements Serializable
 			unsafe = (sun.misc.Unsafe)f.get(null);
 			pbpeVer = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("pbpe_version"));
 			isV7 = (pbpeVer == 7);
+			compile = HRDBMSWorker.getHParms().getProperty("compile_predicates").equals("true");
 		}
 		catch (final Exception e)
 		{
@@ -61,6 +63,8 @@ public class CNFFilter implements Serializable
 
 	private transient HashSet<Filter> falseForPage;
 
+	private transient volatile CompiledCNF compiled;
+
 	public CNFFilter()
 	{
 	}
@@ -679,6 +683,17 @@ public class CNFFilter implements Serializable
 
 			return retval;
 		}
+		else if (compile && cols2Pos != null)
+		{
+			CompiledCNF c = compiled;
+			if (c == null)
+			{
+				c = new CompiledCNF(this, filters, cols2Pos, row);
+				compiled = c;
+			}
+
+			return c.passes(row);
+		}
 		else
 		{
 			while (z < limit)
@@ -790,6 +805,7 @@ public class CNFFilter implements Serializable
 	public void setHSHM(final HashSet<HashMap<Filter, Filter>> hshm)
 	{
 		filters = new ArrayList<>(hshm.size());
+		compiled = null;
 		for (final HashMap<Filter, Filter> hm : hshm)
 		{
 			final ArrayList<Filter> ors = new ArrayList<Filter>(hm.keySet());
@@ -815,6 +831,18 @@ public class CNFFilter implements Serializable
 	public void updateCols2Pos(final HashMap<String, Integer> cols2Pos)
 	{
 		this.cols2Pos = cols2Pos;
+		compiled = null;
+	}
+
+	/** True if the ored condition is evaluated with passesHashed() */
+	boolean useHash(final ArrayList<Filter> filter)
+	{
+		return filter.size() >= HASH_THRESHOLD && hashEligible(filter);
+	}
+
+	boolean passesHashed(final ArrayList<Filter> filter, final ArrayList<Object> row) throws Exception
+	{
+		return passesOredConditionHash(filter, row);
 	}
 
 	private int computeHashColPos(final ArrayList<Filter> filter)
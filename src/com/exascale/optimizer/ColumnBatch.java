@@ -0,0 +1,1109 @@
+package com.exascale.optimizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.misc.DataEndMarker;
+import com.exascale.misc.MyDate;
+
+/**
+ * A batch of rows stored as typed column vectors. Strings are dictionary
+ * coded per batch, every column has a null bitmap, and the rows that are still
+ * live are described by a selection vector so that filters never have to
+ * copy data.
+ */
+public final class ColumnBatch
+{
+	public static final byte LONG = 0;
+	public static final byte INT = 1;
+	public static final byte DOUBLE = 2;
+	public static final byte DATE = 3;
+	public static final byte STRING = 4;
+	public static final byte OBJECT = 5;
+	// in place of the field count that starts a row record on the network
+	public static final int SCHEMA_FRAME = -1;
+	public static final int BATCH_FRAME = -2;
+	public static int BATCH_SIZE;
+
+	private static final int OP_E = 0;
+	private static final int OP_NE = 1;
+	private static final int OP_L = 2;
+	private static final int OP_LE = 3;
+	private static final int OP_G = 4;
+	private static final int OP_GE = 5;
+	private static final int OP_OTHER = 6;
+
+	static
+	{
+		try
+		{
+			BATCH_SIZE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("column_batch_size"));
+		}
+		catch (final Exception e)
+		{
+			BATCH_SIZE = 1024;
+		}
+	}
+
+	private ColumnVector[] cols;
+	private final int capacity;
+	private int size = 0;
+	private int[] sel = null;
+	private int selSize = 0;
+
+	public ColumnBatch(final byte[] types, final int capacity)
+	{
+		this.capacity = capacity;
+		cols = new ColumnVector[types.length];
+		int i = 0;
+		while (i < types.length)
+		{
+			cols[i] = new ColumnVector(types[i], capacity);
+			i++;
+		}
+	}
+
+	private ColumnBatch(final ColumnVector[] cols, final int capacity)
+	{
+		this.cols = cols;
+		this.capacity = capacity;
+	}
+
+	/** Pulls rows from a child one at a time until a batch is full */
+	public static Object fill(final Operator child, final Operator caller) throws Exception
+	{
+		ColumnBatch batch = null;
+		while (true)
+		{
+			final Object o = child.next(caller);
+			if (o instanceof DataEndMarker)
+			{
+				if (batch == null)
+				{
+					return o;
+				}
+
+				return batch;
+			}
+
+			if (o instanceof Exception)
+			{
+				throw (Exception)o;
+			}
+
+			if (batch == null)
+			{
+				batch = new ColumnBatch(types(child.getCols2Types(), child.getPos2Col()), BATCH_SIZE);
+			}
+
+			if (batch.add((ArrayList<Object>)o))
+			{
+				return batch;
+			}
+		}
+	}
+
+	/**
+	 * Decodes a batch frame written by toFrame(), bb is positioned after the
+	 * frame marker
+	 */
+	public static ColumnBatch fromFrame(final ByteBuffer bb, final byte[] types)
+	{
+		final int n = bb.getInt();
+		final ColumnVector[] cols = new ColumnVector[types.length];
+		int c = 0;
+		while (c < types.length)
+		{
+			final ColumnVector v = new ColumnVector(types[c], n);
+			cols[c++] = v;
+			if (bb.get() != 0)
+			{
+				v.nulls = new long[(n + 63) >>> 6];
+				int i = 0;
+				while (i < n)
+				{
+					final int b = bb.get() & 0xff;
+					int j = 0;
+					while (j < 8 && i + j < n)
+					{
+						if ((b & (1 << j)) != 0)
+						{
+							v.nulls[(i + j) >>> 6] |= (1L << (i + j));
+						}
+
+						j++;
+					}
+
+					i += 8;
+				}
+			}
+
+			int i = 0;
+			switch (v.type)
+			{
+				case LONG:
+					while (i < n)
+					{
+						v.longs[i++] = bb.getLong();
+					}
+					break;
+				case DOUBLE:
+					while (i < n)
+					{
+						v.doubles[i++] = bb.getDouble();
+					}
+					break;
+				case INT:
+				case DATE:
+					while (i < n)
+					{
+						v.ints[i++] = bb.getInt();
+					}
+					break;
+				default:
+					final int dictSize = bb.getInt();
+					while (i < dictSize)
+					{
+						final int len = bb.getInt();
+						final String str = new String(bb.array(), bb.arrayOffset() + bb.position(), len, StandardCharsets.UTF_8);
+						bb.position(bb.position() + len);
+						v.dict.add(str);
+						v.codes.put(str, i++);
+					}
+
+					i = 0;
+					if (dictSize <= 256)
+					{
+						while (i < n)
+						{
+							v.ints[i++] = bb.get() & 0xff;
+						}
+					}
+					else if (dictSize <= 65536)
+					{
+						while (i < n)
+						{
+							v.ints[i++] = bb.getShort() & 0xffff;
+						}
+					}
+					else
+					{
+						while (i < n)
+						{
+							v.ints[i++] = bb.getInt();
+						}
+					}
+			}
+		}
+
+		final ColumnBatch retval = new ColumnBatch(cols, n);
+		retval.size = n;
+		return retval;
+	}
+
+	/**
+	 * Returns the next batch from the child, natively if the child supports it
+	 * and through the row adapter otherwise
+	 */
+	public static Object next(final Operator child, final Operator caller) throws Exception
+	{
+		if (child instanceof BatchOperator)
+		{
+			return ((BatchOperator)child).nextBatch(caller);
+		}
+
+		return fill(child, caller);
+	}
+
+	/**
+	 * Whether op hands out batches that were decoded from frames, looking
+	 * through selects and projects. Other operators produce rows, so pulling
+	 * batches from them only boxes every row twice.
+	 */
+	public static boolean isNative(Operator op)
+	{
+		while (op instanceof SelectOperator || op instanceof ProjectOperator)
+		{
+			op = op.children().get(0);
+		}
+
+		return op instanceof NetworkReceiveOperator && !(op instanceof NetworkReceiveAndMergeOperator) && !(op instanceof NetworkHashReceiveAndMergeOperator);
+	}
+
+	/** The frame that tells a receiver the column types of the batch frames after it */
+	public static byte[] schemaFrame(final byte[] types)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(12 + types.length);
+		bb.putInt(8 + types.length);
+		bb.putInt(SCHEMA_FRAME);
+		bb.putInt(types.length);
+		bb.put(types);
+		return bb.array();
+	}
+
+	public static byte type(final String type)
+	{
+		if (type == null)
+		{
+			return OBJECT;
+		}
+
+		if (type.equals("INT"))
+		{
+			return INT;
+		}
+		else if (type.equals("FLOAT"))
+		{
+			return DOUBLE;
+		}
+		else if (type.equals("CHAR"))
+		{
+			return STRING;
+		}
+		else if (type.equals("LONG"))
+		{
+			return LONG;
+		}
+		else if (type.equals("DATE"))
+		{
+			return DATE;
+		}
+
+		return OBJECT;
+	}
+
+	public static byte[] types(final HashMap<String, String> cols2Types, final TreeMap<Integer, String> pos2Col)
+	{
+		final byte[] retval = new byte[pos2Col.size()];
+		int i = 0;
+		for (final String col : pos2Col.values())
+		{
+			retval[i++] = type(cols2Types.get(col));
+		}
+
+		return retval;
+	}
+
+	private static boolean compare(final int op, final double lhs, final double rhs)
+	{
+		switch (op)
+		{
+			case OP_E:
+				return lhs == rhs;
+			case OP_NE:
+				return lhs != rhs;
+			case OP_L:
+				return lhs < rhs;
+			case OP_LE:
+				return lhs <= rhs;
+			case OP_G:
+				return lhs > rhs;
+			default:
+				return lhs >= rhs;
+		}
+	}
+
+	private static boolean compare(final int op, final int cmp)
+	{
+		switch (op)
+		{
+			case OP_E:
+				return cmp == 0;
+			case OP_NE:
+				return cmp != 0;
+			case OP_L:
+				return cmp < 0;
+			case OP_LE:
+				return cmp <= 0;
+			case OP_G:
+				return cmp > 0;
+			default:
+				return cmp >= 0;
+		}
+	}
+
+	private static boolean isIntegral(final byte type)
+	{
+		return type == LONG || type == INT;
+	}
+
+	private static boolean isNumeric(final byte type)
+	{
+		return type == LONG || type == INT || type == DOUBLE;
+	}
+
+	private static int opCode(final String op)
+	{
+		if (op.equals("E"))
+		{
+			return OP_E;
+		}
+		else if (op.equals("NE"))
+		{
+			return OP_NE;
+		}
+		else if (op.equals("L"))
+		{
+			return OP_L;
+		}
+		else if (op.equals("LE"))
+		{
+			return OP_LE;
+		}
+		else if (op.equals("G"))
+		{
+			return OP_G;
+		}
+		else if (op.equals("GE"))
+		{
+			return OP_GE;
+		}
+
+		return OP_OTHER;
+	}
+
+	/** Appends a row and returns true if the batch is now full */
+	public boolean add(final ArrayList<Object> row)
+	{
+		final int limit = cols.length;
+		int i = 0;
+		while (i < limit)
+		{
+			cols[i].set(size, row.get(i));
+			i++;
+		}
+
+		size++;
+		if (sel != null)
+		{
+			sel[selSize++] = size - 1;
+		}
+
+		return size == capacity;
+	}
+
+	/** Appends a computed double column that is aligned with the physical rows */
+	public void addDoubleColumn(final double[] values)
+	{
+		final ColumnVector v = new ColumnVector(DOUBLE, 0);
+		v.doubles = values;
+		final ColumnVector[] temp = new ColumnVector[cols.length + 1];
+		System.arraycopy(cols, 0, temp, 0, cols.length);
+		temp[cols.length] = v;
+		cols = temp;
+	}
+
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	public int count()
+	{
+		if (sel == null)
+		{
+			return size;
+		}
+
+		return selSize;
+	}
+
+	public String dictValue(final int col, final int code)
+	{
+		return cols[col].dict.get(code);
+	}
+
+	public double[] doubles(final int col)
+	{
+		return cols[col].doubles;
+	}
+
+	/** Keeps only the selected rows whose value in col is contained in set */
+	public void filter(final int col, final HashSet<Object> set)
+	{
+		final int n = count();
+		final int[] out = new int[n];
+		int m = 0;
+		int k = 0;
+		while (k < n)
+		{
+			final int r = row(k++);
+			Object obj = get(col, r);
+			if (obj instanceof Long)
+			{
+				obj = new Double((Long)obj);
+			}
+
+			if (set.contains(obj))
+			{
+				out[m++] = r;
+			}
+		}
+
+		select(out, m);
+	}
+
+	/**
+	 * Keeps only the selected rows that pass at least one of the filters.
+	 * Column to literal and numeric column to column comparisons run directly
+	 * on the vectors; anything else, and columns whose vector no longer has
+	 * the type the predicate was built for, falls back to Filter.passes() on
+	 * a materialized row.
+	 */
+	public void filter(final Predicate[] preds, final HashMap<String, Integer> cols2Pos) throws Exception
+	{
+		final int numFilters = preds.length;
+		// per batch: which predicates can run on the vectors, and the
+		// dictionary code of string equality literals
+		final boolean[] vec = new boolean[numFilters];
+		final int[] codes = new int[numFilters];
+		int i = 0;
+		while (i < numFilters)
+		{
+			final Predicate pred = preds[i];
+			vec[i] = pred.kind != Predicate.ROW && cols[pred.pos1].type == pred.type1 && (pred.pos2 < 0 || cols[pred.pos2].type == pred.type2);
+			if (vec[i] && pred.kind == Predicate.STR_EQ)
+			{
+				final Integer code = cols[pred.pos1].codes.get(pred.sLit);
+				codes[i] = code == null ? -1 : code;
+			}
+
+			i++;
+		}
+
+		final int n = count();
+		final int[] out = new int[n];
+		int m = 0;
+		int k = 0;
+		while (k < n)
+		{
+			final int r = row(k++);
+			ArrayList<Object> materialized = null;
+			i = 0;
+			while (i < numFilters)
+			{
+				final Predicate pred = preds[i];
+				boolean passes;
+				if (!vec[i] || cols[pred.pos1].isNull(r) || (pred.pos2 >= 0 && cols[pred.pos2].isNull(r)))
+				{
+					if (materialized == null)
+					{
+						materialized = getRow(r);
+					}
+
+					passes = pred.filter.passes(materialized, cols2Pos);
+				}
+				else
+				{
+					passes = test(pred, r, codes[i]);
+				}
+
+				i++;
+
+				if (passes)
+				{
+					out[m++] = r;
+					break;
+				}
+			}
+		}
+
+		select(out, m);
+	}
+
+	public Object get(final int col, final int row)
+	{
+		return cols[col].get(row);
+	}
+
+	/**
+	 * Plans the filters against the column types of this batch. The result
+	 * can be used with filter() on every later batch of the same stream.
+	 */
+	public Predicate[] predicates(final ArrayList<Filter> filters, final HashMap<String, Integer> cols2Pos)
+	{
+		final Predicate[] retval = new Predicate[filters.size()];
+		int i = 0;
+		while (i < retval.length)
+		{
+			retval[i] = new Predicate(filters.get(i), cols2Pos, this);
+			i++;
+		}
+
+		return retval;
+	}
+
+	public int getDate(final int col, final int row)
+	{
+		return cols[col].ints[row];
+	}
+
+	public double getDouble(final int col, final int row)
+	{
+		return cols[col].getDouble(row);
+	}
+
+	public long getLong(final int col, final int row)
+	{
+		final ColumnVector v = cols[col];
+		if (v.type == LONG)
+		{
+			return v.longs[row];
+		}
+		else if (v.type == INT)
+		{
+			return v.ints[row];
+		}
+
+		return ((Number)v.get(row)).longValue();
+	}
+
+	/** Materializes a physical row for consumers that use the row API */
+	public ArrayList<Object> getRow(final int row)
+	{
+		final ArrayList<Object> retval = new ArrayList<Object>(cols.length);
+		for (final ColumnVector v : cols)
+		{
+			retval.add(v.get(row));
+		}
+
+		return retval;
+	}
+
+	public String getString(final int col, final int row)
+	{
+		return (String)cols[col].get(row);
+	}
+
+	public int[] ints(final int col)
+	{
+		return cols[col].ints;
+	}
+
+	public boolean isNull(final int col, final int row)
+	{
+		return cols[col].isNull(row);
+	}
+
+	public long[] longs(final int col)
+	{
+		return cols[col].longs;
+	}
+
+	public int numCols()
+	{
+		return cols.length;
+	}
+
+	/** Returns a batch over the same vectors with the columns reordered */
+	public ColumnBatch project(final int[] poses)
+	{
+		final ColumnVector[] temp = new ColumnVector[poses.length];
+		int i = 0;
+		while (i < poses.length)
+		{
+			temp[i] = cols[poses[i]];
+			i++;
+		}
+
+		final ColumnBatch retval = new ColumnBatch(temp, capacity);
+		retval.size = size;
+		retval.sel = sel;
+		retval.selSize = selSize;
+		return retval;
+	}
+
+	/** Maps the kth selected row to its physical row */
+	public int row(final int k)
+	{
+		if (sel == null)
+		{
+			return k;
+		}
+
+		return sel[k];
+	}
+
+	public void select(final int[] sel, final int selSize)
+	{
+		this.sel = sel;
+		this.selSize = selSize;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Encodes the selected rows as a length prefixed batch frame. Each column
+	 * is a block with an optional null bitmap and then either fixed width
+	 * values or, for strings, the dictionary of the values that are used
+	 * followed by codes that are as narrow as the dictionary allows. Returns
+	 * null if the columns don't match types or a column has no wire encoding.
+	 */
+	public byte[] toFrame(final byte[] types)
+	{
+		if (cols.length != types.length)
+		{
+			return null;
+		}
+
+		final int n = count();
+		final boolean[] hasNulls = new boolean[cols.length];
+		final int[][] remaps = new int[cols.length][];
+		final int[][] orders = new int[cols.length][];
+		final byte[][][] dicts = new byte[cols.length][][];
+		int size = 12;
+		int c = 0;
+		while (c < cols.length)
+		{
+			final ColumnVector v = cols[c];
+			if (v.type != types[c])
+			{
+				return null;
+			}
+
+			size++;
+			if (v.nulls != null)
+			{
+				int k = 0;
+				while (k < n)
+				{
+					if (v.isNull(row(k++)))
+					{
+						hasNulls[c] = true;
+						size += ((n + 7) >>> 3);
+						break;
+					}
+				}
+			}
+
+			switch (v.type)
+			{
+				case LONG:
+				case DOUBLE:
+					size += (n << 3);
+					break;
+				case INT:
+				case DATE:
+					size += (n << 2);
+					break;
+				case STRING:
+				{
+					// only the entries that selected rows still use
+					final int[] remap = new int[v.dict.size()];
+					final int[] order = new int[v.dict.size()];
+					final byte[][] dict = new byte[v.dict.size()][];
+					int used = 0;
+					int k = 0;
+					while (k < n)
+					{
+						final int r = row(k++);
+						if (v.isNull(r))
+						{
+							continue;
+						}
+
+						final int code = v.ints[r];
+						if (dict[code] == null)
+						{
+							dict[code] = v.dict.get(code).getBytes(StandardCharsets.UTF_8);
+							remap[code] = used;
+							order[used++] = code;
+							size += (4 + dict[code].length);
+						}
+					}
+
+					size += 4 + n * (used <= 256 ? 1 : (used <= 65536 ? 2 : 4));
+					remaps[c] = remap;
+					orders[c] = Arrays.copyOf(order, used);
+					dicts[c] = dict;
+					break;
+				}
+				default:
+					return null;
+			}
+
+			c++;
+		}
+
+		final ByteBuffer bb = ByteBuffer.allocate(size);
+		bb.putInt(size - 4);
+		bb.putInt(BATCH_FRAME);
+		bb.putInt(n);
+		c = 0;
+		while (c < cols.length)
+		{
+			final ColumnVector v = cols[c];
+			if (hasNulls[c])
+			{
+				bb.put((byte)1);
+				int k = 0;
+				while (k < n)
+				{
+					int b = 0;
+					int j = 0;
+					while (j < 8 && k + j < n)
+					{
+						if (v.isNull(row(k + j)))
+						{
+							b |= (1 << j);
+						}
+
+						j++;
+					}
+
+					bb.put((byte)b);
+					k += 8;
+				}
+			}
+			else
+			{
+				bb.put((byte)0);
+			}
+
+			int k = 0;
+			switch (v.type)
+			{
+				case LONG:
+					while (k < n)
+					{
+						bb.putLong(v.longs[row(k++)]);
+					}
+					break;
+				case DOUBLE:
+					while (k < n)
+					{
+						bb.putDouble(v.doubles[row(k++)]);
+					}
+					break;
+				case INT:
+				case DATE:
+					while (k < n)
+					{
+						bb.putInt(v.ints[row(k++)]);
+					}
+					break;
+				default:
+				{
+					final int[] remap = remaps[c];
+					final byte[][] dict = dicts[c];
+					final int used = orders[c].length;
+					bb.putInt(used);
+					for (final int code : orders[c])
+					{
+						bb.putInt(dict[code].length);
+						bb.put(dict[code]);
+					}
+
+					while (k < n)
+					{
+						final int r = row(k++);
+						final int val = v.isNull(r) ? 0 : remap[v.ints[r]];
+						if (used <= 256)
+						{
+							bb.put((byte)val);
+						}
+						else if (used <= 65536)
+						{
+							bb.putShort((short)val);
+						}
+						else
+						{
+							bb.putInt(val);
+						}
+					}
+				}
+			}
+
+			c++;
+		}
+
+		return bb.array();
+	}
+
+	public byte type(final int col)
+	{
+		return cols[col].type;
+	}
+
+	private boolean test(final Predicate pred, final int row, final int code)
+	{
+		final ColumnVector v1 = cols[pred.pos1];
+		switch (pred.kind)
+		{
+			case Predicate.NUM_LIT:
+				return compare(pred.op, v1.getDouble(row), pred.dLit);
+			case Predicate.LONG_LIT:
+				return compare(pred.op, Long.compare(v1.getLong(row), pred.lLit));
+			case Predicate.LONG_COL:
+				return compare(pred.op, Long.compare(v1.getLong(row), cols[pred.pos2].getLong(row)));
+			case Predicate.DATE_LIT:
+				return compare(pred.op, Integer.compare(v1.ints[row], pred.iLit));
+			case Predicate.STR_EQ:
+				return (v1.ints[row] == code) == (pred.op == OP_E);
+			case Predicate.STR_CMP:
+				return compare(pred.op, v1.dict.get(v1.ints[row]).compareTo(pred.sLit));
+			default:
+				return compare(pred.op, v1.getDouble(row), cols[pred.pos2].getDouble(row));
+		}
+	}
+
+	/** A filter planned once per operator against the column types of a stream */
+	static final class Predicate
+	{
+		private static final int ROW = 0;
+		private static final int NUM_LIT = 1;
+		private static final int DATE_LIT = 2;
+		private static final int STR_EQ = 3;
+		private static final int STR_CMP = 4;
+		private static final int NUM_COL = 5;
+		// integer column against an integer literal or column, a double
+		// can't tell longs above 2^53 apart
+		private static final int LONG_LIT = 6;
+		private static final int LONG_COL = 7;
+
+		private final Filter filter;
+		private int kind = ROW;
+		private final int op;
+		private int pos1 = -1;
+		private int pos2 = -1;
+		private byte type1;
+		private byte type2;
+		private double dLit;
+		private long lLit;
+		private int iLit;
+		private String sLit;
+
+		private Predicate(final Filter filter, final HashMap<String, Integer> cols2Pos, final ColumnBatch batch)
+		{
+			this.filter = filter;
+			op = opCode(filter.op());
+			if (op == OP_OTHER || !filter.leftIsColumn())
+			{
+				return;
+			}
+
+			final Integer p1 = cols2Pos.get(filter.leftColumn());
+			if (p1 == null)
+			{
+				return;
+			}
+
+			pos1 = p1;
+			type1 = batch.cols[pos1].type;
+			if (filter.rightIsColumn())
+			{
+				final Integer p2 = cols2Pos.get(filter.rightColumn());
+				if (p2 != null && isNumeric(type1) && isNumeric(batch.cols[p2].type))
+				{
+					pos2 = p2;
+					type2 = batch.cols[p2].type;
+					kind = isIntegral(type1) && isIntegral(type2) ? LONG_COL : NUM_COL;
+				}
+			}
+			else if (filter.rightIsNumber() && isIntegral(type1) && filter.rightLiteral() instanceof Long)
+			{
+				lLit = (Long)filter.rightLiteral();
+				kind = LONG_LIT;
+			}
+			else if (filter.rightIsNumber() && isNumeric(type1))
+			{
+				dLit = filter.getRightNumber();
+				kind = NUM_LIT;
+			}
+			else if (filter.rightIsDate() && type1 == DATE)
+			{
+				iLit = filter.getRightDate().getTime();
+				kind = DATE_LIT;
+			}
+			else if (type1 == STRING && !filter.rightIsNumber() && !filter.rightIsDate())
+			{
+				sLit = filter.getRightString();
+				kind = op == OP_E || op == OP_NE ? STR_EQ : STR_CMP;
+			}
+		}
+	}
+
+	private static final class ColumnVector
+	{
+		private byte type;
+		private long[] longs;
+		private int[] ints;
+		private double[] doubles;
+		private Object[] objects;
+		private ArrayList<String> dict;
+		private HashMap<String, Integer> codes;
+		private long[] nulls;
+
+		private ColumnVector(final byte type, final int capacity)
+		{
+			this.type = type;
+			if (type == LONG)
+			{
+				longs = new long[capacity];
+			}
+			else if (type == INT || type == DATE)
+			{
+				ints = new int[capacity];
+			}
+			else if (type == DOUBLE)
+			{
+				doubles = new double[capacity];
+			}
+			else if (type == STRING)
+			{
+				ints = new int[capacity];
+				dict = new ArrayList<String>();
+				codes = new HashMap<String, Integer>();
+			}
+			else
+			{
+				objects = new Object[capacity];
+			}
+		}
+
+		private Object get(final int row)
+		{
+			if (isNull(row))
+			{
+				return null;
+			}
+
+			switch (type)
+			{
+				case LONG:
+					return longs[row];
+				case INT:
+					return ints[row];
+				case DOUBLE:
+					return doubles[row];
+				case DATE:
+					return new MyDate(ints[row]);
+				case STRING:
+					return dict.get(ints[row]);
+				default:
+					return objects[row];
+			}
+		}
+
+		private double getDouble(final int row)
+		{
+			switch (type)
+			{
+				case LONG:
+					return longs[row];
+				case INT:
+					return ints[row];
+				case DOUBLE:
+					return doubles[row];
+				default:
+					return ((Number)get(row)).doubleValue();
+			}
+		}
+
+		private long getLong(final int row)
+		{
+			return type == LONG ? longs[row] : ints[row];
+		}
+
+		private boolean isNull(final int row)
+		{
+			return nulls != null && (nulls[row >>> 6] & (1L << row)) != 0;
+		}
+
+		/** Switches to boxed storage when a value does not match the declared type */
+		private void promote(final int upTo)
+		{
+			final Object[] temp = new Object[Math.max(upTo + 1, longs != null ? longs.length : ints != null ? ints.length : doubles.length)];
+			int i = 0;
+			while (i < upTo)
+			{
+				temp[i] = get(i);
+				i++;
+			}
+
+			type = OBJECT;
+			objects = temp;
+			longs = null;
+			ints = null;
+			doubles = null;
+			dict = null;
+			codes = null;
+		}
+
+		private void set(final int row, final Object o)
+		{
+			if (o == null)
+			{
+				if (nulls == null)
+				{
+					final int len = longs != null ? longs.length : ints != null ? ints.length : doubles != null ? doubles.length : objects.length;
+					nulls = new long[(len + 63) >>> 6];
+				}
+
+				nulls[row >>> 6] |= (1L << row);
+				return;
+			}
+
+			switch (type)
+			{
+				case LONG:
+					if (o instanceof Long)
+					{
+						longs[row] = (Long)o;
+						return;
+					}
+					break;
+				case INT:
+					if (o instanceof Integer)
+					{
+						ints[row] = (Integer)o;
+						return;
+					}
+					break;
+				case DOUBLE:
+					if (o instanceof Double)
+					{
+						doubles[row] = (Double)o;
+						return;
+					}
+					break;
+				case DATE:
+					if (o instanceof MyDate)
+					{
+						ints[row] = ((MyDate)o).getTime();
+						return;
+					}
+					break;
+				case STRING:
+					if (o instanceof String)
+					{
+						Integer code = codes.get(o);
+						if (code == null)
+						{
+							code = dict.size();
+							dict.add((String)o);
+							codes.put((String)o, code);
+						}
+
+						ints[row] = code;
+						return;
+					}
+					break;
+				default:
+					objects[row] = o;
+					return;
+			}
+
+			promote(row);
+			objects[row] = o;
+		}
+	}
+}
@@ -0,0 +1,787 @@
+package com.exascale.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import com.exascale.misc.MyDate;
+
+/**
+ * Evaluator for a CNFFilter built out of typed predicate nodes. Column
+ * positions are resolved and literals are unboxed once, when the evaluator is
+ * built from the first row. Every node guards on the runtime class it was
+ * specialized for and hands the row back to Filter.passes() if that guess is
+ * wrong, so results are always identical to the interpreted path. Clauses
+ * (and the disjuncts inside them) are periodically reordered so that the ones
+ * most likely to decide the outcome are evaluated first.
+ */
+final class CompiledCNF
+{
+	private static final int E = 0;
+	private static final int NE = 1;
+	private static final int L = 2;
+	private static final int LE = 3;
+	private static final int G = 4;
+	private static final int GE = 5;
+	private static final int REORDER_INTERVAL = 8192;
+
+	private final HashMap<String, Integer> cols2Pos;
+	private volatile Clause[] clauses;
+	// each reader thread counts into its own Stats, the counts are folded
+	// into the clauses under the lock when that thread triggers a reorder
+	private final ThreadLocal<Stats> stats;
+
+	CompiledCNF(final CNFFilter cnf, final ArrayList<ArrayList<Filter>> filters, final HashMap<String, Integer> cols2Pos, final ArrayList<Object> row)
+	{
+		this.cols2Pos = cols2Pos;
+		final Clause[] temp = new Clause[filters.size()];
+		int i = 0;
+		int n = 0;
+		for (final ArrayList<Filter> filter : filters)
+		{
+			if (cnf.useHash(filter))
+			{
+				final Node node = new HashNode(cnf, filter);
+				node.id = n++;
+				temp[i] = new Clause(i, new Node[] { node });
+				i++;
+				continue;
+			}
+
+			final Node[] nodes = new Node[filter.size()];
+			int j = 0;
+			for (final Filter f : filter)
+			{
+				final Node node = compile(f, row);
+				node.id = n++;
+				nodes[j++] = node;
+			}
+
+			temp[i] = new Clause(i, nodes);
+			i++;
+		}
+
+		clauses = temp;
+		final int numClauses = i;
+		final int numNodes = n;
+		stats = new ThreadLocal<Stats>()
+		{
+			@Override
+			protected Stats initialValue()
+			{
+				return new Stats(numClauses, numNodes);
+			}
+		};
+	}
+
+	private static int flip(final int op)
+	{
+		switch (op)
+		{
+			case L:
+				return G;
+			case LE:
+				return GE;
+			case G:
+				return L;
+			case GE:
+				return LE;
+			default:
+				return op;
+		}
+	}
+
+	private static int op(final String op)
+	{
+		if (op.equals("E"))
+		{
+			return E;
+		}
+
+		if (op.equals("NE"))
+		{
+			return NE;
+		}
+
+		if (op.equals("L"))
+		{
+			return L;
+		}
+
+		if (op.equals("LE"))
+		{
+			return LE;
+		}
+
+		if (op.equals("G"))
+		{
+			return G;
+		}
+
+		if (op.equals("GE"))
+		{
+			return GE;
+		}
+
+		return -1;
+	}
+
+	/** Applies op to the result of a compare() style comparison */
+	private static boolean test(final int op, final int cmp)
+	{
+		switch (op)
+		{
+			case E:
+				return cmp == 0;
+			case NE:
+				return cmp != 0;
+			case L:
+				return cmp < 0;
+			case LE:
+				return cmp <= 0;
+			case G:
+				return cmp > 0;
+			default:
+				return cmp >= 0;
+		}
+	}
+
+	/** Primitive double comparison, same NaN behavior as Filter.compare(double, double) */
+	private static boolean test(final int op, final double lhs, final double rhs)
+	{
+		switch (op)
+		{
+			case E:
+				return lhs == rhs;
+			case NE:
+				return lhs != rhs;
+			case L:
+				return lhs < rhs;
+			case LE:
+				return lhs <= rhs;
+			case G:
+				return lhs > rhs;
+			default:
+				return lhs >= rhs;
+		}
+	}
+
+	public boolean passes(final ArrayList<Object> row) throws Exception
+	{
+		final Stats s = stats.get();
+		final Clause[] cs = clauses;
+		boolean retval = true;
+		for (final Clause c : cs)
+		{
+			s.evals[c.id]++;
+			if (!c.passes(row, this, s))
+			{
+				s.fails[c.id]++;
+				retval = false;
+				break;
+			}
+		}
+
+		if (++s.rows >= REORDER_INTERVAL)
+		{
+			s.rows = 0;
+			reorder(s);
+		}
+
+		return retval;
+	}
+
+	private Node compile(final Filter f, final ArrayList<Object> row)
+	{
+		if (f.alwaysTrue() || f.alwaysFalse())
+		{
+			return new ConstNode(f, f.alwaysTrue());
+		}
+
+		final int op = op(f.op());
+		final boolean like = f.op().equals("LI") || f.op().equals("NL");
+		if (op == -1 && !like)
+		{
+			return new FilterNode(f);
+		}
+
+		if (f.leftIsColumn() && !f.rightIsColumn())
+		{
+			final Integer pos = cols2Pos.get(f.leftColumn());
+			if (pos == null || pos >= row.size())
+			{
+				return new FilterNode(f);
+			}
+
+			final Object o = row.get(pos);
+			if (like)
+			{
+				if (o instanceof String && !f.rightIsNumber() && !f.rightIsDate())
+				{
+					try
+					{
+						return new LikeNode(f, pos, f.getRightString(), f.op().equals("NL"));
+					}
+					catch (final PatternSyntaxException e)
+					{
+						// let Filter.passes() report it the way it always has
+					}
+				}
+
+				return new FilterNode(f);
+			}
+
+			if (f.rightIsDate())
+			{
+				if (o instanceof MyDate)
+				{
+					return new DateNode(f, pos, op, f.getRightDate().getTime());
+				}
+			}
+			else if (f.rightIsNumber())
+			{
+				// a Long literal is only compared as a long against integral
+				// columns, everything else goes through Double.compareTo()
+				final boolean isLong = f.rightLiteral() instanceof Long;
+				if (o instanceof Long)
+				{
+					if (isLong)
+					{
+						return new LongNode(f, pos, op, (Long)f.rightLiteral());
+					}
+
+					return new LongDoubleNode(f, pos, op, f.getRightNumber());
+				}
+				else if (o instanceof Integer)
+				{
+					if (isLong)
+					{
+						return new IntNode(f, pos, op, (Long)f.rightLiteral());
+					}
+
+					return new IntDoubleNode(f, pos, op, f.getRightNumber());
+				}
+				else if (o instanceof Double)
+				{
+					return new DoubleNode(f, pos, op, f.getRightNumber());
+				}
+			}
+			else if (o instanceof String)
+			{
+				return new StringNode(f, pos, op, f.getRightString());
+			}
+
+			return new FilterNode(f);
+		}
+
+		if (!f.leftIsColumn() && f.rightIsColumn() && !like)
+		{
+			// literal op column, evaluated as column flip(op) literal
+			final Integer pos = cols2Pos.get(f.rightColumn());
+			if (pos == null || pos >= row.size())
+			{
+				return new FilterNode(f);
+			}
+
+			final Object o = row.get(pos);
+			final Object lit = f.leftLiteral();
+			if (lit instanceof Long)
+			{
+				if (o instanceof Number)
+				{
+					return new PrimitiveNode(f, pos, flip(op), (Long)lit);
+				}
+			}
+			else if (lit instanceof Double)
+			{
+				if (o instanceof Long)
+				{
+					return new LongDoubleNode(f, pos, flip(op), (Double)lit);
+				}
+				else if (o instanceof Integer)
+				{
+					return new IntDoubleNode(f, pos, flip(op), (Double)lit);
+				}
+				else if (o instanceof Double)
+				{
+					return new DoubleNode(f, pos, flip(op), (Double)lit);
+				}
+			}
+			else if (lit instanceof MyDate)
+			{
+				if (o instanceof MyDate)
+				{
+					return new DateNode(f, pos, flip(op), ((MyDate)lit).getTime());
+				}
+			}
+		}
+
+		return new FilterNode(f);
+	}
+
+	/**
+	 * Folds one thread's counts into the clauses and publishes a new order.
+	 * Readers only ever see fully sorted copies through the volatile fields.
+	 */
+	private synchronized void reorder(final Stats s)
+	{
+		final Clause[] cs = clauses.clone();
+		for (final Clause c : cs)
+		{
+			c.evals += s.evals[c.id];
+			c.fails += s.fails[c.id];
+			s.evals[c.id] = 0;
+			s.fails[c.id] = 0;
+			for (final Node n : c.nodes)
+			{
+				n.evals += s.nodeEvals[n.id];
+				n.hits += s.nodeHits[n.id];
+				s.nodeEvals[n.id] = 0;
+				s.nodeHits[n.id] = 0;
+			}
+
+			c.rank = (c.fails + 1.0) / ((c.evals + 2.0) * c.cost);
+			c.evals >>>= 1;
+			c.fails >>>= 1;
+			c.reorder();
+		}
+
+		// most likely to fail per unit of cost goes first
+		Arrays.sort(cs, (a, b) -> Double.compare(b.rank, a.rank));
+		clauses = cs;
+	}
+
+	/** Per thread counts, indexed by Clause.id and Node.id */
+	private static final class Stats
+	{
+		private final int[] evals;
+		private final int[] fails;
+		private final int[] nodeEvals;
+		private final int[] nodeHits;
+		private int rows = 0;
+
+		private Stats(final int clauses, final int nodes)
+		{
+			evals = new int[clauses];
+			fails = new int[clauses];
+			nodeEvals = new int[nodes];
+			nodeHits = new int[nodes];
+		}
+	}
+
+	private static final class Clause
+	{
+		private final int id;
+		private volatile Node[] nodes;
+		private final int cost;
+		// the totals below are only touched under the CompiledCNF lock
+		private int evals;
+		private int fails;
+		private double rank;
+
+		private Clause(final int id, final Node[] nodes)
+		{
+			this.id = id;
+			this.nodes = nodes;
+			int c = 0;
+			for (final Node node : nodes)
+			{
+				c += node.cost();
+			}
+
+			cost = c;
+		}
+
+		private boolean passes(final ArrayList<Object> row, final CompiledCNF cnf, final Stats s) throws Exception
+		{
+			final Node[] ns = nodes;
+			if (ns.length == 1)
+			{
+				return ns[0].passes(row, cnf);
+			}
+
+			for (final Node n : ns)
+			{
+				s.nodeEvals[n.id]++;
+				if (n.passes(row, cnf))
+				{
+					s.nodeHits[n.id]++;
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private void reorder()
+		{
+			if (nodes.length == 1)
+			{
+				return;
+			}
+
+			final Node[] ns = nodes.clone();
+			for (final Node n : ns)
+			{
+				n.rank = (n.hits + 1.0) / ((n.evals + 2.0) * n.cost());
+				n.evals >>>= 1;
+				n.hits >>>= 1;
+			}
+
+			// most likely to pass per unit of cost goes first
+			Arrays.sort(ns, (a, b) -> Double.compare(b.rank, a.rank));
+			nodes = ns;
+		}
+	}
+
+	private static abstract class Node
+	{
+		protected final Filter f;
+		private int id;
+		private int evals;
+		private int hits;
+		private double rank;
+
+		private Node(final Filter f)
+		{
+			this.f = f;
+		}
+
+		protected int cost()
+		{
+			return 1;
+		}
+
+		protected abstract boolean passes(ArrayList<Object> row, CompiledCNF cnf) throws Exception;
+	}
+
+	private static final class ConstNode extends Node
+	{
+		private final boolean val;
+
+		private ConstNode(final Filter f, final boolean val)
+		{
+			super(f);
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf)
+		{
+			return val;
+		}
+	}
+
+	private static final class FilterNode extends Node
+	{
+		private FilterNode(final Filter f)
+		{
+			super(f);
+		}
+
+		@Override
+		protected int cost()
+		{
+			return 4;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class HashNode extends Node
+	{
+		private final CNFFilter owner;
+		private final ArrayList<Filter> filter;
+
+		private HashNode(final CNFFilter owner, final ArrayList<Filter> filter)
+		{
+			super(null);
+			this.owner = owner;
+			this.filter = filter;
+		}
+
+		@Override
+		protected int cost()
+		{
+			return 4;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			return owner.passesHashed(filter, row);
+		}
+	}
+
+	private static final class LongNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final long val;
+
+		private LongNode(final Filter f, final int pos, final int op, final long val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Long)
+			{
+				return test(op, Long.compare((Long)o, val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class IntNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final long val;
+
+		private IntNode(final Filter f, final int pos, final int op, final long val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Integer)
+			{
+				return test(op, Long.compare((Integer)o, val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class LongDoubleNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final double val;
+
+		private LongDoubleNode(final Filter f, final int pos, final int op, final double val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Long)
+			{
+				return test(op, Double.compare((Long)o, val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class IntDoubleNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final double val;
+
+		private IntDoubleNode(final Filter f, final int pos, final int op, final double val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Integer)
+			{
+				return test(op, Double.compare((Integer)o, val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class DoubleNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final double val;
+
+		private DoubleNode(final Filter f, final int pos, final int op, final double val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Double)
+			{
+				return test(op, Double.compare((Double)o, val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	/** Numeric literal on the left, compared as primitive doubles like Filter.doBackwards2() */
+	private static final class PrimitiveNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final double val;
+
+		private PrimitiveNode(final Filter f, final int pos, final int op, final double val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Number)
+			{
+				return test(op, ((Number)o).doubleValue(), val);
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class DateNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final int val;
+
+		private DateNode(final Filter f, final int pos, final int op, final int val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof MyDate)
+			{
+				return test(op, Integer.compare(((MyDate)o).getTime(), val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class StringNode extends Node
+	{
+		private final int pos;
+		private final int op;
+		private final String val;
+
+		private StringNode(final Filter f, final int pos, final int op, final String val)
+		{
+			super(f);
+			this.pos = pos;
+			this.op = op;
+			this.val = val;
+		}
+
+		@Override
+		protected int cost()
+		{
+			return 2;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof String)
+			{
+				if (op == E)
+				{
+					return o.equals(val);
+				}
+
+				if (op == NE)
+				{
+					return !o.equals(val);
+				}
+
+				return test(op, ((String)o).compareTo(val));
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+
+	private static final class LikeNode extends Node
+	{
+		private final int pos;
+		private final Pattern pattern;
+		private final boolean negate;
+
+		private LikeNode(final Filter f, final int pos, final String val, final boolean negate)
+		{
+			super(f);
+			this.pos = pos;
+			// same translation as Filter.compare(), but compiled only once
+			this.pattern = Pattern.compile(val.replaceAll("%", ".*"));
+			this.negate = negate;
+		}
+
+		@Override
+		protected int cost()
+		{
+			return 8;
+		}
+
+		@Override
+		protected boolean passes(final ArrayList<Object> row, final CompiledCNF cnf) throws Exception
+		{
+			final Object o = row.get(pos);
+			if (o instanceof String)
+			{
+				return pattern.matcher((String)o).matches() != negate;
+			}
+
+			return f.passes(row, cnf.cols2Pos);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.exascale.optimizer;
+
+import java.util.ArrayList;
+
+/** Base class for arithmetic expressions generated by ExpressionCompiler */
+public abstract class CompiledExpression
+{
+	// the columns the expression reads and their vector types when it was compiled
+	int[] poses;
+	byte[] types;
+
+	/** Returns true if a column the expression reads is null in the physical row */
+	public final boolean anyNull(final ColumnBatch batch, final int row)
+	{
+		for (final int pos : poses)
+		{
+			if (batch.isNull(pos, row))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Evaluates the expression for every selected row of the batch into
+	 * out[physical row], rows where anyNull() is true are skipped
+	 */
+	public abstract void eval(ColumnBatch batch, double[] out);
+
+	public abstract double eval(ArrayList<Object> row);
+
+	/** Returns true if the batch has the vector types the batch code was compiled for */
+	public final boolean typesMatch(final ColumnBatch batch)
+	{
+		int i = 0;
+		while (i < poses.length)
+		{
+			if (batch.type(poses[i]) != types[i])
+			{
+				return false;
+			}
+
+			i++;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,162 @@
+package com.exascale.optimizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import com.exascale.managers.HRDBMSWorker;
+
+/**
+ * Credit based flow control for one connection of a network exchange,
+ * counted in rows. A sender starts with exchange_credit_rows credits and
+ * takes credits for every row it writes. The receiver gives credits back with
+ * a CREDITS command on the same connection once it has room for the rows it
+ * received, so a slow consumer stops its senders instead of buffering.
+ *
+ * Rows the receiver can't buffer are spilled to disk and given back right
+ * away, so a consumer that waits on another input doesn't stall its senders.
+ * A sender that waits more than exchange_credit_timeout ms anyway lends
+ * itself another window of credits, so plans can't deadlock on a receiver
+ * that gives nothing back. Credits the receiver gives back pay off the loan
+ * first, so once the receiver catches up the sender is held to one window
+ * again.
+ */
+public final class ExchangeCredits
+{
+	public static final int WINDOW = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("exchange_credit_rows"));
+	// receivers give credits back in chunks of this many rows
+	public static final int GRANT = Math.max(1, WINDOW / 4);
+	private static final long TIMEOUT = Long.parseLong(HRDBMSWorker.getHParms().getProperty("exchange_credit_timeout"));
+
+	private long credits = WINDOW;
+	// credits lent after stalls, not paid back by the receiver yet
+	private long borrowed = 0;
+
+	/**
+	 * Writes a CREDITS command, the connection worker on the other end hands
+	 * it to the sender of the connection
+	 */
+	public static void send(final OutputStream out, final int from, final int to, final long rows)
+	{
+		final byte[] data = new byte[20];
+		System.arraycopy("CREDITS ".getBytes(StandardCharsets.UTF_8), 0, data, 0, 8);
+		putInt(data, 8, from);
+		putInt(data, 12, to);
+		putInt(data, 16, (int)rows);
+		try
+		{
+			synchronized (out)
+			{
+				out.write(data);
+				out.flush();
+			}
+		}
+		catch (final Exception e)
+		{
+			// the sender may already be done
+			HRDBMSWorker.logger.debug("Unable to send credits to node " + to, e);
+		}
+	}
+
+	private static void putInt(final byte[] data, final int off, final int val)
+	{
+		data[off] = (byte)(val >>> 24);
+		data[off + 1] = (byte)(val >>> 16);
+		data[off + 2] = (byte)(val >>> 8);
+		data[off + 3] = (byte)val;
+	}
+
+	/**
+	 * Takes credits for rows that are about to be written to out. The last
+	 * write may overdraw, but once the credits are gone out is flushed, so the
+	 * receiver sees everything it has to give credits back for, and the
+	 * caller waits.
+	 */
+	public void acquire(final int rows, final OutputStream out) throws IOException
+	{
+		synchronized (this)
+		{
+			if (credits > 0)
+			{
+				credits -= rows;
+				return;
+			}
+		}
+
+		out.flush();
+		synchronized (this)
+		{
+			final long end = System.currentTimeMillis() + TIMEOUT;
+			while (credits <= 0)
+			{
+				final long left = end - System.currentTimeMillis();
+				if (left <= 0)
+				{
+					HRDBMSWorker.logger.debug("No credits from receiver for " + TIMEOUT + "ms, sending another " + WINDOW + " rows without them");
+					credits += WINDOW;
+					borrowed += WINDOW;
+					break;
+				}
+
+				try
+				{
+					wait(left);
+				}
+				catch (final InterruptedException e)
+				{
+				}
+			}
+
+			credits -= rows;
+		}
+	}
+
+	public synchronized void grant(final long rows)
+	{
+		final long repaid = Math.min(borrowed, rows);
+		borrowed -= repaid;
+		credits += rows - repaid;
+		notifyAll();
+	}
+
+	/**
+	 * The receiving side of a connection, counts rows that were taken off the
+	 * connection but not given back yet
+	 */
+	public static final class Owed
+	{
+		private final OutputStream out;
+		private final int from;
+		private final int to;
+		private long rows = 0;
+
+		public Owed(final OutputStream out, final int from, final int to)
+		{
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+
+		/** Returns true once there is enough owed to be worth a CREDITS command */
+		public synchronized boolean add(final long num)
+		{
+			rows += num;
+			return rows >= GRANT;
+		}
+
+		/** Gives back everything that is owed */
+		public void pay()
+		{
+			final long num;
+			synchronized (this)
+			{
+				num = rows;
+				rows = 0;
+			}
+
+			if (num > 0)
+			{
+				send(out, from, to, num);
+			}
+		}
+	}
+}
@@ -0,0 +1,611 @@
+package com.exascale.optimizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.exascale.managers.HRDBMSWorker;
+
+/**
+ * Compiles the prefix arithmetic programs used by ExtendOperator directly into
+ * JVM bytecode. The generated class reads the referenced columns, does all of
+ * the arithmetic on primitive doubles and returns the result, so evaluating a
+ * row no longer clones the token stack or boxes intermediate values.
+ *
+ * Classes are emitted with class file version 49 so that no stack map frames
+ * are needed for the batch loop. The batch loop skips rows where a column it
+ * reads is null.
+ */
+public final class ExpressionCompiler
+{
+	private static final String SUPER = "com/exascale/optimizer/CompiledExpression";
+	private static final String PREFIX = "com/exascale/optimizer/generated/Expression";
+	private static final String BATCH = "com/exascale/optimizer/ColumnBatch";
+	private static final AtomicInteger classNum = new AtomicInteger(0);
+
+	private ExpressionCompiler()
+	{
+	}
+
+	/**
+	 * Returns a compiled version of the program, or null if it cannot be
+	 * compiled, in which case the caller should keep interpreting it. If batch
+	 * is not null the batch method is specialized for the column types of that
+	 * batch.
+	 */
+	public static CompiledExpression compile(final ArrayDeque<String> master, final HashMap<String, Integer> cols2Pos, final ColumnBatch batch)
+	{
+		try
+		{
+			final Node root = parse(master, cols2Pos);
+			if (root == null)
+			{
+				return null;
+			}
+
+			final String name = PREFIX + classNum.incrementAndGet();
+			final ClassBuilder builder = new ClassBuilder(name, root, batch);
+			final byte[] code = builder.build();
+			final Class<?> clazz = new Loader(ExpressionCompiler.class.getClassLoader()).define(name.replace('/', '.'), code);
+			final CompiledExpression retval = (CompiledExpression)clazz.newInstance();
+			retval.poses = new int[builder.slots.size()];
+			retval.types = new byte[retval.poses.length];
+			int i = 0;
+			for (final int pos : builder.slots.keySet())
+			{
+				retval.poses[i] = pos;
+				retval.types[i++] = (byte)builder.batchType(pos);
+			}
+
+			return retval;
+		}
+		catch (final Throwable e)
+		{
+			HRDBMSWorker.logger.debug("Unable to compile expression " + master + ", it will be interpreted", e);
+			return null;
+		}
+	}
+
+	private static Node parse(final ArrayDeque<String> master, final HashMap<String, Integer> cols2Pos)
+	{
+		final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		for (final String temp : master)
+		{
+			if (temp.equals("*") || temp.equals("-") || temp.equals("+") || temp.equals("/"))
+			{
+				if (stack.size() < 2)
+				{
+					return null;
+				}
+
+				final Node node = new Node();
+				node.op = temp.charAt(0);
+				node.lhs = stack.pop();
+				node.rhs = stack.pop();
+				stack.push(node);
+			}
+			else if (Character.isLetter(temp.charAt(0)) || (temp.charAt(0) == '_') || temp.charAt(0) == '.')
+			{
+				final Integer pos = resolve(temp, cols2Pos);
+				if (pos == null)
+				{
+					return null;
+				}
+
+				final Node node = new Node();
+				node.pos = pos;
+				stack.push(node);
+			}
+			else
+			{
+				final Node node = new Node();
+				node.lit = Double.parseDouble(temp);
+				stack.push(node);
+			}
+		}
+
+		if (stack.size() != 1)
+		{
+			return null;
+		}
+
+		return stack.pop();
+	}
+
+	private static Integer resolve(String temp, final HashMap<String, Integer> cols2Pos)
+	{
+		Integer x = cols2Pos.get(temp);
+		if (x != null)
+		{
+			return x;
+		}
+
+		int count = 0;
+		if (temp.startsWith("."))
+		{
+			temp = temp.substring(1);
+		}
+
+		for (String col : cols2Pos.keySet())
+		{
+			final String origCol = col;
+			if (col.contains("."))
+			{
+				col = col.substring(col.indexOf('.') + 1);
+				if (col.equals(temp))
+				{
+					count++;
+					x = cols2Pos.get(origCol);
+				}
+			}
+		}
+
+		if (count != 1)
+		{
+			return null;
+		}
+
+		return x;
+	}
+
+	private static final class ClassBuilder
+	{
+		private final String name;
+		private final Node root;
+		private final ColumnBatch batch;
+		private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private final DataOutputStream poolOut = new DataOutputStream(pool);
+		private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+		private int poolCount = 1;
+		private final TreeMap<Integer, Integer> slots = new TreeMap<Integer, Integer>();
+
+		private ClassBuilder(final String name, final Node root, final ColumnBatch batch)
+		{
+			this.name = name;
+			this.root = root;
+			this.batch = batch;
+		}
+
+		private static int depth(final Node node)
+		{
+			if (node.op == 0)
+			{
+				return 3;
+			}
+
+			return Math.max(depth(node.lhs), 2 + depth(node.rhs));
+		}
+
+		private static void pushInt(final ByteArrayOutputStream code, final int val)
+		{
+			if (val >= 0 && val <= 5)
+			{
+				code.write(0x03 + val);
+			}
+			else if (val <= 127)
+			{
+				code.write(0x10);
+				code.write(val);
+			}
+			else
+			{
+				code.write(0x11);
+				code.write(val >>> 8);
+				code.write(val);
+			}
+		}
+
+		private static void writeShort(final ByteArrayOutputStream code, final int val)
+		{
+			code.write(val >>> 8);
+			code.write(val);
+		}
+
+		private byte[] build() throws IOException
+		{
+			collect(root);
+			if (slots.size() > 200)
+			{
+				throw new IOException("Too many columns in expression");
+			}
+
+			final int thisClass = classRef(name);
+			final int superClass = classRef(SUPER);
+
+			final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(methods);
+
+			// <init>
+			final ByteArrayOutputStream init = new ByteArrayOutputStream();
+			init.write(0x2a);
+			init.write(0xb7);
+			writeShort(init, methodRef(SUPER, "<init>", "()V"));
+			init.write(0xb1);
+			method(out, 0x0001, "<init>", "()V", 1, 1, init.toByteArray());
+
+			// double eval(ArrayList)
+			final ByteArrayOutputStream row = new ByteArrayOutputStream();
+			emitRow(row, root);
+			row.write(0xaf);
+			method(out, 0x0001, "eval", "(Ljava/util/ArrayList;)D", depth(root) + 2, 2, row.toByteArray());
+
+			// void eval(ColumnBatch, double[])
+			method(out, 0x0001, "eval", "(L" + BATCH + ";[D)V", depth(root) + 6, 6 + slots.size(), batchMethod());
+
+			final ByteArrayOutputStream retval = new ByteArrayOutputStream();
+			final DataOutputStream cf = new DataOutputStream(retval);
+			cf.writeInt(0xCAFEBABE);
+			cf.writeShort(0);
+			cf.writeShort(49);
+			cf.writeShort(poolCount);
+			cf.write(pool.toByteArray());
+			cf.writeShort(0x0031);
+			cf.writeShort(thisClass);
+			cf.writeShort(superClass);
+			cf.writeShort(0);
+			cf.writeShort(0);
+			cf.writeShort(3);
+			cf.write(methods.toByteArray());
+			cf.writeShort(0);
+			cf.flush();
+			return retval.toByteArray();
+		}
+
+		private byte[] batchMethod() throws IOException
+		{
+			final ByteArrayOutputStream code = new ByteArrayOutputStream();
+			// load the vectors once
+			for (final java.util.Map.Entry<Integer, Integer> entry : slots.entrySet())
+			{
+				final String getter = vectorGetter(entry.getKey());
+				if (getter != null)
+				{
+					code.write(0x2b);
+					pushInt(code, entry.getKey());
+					code.write(0xb6);
+					writeShort(code, methodRef(BATCH, getter, "(I)" + vectorDesc(entry.getKey())));
+					code.write(0x3a);
+					code.write(entry.getValue());
+				}
+			}
+
+			// count = batch.count(); k = 0
+			code.write(0x2b);
+			code.write(0xb6);
+			writeShort(code, methodRef(BATCH, "count", "()I"));
+			code.write(0x3e);
+			code.write(0x03);
+			code.write(0x36);
+			code.write(4);
+
+			final int loop = code.size();
+			code.write(0x15);
+			code.write(4);
+			code.write(0x1d);
+			final int branch = code.size();
+			code.write(0xa2);
+			writeShort(code, 0);
+
+			// r = batch.row(k)
+			code.write(0x2b);
+			code.write(0x15);
+			code.write(4);
+			code.write(0xb6);
+			writeShort(code, methodRef(BATCH, "row", "(I)I"));
+			code.write(0x36);
+			code.write(5);
+
+			// if (batch.isNull(pos, r)) continue
+			final int[] skips = new int[slots.size()];
+			int i = 0;
+			for (final int pos : slots.keySet())
+			{
+				code.write(0x2b);
+				pushInt(code, pos);
+				code.write(0x15);
+				code.write(5);
+				code.write(0xb6);
+				writeShort(code, methodRef(BATCH, "isNull", "(II)Z"));
+				skips[i++] = code.size();
+				code.write(0x9a);
+				writeShort(code, 0);
+			}
+
+			// out[r] = expr
+			code.write(0x2c);
+			code.write(0x15);
+			code.write(5);
+			emitBatch(code, root);
+			code.write(0x52);
+
+			final int next = code.size();
+			code.write(0x84);
+			code.write(4);
+			code.write(1);
+			final int jump = code.size();
+			code.write(0xa7);
+			writeShort(code, loop - jump);
+			final int end = code.size();
+			code.write(0xb1);
+
+			final byte[] retval = code.toByteArray();
+			retval[branch + 1] = (byte)((end - branch) >>> 8);
+			retval[branch + 2] = (byte)(end - branch);
+			for (final int skip : skips)
+			{
+				retval[skip + 1] = (byte)((next - skip) >>> 8);
+				retval[skip + 2] = (byte)(next - skip);
+			}
+
+			return retval;
+		}
+
+		private int batchType(final int pos)
+		{
+			if (batch == null)
+			{
+				return ColumnBatch.OBJECT;
+			}
+
+			return batch.type(pos);
+		}
+
+		private int classRef(final String className) throws IOException
+		{
+			final String key = "C" + className;
+			Integer retval = entries.get(key);
+			if (retval == null)
+			{
+				final int nameIndex = utf8(className);
+				poolOut.writeByte(7);
+				poolOut.writeShort(nameIndex);
+				retval = poolCount++;
+				entries.put(key, retval);
+			}
+
+			return retval;
+		}
+
+		private void collect(final Node node)
+		{
+			if (node.op != 0)
+			{
+				collect(node.lhs);
+				collect(node.rhs);
+			}
+			else if (node.pos >= 0 && !slots.containsKey(node.pos))
+			{
+				slots.put(node.pos, 6 + slots.size());
+			}
+		}
+
+		private int doubleConst(final double val) throws IOException
+		{
+			final String key = "D" + Double.doubleToRawLongBits(val);
+			Integer retval = entries.get(key);
+			if (retval == null)
+			{
+				poolOut.writeByte(6);
+				poolOut.writeDouble(val);
+				retval = poolCount;
+				poolCount += 2;
+				entries.put(key, retval);
+			}
+
+			return retval;
+		}
+
+		private void emitBatch(final ByteArrayOutputStream code, final Node node) throws IOException
+		{
+			if (node.op != 0)
+			{
+				emitBatch(code, node.lhs);
+				emitBatch(code, node.rhs);
+				emitOp(code, node.op);
+			}
+			else if (node.pos < 0)
+			{
+				code.write(0x14);
+				writeShort(code, doubleConst(node.lit));
+			}
+			else
+			{
+				final int type = batchType(node.pos);
+				if (vectorGetter(node.pos) == null)
+				{
+					code.write(0x2b);
+					pushInt(code, node.pos);
+					code.write(0x15);
+					code.write(5);
+					code.write(0xb6);
+					writeShort(code, methodRef(BATCH, "getDouble", "(II)D"));
+					return;
+				}
+
+				code.write(0x19);
+				code.write(slots.get(node.pos));
+				code.write(0x15);
+				code.write(5);
+				if (type == ColumnBatch.LONG)
+				{
+					code.write(0x2f);
+					code.write(0x8a);
+				}
+				else if (type == ColumnBatch.INT)
+				{
+					code.write(0x2e);
+					code.write(0x87);
+				}
+				else
+				{
+					code.write(0x31);
+				}
+			}
+		}
+
+		private void emitOp(final ByteArrayOutputStream code, final char op)
+		{
+			if (op == '+')
+			{
+				code.write(0x63);
+			}
+			else if (op == '-')
+			{
+				code.write(0x67);
+			}
+			else if (op == '*')
+			{
+				code.write(0x6b);
+			}
+			else
+			{
+				code.write(0x6f);
+			}
+		}
+
+		private void emitRow(final ByteArrayOutputStream code, final Node node) throws IOException
+		{
+			if (node.op != 0)
+			{
+				emitRow(code, node.lhs);
+				emitRow(code, node.rhs);
+				emitOp(code, node.op);
+			}
+			else if (node.pos < 0)
+			{
+				code.write(0x14);
+				writeShort(code, doubleConst(node.lit));
+			}
+			else
+			{
+				code.write(0x2b);
+				pushInt(code, node.pos);
+				code.write(0xb6);
+				writeShort(code, methodRef("java/util/ArrayList", "get", "(I)Ljava/lang/Object;"));
+				code.write(0xc0);
+				writeShort(code, classRef("java/lang/Number"));
+				code.write(0xb6);
+				writeShort(code, methodRef("java/lang/Number", "doubleValue", "()D"));
+			}
+		}
+
+		private int memberRef(final int tag, final String owner, final String member, final String desc) throws IOException
+		{
+			final String key = tag + owner + "." + member + desc;
+			Integer retval = entries.get(key);
+			if (retval == null)
+			{
+				final int ownerIndex = classRef(owner);
+				final int memberIndex = utf8(member);
+				final int descIndex = utf8(desc);
+				poolOut.writeByte(12);
+				poolOut.writeShort(memberIndex);
+				poolOut.writeShort(descIndex);
+				final int nat = poolCount++;
+				poolOut.writeByte(tag);
+				poolOut.writeShort(ownerIndex);
+				poolOut.writeShort(nat);
+				retval = poolCount++;
+				entries.put(key, retval);
+			}
+
+			return retval;
+		}
+
+		private void method(final DataOutputStream out, final int access, final String methodName, final String desc, final int maxStack, final int maxLocals, final byte[] code) throws IOException
+		{
+			out.writeShort(access);
+			out.writeShort(utf8(methodName));
+			out.writeShort(utf8(desc));
+			out.writeShort(1);
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+
+		private int methodRef(final String owner, final String method, final String desc) throws IOException
+		{
+			return memberRef(10, owner, method, desc);
+		}
+
+		private int utf8(final String val) throws IOException
+		{
+			final String key = "U" + val;
+			Integer retval = entries.get(key);
+			if (retval == null)
+			{
+				poolOut.writeByte(1);
+				poolOut.writeUTF(val);
+				retval = poolCount++;
+				entries.put(key, retval);
+			}
+
+			return retval;
+		}
+
+		private String vectorDesc(final int pos)
+		{
+			final int type = batchType(pos);
+			if (type == ColumnBatch.LONG)
+			{
+				return "[J";
+			}
+			else if (type == ColumnBatch.INT)
+			{
+				return "[I";
+			}
+
+			return "[D";
+		}
+
+		private String vectorGetter(final int pos)
+		{
+			final int type = batchType(pos);
+			if (type == ColumnBatch.LONG)
+			{
+				return "longs";
+			}
+			else if (type == ColumnBatch.INT)
+			{
+				return "ints";
+			}
+			else if (type == ColumnBatch.DOUBLE)
+			{
+				return "doubles";
+			}
+
+			return null;
+		}
+	}
+
+	private static final class Loader extends ClassLoader
+	{
+		private Loader(final ClassLoader parent)
+		{
+			super(parent);
+		}
+
+		private Class<?> define(final String name, final byte[] code)
+		{
+			return defineClass(name, code, 0, code.length);
+		}
+	}
+
+	private static final class Node
+	{
+		private char op = 0;
+		private int pos = -1;
+		private double lit;
+		private Node lhs;
+		private Node rhs;
+	}
+}
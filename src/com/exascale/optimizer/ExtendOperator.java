@@ -26,6 +26,7 @@ import com.exascale.threads.ThreadPoolThread;
 public final class ExtendOperator implements Operator, Serializable
 {
 	private static sun.misc.Unsafe unsafe;
+	private static boolean COMPILE;
 
 	static
 	{
@@ -34,6 +35,7 @@ public final class ExtendOperator implements Operator, Serializable
 			final Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
 			f.setAccessible(true);
 			unsafe = (sun.misc.Unsafe)f.get(null);
+			COMPILE = HRDBMSWorker.getHParms().getProperty("compile_expressions").equals("true");
 		}
 		catch (final Exception e)
 		{
@@ -58,6 +60,7 @@ public final class ExtendOperator implements Operator, Serializable
 	private volatile boolean startDone = false;
 
 	private transient volatile ArrayList<Double> literals;
+	private transient volatile CompiledExpression compiled;
 	private transient AtomicLong received;
 	private transient volatile boolean demReceived;
 	private boolean singleThreaded = false;
@@ -151,6 +154,7 @@ public final class ExtendOperator implements Operator, Serializable
 		master = null;
 		queue = null;
 		poses = null;
+		compiled = null;
 		cols2Pos = null;
 		cols2Types = null;
 		cols2Pos = null;
@@ -406,6 +410,10 @@ public final class ExtendOperator implements Operator, Serializable
 		startDone = true;
 		child.start();
 		queue = new BufferedLinkedBlockingQueue(ResourceManager.QUEUE_SIZE);
+		if (COMPILE && !ResourceManager.GPU && cols2Pos != null)
+		{
+			compiled = ExpressionCompiler.compile(master, child.getCols2Pos(), null);
+		}
 		if (!singleThreaded && ResourceManager.GPU)
 		{
 			new GPUThread(true).start();
@@ -644,6 +652,12 @@ public final class ExtendOperator implements Operator, Serializable
 			}
 			final ArrayList<Double> calced = new ArrayList<Double>();
 			final ArrayDeque<Object> execStack = new ArrayDeque<Object>();
+			if (compiled != null && ColumnBatch.isNative(child) && (child instanceof SelectOperator || child instanceof ProjectOperator))
+			{
+				runBatches();
+				return;
+			}
+
 			int i = 0;
 			while (true)
 			{
@@ -729,7 +743,21 @@ public final class ExtendOperator implements Operator, Serializable
 				}
 
 				final ArrayList<Object> row = (ArrayList<Object>)o;
-				if (poses == null || !ResourceManager.GPU)
+				if (compiled != null)
+				{
+					try
+					{
+						row.add(compiled.eval(row));
+						queue.put(row);
+					}
+					catch (final Exception e)
+					{
+						HRDBMSWorker.logger.error("", e);
+						queue.put(e);
+						return;
+					}
+				}
+				else if (poses == null || !ResourceManager.GPU)
 				{
 					final Double ppd = parsePrefixDouble(row, execStack);
 					row.add(ppd);
@@ -789,6 +817,69 @@ public final class ExtendOperator implements Operator, Serializable
 				}
 			}
 		}
+
+		/**
+		 * Evaluates the expression a batch at a time on the child's column
+		 * vectors, only materializing the rows that are passed on. Rows with
+		 * a null input are evaluated on the row, like on the row path.
+		 */
+		private void runBatches()
+		{
+			try
+			{
+				CompiledExpression expr = null;
+				double[] out = null;
+				Object o = ((BatchOperator)child).nextBatch(ExtendOperator.this);
+				while (!(o instanceof DataEndMarker))
+				{
+					final ColumnBatch batch = (ColumnBatch)o;
+					received.getAndAdd(batch.count());
+					if (expr == null || !expr.typesMatch(batch))
+					{
+						expr = ExpressionCompiler.compile(master, child.getCols2Pos(), batch);
+						if (expr == null)
+						{
+							expr = compiled;
+						}
+					}
+
+					if (out == null || out.length < batch.size())
+					{
+						out = new double[batch.capacity()];
+					}
+
+					expr.eval(batch, out);
+					final int count = batch.count();
+					int k = 0;
+					while (k < count)
+					{
+						final int r = batch.row(k++);
+						final ArrayList<Object> row = batch.getRow(r);
+						row.add(expr.anyNull(batch, r) ? expr.eval(row) : out[r]);
+						queue.put(row);
+					}
+
+					o = ((BatchOperator)child).nextBatch(ExtendOperator.this);
+				}
+
+				demReceived = true;
+				if (sendDEM)
+				{
+					queue.put(o);
+				}
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				try
+				{
+					queue.put(e);
+				}
+				catch (final Exception f)
+				{
+				}
+			}
+		}
 	}
 
 	private class NonGPUThread extends HRDBMSThread
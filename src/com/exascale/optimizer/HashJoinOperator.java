@@ -1,7 +1,13 @@
 package com.exascale.optimizer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
@@ -39,6 +45,9 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 	private static sun.misc.Unsafe unsafe;
 	private static AtomicInteger numHJO = new AtomicInteger(0);
 	private static int SHIFT;
+	private static boolean PARTITIONED;
+	private static long PARTITION_ROWS;
+	private static final int MAX_PARTITION_BITS = 14;
 
 	static
 	{
@@ -48,6 +57,8 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			f.setAccessible(true);
 			unsafe = (sun.misc.Unsafe)f.get(null);
 			SHIFT = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("hjo_bucket_size_shift"));
+			PARTITIONED = HRDBMSWorker.getHParms().getProperty("hjo_partitioned").equals("true");
+			PARTITION_ROWS = Long.parseLong(HRDBMSWorker.getHParms().getProperty("hjo_partition_rows"));
 			HRDBMSWorker.logger.debug("HJO SHIFT is " + SHIFT);
 		}
 		catch (final Exception e)
@@ -70,7 +81,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 	private transient volatile boolean readersDone;
 	private ArrayList<String> lefts = new ArrayList<String>();
 	private ArrayList<String> rights = new ArrayList<String>();
-	private transient volatile VHJOMultiHashMap<Long, byte[]> buckets;
+	private transient volatile LongJoinHashTable buckets;
 	// private transient ReentrantLock bucketsLock;
 	private CNFFilter cnfFilters;
 	private HashSet<HashMap<Filter, Filter>> f;
@@ -92,6 +103,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 	private transient Boolean anti = null;
 	private transient volatile BloomFilter bf = null;
 	private transient volatile BloomFilter bf2 = null;
+	private transient volatile BloomFilter runtimeBF = null;
 	private transient AtomicLong received;
 	private transient volatile boolean demReceived;
 	private long txnum;
@@ -258,7 +270,11 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 
 	private static final Object fromBytes2(final byte[] val, final byte[] types) throws Exception
 	{
-		final ByteBuffer bb = ByteBuffer.wrap(val);
+		return fromBytes2(ByteBuffer.wrap(val), types);
+	}
+
+	private static final Object fromBytes2(final ByteBuffer bb, final byte[] types) throws Exception
+	{
 		final int numFields = types.length;
 
 		if (numFields == 0)
@@ -326,24 +342,24 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		return retval;
 	}
 
-	private static ArrayList<Object>[] getCandidates(final List<byte[]> bCandidates, final byte[] types) throws Exception
+	private static ArrayList<Object>[] getCandidates(final LongJoinHashTable table, final long hash, final byte[] types) throws Exception
 	{
-		final int limit = bCandidates.size();
-		final ArrayList<Object>[] retval = new ArrayList[limit];
+		final ArrayList<Object>[] retval = new ArrayList[table.count(hash)];
+		long ref = table.first(hash);
 		int z = 0;
-		while (z < limit)
+		while (ref != -1)
 		{
-			final byte[] b = bCandidates.get(z);
 			try
 			{
-				retval[z] = ((ArrayList<Object>)fromBytes2(b, types));
-				z++;
+				retval[z++] = ((ArrayList<Object>)fromBytes2(table.row(ref), types));
 			}
 			catch (final Exception e)
 			{
 				HRDBMSWorker.logger.debug("", e);
 				throw e;
 			}
+
+			ref = table.next(ref);
 		}
 
 		return retval;
@@ -814,7 +830,8 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		return retval;
 	}
 
-	private static byte[] toBytesForHash(final ArrayList<Object> key)
+	/** Also hashes the keys of the runtime filters built from this join */
+	static byte[] toBytesForHash(final ArrayList<Object> key)
 	{
 		final StringBuilder sb = new StringBuilder();
 		for (final Object o : key)
@@ -1391,7 +1408,17 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 
 			outBuffer = new BufferedLinkedBlockingQueue(ResourceManager.QUEUE_SIZE);
 
-			if (rightChildCard > ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")))
+			runtimeBF = null;
+			if (PARTITIONED && rightChildCard > PARTITION_ROWS)
+			{
+				if (anti == null)
+				{
+					runtimeBF = RuntimeFilter.create(rightChildCard);
+				}
+
+				new PartitionedThread().start();
+			}
+			else if (rightChildCard > ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")))
 			{
 				HRDBMSWorker.logger.debug("External HJO factor: " + (rightChildCard / (ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")))));
 				// double percentInMem = ResourceManager.QUEUE_SIZE *
@@ -1403,7 +1430,12 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			}
 			else
 			{
-				buckets = new VHJOMultiHashMap<Long, byte[]>();
+				buckets = new LongJoinHashTable(NUM_RT_THREADS * 4);
+				if (anti == null)
+				{
+					runtimeBF = RuntimeFilter.create(rightChildCard);
+				}
+
 				new InitThread().start();
 			}
 		}
@@ -1790,21 +1822,291 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		numHJO.decrementAndGet();
 	}
 
-	private final ArrayList<Object>[] getCandidates(final long hash, final byte[] types) throws Exception
+	private byte[] getTypes(final Operator child) throws Exception
 	{
-		final List<byte[]> list = buckets.get(hash);
-		final int limit = list.size();
-		final ArrayList<Object>[] retval = new ArrayList[limit];
-		int z = 0;
-		while (z < limit)
+		final byte[] retval = new byte[child.getPos2Col().size()];
+		int j = 0;
+		for (final String col : child.getPos2Col().values())
 		{
-			retval[z] = ((ArrayList<Object>)fromBytes2(list.get(z), types));
-			z++;
+			final String type = child.getCols2Types().get(col);
+			if (type.equals("INT"))
+			{
+				retval[j] = (byte)1;
+			}
+			else if (type.equals("FLOAT"))
+			{
+				retval[j] = (byte)2;
+			}
+			else if (type.equals("CHAR"))
+			{
+				retval[j] = (byte)4;
+			}
+			else if (type.equals("LONG"))
+			{
+				retval[j] = (byte)0;
+			}
+			else if (type.equals("DATE"))
+			{
+				retval[j] = (byte)3;
+			}
+			else
+			{
+				throw new Exception("Unknown type: " + type);
+			}
+
+			j++;
 		}
 
 		return retval;
 	}
 
+	/**
+	 * Radix partitioned join. Both inputs are split on the top bits of the join
+	 * hash into partitions small enough for their hash table to stay in cache,
+	 * then every partition gets its own hash table, built by a pool of worker
+	 * threads. Probe rows are joined against their partition's table as they
+	 * are read. When the buffered rows go over the in memory limit the largest
+	 * partition side is moved to a temp file, and only probe rows for
+	 * partitions whose build side was moved are held back, to be joined once
+	 * the probe side is done.
+	 */
+	private void partitioned() throws Exception
+	{
+		externalFiles = new ArrayList<String>();
+		try
+		{
+			final long target = Math.max(rightChildCard / PARTITION_ROWS, ResourceManager.cpus * 4L);
+			int bits = 0;
+			while ((1L << bits) < target && bits < MAX_PARTITION_BITS)
+			{
+				bits++;
+			}
+
+			final JoinPartition[] parts = new JoinPartition[1 << bits];
+			int i = 0;
+			while (i < parts.length)
+			{
+				parts[i++] = new JoinPartition();
+			}
+
+			final long maxRows = (long)(ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")));
+			final AtomicLong inMem = new AtomicLong(0);
+			final byte[] types1 = getTypes(children.get(0));
+			final byte[] types2 = getTypes(children.get(1));
+
+			// build side first, so the probe side can drop rows for empty
+			// partitions as it is read
+			final PartitionReaderThread[] readers = new PartitionReaderThread[NUM_RT_THREADS];
+			i = 0;
+			while (i < readers.length)
+			{
+				readers[i] = new PartitionReaderThread(children.get(1), rights, true, parts, bits, inMem, maxRows, types2);
+				readers[i++].start();
+			}
+
+			for (final PartitionReaderThread reader : readers)
+			{
+				reader.join();
+				if (!reader.getOK())
+				{
+					outBuffer.put(reader.getException());
+					return;
+				}
+			}
+
+			for (final JoinPartition part : parts)
+			{
+				part.build.finish();
+			}
+
+			if (!runPartitionWorkers(parts, types1, types2, true))
+			{
+				return;
+			}
+
+			// distinct keys of the in memory partitions, spilled ones only
+			// know their row count
+			long keys = 0;
+			for (final JoinPartition part : parts)
+			{
+				final LongJoinHashTable table = part.table;
+				keys += table != null ? table.keys() : part.build.numRows;
+			}
+
+			publishRuntimeFilter(keys);
+
+			final PartitionReaderThread[] readers2 = new PartitionReaderThread[NUM_PTHREADS];
+			i = 0;
+			while (i < readers2.length)
+			{
+				readers2[i] = new PartitionReaderThread(children.get(0), lefts, false, parts, bits, inMem, maxRows, types2);
+				readers2[i++].start();
+			}
+
+			for (final PartitionReaderThread reader : readers2)
+			{
+				reader.join();
+				if (!reader.getOK())
+				{
+					outBuffer.put(reader.getException());
+					return;
+				}
+			}
+
+			for (final JoinPartition part : parts)
+			{
+				part.probe.finish();
+			}
+
+			if (!runPartitionWorkers(parts, types1, types2, false))
+			{
+				return;
+			}
+
+			outBuffer.put(new DataEndMarker());
+		}
+		finally
+		{
+			synchronized (externalFiles)
+			{
+				for (final String fn : externalFiles)
+				{
+					try
+					{
+						new File(fn).delete();
+					}
+					catch (final Exception e)
+					{
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the tables of the partitions whose build side is in memory, or
+	 * joins the partitions whose build side was spilled. Returns false if a
+	 * worker failed, its exception has been queued then.
+	 */
+	private boolean runPartitionWorkers(final JoinPartition[] parts, final byte[] types1, final byte[] types2, final boolean tables) throws Exception
+	{
+		// not limited by hjo_max_par, partitions share nothing
+		final AtomicInteger nextPart = new AtomicInteger(0);
+		final PartitionJoinThread[] workers = new PartitionJoinThread[ResourceManager.cpus];
+		int i = 0;
+		while (i < workers.length)
+		{
+			workers[i] = new PartitionJoinThread(parts, nextPart, types1, types2, tables);
+			workers[i++].start();
+		}
+
+		for (final PartitionJoinThread worker : workers)
+		{
+			worker.join();
+			if (!worker.getOK())
+			{
+				outBuffer.put(worker.getException());
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void probe(final ArrayList<Object> lRow, final long hash, final LongJoinHashTable table, final byte[] types) throws Exception
+	{
+		final ArrayList<Object>[] candidates = getCandidates(table, hash, types);
+		boolean found = false;
+		int at = 0;
+		final int limit = candidates.length;
+		while (at < limit)
+		{
+			final ArrayList<Object> rRow = candidates[at];
+			if (cnfFilters.passes(lRow, rRow))
+			{
+				if (semi != null)
+				{
+					outBuffer.put(lRow);
+					break;
+				}
+				else if (anti != null)
+				{
+					found = true;
+					break;
+				}
+				else
+				{
+					final ArrayList<Object> out = new ArrayList<Object>(lRow.size() + rRow.size());
+					out.addAll(lRow);
+					out.addAll(rRow);
+					outBuffer.put(out);
+				}
+			}
+
+			at++;
+		}
+
+		if (anti != null && !found)
+		{
+			outBuffer.put(lRow);
+		}
+	}
+
+	/** Writes the largest in memory partition side to a temp file */
+	private void spillLargest(final JoinPartition[] parts, final AtomicLong inMem, final long maxRows) throws Exception
+	{
+		synchronized (parts)
+		{
+			if (inMem.get() <= maxRows)
+			{
+				return;
+			}
+
+			PartitionSide victim = null;
+			int most = 0;
+			int index = 0;
+			int i = 0;
+			while (i < parts.length)
+			{
+				int n = parts[i].build.inMemory();
+				if (n > most)
+				{
+					most = n;
+					victim = parts[i].build;
+					index = i << 1;
+				}
+
+				n = parts[i].probe.inMemory();
+				if (n > most)
+				{
+					most = n;
+					victim = parts[i].probe;
+					index = (i << 1) + 1;
+				}
+
+				i++;
+			}
+
+			if (victim == null)
+			{
+				return;
+			}
+
+			final String fn = ResourceManager.TEMP_DIRS.get(index % ResourceManager.TEMP_DIRS.size()) + this.hashCode() + "" + System.currentTimeMillis() + index + ".parthash";
+			synchronized (externalFiles)
+			{
+				externalFiles.add(fn);
+			}
+
+			inMem.addAndGet(-victim.spill(fn));
+		}
+	}
+
+	private final ArrayList<Object>[] getCandidates(final long hash, final byte[] types) throws Exception
+	{
+		return getCandidates(buckets, hash, types);
+	}
+
 	private String getLeftForRight(final String right)
 	{
 		int i = 0;
@@ -1840,7 +2142,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 	private void process(final ReadDataThread left, final HashDataThread right, final byte[] types, final int start, final int end) throws Exception
 	{
 		ArrayList<ArrayList<Object>> probe = left.getData();
-		HJOMultiHashMap<Long, byte[]> table = right.getData();
+		LongJoinHashTable table = right.getData();
 		final HashMap<String, Integer> childCols2Pos = children.get(0).getCols2Pos();
 
 		final int[] poses = new int[lefts.size()];
@@ -1873,7 +2175,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			}
 
 			final long hash = hash(key);
-			final ArrayList<Object>[] candidates = getCandidates(table.get(hash), types);
+			final ArrayList<Object>[] candidates = getCandidates(table, hash, types);
 			boolean found = false;
 			final int limit = candidates.length;
 			int at = 0;
@@ -1919,9 +2221,66 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		table = null;
 	}
 
+	/**
+	 * Hands the bloom filter over the build keys to the operators below the
+	 * probe side, shrunk to the number of distinct build keys. Skipped if the
+	 * build side held far more keys than the filter was sized for, it would
+	 * pass nearly everything.
+	 */
+	private void publishRuntimeFilter(final long keys)
+	{
+		BloomFilter bloom = runtimeBF;
+		runtimeBF = null;
+		if (bloom == null || keys > (bloom.expected() << 1))
+		{
+			return;
+		}
+
+		bloom = bloom.shrink(keys);
+
+		try
+		{
+			final RuntimeFilter rf = new RuntimeFilter(new ArrayList<String>(lefts), bloom);
+			Operator parent = this;
+			Operator op = children.get(0);
+			while (true)
+			{
+				if (op instanceof TableScanOperator)
+				{
+					((TableScanOperator)op).setRuntimeFilter(parent, rf);
+					return;
+				}
+
+				if (op instanceof NetworkHashReceiveOperator)
+				{
+					((NetworkHashReceiveOperator)op).sendRuntimeFilter(rf);
+					return;
+				}
+
+				if (!(op instanceof SelectOperator || op instanceof ProjectOperator || op instanceof ReorderOperator))
+				{
+					return;
+				}
+
+				parent = op;
+				op = op.children().get(0);
+			}
+		}
+		catch (final Exception e)
+		{
+			// the filter is only an optimization
+			HRDBMSWorker.logger.debug("Unable to publish runtime filter", e);
+		}
+	}
+
 	private final void writeToHashTable(final long hash, final byte[] row) throws Exception
 	{
-		buckets.multiPut(hash, row);
+		buckets.put(hash, row);
+		final BloomFilter bloom = runtimeBF;
+		if (bloom != null)
+		{
+			bloom.add(hash);
+		}
 	}
 
 	private class EPT2Thread extends HRDBMSThread
@@ -2049,6 +2408,376 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		}
 	}
 
+	private static final class JoinPartition
+	{
+		private final PartitionSide build = new PartitionSide();
+		private final PartitionSide probe = new PartitionSide();
+		// set once the in memory build side is hashed, probe rows stream through it
+		private volatile LongJoinHashTable table;
+	}
+
+	/**
+	 * Rows of one input for one partition. Build rows are kept serialized,
+	 * probe rows as they came in until the side is spilled.
+	 */
+	private static final class PartitionSide
+	{
+		private ArrayList<Object> rows = new ArrayList<Object>();
+		private long[] hashes = new long[16];
+		private volatile long numRows = 0;
+		private String fn;
+		private DataOutputStream out;
+
+		/** Returns true if the row is held in memory */
+		private synchronized boolean add(final long hash, final Object row) throws Exception
+		{
+			numRows++;
+			if (out != null)
+			{
+				write(hash, row);
+				return false;
+			}
+
+			final int size = rows.size();
+			if (size == hashes.length)
+			{
+				final long[] temp = new long[size << 1];
+				System.arraycopy(hashes, 0, temp, 0, size);
+				hashes = temp;
+			}
+
+			hashes[size] = hash;
+			rows.add(row);
+			return true;
+		}
+
+		private synchronized void finish() throws Exception
+		{
+			if (out != null)
+			{
+				out.close();
+			}
+		}
+
+		private synchronized int inMemory()
+		{
+			if (out != null || rows == null)
+			{
+				return 0;
+			}
+
+			return rows.size();
+		}
+
+		private DataInputStream open() throws Exception
+		{
+			return new DataInputStream(new BufferedInputStream(new FileInputStream(fn), 64 * 1024));
+		}
+
+		private void release()
+		{
+			rows = null;
+			hashes = null;
+		}
+
+		/** Moves the buffered rows to fn, later rows go there too. Returns the number of rows freed. */
+		private synchronized int spill(final String fn) throws Exception
+		{
+			this.fn = fn;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fn), 64 * 1024));
+			final int retval = rows.size();
+			int i = 0;
+			while (i < retval)
+			{
+				write(hashes[i], rows.get(i));
+				i++;
+			}
+
+			release();
+			return retval;
+		}
+
+		private void write(final long hash, final Object row) throws Exception
+		{
+			final byte[] data = row instanceof byte[] ? (byte[])row : toBytes(row);
+			out.writeLong(hash);
+			out.writeInt(data.length);
+			out.write(data);
+		}
+	}
+
+	private final class PartitionJoinThread extends HRDBMSThread
+	{
+		private final JoinPartition[] parts;
+		private final AtomicInteger nextPart;
+		private final byte[] types1;
+		private final byte[] types2;
+		private final boolean tables;
+		private boolean ok = true;
+		private Exception e;
+
+		public PartitionJoinThread(final JoinPartition[] parts, final AtomicInteger nextPart, final byte[] types1, final byte[] types2, final boolean tables)
+		{
+			this.parts = parts;
+			this.nextPart = nextPart;
+			this.types1 = types1;
+			this.types2 = types2;
+			this.tables = tables;
+		}
+
+		public Exception getException()
+		{
+			return e;
+		}
+
+		public boolean getOK()
+		{
+			return ok;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					final int i = nextPart.getAndIncrement();
+					if (i >= parts.length)
+					{
+						return;
+					}
+
+					if (tables)
+					{
+						buildTable(parts[i]);
+					}
+					else
+					{
+						join(parts[i]);
+						parts[i] = null;
+					}
+				}
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("", e);
+				ok = false;
+				this.e = e;
+			}
+		}
+
+		private void buildTable(final JoinPartition part)
+		{
+			final PartitionSide build = part.build;
+			if (build.fn != null || build.numRows == 0)
+			{
+				return;
+			}
+
+			final LongJoinHashTable table = new LongJoinHashTable(1);
+			final int limit = build.rows.size();
+			int i = 0;
+			while (i < limit)
+			{
+				table.put(build.hashes[i], (byte[])build.rows.get(i));
+				i++;
+			}
+
+			build.release();
+			part.table = table;
+		}
+
+		/** Joins a partition whose build side was spilled with its held back probe rows */
+		private void join(final JoinPartition part) throws Exception
+		{
+			if (part.table != null)
+			{
+				part.table.clear();
+				part.table = null;
+				return;
+			}
+
+			final PartitionSide build = part.build;
+			final PartitionSide probe = part.probe;
+			if (build.fn == null || probe.numRows == 0)
+			{
+				return;
+			}
+
+			final LongJoinHashTable table = new LongJoinHashTable(1);
+			try (DataInputStream in = build.open())
+			{
+				long n = build.numRows;
+				while (n-- > 0)
+				{
+					final long hash = in.readLong();
+					final byte[] data = new byte[in.readInt()];
+					in.readFully(data);
+					table.put(hash, data);
+				}
+			}
+
+			if (probe.fn == null)
+			{
+				final int limit = probe.rows.size();
+				int i = 0;
+				while (i < limit)
+				{
+					HashJoinOperator.this.probe((ArrayList<Object>)probe.rows.get(i), probe.hashes[i], table, types2);
+					i++;
+				}
+
+				probe.release();
+			}
+			else
+			{
+				try (DataInputStream in = probe.open())
+				{
+					long n = probe.numRows;
+					while (n-- > 0)
+					{
+						final long hash = in.readLong();
+						final byte[] data = new byte[in.readInt()];
+						in.readFully(data);
+						HashJoinOperator.this.probe((ArrayList<Object>)fromBytes2(data, types1), hash, table, types2);
+					}
+				}
+			}
+
+			table.clear();
+		}
+	}
+
+	private final class PartitionReaderThread extends HRDBMSThread
+	{
+		private final Operator child;
+		private final ArrayList<String> cols;
+		private final boolean build;
+		private final JoinPartition[] parts;
+		private final int bits;
+		private final AtomicLong inMem;
+		private final long maxRows;
+		// of the build side rows, for probing
+		private final byte[] types;
+		private boolean ok = true;
+		private Exception e;
+
+		public PartitionReaderThread(final Operator child, final ArrayList<String> cols, final boolean build, final JoinPartition[] parts, final int bits, final AtomicLong inMem, final long maxRows, final byte[] types)
+		{
+			this.child = child;
+			this.cols = cols;
+			this.build = build;
+			this.parts = parts;
+			this.bits = bits;
+			this.inMem = inMem;
+			this.maxRows = maxRows;
+			this.types = types;
+		}
+
+		public Exception getException()
+		{
+			return e;
+		}
+
+		public boolean getOK()
+		{
+			return ok;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				final HashMap<String, Integer> childCols2Pos = child.getCols2Pos();
+				final int[] poses = new int[cols.size()];
+				int i = 0;
+				for (final String col : cols)
+				{
+					poses[i++] = childCols2Pos.get(col);
+				}
+
+				final ArrayList<Object> key = new ArrayList<Object>(cols.size());
+				Object o = child.next(HashJoinOperator.this);
+				while (!(o instanceof DataEndMarker))
+				{
+					received.getAndIncrement();
+					final ArrayList<Object> row = (ArrayList<Object>)o;
+					key.clear();
+					for (final int pos : poses)
+					{
+						key.add(row.get(pos));
+					}
+
+					final long hash = 0x7FFFFFFFFFFFFFFFL & hash(key);
+					final JoinPartition part = parts[(int)(hash >>> (63 - bits))];
+					boolean held;
+					if (build)
+					{
+						final BloomFilter bloom = runtimeBF;
+						if (bloom != null)
+						{
+							bloom.add(hash);
+						}
+
+						held = part.build.add(hash, toBytes(row));
+					}
+					else if (part.build.numRows == 0)
+					{
+						// nothing to match in this partition
+						held = false;
+						if (anti != null)
+						{
+							outBuffer.put(row);
+						}
+					}
+					else if (part.table != null)
+					{
+						held = false;
+						probe(row, hash, part.table, types);
+					}
+					else
+					{
+						held = part.probe.add(hash, row);
+					}
+
+					if (held && inMem.incrementAndGet() > maxRows)
+					{
+						spillLargest(parts, inMem, maxRows);
+					}
+
+					o = child.next(HashJoinOperator.this);
+				}
+
+				demReceived = true;
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("Error in hash join partition thread.", e);
+				ok = false;
+				this.e = e;
+			}
+		}
+	}
+
+	private final class PartitionedThread extends HRDBMSThread
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				partitioned();
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("", e);
+				outBuffer.put(e);
+			}
+		}
+	}
+
 	private class ExternalThread extends HRDBMSThread
 	{
 		private final double percentInMem;
@@ -2179,7 +2908,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		private final FileChannel fc;
 		private boolean ok = true;
 		private Exception e;
-		private HJOMultiHashMap<Long, byte[]> data;
+		private LongJoinHashTable data;
 		private final byte[] types;
 		private final ArrayList<ArrayList<ArrayList<Object>>> bins;
 		private final int binsInMem;
@@ -2189,7 +2918,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 		{
 			this.fc = new BufferedFileChannel(fc, 8 * 1024 * 1024);
 			this.types = types;
-			data = new HJOMultiHashMap<Long, byte[]>();
+			data = new LongJoinHashTable(1);
 			this.bins = bins;
 			this.binsInMem = binsInMem;
 			this.index = index;
@@ -2200,7 +2929,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			data = null;
 		}
 
-		public HJOMultiHashMap<Long, byte[]> getData()
+		public LongJoinHashTable getData()
 		{
 			return data;
 		}
@@ -2255,7 +2984,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 						}
 
 						final long hash = hash(key);
-						data.multiPut(hash, toBytes(row));
+						data.put(hash, toBytes(row));
 					}
 
 					// HRDBMSWorker.logger.debug(HashJoinOperator.this +
@@ -2309,7 +3038,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 					{
 						continue;
 					}
-					data.multiPut(hash, toBytes(row));
+					data.put(hash, toBytes(row));
 				}
 			}
 			catch (final Throwable e)
@@ -2363,6 +3092,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			}
 
 			readersDone = true;
+			publishRuntimeFilter(buckets.keys());
 
 			i = 0;
 			final ThreadPoolThread[] threads2 = new ProcessThread[NUM_PTHREADS];
@@ -2429,7 +3159,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 			this.channels = channels;
 			this.numBins = numBins;
 			this.types = types;
-			tempBF = new BloomFilter();
+			tempBF = new BloomFilter(leftChildCard);
 			this.inMemBins = inMemBins;
 		}
 
@@ -3086,7 +3816,7 @@ public final class HashJoinOperator extends JoinOperator implements Serializable
 
 			if (anti == null)
 			{
-				tempBF = new BloomFilter();
+				tempBF = new BloomFilter(rightChildCard);
 			}
 			else
 			{
@@ -0,0 +1,135 @@
+package com.exascale.optimizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.misc.SPSCQueue;
+
+/**
+ * In process path for a network exchange whose sender and receiver run in the
+ * same worker. The receiver offers one for every connection to its own host,
+ * keyed by its end of the socket, before it asks for the stream. If the
+ * sender finds the offer when it starts, it writes a LOCAL_FRAME to the socket
+ * and then hands rows and batches to the receiver through a ring, without
+ * serializing or compressing them. Everything that isn't a row or a batch
+ * still goes through as a record. The socket keeps carrying the commands
+ * that go back to the sender, like credits.
+ *
+ * An offer that no sender claims, because the sender is another process on
+ * the same host, is withdrawn when the receiver closes.
+ */
+public final class LocalExchange extends OutputStream
+{
+	// in place of the field count that starts a row record on the network
+	public static final int LOCAL_FRAME = -4;
+	private static final boolean ENABLED = HRDBMSWorker.getHParms().getProperty("local_exchange").equals("true");
+	private static final int SIZE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("local_exchange_queue_size"));
+	private static final ConcurrentHashMap<String, LocalExchange> offers = new ConcurrentHashMap<String, LocalExchange>();
+	private final String key;
+	// created by the sender that claims this
+	private volatile SPSCQueue q;
+	private volatile boolean withdrawn = false;
+
+	private LocalExchange(final String key)
+	{
+		this.key = key;
+	}
+
+	/**
+	 * Called by the sender for a connection from a receiver, returns null
+	 * unless the receiver is in this process
+	 */
+	public static LocalExchange claim(final Socket sock)
+	{
+		if (!ENABLED || sock == null || sock.getInetAddress() == null)
+		{
+			return null;
+		}
+
+		final LocalExchange local = offers.remove(key(sock.getInetAddress(), sock.getPort()));
+		if (local != null)
+		{
+			local.q = new SPSCQueue(SIZE);
+		}
+
+		return local;
+	}
+
+	/** The record that tells the receiver to read the rest of the stream from its offer */
+	public static byte[] frame()
+	{
+		return new byte[] { 0, 0, 0, 4, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xfc };
+	}
+
+	/**
+	 * Called by the receiver once it connected, returns null if the sender
+	 * can't be in this process
+	 */
+	public static LocalExchange offer(final Socket sock)
+	{
+		if (!ENABLED)
+		{
+			return null;
+		}
+
+		final InetAddress addr = sock.getInetAddress();
+		if (addr == null || !(addr.isLoopbackAddress() || addr.equals(sock.getLocalAddress())))
+		{
+			return null;
+		}
+
+		final LocalExchange local = new LocalExchange(key(sock.getLocalAddress(), sock.getLocalPort()));
+		offers.put(local.key, local);
+		return local;
+	}
+
+	private static String key(final InetAddress addr, final int port)
+	{
+		return addr.getHostAddress() + ":" + port;
+	}
+
+	/** Hands over a row, a batch or a record to the receiver */
+	public void put(final Object o) throws IOException
+	{
+		while (!q.offer(o))
+		{
+			if (withdrawn)
+			{
+				throw new IOException("The receiver of a local exchange is gone");
+			}
+
+			LockSupport.parkNanos(500);
+		}
+	}
+
+	/** Called by the receiver after it read the LOCAL_FRAME */
+	public Object take() throws Exception
+	{
+		return q.take();
+	}
+
+	/** Called by the receiver when it closes */
+	public void withdraw()
+	{
+		withdrawn = true;
+		offers.remove(key, this);
+	}
+
+	/** Records are written whole, each starting with its length */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException
+	{
+		put(Arrays.copyOfRange(b, off + 4, off + len));
+	}
+
+	@Override
+	public void write(final int b) throws IOException
+	{
+		throw new IOException("A local exchange only takes whole records");
+	}
+}
@@ -0,0 +1,114 @@
+package com.exascale.optimizer;
+
+import java.util.Comparator;
+
+/**
+ * Tournament tree for merging sorted inputs. Each internal node keeps the
+ * input that lost the match there and node 0 keeps the overall winner, so
+ * replacing the head of the winner replays only its path to the root,
+ * log2(inputs) compares instead of the pops and pushes of a heap. An input
+ * whose head is null is done and loses every match, ties go to the lower
+ * input so the merge is stable.
+ */
+final class LoserTree<T>
+{
+	private final int inputs;
+	private final int[] tree;
+	// heads[inputs] is a sentinel that wins every match while the tree is built
+	private final Object[] heads;
+	private final Comparator<? super T> cmp;
+
+	/** first holds the first entry of each input, null for an empty input */
+	public LoserTree(final T[] first, final Comparator<? super T> cmp)
+	{
+		this.cmp = cmp;
+		inputs = first.length;
+		tree = new int[Math.max(inputs, 1)];
+		heads = new Object[inputs + 1];
+		System.arraycopy(first, 0, heads, 0, inputs);
+		int i = 0;
+		while (i < tree.length)
+		{
+			tree[i++] = inputs;
+		}
+
+		i = inputs - 1;
+		while (i >= 0)
+		{
+			adjust(i--);
+		}
+	}
+
+	/** The head of the winning input */
+	public T head()
+	{
+		return (T)heads[tree[0]];
+	}
+
+	/** Replaces the head of the winner with the next entry of its input */
+	public void replace(final T next)
+	{
+		final int winner = tree[0];
+		heads[winner] = next;
+		adjust(winner);
+	}
+
+	/** The input with the smallest head, or -1 when all inputs are done */
+	public int winner()
+	{
+		final int winner = tree[0];
+		if (winner >= inputs || heads[winner] == null)
+		{
+			return -1;
+		}
+
+		return winner;
+	}
+
+	private void adjust(final int input)
+	{
+		int winner = input;
+		int node = (input + inputs) >> 1;
+		while (node > 0)
+		{
+			if (beats(tree[node], winner))
+			{
+				final int temp = tree[node];
+				tree[node] = winner;
+				winner = temp;
+			}
+
+			node >>= 1;
+		}
+
+		tree[0] = winner;
+	}
+
+	private boolean beats(final int l, final int r)
+	{
+		if (l == inputs)
+		{
+			return true;
+		}
+
+		if (r == inputs)
+		{
+			return false;
+		}
+
+		final T lHead = (T)heads[l];
+		final T rHead = (T)heads[r];
+		if (lHead == null)
+		{
+			return rHead == null && l < r;
+		}
+
+		if (rHead == null)
+		{
+			return true;
+		}
+
+		final int result = cmp.compare(lHead, rHead);
+		return result < 0 || (result == 0 && l < r);
+	}
+}
@@ -0,0 +1,120 @@
+package com.exascale.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Merges random sorted inputs, some of them empty and with many duplicates,
+ * through a LoserTree and checks the output against a stable sort of all
+ * entries. Ties must come out in input order.
+ */
+public class LoserTreeTest
+{
+	private static final Comparator<int[]> VALUE = new Comparator<int[]>()
+	{
+		@Override
+		public int compare(final int[] l, final int[] r)
+		{
+			return Integer.compare(l[0], r[0]);
+		}
+	};
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(13);
+		for (final int inputs : new int[] { 0, 1, 2, 3, 5, 8, 17, 64 })
+		{
+			int round = 0;
+			while (round < 20)
+			{
+				merge(random, inputs);
+				round++;
+			}
+		}
+
+		System.out.println("LoserTreeTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("LoserTreeTest failed: " + what);
+		}
+	}
+
+	private static void merge(final Random random, final int inputs) throws Exception
+	{
+		// entries are {value, input, position in input}
+		final ArrayList<ArrayList<int[]>> lists = new ArrayList<ArrayList<int[]>>();
+		final ArrayList<int[]> all = new ArrayList<int[]>();
+		int i = 0;
+		while (i < inputs)
+		{
+			final ArrayList<int[]> list = new ArrayList<int[]>();
+			final int size = random.nextInt(4) == 0 ? 0 : random.nextInt(200);
+			final ArrayList<Integer> values = new ArrayList<Integer>();
+			int j = 0;
+			while (j < size)
+			{
+				values.add(random.nextInt(50));
+				j++;
+			}
+
+			Collections.sort(values);
+			j = 0;
+			while (j < size)
+			{
+				final int[] entry = new int[] { values.get(j), i, j };
+				list.add(entry);
+				all.add(entry);
+				j++;
+			}
+
+			lists.add(list);
+			i++;
+		}
+
+		// the lists were added in input order, so a stable sort is the
+		// expected merge
+		Collections.sort(all, VALUE);
+
+		final int[][] first = new int[inputs][];
+		final int[] next = new int[inputs];
+		i = 0;
+		while (i < inputs)
+		{
+			if (!lists.get(i).isEmpty())
+			{
+				first[i] = lists.get(i).get(0);
+				next[i] = 1;
+			}
+
+			i++;
+		}
+
+		final LoserTree<int[]> tree = new LoserTree<int[]>(first, VALUE);
+		int out = 0;
+		while (true)
+		{
+			final int winner = tree.winner();
+			if (winner == -1)
+			{
+				break;
+			}
+
+			final int[] head = tree.head();
+			check(out < all.size(), "more entries than went in with " + inputs + " inputs");
+			check(head == all.get(out), "entry " + out + " is {" + head[0] + ", " + head[1] + ", " + head[2] + "} with " + inputs + " inputs");
+			check(head[1] == winner, "winner " + winner + " doesn't hold the head");
+			out++;
+
+			final ArrayList<int[]> list = lists.get(winner);
+			tree.replace(next[winner] < list.size() ? list.get(next[winner]++) : null);
+		}
+
+		check(out == all.size(), out + " of " + all.size() + " entries came out with " + inputs + " inputs");
+	}
+}
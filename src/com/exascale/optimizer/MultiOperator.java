@@ -20,6 +20,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import com.exascale.managers.HRDBMSWorker;
 import com.exascale.managers.ResourceManager;
@@ -35,6 +36,14 @@ public final class MultiOperator implements Operator, Serializable
 {
 	private static int NUM_HGBR_THREADS;
 	private static int SHIFT;
+	private static boolean SLOT_AGG;
+	private static boolean SLOT_DOUBLE_SUMS;
+	private static final int AGG_COUNT = 0;
+	private static final int AGG_LSUM = 1;
+	private static final int AGG_DSUM = 2;
+	private static final int AGG_AVG = 3;
+	private static final int AGG_MIN = 4;
+	private static final int AGG_MAX = 5;
 
 	private static sun.misc.Unsafe unsafe;
 
@@ -54,6 +63,9 @@ public final class MultiOperator implements Operator, Serializable
 			{
 				NUM_HGBR_THREADS = max;
 			}
+
+			SLOT_AGG = HRDBMSWorker.getHParms().getProperty("slot_aggregation").equals("true");
+			SLOT_DOUBLE_SUMS = HRDBMSWorker.getHParms().getProperty("slot_aggregation_double_sums").equals("true");
 		}
 		catch (final Exception e)
 		{
@@ -716,6 +728,11 @@ public final class MultiOperator implements Operator, Serializable
 				remove.add(op);
 				add.add(new SumOperator(op.getInputColumn(), op.outputColumn(), meta, true));
 			}
+			else if (op instanceof ApproxCountDistinctOperator)
+			{
+				// the inputs are now the sketches of the partial aggregations
+				((ApproxCountDistinctOperator)op).setMerge();
+			}
 		}
 
 		int i = 0;
@@ -728,6 +745,22 @@ public final class MultiOperator implements Operator, Serializable
 		}
 	}
 
+	/**
+	 * For the partial side of a split group by, approximate distinct counts
+	 * output their sketches so that the final side can merge them. Must be
+	 * called before a child is added.
+	 */
+	public void changeApproxToPartial()
+	{
+		for (final AggregateOperator op : ops)
+		{
+			if (op instanceof ApproxCountDistinctOperator)
+			{
+				((ApproxCountDistinctOperator)op).setPartial();
+			}
+		}
+	}
+
 	@Override
 	public ArrayList<Operator> children()
 	{
@@ -1058,7 +1091,7 @@ public final class MultiOperator implements Operator, Serializable
 			}
 			else
 			{
-				new HashGroupByThread().start();
+				startHashGroupBy();
 			}
 		}
 	}
@@ -1158,7 +1191,7 @@ public final class MultiOperator implements Operator, Serializable
 		else if (!external)
 		{
 			// System.out.println("HasGroupByThread created via start()");
-			new HashGroupByThread().start();
+			startHashGroupBy();
 		}
 		else if (ResourceManager.criticalMem())
 		{
@@ -1455,6 +1488,100 @@ public final class MultiOperator implements Operator, Serializable
 		}
 	}
 
+	/**
+	 * Uses the fixed width aggregation table when every aggregate keeps
+	 * primitive state and the group by columns are of a known type. Double
+	 * SUM and AVG only qualify with slot_aggregation_double_sums, their slots
+	 * are compensated doubles instead of the exact sums of HashGroupByThread.
+	 */
+	private void startHashGroupBy()
+	{
+		if (!SLOT_AGG)
+		{
+			new HashGroupByThread().start();
+			return;
+		}
+
+		final HashMap<String, String> childTypes = child.getCols2Types();
+		for (final String col : groupCols)
+		{
+			final String type = childTypes.get(col);
+			if (type == null || !(type.equals("INT") || type.equals("LONG") || type.equals("FLOAT") || type.equals("DATE") || type.equals("CHAR")))
+			{
+				new HashGroupByThread().start();
+				return;
+			}
+		}
+
+		final int[] aggs = new int[ops.size()];
+		final byte[] valTypes = new byte[ops.size()];
+		final int[] firstSlots = new int[ops.size()];
+		final byte[] temp = new byte[ops.size() * 3];
+		int slots = 0;
+		int i = 0;
+		for (final AggregateOperator op : ops)
+		{
+			firstSlots[i] = slots;
+			if (op instanceof CountOperator)
+			{
+				aggs[i] = AGG_COUNT;
+				temp[slots++] = AggregationHashTable.SUM;
+			}
+			else if (op instanceof SumOperator && op.outputType().equals("LONG"))
+			{
+				aggs[i] = AGG_LSUM;
+				temp[slots++] = AggregationHashTable.SUM;
+			}
+			else if (!SLOT_DOUBLE_SUMS && (op instanceof SumOperator || op instanceof AvgOperator))
+			{
+				// keep the exact sums
+				new HashGroupByThread().start();
+				return;
+			}
+			else if (op instanceof SumOperator)
+			{
+				aggs[i] = AGG_DSUM;
+				temp[slots++] = AggregationHashTable.DSUM;
+				temp[slots++] = AggregationHashTable.COMP;
+			}
+			else if (op instanceof AvgOperator)
+			{
+				aggs[i] = AGG_AVG;
+				temp[slots++] = AggregationHashTable.DSUM;
+				temp[slots++] = AggregationHashTable.COMP;
+				temp[slots++] = AggregationHashTable.SUM;
+			}
+			else if ((op instanceof MinOperator || op instanceof MaxOperator) && !op.outputType().equals("CHAR"))
+			{
+				final boolean min = op instanceof MinOperator;
+				aggs[i] = min ? AGG_MIN : AGG_MAX;
+				final String type = op.outputType();
+				if (type.equals("FLOAT"))
+				{
+					valTypes[i] = 2;
+					temp[slots++] = min ? AggregationHashTable.DMIN : AggregationHashTable.DMAX;
+				}
+				else
+				{
+					valTypes[i] = (byte)(type.equals("INT") ? 1 : (type.equals("DATE") ? 3 : 0));
+					temp[slots++] = min ? AggregationHashTable.MIN : AggregationHashTable.MAX;
+				}
+			}
+			else
+			{
+				// count distinct and anything else that needs more than a slot
+				new HashGroupByThread().start();
+				return;
+			}
+
+			i++;
+		}
+
+		final byte[] kinds = new byte[slots];
+		System.arraycopy(temp, 0, kinds, 0, slots);
+		new SlotGroupByThread(aggs, valTypes, firstSlots, kinds).start();
+	}
+
 	private void init()
 	{
 		new InitThread().start();
@@ -1941,11 +2068,12 @@ public final class MultiOperator implements Operator, Serializable
 		private final class HashGroupByReaderThread extends ThreadPoolThread
 		{
 			private ArrayList<Integer> groupPos = null;
+			private double tF;
 
 			@Override
 			public void run()
 			{
-				final double tF = NUM_GROUPS * 1.0 / childCard;
+				tF = NUM_GROUPS * 1.0 / childCard;
 				try
 				{
 					Object o = child.next(MultiOperator.this);
@@ -1959,65 +2087,308 @@ public final class MultiOperator implements Operator, Serializable
 					}
 					while (!(o instanceof DataEndMarker))
 					{
-						final ArrayList<Object> row = (ArrayList<Object>)o;
-						final ArrayList<Object> groupKeys = new ArrayList<Object>();
-
-						if (groupPos == null)
-						{
-							groupPos = new ArrayList<Integer>(groupCols.size());
-							for (final String groupCol : groupCols)
-							{
-								groupPos.add(child.getCols2Pos().get(groupCol));
-							}
-						}
-
-						try
+						consume((ArrayList<Object>)o);
+						o = child.next(MultiOperator.this);
+						if (o instanceof DataEndMarker)
 						{
-							for (final int pos : groupPos)
-							{
-								groupKeys.add(row.get(pos));
-							}
+							demReceived = true;
 						}
-						catch (final Exception e)
+						else
 						{
-							HRDBMSWorker.logger.debug("Trying to group on " + groupCols);
-							HRDBMSWorker.logger.debug("Child.getCols2Pos() = " + child.getCols2Pos());
-							throw e;
+							received.getAndIncrement();
 						}
+					}
+				}
+				catch (final Exception e)
+				{
+					HRDBMSWorker.logger.error("", e);
+					try
+					{
+						readBuffer.put(e);
+					}
+					catch (final Exception f)
+					{
+					}
+					return;
+				}
+			}
 
-						if (tF >= 0.5)
-						{
-							groups.putIfAbsent(groupKeys, groupKeys);
-						}
-						else
-						{
-							final ArrayList<Object> obj = groups.get(groupKeys);
-							if (obj == null)
+			private void consume(final ArrayList<Object> row) throws Exception
+			{
+				final ArrayList<Object> groupKeys = new ArrayList<Object>();
+
+				if (groupPos == null)
+				{
+					groupPos = new ArrayList<Integer>(groupCols.size());
+					for (final String groupCol : groupCols)
+					{
+						groupPos.add(child.getCols2Pos().get(groupCol));
+					}
+				}
+
+				try
+				{
+					for (final int pos : groupPos)
+					{
+						groupKeys.add(row.get(pos));
+					}
+				}
+				catch (final Exception e)
+				{
+					HRDBMSWorker.logger.debug("Trying to group on " + groupCols);
+					HRDBMSWorker.logger.debug("Child.getCols2Pos() = " + child.getCols2Pos());
+					throw e;
+				}
+
+				if (tF >= 0.5)
+				{
+					groups.putIfAbsent(groupKeys, groupKeys);
+				}
+				else
+				{
+					final ArrayList<Object> obj = groups.get(groupKeys);
+					if (obj == null)
+					{
+						groups.putIfAbsent(groupKeys, groupKeys);
+					}
+				}
+				// groups.add(groupKeys);
+
+				for (final AggregateResultThread thread : threads)
+				{
+					thread.put(row, groupKeys);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hash group by over AggregationHashTables. Each reader aggregates into
+	 * its own tables, split by the top bits of the key hash, and afterwards
+	 * each partition is merged across the readers and emitted on its own.
+	 */
+	private final class SlotGroupByThread extends ThreadPoolThread
+	{
+		private final int[] aggs;
+		private final byte[] valTypes;
+		private final int[] firstSlots;
+		private final byte[] kinds;
+		private final int bits;
+		private final AtomicInteger nextPart = new AtomicInteger(0);
+		private SlotGroupByReaderThread[] readers;
+
+		public SlotGroupByThread(final int[] aggs, final byte[] valTypes, final int[] firstSlots, final byte[] kinds)
+		{
+			this.aggs = aggs;
+			this.valTypes = valTypes;
+			this.firstSlots = firstSlots;
+			this.kinds = kinds;
+			int b = 1;
+			while ((1 << b) < (NUM_HGBR_THREADS << 1))
+			{
+				b++;
+			}
+
+			bits = b;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				readers = new SlotGroupByReaderThread[NUM_HGBR_THREADS];
+				int i = 0;
+				while (i < NUM_HGBR_THREADS)
+				{
+					readers[i] = new SlotGroupByReaderThread();
+					readers[i].start();
+					i++;
+				}
+
+				boolean ok = true;
+				for (final SlotGroupByReaderThread reader : readers)
+				{
+					reader.join();
+					ok &= reader.ok;
+				}
+
+				if (!ok)
+				{
+					// the reader already queued the exception
+					return;
+				}
+
+				final int numMergers = Math.min(1 << bits, ResourceManager.cpus);
+				final SlotMergeThread[] mergers = new SlotMergeThread[numMergers];
+				i = 0;
+				while (i < numMergers)
+				{
+					mergers[i] = new SlotMergeThread();
+					mergers[i].start();
+					i++;
+				}
+
+				for (final SlotMergeThread merger : mergers)
+				{
+					merger.join();
+					if (!merger.ok)
+					{
+						readBuffer.put(merger.e);
+						return;
+					}
+				}
+
+				readers = null;
+				readBuffer.put(new DataEndMarker());
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				try
+				{
+					readBuffer.put(e);
+				}
+				catch (final Exception f)
+				{
+				}
+				return;
+			}
+		}
+
+		private void emit(final AggregationHashTable table) throws Exception
+		{
+			final int size = table.size();
+			int g = 0;
+			while (g < size)
+			{
+				final ArrayList<Object> row = new ArrayList<Object>(groupCols.size() + aggs.length);
+				final ByteBuffer bb = table.key(g);
+				while (bb.hasRemaining())
+				{
+					switch (bb.get())
+					{
+						case 0:
+							row.add(bb.getLong());
+							break;
+						case 1:
+							row.add(bb.getInt());
+							break;
+						case 2:
+							row.add(Double.longBitsToDouble(bb.getLong()));
+							break;
+						case 3:
+							row.add(new MyDate(bb.getInt()));
+							break;
+						case 5:
+							row.add(null);
+							break;
+						default:
+							final int len = bb.getInt();
+							row.add(new String(bb.array(), bb.position(), len, StandardCharsets.UTF_8));
+							bb.position(bb.position() + len);
+					}
+				}
+
+				int i = 0;
+				while (i < aggs.length)
+				{
+					final int slot = firstSlots[i];
+					switch (aggs[i])
+					{
+						case AGG_COUNT:
+						case AGG_LSUM:
+							row.add(table.get(g, slot));
+							break;
+						case AGG_DSUM:
+							row.add(table.getDouble(g, slot));
+							break;
+						case AGG_AVG:
+							row.add(table.getDouble(g, slot) / table.get(g, slot + 2));
+							break;
+						default:
+							if (valTypes[i] == 2)
 							{
-								groups.putIfAbsent(groupKeys, groupKeys);
+								row.add(table.getDouble(g, slot));
 							}
-						}
-						// groups.add(groupKeys);
+							else if (valTypes[i] == 1)
+							{
+								row.add((int)table.get(g, slot));
+							}
+							else if (valTypes[i] == 3)
+							{
+								row.add(new MyDate((int)table.get(g, slot)));
+							}
+							else
+							{
+								row.add(table.get(g, slot));
+							}
+					}
+
+					i++;
+				}
+
+				readBuffer.put(row);
+				g++;
+			}
+		}
+
+		private final class SlotGroupByReaderThread extends ThreadPoolThread
+		{
+			// created on first use, a reader may see few of the partitions
+			private final AggregationHashTable[] parts = new AggregationHashTable[1 << bits];
+			private int[] groupPos;
+			private int[] inputPos;
+			private ByteBuffer keyBB = ByteBuffer.allocate(256);
+			// table of the last group()
+			private AggregationHashTable current;
+			private boolean ok = true;
 
-						for (final AggregateResultThread thread : threads)
+			@Override
+			public void run()
+			{
+				try
+				{
+					final HashMap<String, Integer> childCols2Pos = child.getCols2Pos();
+					groupPos = new int[groupCols.size()];
+					int i = 0;
+					for (final String groupCol : groupCols)
+					{
+						groupPos[i++] = childCols2Pos.get(groupCol);
+					}
+
+					inputPos = new int[aggs.length];
+					i = 0;
+					while (i < aggs.length)
+					{
+						if (aggs[i] != AGG_COUNT)
 						{
-							thread.put(row, groupKeys);
+							inputPos[i] = childCols2Pos.get(ops.get(i).getInputColumn());
 						}
 
+						i++;
+					}
+
+					if (ColumnBatch.isNative(child) && (child instanceof SelectOperator || child instanceof ProjectOperator))
+					{
+						runBatches();
+						return;
+					}
+
+					Object o = child.next(MultiOperator.this);
+					while (!(o instanceof DataEndMarker))
+					{
+						received.getAndIncrement();
+						consume((ArrayList<Object>)o);
 						o = child.next(MultiOperator.this);
-						if (o instanceof DataEndMarker)
-						{
-							demReceived = true;
-						}
-						else
-						{
-							received.getAndIncrement();
-						}
 					}
+
+					demReceived = true;
 				}
 				catch (final Exception e)
 				{
 					HRDBMSWorker.logger.error("", e);
+					ok = false;
 					try
 					{
 						readBuffer.put(e);
@@ -2028,6 +2399,292 @@ public final class MultiOperator implements Operator, Serializable
 					return;
 				}
 			}
+
+			private void consume(final ArrayList<Object> row) throws Exception
+			{
+				keyBB.clear();
+				for (final int pos : groupPos)
+				{
+					putKey(row.get(pos));
+				}
+
+				final int g = group();
+				final AggregationHashTable table = current;
+				int i = 0;
+				while (i < aggs.length)
+				{
+					final int slot = firstSlots[i];
+					switch (aggs[i])
+					{
+						case AGG_COUNT:
+							table.update(g, slot, 1);
+							break;
+						case AGG_LSUM:
+							table.update(g, slot, ((Number)row.get(inputPos[i])).longValue());
+							break;
+						case AGG_DSUM:
+							table.update(g, slot, Double.doubleToRawLongBits(((Number)row.get(inputPos[i])).doubleValue()));
+							break;
+						case AGG_AVG:
+							table.update(g, slot, Double.doubleToRawLongBits(((Number)row.get(inputPos[i])).doubleValue()));
+							table.update(g, slot + 2, 1);
+							break;
+						default:
+							final Object o = row.get(inputPos[i]);
+							if (valTypes[i] == 2)
+							{
+								table.update(g, slot, Double.doubleToRawLongBits(((Number)o).doubleValue()));
+							}
+							else if (valTypes[i] == 3)
+							{
+								table.update(g, slot, ((MyDate)o).getTime());
+							}
+							else
+							{
+								table.update(g, slot, ((Number)o).longValue());
+							}
+					}
+
+					i++;
+				}
+			}
+
+			/**
+			 * Same as consume() on the materialized row, but the key and the
+			 * inputs are read from the vectors of the batch. Rows with a null
+			 * input take the row path, so they fail the same way.
+			 */
+			private void consume(final ColumnBatch batch, final int r) throws Exception
+			{
+				int i = 0;
+				while (i < aggs.length)
+				{
+					if (aggs[i] != AGG_COUNT && batch.isNull(inputPos[i], r))
+					{
+						consume(batch.getRow(r));
+						return;
+					}
+
+					i++;
+				}
+
+				keyBB.clear();
+				for (final int pos : groupPos)
+				{
+					if (batch.isNull(pos, r))
+					{
+						ensure(1);
+						keyBB.put((byte)5);
+						continue;
+					}
+
+					switch (batch.type(pos))
+					{
+						case ColumnBatch.LONG:
+							ensure(9);
+							keyBB.put((byte)0);
+							keyBB.putLong(batch.longs(pos)[r]);
+							break;
+						case ColumnBatch.INT:
+							ensure(5);
+							keyBB.put((byte)1);
+							keyBB.putInt(batch.ints(pos)[r]);
+							break;
+						case ColumnBatch.DOUBLE:
+							ensure(9);
+							keyBB.put((byte)2);
+							keyBB.putLong(Double.doubleToLongBits(batch.doubles(pos)[r]));
+							break;
+						case ColumnBatch.DATE:
+							ensure(5);
+							keyBB.put((byte)3);
+							keyBB.putInt(batch.getDate(pos, r));
+							break;
+						default:
+							putKey(batch.get(pos, r));
+					}
+				}
+
+				final int g = group();
+				final AggregationHashTable table = current;
+				i = 0;
+				while (i < aggs.length)
+				{
+					final int slot = firstSlots[i];
+					final int in = inputPos[i];
+					switch (aggs[i])
+					{
+						case AGG_COUNT:
+							table.update(g, slot, 1);
+							break;
+						case AGG_LSUM:
+							table.update(g, slot, batch.getLong(in, r));
+							break;
+						case AGG_DSUM:
+							table.update(g, slot, Double.doubleToRawLongBits(batch.getDouble(in, r)));
+							break;
+						case AGG_AVG:
+							table.update(g, slot, Double.doubleToRawLongBits(batch.getDouble(in, r)));
+							table.update(g, slot + 2, 1);
+							break;
+						default:
+							if (valTypes[i] == 2)
+							{
+								table.update(g, slot, Double.doubleToRawLongBits(batch.getDouble(in, r)));
+							}
+							else if (valTypes[i] == 3)
+							{
+								table.update(g, slot, batch.type(in) == ColumnBatch.DATE ? batch.getDate(in, r) : ((MyDate)batch.get(in, r)).getTime());
+							}
+							else
+							{
+								table.update(g, slot, batch.getLong(in, r));
+							}
+					}
+
+					i++;
+				}
+			}
+
+			private void ensure(final int needed)
+			{
+				if (keyBB.remaining() < needed)
+				{
+					final ByteBuffer temp = ByteBuffer.allocate((keyBB.capacity() + needed) << 1);
+					keyBB.flip();
+					temp.put(keyBB);
+					keyBB = temp;
+				}
+			}
+
+			/** Finds the group of the key in keyBB, current is set to the table it is in */
+			private int group()
+			{
+				final int len = keyBB.position();
+				final long hash = MurmurHash.hash64(keyBB.array(), len);
+				final int p = (int)(hash >>> (64 - bits));
+				AggregationHashTable table = parts[p];
+				if (table == null)
+				{
+					table = new AggregationHashTable(kinds);
+					parts[p] = table;
+				}
+
+				current = table;
+				return table.group(keyBB.array(), len, hash);
+			}
+
+			private void putKey(final Object o) throws Exception
+			{
+				if (o == null)
+				{
+					// nulls group together, as in HashGroupByThread
+					ensure(1);
+					keyBB.put((byte)5);
+				}
+				else if (o instanceof String)
+				{
+					final byte[] temp = ((String)o).getBytes(StandardCharsets.UTF_8);
+					ensure(5 + temp.length);
+					keyBB.put((byte)4);
+					keyBB.putInt(temp.length);
+					keyBB.put(temp);
+				}
+				else if (o instanceof Long)
+				{
+					ensure(9);
+					keyBB.put((byte)0);
+					keyBB.putLong((Long)o);
+				}
+				else if (o instanceof Integer)
+				{
+					ensure(5);
+					keyBB.put((byte)1);
+					keyBB.putInt((Integer)o);
+				}
+				else if (o instanceof Double)
+				{
+					// same equality as Double.equals()
+					ensure(9);
+					keyBB.put((byte)2);
+					keyBB.putLong(Double.doubleToLongBits((Double)o));
+				}
+				else if (o instanceof MyDate)
+				{
+					ensure(5);
+					keyBB.put((byte)3);
+					keyBB.putInt(((MyDate)o).getTime());
+				}
+				else
+				{
+					throw new Exception("Unexpected group by value " + o + " in MultiOperator");
+				}
+			}
+
+			private void runBatches() throws Exception
+			{
+				Object o = ((BatchOperator)child).nextBatch(MultiOperator.this);
+				while (!(o instanceof DataEndMarker))
+				{
+					final ColumnBatch batch = (ColumnBatch)o;
+					final int count = batch.count();
+					received.getAndAdd(count);
+					int k = 0;
+					while (k < count)
+					{
+						consume(batch, batch.row(k++));
+					}
+
+					o = ((BatchOperator)child).nextBatch(MultiOperator.this);
+				}
+
+				demReceived = true;
+			}
+		}
+
+		private final class SlotMergeThread extends ThreadPoolThread
+		{
+			private boolean ok = true;
+			private Exception e;
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					int p = nextPart.getAndIncrement();
+					while (p < (1 << bits))
+					{
+						AggregationHashTable table = null;
+						for (final SlotGroupByReaderThread reader : readers)
+						{
+							final AggregationHashTable part = reader.parts[p];
+							reader.parts[p] = null;
+							if (table == null)
+							{
+								table = part;
+							}
+							else if (part != null)
+							{
+								table.merge(part);
+							}
+						}
+
+						if (table != null)
+						{
+							emit(table);
+						}
+
+						p = nextPart.getAndIncrement();
+					}
+				}
+				catch (final Exception e)
+				{
+					HRDBMSWorker.logger.error("", e);
+					ok = false;
+					this.e = e;
+				}
+			}
 		}
 	}
 
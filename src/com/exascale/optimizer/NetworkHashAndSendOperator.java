@@ -6,23 +6,38 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import com.exascale.compression.CompressedOutputStream;
 import com.exascale.managers.HRDBMSWorker;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
 import com.exascale.misc.MurmurHash;
+import com.exascale.misc.SpaceSaving;
 
 public final class NetworkHashAndSendOperator extends NetworkSendOperator
 {
+	// frame with the keys that are hot in the first rows of a sender
+	public static final int SKEW_FRAME = -3;
+	public static final int SKEW_NONE = 0;
+	// probe side of a hash join, rows with a hot key go round robin
+	public static final int SKEW_SPREAD = 1;
+	// build side of a hash join, rows with a hot key go to every node
+	public static final int SKEW_REPLICATE = 2;
+	static final boolean SKEW_AWARE = HRDBMSWorker.getHParms().getProperty("skew_aware_hash").equals("true");
+	private static final int SAMPLE_ROWS = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("skew_sample_rows"));
+	private static final int SKETCH_KEYS = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("skew_sketch_keys"));
+	private static final long SKEW_TIMEOUT = Long.parseLong(HRDBMSWorker.getHParms().getProperty("skew_keys_timeout"));
+	// keys seen fewer times than this in a sample are never hot
+	private static final int MIN_HOT = 64;
 	private static sun.misc.Unsafe unsafe;
 
 	static
@@ -50,6 +65,11 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 	private transient String errorText;
 
 	private int connCount = 0;
+	// indexed by destination node, set as the receivers send them back
+	private transient volatile RuntimeFilter[] runtimeFilters;
+	private int skew = SKEW_NONE;
+	// sorted, the union of the hot keys of all senders on the probe side
+	private transient long[] hotKeys;
 
 	public NetworkHashAndSendOperator(final ArrayList<String> hashCols, final long numNodes, final int id, final int starting, final MetaData meta) throws Exception
 	{
@@ -91,6 +111,7 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		value.parents = OperatorUtils.deserializeALOp(in, prev);
 		value.error = OperatorUtils.readBool(in);
 		value.connCount = OperatorUtils.readInt(in);
+		value.skew = OperatorUtils.readInt(in);
 		value.ce = NetworkSendOperator.cs.newEncoder();
 		value.received = new AtomicLong(0);
 		value.demReceived = false;
@@ -121,6 +142,20 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		return eHash;
 	}
 
+	private static byte[] skewFrame(final long[] keys)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(12 + (keys.length << 3));
+		bb.putInt(8 + (keys.length << 3));
+		bb.putInt(SKEW_FRAME);
+		bb.putInt(keys.length);
+		for (final long key : keys)
+		{
+			bb.putLong(key);
+		}
+
+		return bb.array();
+	}
+
 	private static byte[] toBytesForHash(final ArrayList<Object> key)
 	{
 		final StringBuilder sb = new StringBuilder();
@@ -164,6 +199,7 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 	{
 		connections.put(fromNode, sock);
 		connCount++;
+		openCredits(fromNode);
 		if (outs == null)
 		{
 			outs = new OutputStream[numParents];
@@ -182,6 +218,43 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		}
 	}
 
+	/** Called by the connection worker when a receiver sends back a runtime filter */
+	public void addRuntimeFilter(final int fromNode, final byte[] data)
+	{
+		final RuntimeFilter rf = RuntimeFilter.fromBytes(data);
+		synchronized (connections)
+		{
+			final RuntimeFilter[] filters = runtimeFilters;
+			final RuntimeFilter[] temp = filters == null ? new RuntimeFilter[numParents] : filters.clone();
+			if (fromNode < 0 || fromNode >= temp.length)
+			{
+				return;
+			}
+
+			temp[fromNode] = rf;
+			runtimeFilters = temp;
+		}
+	}
+
+	/**
+	 * Called by the connection worker when the receiver that collected the
+	 * hot keys of the probe side sends them
+	 */
+	public synchronized void addSkewKeys(final byte[] data)
+	{
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final long[] keys = new long[bb.getInt()];
+		int i = 0;
+		while (i < keys.length)
+		{
+			keys[i++] = bb.getLong();
+		}
+
+		Arrays.sort(keys);
+		hotKeys = keys;
+		notifyAll();
+	}
+
 	@Override
 	public void clearParent()
 	{
@@ -197,6 +270,7 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 			retval.node = this.node;
 			retval.numParents = numParents;
 			retval.numpSet = numpSet;
+			retval.skew = skew;
 			return retval;
 		}
 		catch (final Exception e)
@@ -333,6 +407,7 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		OperatorUtils.serializeALOp(parents, out, prev);
 		OperatorUtils.writeBool(error, out);
 		OperatorUtils.writeInt(connCount, out);
+		OperatorUtils.writeInt(skew, out);
 	}
 
 	@Override
@@ -367,6 +442,7 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		OperatorUtils.serializeALOp(parents, out, prev);
 		OperatorUtils.writeBool(error, out);
 		OperatorUtils.writeInt(connCount, out);
+		OperatorUtils.writeInt(skew, out);
 	}
 
 	public void setID(final int id)
@@ -392,6 +468,15 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		return true;
 	}
 
+	/** Set by the receiver before it sends this operator to the sending node */
+	public void setSkew(final int skew)
+	{
+		if (SKEW_AWARE)
+		{
+			this.skew = skew;
+		}
+	}
+
 	public void setStarting(final int starting)
 	{
 		this.starting = starting;
@@ -409,10 +494,13 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 		}
 
 		final OutputStream[] outs2 = new OutputStream[outs.length];
+		final ExchangeCredits[] c = new ExchangeCredits[outs.length];
 		int i = 0;
 		for (final OutputStream out : outs)
 		{
-			outs2[i++] = new CompressedOutputStream(out);
+			c[i] = credits.get(i);
+			outs2[i] = stream(out, connections.get(i));
+			i++;
 		}
 		try
 		{
@@ -424,23 +512,44 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 			// child.start();
 			try
 			{
-				Object o = child.next(this);
-				if (o instanceof DataEndMarker)
+				// rows for each destination are collected into a batch and sent as one frame
+				final byte[] types = COLUMNAR ? ColumnBatch.types(cols2Types, pos2Col) : null;
+				final ColumnBatch[] batches = COLUMNAR ? new ColumnBatch[outs2.length] : null;
+				if (COLUMNAR)
 				{
-					demReceived = true;
+					final byte[] schema = ColumnBatch.schemaFrame(types);
+					for (final OutputStream out : outs2)
+					{
+						out.write(schema);
+					}
 				}
-				else
+
+				final ArrayList<Object> key = new ArrayList<Object>(hashCols.size());
+				final ArrayList<Object> sampled = new ArrayList<Object>();
+				long[] hot = new long[0];
+				if (skew != SKEW_NONE && numNodes > 1)
 				{
-					received.getAndIncrement();
+					if (skew == SKEW_SPREAD)
+					{
+						final byte[] frame = skewFrame(sample(sampled, key));
+						for (final OutputStream out : outs2)
+						{
+							out.write(frame);
+							out.flush();
+						}
+					}
+
+					hot = awaitSkewKeys();
 				}
-				final ArrayList<Object> key = new ArrayList<Object>(hashCols.size());
+
+				int s = 0;
+				int spread = (node & 0x7FFFFFFF) % numNodes;
+				Object o = s < sampled.size() ? sampled.get(s++) : nextRow();
 				while (!(o instanceof DataEndMarker))
 				{
-					final byte[] obj;
-					obj = toBytes(o);
-
 					if (o instanceof Exception)
 					{
+						final byte[] obj = toBytes(o);
 						HRDBMSWorker.logger.debug("", (Exception)o);
 						for (final OutputStream out : outs2)
 						{
@@ -453,30 +562,43 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 						return;
 					}
 
-					key.clear();
-					int z = 0;
-					final int limit = hashCols.size();
-					// for (final String col : hashCols)
-					while (z < limit)
+					final long keyHash = keyHash((ArrayList<Object>)o, key);
+					if (hot.length == 0 || Arrays.binarySearch(hot, keyHash) < 0)
 					{
-						final String col = hashCols.get(z++);
-						int pos = -1;
-						pos = child.getCols2Pos().get(col);
-						key.add(((ArrayList<Object>)o).get(pos));
+						sendTo((ArrayList<Object>)o, (int)(starting + (keyHash % numNodes)), keyHash, outs2, c, batches, types);
 					}
-
-					final int hash = (int)(starting + ((0x7FFFFFFFFFFFFFFFL & hash(key)) % numNodes));
-					final OutputStream out = outs2[hash];
-					out.write(obj);
-
-					o = child.next(this);
-					if (o instanceof DataEndMarker)
+					else if (skew == SKEW_SPREAD)
 					{
-						demReceived = true;
+						sendTo((ArrayList<Object>)o, starting + spread, keyHash, outs2, c, batches, types);
+						spread = (spread + 1) % numNodes;
 					}
 					else
 					{
-						received.getAndIncrement();
+						int j = 0;
+						while (j < numNodes)
+						{
+							// a receiver in this process gets the row itself, so it can't be shared
+							final ArrayList<Object> row = batches == null && j + 1 < numNodes ? new ArrayList<Object>((ArrayList<Object>)o) : (ArrayList<Object>)o;
+							sendTo(row, starting + j, keyHash, outs2, c, batches, types);
+							j++;
+						}
+					}
+
+					o = s < sampled.size() ? sampled.get(s++) : nextRow();
+				}
+
+				if (batches != null)
+				{
+					i = 0;
+					while (i < batches.length)
+					{
+						if (batches[i] != null)
+						{
+							c[i].acquire(batches[i].count(), outs2[i]);
+							writeBatch(outs2[i], batches[i], types);
+						}
+
+						i++;
 					}
 				}
 			}
@@ -560,4 +682,122 @@ public final class NetworkHashAndSendOperator extends NetworkSendOperator
 	{
 		return "NetworkHashAndSendOperator(" + node + ") " + hashCols + " ID = " + id;
 	}
+
+	/**
+	 * Waits for the union of the hot keys of the probe side. The receiver that
+	 * collects them sends an empty set within skew_keys_timeout ms of starting
+	 * the senders, so this only times out if the receiver is gone. The probe
+	 * side can then hash as usual, which is right whatever the build side
+	 * does, but the build side can't know whether hot keys are being spread.
+	 */
+	private synchronized long[] awaitSkewKeys() throws Exception
+	{
+		final long end = System.currentTimeMillis() + 2 * SKEW_TIMEOUT;
+		while (hotKeys == null)
+		{
+			final long left = end - System.currentTimeMillis();
+			if (left <= 0)
+			{
+				if (skew == SKEW_SPREAD)
+				{
+					HRDBMSWorker.logger.debug(this + " timed out waiting for the hot keys, hashing as usual");
+					return new long[0];
+				}
+
+				throw new Exception("Timed out waiting for the hot keys of " + this);
+			}
+
+			wait(left);
+		}
+
+		return hotKeys;
+	}
+
+	private long keyHash(final ArrayList<Object> row, final ArrayList<Object> key) throws Exception
+	{
+		key.clear();
+		int z = 0;
+		final int limit = hashCols.size();
+		while (z < limit)
+		{
+			final String col = hashCols.get(z++);
+			key.add(row.get(child.getCols2Pos().get(col)));
+		}
+
+		return 0x7FFFFFFFFFFFFFFFL & hash(key);
+	}
+
+	private Object nextRow() throws Exception
+	{
+		final Object o = child.next(this);
+		if (o instanceof DataEndMarker)
+		{
+			demReceived = true;
+		}
+		else
+		{
+			received.getAndIncrement();
+		}
+
+		return o;
+	}
+
+	/**
+	 * Reads the first skew_sample_rows rows into sampled and returns the keys
+	 * that alone make up more than the share of one node
+	 */
+	private long[] sample(final ArrayList<Object> sampled, final ArrayList<Object> key) throws Exception
+	{
+		final SpaceSaving sketch = new SpaceSaving(SKETCH_KEYS);
+		while (sampled.size() < SAMPLE_ROWS)
+		{
+			final Object o = nextRow();
+			sampled.add(o);
+			if (o instanceof DataEndMarker || o instanceof Exception)
+			{
+				break;
+			}
+
+			sketch.add(keyHash((ArrayList<Object>)o, key));
+		}
+
+		final long[] hot = sketch.heavy(Math.max(MIN_HOT, sketch.total() / numNodes));
+		if (hot.length > 0)
+		{
+			HRDBMSWorker.logger.debug(this + " found " + hot.length + " hot keys in " + sketch.total() + " rows");
+		}
+
+		return hot;
+	}
+
+	private void sendTo(final ArrayList<Object> row, final int dest, final long keyHash, final OutputStream[] outs2, final ExchangeCredits[] c, final ColumnBatch[] batches, final byte[] types) throws Exception
+	{
+		final RuntimeFilter[] filters = runtimeFilters;
+		final RuntimeFilter rf = filters == null ? null : filters[dest];
+		if (rf != null && !(rf.getCols().equals(hashCols) ? rf.passes(keyHash) : rf.passes(row, child.getCols2Pos())))
+		{
+			return;
+		}
+
+		if (batches == null)
+		{
+			c[dest].acquire(1, outs2[dest]);
+			writeRow(outs2[dest], row);
+			return;
+		}
+
+		ColumnBatch batch = batches[dest];
+		if (batch == null)
+		{
+			batch = new ColumnBatch(types, ColumnBatch.BATCH_SIZE);
+			batches[dest] = batch;
+		}
+
+		if (batch.add(row))
+		{
+			c[dest].acquire(batch.count(), outs2[dest]);
+			writeBatch(outs2[dest], batch, types);
+			batches[dest] = null;
+		}
+	}
 }
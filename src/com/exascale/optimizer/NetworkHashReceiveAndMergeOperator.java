@@ -10,6 +10,7 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,15 +20,17 @@ import java.util.IdentityHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import com.exascale.compression.CompressedInputStream;
 import com.exascale.managers.HRDBMSWorker;
-import com.exascale.misc.AuxPairingHeap;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
 import com.exascale.misc.MyDate;
+import com.exascale.misc.SPSCQueue;
+import com.exascale.threads.HRDBMSThread;
 import com.exascale.threads.ThreadPoolThread;
 
 public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOperator implements Operator, Serializable
 {
 	private static Charset cs = StandardCharsets.UTF_8;
+	private static int SQUEUE_SIZE;
 
 	private static long offset;
 
@@ -48,6 +51,8 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 		{
 			unsafe = null;
 		}
+
+		SQUEUE_SIZE = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("nram_spsc_queue_size"));
 	}
 
 	private boolean send = false;
@@ -299,6 +304,7 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 							throw e;
 						}
 						socks.put(child, sock);
+						offerLocal(child, sock);
 						final OutputStream out = sock.getOutputStream();
 						final BufferedOutputStream out2 = new BufferedOutputStream(out);
 						outs.put(child, out2);
@@ -357,11 +363,14 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 	{
 		private final ArrayList<Object> alo;
 		private final Operator op;
+		// normalized sort key, null if the row couldn't be encoded
+		private final byte[] key;
 
-		public ALOO(final ArrayList<Object> alo, final Operator op)
+		public ALOO(final ArrayList<Object> alo, final Operator op, final byte[] key)
 		{
 			this.alo = alo;
 			this.op = op;
+			this.key = key;
 		}
 
 		@Override
@@ -418,6 +427,23 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 		}
 	}
 
+	/** Compares on normalized keys, rows that couldn't be encoded use MergeComparator */
+	private class KeyComparator implements Comparator<ALOO>
+	{
+		private final MergeComparator fallback = new MergeComparator();
+
+		@Override
+		public int compare(final ALOO l, final ALOO r)
+		{
+			if (l.key == null || r.key == null)
+			{
+				return fallback.compare(l, r);
+			}
+
+			return NormalizedKeySorter.compare(l.key, r.key);
+		}
+	}
+
 	private class MergeComparator implements Comparator<Object>
 	{
 		@Override
@@ -496,15 +522,15 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 		}
 	}
 
+	/**
+	 * Merges the streams with a loser tree. Each stream has its own reader
+	 * that reads ahead into a bounded queue and encodes the sort key of every
+	 * row, so a slow socket only stalls the merge once its queue is empty and
+	 * this thread only compares keys, log2(streams) of them per row.
+	 */
 	private final class ReadThread extends ThreadPoolThread
 	{
 		private final ArrayList<Operator> children;
-		// private final HashMap<Operator, ArrayList<Object>> rows = new
-		// HashMap<Operator, ArrayList<Object>>();
-		// private final TreeMap<ArrayList<Object>, Operator> rows = new
-		// TreeMap<ArrayList<Object>, Operator>(new MergeComparator());
-		private final AuxPairingHeap<ALOO> rows = new AuxPairingHeap<ALOO>(new MergeComparator());
-		private ALOO minEntry;
 
 		public ReadThread(final ArrayList<Operator> children)
 		{
@@ -514,64 +540,187 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 		@Override
 		public void run()
 		{
-			for (final Operator op : children)
+			try
+			{
+				final ReadThread2[] map = new ReadThread2[children.size()];
+				int i = 0;
+				for (final Operator op : children)
+				{
+					final ReadThread2 thread = new ReadThread2(op);
+					thread.start();
+					map[i++] = thread;
+				}
+
+				final ALOO[] first = new ALOO[map.length];
+				i = 0;
+				while (i < map.length)
+				{
+					first[i] = take(map[i]);
+					i++;
+				}
+
+				final LoserTree<ALOO> tree = new LoserTree<ALOO>(first, new KeyComparator());
+				int op = tree.winner();
+				while (op != -1)
+				{
+					outBuffer.put(tree.head().getALO());
+					tree.replace(take(map[op]));
+					op = tree.winner();
+				}
+			}
+			catch (final Exception e)
 			{
 				try
 				{
-					final ArrayList<Object> row = readRow(op);
-					if (row != null)
-					{
-						rows.insert(new ALOO(row, op));
-					}
+					outBuffer.put(e);
 				}
-				catch (final Exception e)
+				catch (final Exception f)
 				{
-					try
-					{
-						outBuffer.put(e);
-					}
-					catch (final Exception f)
-					{
-					}
-					return;
 				}
 			}
+		}
 
-			while (rows.size() > 0)
+		/** Next row of the stream, null at the end of it */
+		private ALOO take(final ReadThread2 thread) throws Exception
+		{
+			final Object o = thread.q.take();
+			if (o instanceof ALOO)
 			{
-				minEntry = rows.extractMin();
+				return (ALOO)o;
+			}
+
+			if (o instanceof Exception)
+			{
+				throw (Exception)o;
+			}
+
+			return null;
+		}
+	}
+
+	/** Reads one stream ahead of the merge */
+	private final class ReadThread2 extends HRDBMSThread
+	{
+		private final Operator op;
+		public SPSCQueue q = new SPSCQueue(SQUEUE_SIZE);
+		// column types from the schema frame of this stream
+		private byte[] frameTypes;
+		private final LocalExchange local;
+		private final CharsetDecoder decoder = cs.newDecoder();
+		private final NormalizedKeySorter encoder = new NormalizedKeySorter(sortPos, orders);
+
+		public ReadThread2(final Operator op)
+		{
+			this.op = op;
+			local = locals.get(op);
+		}
 
+		@Override
+		public void run()
+		{
+			try
+			{
+				final InputStream in = new CompressedInputStream(ins.get(op));
+				// q only takes rows as fast as the merge does, so credits are given back as they are queued
+				final ExchangeCredits.Owed owed = new ExchangeCredits.Owed(outs.get(op), node, op.getNode());
+				final byte[] sizeBuff = new byte[4];
+				byte[] data = null;
 				while (true)
 				{
-					try
+					int count = 0;
+					while (count < 4)
 					{
-						outBuffer.put(minEntry.getALO());
-						break;
+						final int temp = in.read(sizeBuff, count, 4 - count);
+						if (temp == -1)
+						{
+							throw new Exception("Early EOF reading from socket");
+						}
+						count += temp;
 					}
-					catch (final Exception e)
+					final int size = bytesToInt(sizeBuff);
+
+					if (data == null || data.length < size)
 					{
+						data = new byte[size];
 					}
-				}
-				try
-				{
-					final ArrayList<Object> row = readRow(minEntry.getOp());
-					if (row != null)
+					count = 0;
+					while (count < size)
 					{
-						rows.insert(new ALOO(row, minEntry.getOp()));
+						final int temp = in.read(data, count, size - count);
+						if (temp == -1)
+						{
+							throw new Exception("Early EOF reading from socket");
+						}
+						count += temp;
 					}
-				}
-				catch (final Exception e)
-				{
-					try
+					final Object row = fromBytes(data);
+					if (row instanceof LocalExchange)
 					{
-						outBuffer.put(e);
+						// the rest of the stream comes from a sender in this process
+						Object o = local.take();
+						while (!queue(o instanceof byte[] ? fromBytes((byte[])o) : o, owed))
+						{
+							o = local.take();
+						}
+
+						return;
 					}
-					catch (final Exception f)
+
+					if (queue(row, owed))
 					{
+						return;
 					}
-					return;
 				}
 			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				q.put(e);
+			}
+		}
+
+		/** Queues a row or the rows of a batch, returns true at the end of the stream */
+		private boolean queue(final Object row, final ExchangeCredits.Owed owed)
+		{
+			if (row instanceof DataEndMarker || row instanceof Exception)
+			{
+				q.put(row);
+				return true;
+			}
+
+			if (row instanceof ColumnBatch)
+			{
+				final ColumnBatch batch = (ColumnBatch)row;
+				final int n = batch.count();
+				int k = 0;
+				while (k < n)
+				{
+					q.put(entry(batch.getRow(batch.row(k++))));
+				}
+
+				if (owed.add(n))
+				{
+					owed.pay();
+				}
+
+				return false;
+			}
+
+			if (row != null)
+			{
+				q.put(entry((ArrayList<Object>)row));
+				if (owed.add(1))
+				{
+					owed.pay();
+				}
+			}
+
+			return false;
+		}
+
+		private ALOO entry(final ArrayList<Object> row)
+		{
+			return new ALOO(row, op, encoder.encode(row));
 		}
 
 		private Object fromBytes(final byte[] val) throws Exception
@@ -579,6 +728,28 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 			final ByteBuffer bb = ByteBuffer.wrap(val);
 			final int numFields = bb.getInt();
 
+			if (numFields == ColumnBatch.SCHEMA_FRAME)
+			{
+				frameTypes = new byte[bb.getInt()];
+				bb.get(frameTypes);
+				return null;
+			}
+
+			if (numFields == ColumnBatch.BATCH_FRAME)
+			{
+				return ColumnBatch.fromFrame(bb, frameTypes);
+			}
+
+			if (numFields == LocalExchange.LOCAL_FRAME)
+			{
+				if (local == null)
+				{
+					throw new Exception("Local exchange frame on a stream that wasn't offered one");
+				}
+
+				return local;
+			}
+
 			if (numFields < 0)
 			{
 				HRDBMSWorker.logger.error("Negative number of fields in fromBytes()");
@@ -647,7 +818,7 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 						// final String o = new String(temp,
 						// StandardCharsets.UTF_8);
 						final String value = (String)unsafe.allocateInstance(String.class);
-						final int clen = ((sun.nio.cs.ArrayDecoder)cd).decode(temp, 0, length, ca);
+						final int clen = ((sun.nio.cs.ArrayDecoder)decoder).decode(temp, 0, length, ca);
 						if (clen == ca.length)
 						{
 							unsafe.putObject(value, offset, ca);
@@ -676,56 +847,5 @@ public final class NetworkHashReceiveAndMergeOperator extends NetworkReceiveOper
 
 			return retval;
 		}
-
-		private ArrayList<Object> readRow(final Operator op) throws Exception
-		{
-			try
-			{
-				final InputStream i = ins.get(op);
-				final InputStream in = new CompressedInputStream(i);
-				final byte[] sizeBuff = new byte[4];
-				byte[] data = null;
-				while (true)
-				{
-					int count = 0;
-					while (count < 4)
-					{
-						count += in.read(sizeBuff, count, 4 - count);
-					}
-					// bytes.getAndAdd(4);
-					final int size = bytesToInt(sizeBuff);
-
-					if (data == null || data.length < size)
-					{
-						data = new byte[size];
-					}
-					count = 0;
-					while (count < size)
-					{
-						count += in.read(data, count, size - count);
-					}
-					// bytes.getAndAdd(size);
-					final Object row = fromBytes(data);
-
-					if (row instanceof DataEndMarker)
-					{
-						return null;
-					}
-
-					if (row instanceof Exception)
-					{
-						throw (Exception)row;
-					}
-
-					// readCounter.getAndIncrement();
-					return (ArrayList<Object>)row;
-				}
-			}
-			catch (final Exception e)
-			{
-				HRDBMSWorker.logger.error("", e);
-				throw e;
-			}
-		}
 	}
 }
@@ -6,13 +6,15 @@ import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import com.exascale.managers.HRDBMSWorker;
-import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
+import com.exascale.threads.ThreadPoolThread;
 
 public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 {
@@ -32,7 +34,15 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 		}
 	}
 
+	private static final long SKEW_TIMEOUT = Long.parseLong(HRDBMSWorker.getHParms().getProperty("skew_keys_timeout"));
 	private boolean send = false;
+	// union of the hot keys from the senders on the probe side of a join
+	private transient HashSet<Long> skewKeys;
+	private transient int skewFrames;
+	// the hot keys were sent, or it was given up on
+	private transient boolean skewDone;
+	// hot keys that arrived before the connections to the senders were open
+	private transient byte[] pendingKeys;
 
 	private int ID;
 
@@ -80,39 +90,6 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 		return ID;
 	}
 
-	@Override
-	public Object next(final Operator op2) throws Exception
-	{
-		Object o;
-		o = outBuffer.take();
-
-		if (o instanceof DataEndMarker)
-		{
-			demReceived = true;
-			o = outBuffer.peek();
-			if (o == null)
-			{
-				outBuffer.put(new DataEndMarker());
-				return new DataEndMarker();
-			}
-			else
-			{
-				outBuffer.put(new DataEndMarker());
-				return o;
-			}
-		}
-		else
-		{
-			received.getAndIncrement();
-		}
-
-		if (o instanceof Exception)
-		{
-			throw (Exception)o;
-		}
-		return o;
-	}
-
 	@Override
 	public long numRecsReceived()
 	{
@@ -158,6 +135,20 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 		OperatorUtils.writeLong(txnum, out);
 	}
 
+	/**
+	 * Sends a runtime filter from the join above back to each sender, which
+	 * then stops sending rows to this node that can't match
+	 */
+	public void sendRuntimeFilter(final RuntimeFilter rf)
+	{
+		if (!fullyStarted || outs == null)
+		{
+			return;
+		}
+
+		sendToSenders("RTFILTER", rf.toBytes());
+	}
+
 	public void setID(final int ID)
 	{
 		this.ID = ID;
@@ -190,7 +181,7 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 							// sock = new
 							// Socket(meta.getHostNameForNode(child.getNode()),
 							// WORKER_PORT);
-							sock = new Socket();
+							sock = newSocket();
 							sock.setReceiveBufferSize(4194304);
 							sock.setSendBufferSize(4194304);
 							sock.connect(new InetSocketAddress(MetaData.getHostNameForNode(child.getNode()), WORKER_PORT));
@@ -201,6 +192,7 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 							throw e;
 						}
 						socks.put(child, sock);
+						offerLocal(child, sock);
 						final OutputStream out = sock.getOutputStream();
 						outs.put(child, out);
 						final InputStream in = new BufferedInputStream(sock.getInputStream(), 65536);
@@ -220,6 +212,11 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 							out.write(data);
 							out.flush();
 
+							if (child instanceof NetworkHashAndSendOperator)
+							{
+								((NetworkHashAndSendOperator)child).setSkew(skewSide());
+							}
+
 							IdentityHashMap<Object, Long> map = new IdentityHashMap<Object, Long>();
 							child.serialize(out, map);
 							map.clear();
@@ -243,6 +240,16 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 					}
 
 					new InitThread().start();
+					if (send && skewSide() == NetworkHashAndSendOperator.SKEW_SPREAD)
+					{
+						new SkewTimeoutThread().start();
+					}
+
+					if (pendingKeys != null)
+					{
+						sendToSenders("SKEWKEYS", pendingKeys);
+						pendingKeys = null;
+					}
 				}
 			}
 		}
@@ -253,4 +260,186 @@ public final class NetworkHashReceiveOperator extends NetworkReceiveOperator
 	{
 		return "NetworkHashReceiveOperator(" + node + ") ID = " + ID;
 	}
+
+	/**
+	 * Every sender on the probe side of a hash join sends the keys that are
+	 * hot in its first rows. Once the receiver that started the senders has
+	 * them all, it sends the union to its own senders, which spread those
+	 * keys over all nodes, and through the receiver of the build side on this
+	 * node to the build side senders, which send those keys to all nodes.
+	 * If not all of them are in skew_keys_timeout ms after the senders were
+	 * started, it sends no keys instead, so both sides hash as usual.
+	 */
+	@Override
+	protected void hotKeys(final ByteBuffer bb)
+	{
+		if (!send || skewSide() != NetworkHashAndSendOperator.SKEW_SPREAD)
+		{
+			return;
+		}
+
+		final byte[] payload;
+		synchronized (this)
+		{
+			if (skewDone)
+			{
+				return;
+			}
+
+			if (skewKeys == null)
+			{
+				skewKeys = new HashSet<Long>();
+			}
+
+			final int num = bb.getInt();
+			int i = 0;
+			while (i < num)
+			{
+				skewKeys.add(bb.getLong());
+				i++;
+			}
+
+			skewFrames++;
+			if (skewFrames < children.size())
+			{
+				return;
+			}
+
+			skewDone = true;
+			final ByteBuffer keys = ByteBuffer.allocate(4 + (skewKeys.size() << 3));
+			keys.putInt(skewKeys.size());
+			for (final long key : skewKeys)
+			{
+				keys.putLong(key);
+			}
+
+			payload = keys.array();
+		}
+
+		HRDBMSWorker.logger.debug(this + " has " + skewKeys.size() + " hot keys");
+		publishSkewKeys(payload);
+	}
+
+	/**
+	 * Whether op is a hash join that spreads the rows with hot keys on its
+	 * probe side over all nodes, so its output isn't partitioned on the join
+	 * keys
+	 */
+	static boolean splitsHotKeys(final Operator op)
+	{
+		if (!NetworkHashAndSendOperator.SKEW_AWARE || !(op instanceof HashJoinOperator) || op.children().size() != 2)
+		{
+			return false;
+		}
+
+		for (final Operator child : op.children())
+		{
+			if (!(child instanceof NetworkHashReceiveOperator))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Sends the hot keys to the senders of both sides of the join */
+	private void publishSkewKeys(final byte[] payload)
+	{
+		sendSkewKeys(payload);
+		((NetworkHashReceiveOperator)parent.children().get(1)).sendSkewKeys(payload);
+	}
+
+	/**
+	 * The side of the hash join above that the senders are on, if both sides
+	 * are redistributed
+	 */
+	private int skewSide()
+	{
+		if (!splitsHotKeys(parent))
+		{
+			return NetworkHashAndSendOperator.SKEW_NONE;
+		}
+
+		return parent.children().get(0) == this ? NetworkHashAndSendOperator.SKEW_SPREAD : NetworkHashAndSendOperator.SKEW_REPLICATE;
+	}
+
+	/** Holds the keys back until the connections to the senders are open */
+	private synchronized void sendSkewKeys(final byte[] payload)
+	{
+		if (!fullyStarted || outs == null)
+		{
+			pendingKeys = payload;
+			return;
+		}
+
+		sendToSenders("SKEWKEYS", payload);
+	}
+
+	private void sendToSenders(final String command, final byte[] payload)
+	{
+		for (final Operator op : children)
+		{
+			final NetworkSendOperator child = (NetworkSendOperator)op;
+			final OutputStream out = outs.get(child);
+			if (out == null)
+			{
+				continue;
+			}
+
+			try
+			{
+				final byte[] commandBytes = command.getBytes(StandardCharsets.UTF_8);
+				final byte[] from = intToBytes(node);
+				final byte[] to = intToBytes(child.getNode());
+				final byte[] idBytes = intToBytes(ID);
+				final byte[] len = intToBytes(payload.length);
+				final byte[] data = new byte[commandBytes.length + from.length + to.length + idBytes.length + len.length + payload.length];
+				System.arraycopy(commandBytes, 0, data, 0, 8);
+				System.arraycopy(from, 0, data, 8, 4);
+				System.arraycopy(to, 0, data, 12, 4);
+				System.arraycopy(idBytes, 0, data, 16, 4);
+				System.arraycopy(len, 0, data, 20, 4);
+				System.arraycopy(payload, 0, data, 24, payload.length);
+				synchronized (out)
+				{
+					out.write(data);
+					out.flush();
+				}
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("Unable to send " + command + " to node " + child.getNode(), e);
+			}
+		}
+	}
+
+	/** Gives up on the hot keys if some probe side sender never sent its own */
+	private final class SkewTimeoutThread extends ThreadPoolThread
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				Thread.sleep(SKEW_TIMEOUT);
+			}
+			catch (final InterruptedException e)
+			{
+			}
+
+			synchronized (NetworkHashReceiveOperator.this)
+			{
+				if (skewDone)
+				{
+					return;
+				}
+
+				skewDone = true;
+			}
+
+			HRDBMSWorker.logger.debug(NetworkHashReceiveOperator.this + " got " + skewFrames + " of " + children.size() + " hot key frames in " + SKEW_TIMEOUT + "ms, hashing as usual");
+			publishSkewKeys(new byte[4]);
+		}
+	}
 }
@@ -259,6 +259,7 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 						sock.setSendBufferSize(4194304);
 						sock.connect(new InetSocketAddress(MetaData.getHostNameForNode(child.getNode()), WORKER_PORT));
 						socks.put(child, sock);
+						offerLocal(child, sock);
 						final OutputStream out = sock.getOutputStream();
 						final BufferedOutputStream out2 = new BufferedOutputStream(out);
 						outs.put(child, out2);
@@ -296,11 +297,19 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 	{
 		private final ArrayList<Object> alo;
 		private final int op;
+		// normalized sort key, null if the row couldn't be encoded
+		private final byte[] key;
 
 		public ALOO(final ArrayList<Object> alo, final int op)
+		{
+			this(alo, op, null);
+		}
+
+		public ALOO(final ArrayList<Object> alo, final int op, final byte[] key)
 		{
 			this.alo = alo;
 			this.op = op;
+			this.key = key;
 		}
 
 		@Override
@@ -357,6 +366,23 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 		}
 	}
 
+	/** Compares on normalized keys, rows that couldn't be encoded use MergeComparator */
+	private class KeyComparator implements Comparator<ALOO>
+	{
+		private final MergeComparator fallback = new MergeComparator();
+
+		@Override
+		public int compare(final ALOO l, final ALOO r)
+		{
+			if (l.key == null || r.key == null)
+			{
+				return fallback.compare(l, r);
+			}
+
+			return NormalizedKeySorter.compare(l.key, r.key);
+		}
+	}
+
 	private class MergeComparator implements Comparator<Object>
 	{
 		@Override
@@ -443,15 +469,15 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 		}
 	}
 
+	/**
+	 * Merges the streams with a loser tree. Each stream has its own reader
+	 * that reads ahead into a bounded queue and encodes the sort key of every
+	 * row, so this thread only waits on a stream when its queue is empty and
+	 * only compares keys, log2(streams) of them per row.
+	 */
 	private final class ReadThread extends ThreadPoolThread
 	{
 		private final ArrayList<Operator> children;
-		// private final HashMap<Operator, ArrayList<Object>> rows = new
-		// HashMap<Operator, ArrayList<Object>>();
-		// private final TreeMap<ArrayList<Object>, Operator> rows = new
-		// TreeMap<ArrayList<Object>, Operator>(new MergeComparator());
-		private final AuxPairingHeap<ALOO> rows = new AuxPairingHeap<ALOO>(new MergeComparator());
-		private ALOO minEntry;
 
 		public ReadThread(final ArrayList<Operator> children)
 		{
@@ -463,114 +489,30 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 		{
 			try
 			{
-				// HashMap<Integer, ReadThread2> map = new HashMap<Integer,
-				// ReadThread2>();
 				final ReadThread2[] map = new ReadThread2[children.size()];
 				int i = 0;
 				for (final Operator op : children)
 				{
-					final ReadThread2 thread = new ReadThread2(op);
+					final ReadThread2 thread = new ReadThread2(op, i);
 					thread.start();
 					map[i++] = thread;
 				}
 
+				final ALOO[] first = new ALOO[map.length];
 				i = 0;
-				for (final Operator op : children)
+				while (i < map.length)
 				{
-					try
-					{
-						final Object o = map[i].q.take();
-
-						if (o instanceof ArrayList)
-						{
-							final ArrayList<Object> row = (ArrayList<Object>)o;
-							rows.insert(new ALOO(row, i));
-						}
-						else if (o instanceof Exception)
-						{
-							throw (Exception)o;
-						}
-						else if (!(o instanceof DataEndMarker))
-						{
-							HRDBMSWorker.logger.debug("Unknown object in NRAM: " + o);
-							throw new Exception("Unknown object in NRAM: " + o);
-						}
-
-						i++;
-					}
-					catch (final Exception e)
-					{
-						try
-						{
-							HRDBMSWorker.logger.debug("", e);
-							outBuffer.put(e);
-						}
-						catch (final Exception f)
-						{
-						}
-						return;
-					}
+					first[i] = take(map[i]);
+					i++;
 				}
 
-				while (rows.size() > 0)
+				final LoserTree<ALOO> tree = new LoserTree<ALOO>(first, new KeyComparator());
+				int op = tree.winner();
+				while (op != -1)
 				{
-					try
-					{
-						minEntry = rows.extractMin();
-					}
-					catch (final Exception e)
-					{
-						HRDBMSWorker.logger.debug("", e);
-						outBuffer.put(e);
-						return;
-					}
-
-					while (true)
-					{
-						try
-						{
-							outBuffer.put(minEntry.getALO());
-							break;
-						}
-						catch (final Exception e)
-						{
-							HRDBMSWorker.logger.debug("", e);
-							outBuffer.put(e);
-							return;
-						}
-					}
-					try
-					{
-						final int op = minEntry.getOp();
-						final Object o = map[op].q.take();
-
-						if (o instanceof ArrayList)
-						{
-							final ArrayList<Object> row = (ArrayList<Object>)o;
-							rows.insert(new ALOO(row, op));
-						}
-						else if (o instanceof Exception)
-						{
-							throw (Exception)o;
-						}
-						else if (!(o instanceof DataEndMarker))
-						{
-							HRDBMSWorker.logger.debug("Unknown object in NRAM: " + o);
-							throw new Exception("Unknown object in NRAM: " + o);
-						}
-					}
-					catch (final Exception e)
-					{
-						try
-						{
-							HRDBMSWorker.logger.debug("", e);
-							outBuffer.put(e);
-						}
-						catch (final Exception f)
-						{
-						}
-						return;
-					}
+					outBuffer.put(tree.head().getALO());
+					tree.replace(take(map[op]));
+					op = tree.winner();
 				}
 			}
 			catch (final Throwable g)
@@ -586,16 +528,51 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 				}
 			}
 		}
+
+		/** Next row of the stream, null at the end of it */
+		private ALOO take(final ReadThread2 thread) throws Exception
+		{
+			final Object o = thread.q.take();
+			if (o instanceof ALOO)
+			{
+				return (ALOO)o;
+			}
+
+			if (o instanceof Exception)
+			{
+				throw (Exception)o;
+			}
+
+			if (!(o instanceof DataEndMarker))
+			{
+				HRDBMSWorker.logger.debug("Unknown object in NRAM: " + o);
+				throw new Exception("Unknown object in NRAM: " + o);
+			}
+
+			return null;
+		}
 	}
 
 	private class ReadThread2 extends HRDBMSThread
 	{
 		private final Operator op;
+		private final int index;
 		public SPSCQueue q = new SPSCQueue(SQUEUE_SIZE);
+		// column types from the schema frame of this stream
+		private byte[] frameTypes;
+		private final LocalExchange local;
+		private final NormalizedKeySorter encoder = new NormalizedKeySorter(sortPos, orders);
 
-		public ReadThread2(final Operator op)
+		public ReadThread2(final Operator op, final int index)
 		{
 			this.op = op;
+			this.index = index;
+			local = locals.get(op);
+		}
+
+		private ALOO entry(final ArrayList<Object> row)
+		{
+			return new ALOO(row, index, encoder.encode(row));
 		}
 
 		@Override
@@ -605,6 +582,8 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 			{
 				final InputStream i = ins.get(op);
 				final InputStream in = new CompressedInputStream(i);
+				// q only takes rows as fast as the merge does, so credits are given back as they are queued
+				final ExchangeCredits.Owed owed = new ExchangeCredits.Owed(outs.get(op), node, op.getNode());
 				final byte[] sizeBuff = new byte[4];
 				byte[] data = null;
 				while (true)
@@ -634,19 +613,22 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 					}
 					// bytes.getAndAdd(size);
 					final Object row = fromBytes(data);
-					if (row instanceof DataEndMarker)
+					if (row instanceof LocalExchange)
 					{
-						q.put(row);
+						// the rest of the stream comes from a sender in this process
+						Object o = local.take();
+						while (!queue(o instanceof byte[] ? fromBytes((byte[])o) : o, owed))
+						{
+							o = local.take();
+						}
+
 						return;
 					}
 
-					if (row instanceof Exception)
+					if (queue(row, owed))
 					{
-						q.put(row);
 						return;
 					}
-
-					q.put(row);
 				}
 			}
 			catch (final Exception e)
@@ -656,11 +638,73 @@ public final class NetworkReceiveAndMergeOperator extends NetworkReceiveOperator
 			}
 		}
 
+		/** Queues a row or the rows of a batch, returns true at the end of the stream */
+		private boolean queue(final Object row, final ExchangeCredits.Owed owed)
+		{
+			if (row instanceof DataEndMarker || row instanceof Exception)
+			{
+				q.put(row);
+				return true;
+			}
+
+			if (row instanceof ColumnBatch)
+			{
+				// the merge compares rows, so batch frames are unpacked here
+				final ColumnBatch batch = (ColumnBatch)row;
+				final int n = batch.count();
+				int k = 0;
+				while (k < n)
+				{
+					q.put(entry(batch.getRow(batch.row(k++))));
+				}
+
+				if (owed.add(n))
+				{
+					owed.pay();
+				}
+
+				return false;
+			}
+
+			if (row != null)
+			{
+				q.put(entry((ArrayList<Object>)row));
+				if (owed.add(1))
+				{
+					owed.pay();
+				}
+			}
+
+			return false;
+		}
+
 		private Object fromBytes(final byte[] val) throws Exception
 		{
 			final ByteBuffer bb = ByteBuffer.wrap(val);
 			final int numFields = bb.getInt();
 
+			if (numFields == ColumnBatch.SCHEMA_FRAME)
+			{
+				frameTypes = new byte[bb.getInt()];
+				bb.get(frameTypes);
+				return null;
+			}
+
+			if (numFields == ColumnBatch.BATCH_FRAME)
+			{
+				return ColumnBatch.fromFrame(bb, frameTypes);
+			}
+
+			if (numFields == LocalExchange.LOCAL_FRAME)
+			{
+				if (local == null)
+				{
+					throw new Exception("Local exchange frame on a stream that wasn't offered one");
+				}
+
+				return local;
+			}
+
 			if (numFields < 0)
 			{
 				HRDBMSWorker.logger.error("Negative number of fields in fromBytes()");
@@ -12,6 +12,7 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
@@ -21,8 +22,14 @@ import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import com.exascale.compression.ChannelOutputStream;
 import com.exascale.compression.CompressedInputStream;
+import com.exascale.compression.ExchangeSelector;
 import com.exascale.managers.HRDBMSWorker;
 import com.exascale.managers.ResourceManager;
 import com.exascale.misc.*;
@@ -31,9 +38,14 @@ import com.exascale.threads.HRDBMSThread;
 import com.exascale.threads.TempThread;
 import com.exascale.threads.ThreadPoolThread;
 
-public class NetworkReceiveOperator implements Operator, Serializable
+public class NetworkReceiveOperator implements BatchOperator, Serializable
 {
 	protected static final int WORKER_PORT = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"));
+	// read streams on the shared selector threads instead of a thread each
+	protected static final boolean NIO = HRDBMSWorker.getHParms().getProperty("nio_exchange").equals("true");
+	// rows kept in memory, senders only get credits back while under half of this
+	protected static final long MAX_BUFFERED = Long.parseLong(HRDBMSWorker.getHParms().getProperty("exchange_buffered_rows"));
+	private static final int OVERFLOW_FLUSH = 8 * 1024 * 1024;
 
 	protected static Charset cs = StandardCharsets.UTF_8;
 	protected static long offset;
@@ -67,6 +79,8 @@ public class NetworkReceiveOperator implements Operator, Serializable
 	protected transient HashMap<Operator, Socket> socks;
 	protected transient HashMap<Operator, OutputStream> outs;
 	protected transient HashMap<Operator, InputStream> ins;
+	// offered to senders that may be in this process
+	protected transient HashMap<Operator, LocalExchange> locals;
 	protected transient BufferedLinkedBlockingQueue outBuffer;
 	protected transient ArrayList<ReadThread> threads;
 	protected volatile boolean fullyStarted = false;
@@ -80,6 +94,14 @@ public class NetworkReceiveOperator implements Operator, Serializable
 	protected transient volatile boolean demReceived;
 	protected transient long txnum;
 	protected transient Object[] readThrottle;
+	// received batches that next() is handing out row by row, per thread
+	protected transient ConcurrentHashMap<Thread, BatchRows> batchRows;
+	// what ended a batch of row records in nextBatch(), per thread
+	protected transient ConcurrentHashMap<Thread, Object> stashed;
+	// rows in outBuffer
+	protected transient AtomicLong buffered;
+	// streams whose credits are held back until the consumer catches up
+	protected transient ConcurrentLinkedQueue<ReadThread> owing;
 
 	public NetworkReceiveOperator(final MetaData meta)
 	{
@@ -112,12 +134,39 @@ public class NetworkReceiveOperator implements Operator, Serializable
 		return value;
 	}
 
+	/** The number of rows an object in outBuffer stands for */
+	private static int rows(final Object o)
+	{
+		if (o instanceof ColumnBatch)
+		{
+			return ((ColumnBatch)o).count();
+		}
+
+		if (o instanceof ArrayList)
+		{
+			return 1;
+		}
+
+		return 0;
+	}
+
 	private static int bytesToInt(final byte[] val)
 	{
 		final int ret = java.nio.ByteBuffer.wrap(val).getInt();
 		return ret;
 	}
 
+	/** A socket that can be read by ExchangeSelector if nio_exchange is on */
+	protected static Socket newSocket() throws Exception
+	{
+		if (NIO)
+		{
+			return SocketChannel.open().socket();
+		}
+
+		return new Socket();
+	}
+
 	protected static byte[] intToBytes(final int val)
 	{
 		final byte[] buff = new byte[4];
@@ -191,12 +240,25 @@ public class NetworkReceiveOperator implements Operator, Serializable
 
 		socks = null;
 
+		if (locals != null)
+		{
+			for (final LocalExchange local : locals.values())
+			{
+				local.withdraw();
+			}
+		}
+
+		locals = null;
+
 		if (outBuffer != null)
 		{
 			outBuffer.close();
 		}
 
 		outBuffer = null;
+		batchRows = null;
+		stashed = null;
+		owing = null;
 		cols2Types = null;
 		cols2Pos = null;
 		pos2Col = null;
@@ -248,6 +310,13 @@ public class NetworkReceiveOperator implements Operator, Serializable
 	@Override
 	public Object next(final Operator op2) throws Exception
 	{
+		final BatchRows rows = batchRows.get(Thread.currentThread());
+		if (rows != null)
+		{
+			received.getAndIncrement();
+			return rows.next();
+		}
+
 		Object o;
 		o = outBuffer.take();
 
@@ -263,21 +332,93 @@ public class NetworkReceiveOperator implements Operator, Serializable
 			else
 			{
 				outBuffer.put(new DataEndMarker());
+				taken(rows(o));
+				if (o instanceof ColumnBatch)
+				{
+					return new BatchRows((ColumnBatch)o).next();
+				}
+
 				return o;
 			}
 		}
 		else
 		{
 			received.getAndIncrement();
+			taken(rows(o));
 		}
 
 		if (o instanceof Exception)
 		{
 			throw (Exception)o;
 		}
+
+		if (o instanceof ColumnBatch)
+		{
+			return new BatchRows((ColumnBatch)o).next();
+		}
+
 		return o;
 	}
 
+	/**
+	 * Batch frames are returned as they were decoded, row records are
+	 * collected into batches
+	 */
+	@Override
+	public Object nextBatch(final Operator op) throws Exception
+	{
+		ColumnBatch batch = null;
+		while (true)
+		{
+			Object o = stashed.remove(Thread.currentThread());
+			if (o == null)
+			{
+				o = outBuffer.take();
+				taken(rows(o));
+			}
+
+			if (o instanceof DataEndMarker)
+			{
+				demReceived = true;
+				outBuffer.put(new DataEndMarker());
+				if (batch == null)
+				{
+					return o;
+				}
+
+				return batch;
+			}
+
+			if (o instanceof Exception)
+			{
+				throw (Exception)o;
+			}
+
+			if (o instanceof ColumnBatch)
+			{
+				if (batch != null)
+				{
+					stashed.put(Thread.currentThread(), o);
+					return batch;
+				}
+
+				received.getAndAdd(((ColumnBatch)o).count());
+				return o;
+			}
+
+			received.getAndIncrement();
+			if (batch == null)
+			{
+				batch = new ColumnBatch(ColumnBatch.types(cols2Types, pos2Col), ColumnBatch.BATCH_SIZE);
+			}
+
+			if (batch.add((ArrayList<Object>)o))
+			{
+				return batch;
+			}
+		}
+	}
+
 	@Override
 	public void nextAll(final Operator op) throws Exception
 	{
@@ -399,9 +540,14 @@ public class NetworkReceiveOperator implements Operator, Serializable
 				if (!fullyStarted)
 				{
 					outBuffer = new BufferedLinkedBlockingQueue(ResourceManager.QUEUE_SIZE);
+					batchRows = new ConcurrentHashMap<Thread, BatchRows>();
+					stashed = new ConcurrentHashMap<Thread, Object>();
+					buffered = new AtomicLong(0);
+					owing = new ConcurrentLinkedQueue<ReadThread>();
 					socks = new HashMap<Operator, Socket>();
 					outs = new HashMap<Operator, OutputStream>();
 					ins = new HashMap<Operator, InputStream>();
+					locals = new HashMap<Operator, LocalExchange>();
 					threads = new ArrayList<ReadThread>();
 					fullyStarted = true;
 					for (final Operator op : children)
@@ -411,11 +557,12 @@ public class NetworkReceiveOperator implements Operator, Serializable
 						// final Socket sock = new
 						// Socket(meta.getHostNameForNode(child.getNode()),
 						// WORKER_PORT);
-						final Socket sock = new Socket();
+						final Socket sock = newSocket();
 						sock.setReceiveBufferSize(4194304);
 						sock.setSendBufferSize(4194304);
 						sock.connect(new InetSocketAddress(MetaData.getHostNameForNode(child.getNode()), WORKER_PORT));
 						socks.put(child, sock);
+						offerLocal(child, sock);
 						final OutputStream out = sock.getOutputStream();
 						final BufferedOutputStream out2 = new BufferedOutputStream(out);
 						outs.put(child, out2);
@@ -446,9 +593,14 @@ public class NetworkReceiveOperator implements Operator, Serializable
 	public void start(final boolean flag) throws Exception
 	{
 		outBuffer = new BufferedLinkedBlockingQueue(ResourceManager.QUEUE_SIZE);
+		batchRows = new ConcurrentHashMap<Thread, BatchRows>();
+		stashed = new ConcurrentHashMap<Thread, Object>();
+		buffered = new AtomicLong(0);
+		owing = new ConcurrentLinkedQueue<ReadThread>();
 		socks = new HashMap<Operator, Socket>();
 		outs = new HashMap<Operator, OutputStream>();
 		ins = new HashMap<Operator, InputStream>();
+		locals = new HashMap<Operator, LocalExchange>();
 		threads = new ArrayList<ReadThread>();
 	}
 
@@ -458,6 +610,77 @@ public class NetworkReceiveOperator implements Operator, Serializable
 		return "NetworkReceiveOperator(" + node + ")";
 	}
 
+	/** Lets the sender of the stream from op hand it over in process */
+	protected void offerLocal(final Operator op, final Socket sock)
+	{
+		final LocalExchange local = LocalExchange.offer(sock);
+		if (local != null)
+		{
+			locals.put(op, local);
+		}
+	}
+
+	/**
+	 * Called by the read threads for a frame with the hot keys of one sender,
+	 * positioned at the number of keys
+	 */
+	protected void hotKeys(final ByteBuffer bb)
+	{
+	}
+
+	/**
+	 * Called by consumers for rows they took from outBuffer, gives back the
+	 * credits that were held back once there is room again
+	 */
+	private void taken(final int rows)
+	{
+		if (rows == 0 || buffered.addAndGet(-rows) >= MAX_BUFFERED >> 1 || owing.isEmpty())
+		{
+			return;
+		}
+
+		ReadThread thread = owing.poll();
+		while (thread != null)
+		{
+			thread.queued.set(false);
+			thread.owed.pay();
+			thread = owing.poll();
+		}
+	}
+
+	/**
+	 * Hands out the rows of a batch frame to the thread that took it from the
+	 * buffer, the way the buffer itself hands out blocks to the thread that
+	 * took them
+	 */
+	protected final class BatchRows
+	{
+		private final ColumnBatch batch;
+		private final int count;
+		private int k = 0;
+
+		public BatchRows(final ColumnBatch batch)
+		{
+			this.batch = batch;
+			count = batch.count();
+			if (count > 1)
+			{
+				batchRows.put(Thread.currentThread(), this);
+			}
+		}
+
+		public ArrayList<Object> next()
+		{
+			final ArrayList<Object> retval = batch.getRow(batch.row(k++));
+			if (k == count)
+			{
+				batchRows.remove(Thread.currentThread());
+			}
+
+			return retval;
+		}
+	}
+
 	private static class OverflowThread extends HRDBMSThread
 	{
 		private final FileChannel overFC;
@@ -496,7 +719,7 @@ public class NetworkReceiveOperator implements Operator, Serializable
 		}
 	}
 
-	private final class ReadThread extends ThreadPoolThread
+	private final class ReadThread extends ThreadPoolThread implements ExchangeSelector.Handler
 	{
 		private Operator op;
 		private Socket sock;
@@ -505,26 +728,272 @@ public class NetworkReceiveOperator implements Operator, Serializable
 		private final Random random = new Random();
 		private String fn;
 		private ByteBuffer buff;
+		// column types from the schema frame of this stream
+		private byte[] frameTypes;
+		// counted down when a selector finished reading the stream
+		private CountDownLatch selected;
+		private boolean failed = false;
+		private ExchangeCredits.Owed owed;
+		// in owing
+		private final AtomicBoolean queued = new AtomicBoolean(false);
+		private LocalExchange local;
+		// a row that has to wait for buffer space, put by blocked()
+		private Object parked;
 
 		public ReadThread(final Operator op)
 		{
 			this.op = op;
 		}
 
+		@Override
+		public void done(final Exception e)
+		{
+			if (e != null)
+			{
+				HRDBMSWorker.logger.error("", e);
+				outBuffer.put(e);
+				failed = true;
+			}
+
+			// reads back anything that overflowed to disk
+			start();
+			selected.countDown();
+		}
+
+		@Override
+		public int record(final byte[] data, final int size) throws Exception
+		{
+			final Object row = fromBytes(data);
+			if (row instanceof LocalExchange)
+			{
+				return readLocal() ? ExchangeSelector.END : ExchangeSelector.MORE;
+			}
+
+			return accept(row, data, size);
+		}
+
+		@Override
+		public boolean blocked() throws Exception
+		{
+			if (parked != null)
+			{
+				final Object row = parked;
+				parked = null;
+				outBuffer.put(row);
+			}
+
+			return buff != null && buff.position() >= OVERFLOW_FLUSH && flush();
+		}
+
+		/**
+		 * Buffers a row or batch for the consumer, data is its record or null
+		 * if it came from a local exchange. Returns END at the end of the
+		 * stream. On a selector thread it returns PAUSE instead of waiting for
+		 * buffer space or for the overflow file, blocked() does that later.
+		 */
+		private int accept(final Object row, final byte[] data, final int size) throws Exception
+		{
+			if (row == null)
+			{
+				return ExchangeSelector.MORE;
+			}
+
+			if (row instanceof DataEndMarker)
+			{
+				return ExchangeSelector.END;
+			}
+
+			if (row instanceof Exception)
+			{
+				HRDBMSWorker.logger.debug("Exception received from " + sock.getRemoteSocketAddress(), (Exception)row);
+				outBuffer.put(row);
+				failed = true;
+				return ExchangeSelector.END;
+			}
+
+			final boolean selector = selected != null;
+			final int rows = rows(row);
+			final boolean ok = buffered.addAndGet(rows) <= MAX_BUFFERED && outBuffer.putNow(row);
+			boolean spilled = false;
+			int retval = ExchangeSelector.MORE;
+
+			if (!ok)
+			{
+				// rows from a local exchange overflow as records too
+				final byte[] record = data == null ? toRecord(row) : data;
+				if (record == null)
+				{
+					// a column has no record format, so the sender waits instead
+					if (selector)
+					{
+						parked = row;
+						retval = ExchangeSelector.PAUSE;
+					}
+					else
+					{
+						outBuffer.put(row);
+					}
+				}
+				else
+				{
+					buffered.addAndGet(-rows);
+					overflow(record, data == null ? record.length : size);
+					spilled = true;
+					if (buff.position() >= OVERFLOW_FLUSH)
+					{
+						if (selector)
+						{
+							retval = ExchangeSelector.PAUSE;
+						}
+						else if (flush())
+						{
+							return ExchangeSelector.END;
+						}
+					}
+				}
+			}
+
+			if (owed.add(rows))
+			{
+				// rows on disk don't take buffer space, so while spilling the
+				// sender keeps its pace instead of waiting out the timeout
+				if (spilled || buffered.get() < MAX_BUFFERED >> 1)
+				{
+					owed.pay();
+				}
+				else if (queued.compareAndSet(false, true))
+				{
+					owing.add(this);
+				}
+			}
+
+			// readCounter.getAndIncrement();
+			return retval;
+		}
+
+		/** Adds a record that doesn't fit in the buffer to the overflow file's buffer */
+		private void overflow(final byte[] data, final int size) throws Exception
+		{
+			if (overFC == null)
+			{
+				final int j = random.nextInt(ResourceManager.TEMP_DIRS.size());
+				fn = ResourceManager.TEMP_DIRS.get(j) + this.hashCode() + "" + System.currentTimeMillis() + ".overflow";
+				overFC = new RandomAccessFile(fn, "rw").getChannel();
+				buff = ByteBuffer.allocate(9 * 1024 * 1024);
+			}
+
+			if (buff.remaining() < size + 4)
+			{
+				// batch frames can be bigger than the slack above the flush point
+				final ByteBuffer temp = ByteBuffer.allocate(buff.position() + size + 4);
+				buff.flip();
+				temp.put(buff);
+				buff = temp;
+			}
+
+			buff.putInt(size);
+			buff.put(data, 0, size);
+		}
+
+		/** Writes the overflow buffer to disk, returns true if that failed */
+		private boolean flush() throws Exception
+		{
+			final int pos = buff.position();
+			buff.position(0);
+			buff.limit(pos);
+			// overFC.write(buff);
+			final OverflowThread thread = new OverflowThread(overFC, buff);
+			TempThread.start(thread, txnum);
+			thread.join();
+			if (!thread.getOK())
+			{
+				outBuffer.put(thread.getException());
+				failed = true;
+				return true;
+			}
+			buff.position(0);
+			buff.limit(buff.capacity());
+			return false;
+		}
+
+		/** Reads the rest of the stream from a sender in this process */
+		private boolean readLocal() throws Exception
+		{
+			if (frameTypes == null)
+			{
+				// rows that overflow are written as batch frames
+				frameTypes = ColumnBatch.types(cols2Types, pos2Col);
+			}
+
+			while (true)
+			{
+				final Object o = local.take();
+				if (o instanceof byte[])
+				{
+					final byte[] data = (byte[])o;
+					if (accept(fromBytes(data), data, data.length) == ExchangeSelector.END)
+					{
+						return true;
+					}
+				}
+				else if (accept(o, null, 0) == ExchangeSelector.END)
+				{
+					return true;
+				}
+			}
+		}
+
+		/** A row or batch from a local exchange as a batch frame, null if it has no frame format */
+		private byte[] toRecord(final Object row)
+		{
+			ColumnBatch batch;
+			if (row instanceof ColumnBatch)
+			{
+				batch = (ColumnBatch)row;
+			}
+			else
+			{
+				batch = new ColumnBatch(frameTypes, 1);
+				batch.add((ArrayList<Object>)row);
+			}
+
+			final byte[] frame = batch.toFrame(frameTypes);
+			return frame == null ? null : Arrays.copyOfRange(frame, 4, frame.length);
+		}
+
+		/** Hands the stream to a selector thread instead of reading it here */
+		public void register(final CountDownLatch selected) throws Exception
+		{
+			this.selected = selected;
+			sock = socks.get(op);
+			final SocketChannel ch = sock.getChannel();
+			final OutputStream out = new ChannelOutputStream(ch);
+			outs.put(op, out);
+			owed = new ExchangeCredits.Owed(out, node, op.getNode());
+			ExchangeSelector.register(ch, this);
+			op = null;
+		}
+
 		@Override
 		public void run()
 		{
 			final long start = System.currentTimeMillis();
 			try
 			{
-				sock = socks.get(op);
-				in = new CompressedInputStream(ins.get(op));
-				op = null;
 				final byte[] sizeBuff = new byte[4];
 				byte[] data = null;
 
-				while (true)
+				while (selected == null)
 				{
+					if (in == null)
+					{
+						sock = socks.get(op);
+						local = locals.get(op);
+						in = new CompressedInputStream(ins.get(op));
+						owed = new ExchangeCredits.Owed(outs.get(op), node, op.getNode());
+						op = null;
+					}
+
 					int count = 0;
 					while (count < 4)
 					{
@@ -581,55 +1050,15 @@ public class NetworkReceiveOperator implements Operator, Serializable
 						}
 					}
 					// bytes.getAndAdd(size);
-					final Object row = fromBytes(data);
-
-					if (row instanceof DataEndMarker)
+					if (record(data, size) == ExchangeSelector.END)
 					{
 						break;
 					}
+				}
 
-					if (row instanceof Exception)
-					{
-						HRDBMSWorker.logger.debug("Exception received from " + sock.getRemoteSocketAddress(), (Exception)row);
-						outBuffer.put(row);
-						return;
-					}
-
-					final boolean ok = outBuffer.putNow(row);
-
-					if (!ok)
-					{
-						if (overFC == null)
-						{
-							final int j = random.nextInt(ResourceManager.TEMP_DIRS.size());
-							fn = ResourceManager.TEMP_DIRS.get(j) + this.hashCode() + "" + System.currentTimeMillis() + ".overflow";
-							overFC = new RandomAccessFile(fn, "rw").getChannel();
-							buff = ByteBuffer.allocate(9 * 1024 * 1024);
-						}
-
-						buff.put(sizeBuff);
-						buff.put(data, 0, size);
-
-						if (buff.position() >= 8 * 1024 * 1024)
-						{
-							final int pos = buff.position();
-							buff.position(0);
-							buff.limit(pos);
-							// overFC.write(buff);
-							final OverflowThread thread = new OverflowThread(overFC, buff);
-							TempThread.start(thread, txnum);
-							thread.join();
-							if (!thread.getOK())
-							{
-								outBuffer.put(thread.getException());
-								return;
-							}
-							buff.position(0);
-							buff.limit(9 * 1024 * 1024);
-						}
-					}
-
-					// readCounter.getAndIncrement();
+				if (failed)
+				{
+					return;
 				}
 
 				if (overFC == null)
@@ -686,7 +1115,11 @@ public class NetworkReceiveOperator implements Operator, Serializable
 
 					final Object row = fromBytes(data);
 
-					outBuffer.put(row);
+					if (row != null)
+					{
+						buffered.addAndGet(rows(row));
+						outBuffer.put(row);
+					}
 				}
 
 				overFC2.close();
@@ -714,6 +1147,34 @@ public class NetworkReceiveOperator implements Operator, Serializable
 			final ByteBuffer bb = ByteBuffer.wrap(val);
 			final int numFields = bb.getInt();
 
+			if (numFields == ColumnBatch.SCHEMA_FRAME)
+			{
+				frameTypes = new byte[bb.getInt()];
+				bb.get(frameTypes);
+				return null;
+			}
+
+			if (numFields == ColumnBatch.BATCH_FRAME)
+			{
+				return ColumnBatch.fromFrame(bb, frameTypes);
+			}
+
+			if (numFields == NetworkHashAndSendOperator.SKEW_FRAME)
+			{
+				hotKeys(bb);
+				return null;
+			}
+
+			if (numFields == LocalExchange.LOCAL_FRAME)
+			{
+				if (local == null)
+				{
+					throw new Exception("Local exchange frame on a stream that wasn't offered one");
+				}
+
+				return local;
+			}
+
 			bb.position(bb.position() + numFields);
 			final byte[] bytes = bb.array();
 			if (bytes[4] == 5)
@@ -806,11 +1267,54 @@ public class NetworkReceiveOperator implements Operator, Serializable
 				readThrottle[i++] = new Object();
 			}
 
-			for (final Operator op : children)
+			if (NIO)
+			{
+				final CountDownLatch selected = new CountDownLatch(children.size());
+				for (final Operator op : children)
+				{
+					final ReadThread readThread = new ReadThread(op);
+					threads.add(readThread);
+					if (locals.containsKey(op))
+					{
+						// a selector thread can't wait on the ring
+						readThread.start();
+						selected.countDown();
+						continue;
+					}
+
+					try
+					{
+						readThread.register(selected);
+					}
+					catch (final Exception e)
+					{
+						HRDBMSWorker.logger.error("", e);
+						outBuffer.put(e);
+						readThread.start();
+						selected.countDown();
+					}
+				}
+
+				while (true)
+				{
+					try
+					{
+						selected.await();
+						break;
+					}
+					catch (final InterruptedException e)
+					{
+					}
+				}
+			}
+			else
 			{
-				final ReadThread readThread = new ReadThread(op);
-				threads.add(readThread);
-				readThread.start();
+				for (final Operator op : children)
+				{
+					final ReadThread readThread = new ReadThread(op);
+					threads.add(readThread);
+					readThread.start();
+				}
 			}
 
 			if (node >= 0)
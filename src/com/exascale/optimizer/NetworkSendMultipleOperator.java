@@ -10,9 +10,9 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import com.exascale.compression.CompressedOutputStream;
 import com.exascale.managers.HRDBMSWorker;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
@@ -80,6 +80,7 @@ public final class NetworkSendMultipleOperator extends NetworkSendOperator
 	public void addConnection(final int fromNode, final Socket sock)
 	{
 		connections.put(fromNode, sock);
+		openCredits(fromNode);
 		try
 		{
 			outs.put(fromNode, new BufferedOutputStream(sock.getOutputStream()));
@@ -271,14 +272,17 @@ public final class NetworkSendMultipleOperator extends NetworkSendOperator
 	@Override
 	public synchronized void start()
 	{
-		final ArrayList<CompressedOutputStream> compOuts = new ArrayList<CompressedOutputStream>(outs.size());
-		for (final OutputStream out : outs.values())
-		{
-			compOuts.add(new CompressedOutputStream(out));
-		}
+		final ArrayList<OutputStream> compOuts = new ArrayList<OutputStream>(outs.size());
+		final ArrayList<ExchangeCredits> c = new ArrayList<ExchangeCredits>(outs.size());
 
 		try
 		{
+			for (final Map.Entry<Integer, OutputStream> entry : outs.entrySet())
+			{
+				compOuts.add(stream(entry.getValue(), connections.get(entry.getKey())));
+				c.add(credits.get(entry.getKey()));
+			}
+
 			if (error)
 			{
 				throw new Exception(errorText);
@@ -296,9 +300,23 @@ public final class NetworkSendMultipleOperator extends NetworkSendOperator
 			}
 			while (!(o instanceof DataEndMarker))
 			{
-				final byte[] obj = toBytes(o);
+				// serialized once for all receivers that aren't in this process
+				byte[] obj = null;
+				int i = 0;
 				for (final OutputStream out : compOuts)
 				{
+					c.get(i++).acquire(1, out);
+					if (out instanceof LocalExchange && o instanceof ArrayList)
+					{
+						((LocalExchange)out).put(new ArrayList<Object>((ArrayList<Object>)o));
+						continue;
+					}
+
+					if (obj == null)
+					{
+						obj = toBytes(o);
+					}
+
 					out.write(obj);
 				}
 				if (o instanceof Exception)
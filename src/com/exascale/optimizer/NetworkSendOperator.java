@@ -1,6 +1,7 @@
 package com.exascale.optimizer;
 
 import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -17,6 +18,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import com.exascale.compression.CompressedOutputStream;
 import com.exascale.managers.HRDBMSWorker;
@@ -30,6 +32,7 @@ public class NetworkSendOperator implements Operator, Serializable
 	protected static final int WORKER_PORT = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"));
 
 	protected static Charset cs = StandardCharsets.UTF_8;
+	protected static boolean COLUMNAR;
 	private static sun.misc.Unsafe unsafe;
 	private static long offset;
 
@@ -43,6 +46,7 @@ public class NetworkSendOperator implements Operator, Serializable
 			final Field fieldToUpdate = String.class.getDeclaredField("value");
 			// get unsafe offset to this field
 			offset = unsafe.objectFieldOffset(fieldToUpdate);
+			COLUMNAR = HRDBMSWorker.getHParms().getProperty("columnar_exchange").equals("true");
 		}
 		catch (final Exception e)
 		{
@@ -66,6 +70,8 @@ public class NetworkSendOperator implements Operator, Serializable
 	protected CharsetEncoder ce = cs.newEncoder();
 	protected transient AtomicLong received;
 	protected transient volatile boolean demReceived;
+	// flow control for each receiving connection, keyed like the connections
+	protected transient volatile ConcurrentHashMap<Integer, ExchangeCredits> credits;
 
 	public NetworkSendOperator(final int node, final MetaData meta)
 	{
@@ -171,6 +177,22 @@ public class NetworkSendOperator implements Operator, Serializable
 	{
 	}
 
+	/** Called by the connection worker when a receiver gives back credits */
+	public void addCredits(final int fromNode, final long rows)
+	{
+		final ConcurrentHashMap<Integer, ExchangeCredits> map = credits;
+		if (map == null)
+		{
+			return;
+		}
+
+		final ExchangeCredits c = map.get(fromNode);
+		if (c != null)
+		{
+			c.grant(rows);
+		}
+	}
+
 	@Override
 	public ArrayList<Operator> children()
 	{
@@ -270,6 +292,21 @@ public class NetworkSendOperator implements Operator, Serializable
 	{
 	}
 
+	/**
+	 * Called by the connection worker that will run start() on another
+	 * thread, so no other worker starts it as well
+	 */
+	public synchronized boolean claimStart()
+	{
+		if (started)
+		{
+			return false;
+		}
+
+		started = true;
+		return true;
+	}
+
 	public boolean notStarted()
 	{
 		return !started;
@@ -400,6 +437,7 @@ public class NetworkSendOperator implements Operator, Serializable
 		{
 			this.sock = sock;
 			out = new BufferedOutputStream(sock.getOutputStream());
+			openCredits(-1);
 		}
 		catch (final Exception e)
 		{
@@ -411,38 +449,40 @@ public class NetworkSendOperator implements Operator, Serializable
 	@Override
 	public synchronized void start() throws Exception
 	{
-		final CompressedOutputStream compOut = new CompressedOutputStream(out);
+		final OutputStream compOut = stream(out, sock);
+		final ExchangeCredits c = credits.get(-1);
 		try
 		{
 			started = true;
-			// child.start();
-			Object o = child.next(this);
-			if (o instanceof DataEndMarker)
+			if (COLUMNAR)
 			{
+				final byte[] types = ColumnBatch.types(cols2Types, pos2Col);
+				compOut.write(ColumnBatch.schemaFrame(types));
+				Object o = ColumnBatch.next(child, this);
+				while (!(o instanceof DataEndMarker))
+				{
+					final ColumnBatch batch = (ColumnBatch)o;
+					received.getAndAdd(batch.count());
+					try
+					{
+						c.acquire(batch.count(), compOut);
+						writeBatch(compOut, batch, types);
+					}
+					catch (final Exception e)
+					{
+						HRDBMSWorker.logger.debug("Error writing to " + sock.getRemoteSocketAddress());
+						throw e;
+					}
+
+					o = ColumnBatch.next(child, this);
+				}
+
 				demReceived = true;
 			}
 			else
 			{
-				received.getAndIncrement();
-			}
-			while (!(o instanceof DataEndMarker))
-			{
-				final byte[] obj = toBytes(o);
-				try
-				{
-					compOut.write(obj);
-				}
-				catch (final Exception e)
-				{
-					HRDBMSWorker.logger.debug("Error writing to " + sock.getRemoteSocketAddress());
-					throw e;
-				}
-				if (o instanceof Exception)
-				{
-					HRDBMSWorker.logger.debug("", (Exception)o);
-					throw (Exception)o;
-				}
-				o = child.next(this);
+				// child.start();
+				Object o = child.next(this);
 				if (o instanceof DataEndMarker)
 				{
 					demReceived = true;
@@ -451,9 +491,36 @@ public class NetworkSendOperator implements Operator, Serializable
 				{
 					received.getAndIncrement();
 				}
+				while (!(o instanceof DataEndMarker))
+				{
+					try
+					{
+						c.acquire(1, compOut);
+						writeRow(compOut, o);
+					}
+					catch (final Exception e)
+					{
+						HRDBMSWorker.logger.debug("Error writing to " + sock.getRemoteSocketAddress());
+						throw e;
+					}
+					if (o instanceof Exception)
+					{
+						HRDBMSWorker.logger.debug("", (Exception)o);
+						throw (Exception)o;
+					}
+					o = child.next(this);
+					if (o instanceof DataEndMarker)
+					{
+						demReceived = true;
+					}
+					else
+					{
+						received.getAndIncrement();
+					}
+				}
 			}
 
-			final byte[] obj = toBytes(o);
+			final byte[] obj = toBytesDEM();
 			compOut.write(obj);
 			compOut.flush();
 			// HRDBMSWorker.logger.debug("Wrote " + count + " rows");
@@ -509,6 +576,76 @@ public class NetworkSendOperator implements Operator, Serializable
 		return "NetworkSendOperator(" + node + ")";
 	}
 
+	/** Sets up flow control for a receiving connection, before start() */
+	protected synchronized void openCredits(final int fromNode)
+	{
+		if (credits == null)
+		{
+			credits = new ConcurrentHashMap<Integer, ExchangeCredits>();
+		}
+
+		credits.putIfAbsent(fromNode, new ExchangeCredits());
+	}
+
+	/**
+	 * The stream for the rows of a connection. If the receiver is in this
+	 * process that is the LocalExchange it offered, and the socket only gets
+	 * the frame that tells the receiver so.
+	 */
+	protected OutputStream stream(final OutputStream out, final Socket sock) throws IOException
+	{
+		final LocalExchange local = LocalExchange.claim(sock);
+		final CompressedOutputStream compOut = new CompressedOutputStream(out, sock);
+		if (local == null)
+		{
+			return compOut;
+		}
+
+		compOut.write(LocalExchange.frame());
+		compOut.flush();
+		return local;
+	}
+
+	/**
+	 * Writes the selected rows of a batch as one frame, or as row records if
+	 * the batch has a column that the frame format can't carry. A local
+	 * exchange gets the batch itself.
+	 */
+	protected void writeBatch(final OutputStream out, final ColumnBatch batch, final byte[] types) throws Exception
+	{
+		if (out instanceof LocalExchange)
+		{
+			((LocalExchange)out).put(batch);
+			return;
+		}
+
+		final byte[] frame = batch.toFrame(types);
+		if (frame != null)
+		{
+			out.write(frame);
+			return;
+		}
+
+		final int n = batch.count();
+		int k = 0;
+		while (k < n)
+		{
+			out.write(toBytes(batch.getRow(batch.row(k++))));
+		}
+	}
+
+	/** Writes a row record, a local exchange gets the row itself */
+	protected void writeRow(final OutputStream out, final Object row) throws Exception
+	{
+		if (out instanceof LocalExchange && row instanceof ArrayList)
+		{
+			((LocalExchange)out).put(row);
+			return;
+		}
+
+		out.write(toBytes(row));
+	}
+
 	protected byte[] toBytes(final Object v) throws Exception
 	{
 		ArrayList<byte[]> bytes = null;
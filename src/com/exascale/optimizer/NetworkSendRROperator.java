@@ -10,9 +10,9 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import com.exascale.compression.CompressedOutputStream;
 import com.exascale.managers.HRDBMSWorker;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
@@ -80,6 +80,7 @@ public final class NetworkSendRROperator extends NetworkSendOperator
 	public void addConnection(final int fromNode, final Socket sock)
 	{
 		connections.put(fromNode, sock);
+		openCredits(fromNode);
 		try
 		{
 			outs.put(fromNode, new BufferedOutputStream(sock.getOutputStream()));
@@ -272,40 +273,47 @@ public final class NetworkSendRROperator extends NetworkSendOperator
 	public synchronized void start()
 	{
 		final ArrayList<OutputStream> outs2 = new ArrayList<OutputStream>(outs.size());
-		for (final OutputStream out : outs.values())
-		{
-			outs2.add(new CompressedOutputStream(out));
-		}
+		final ArrayList<ExchangeCredits> c = new ArrayList<ExchangeCredits>(outs.size());
 		try
 		{
+			for (final Map.Entry<Integer, OutputStream> entry : outs.entrySet())
+			{
+				outs2.add(stream(entry.getValue(), connections.get(entry.getKey())));
+				c.add(credits.get(entry.getKey()));
+			}
 			if (error)
 			{
 				throw new Exception(errorText);
 			}
 			started = true;
 			int i = 0;
-			// child.start();
-			Object o = child.next(this);
-			if (o instanceof DataEndMarker)
+			if (COLUMNAR)
 			{
+				// round robin whole batches instead of rows
+				final byte[] types = ColumnBatch.types(cols2Types, pos2Col);
+				final byte[] schema = ColumnBatch.schemaFrame(types);
+				for (final OutputStream out : outs2)
+				{
+					out.write(schema);
+				}
+
+				Object o = ColumnBatch.next(child, this);
+				while (!(o instanceof DataEndMarker))
+				{
+					final ColumnBatch batch = (ColumnBatch)o;
+					received.getAndAdd(batch.count());
+					c.get(i % outs2.size()).acquire(batch.count(), outs2.get(i % outs2.size()));
+					writeBatch(outs2.get(i % outs2.size()), batch, types);
+					i++;
+					o = ColumnBatch.next(child, this);
+				}
+
 				demReceived = true;
 			}
 			else
 			{
-				received.getAndIncrement();
-			}
-			while (!(o instanceof DataEndMarker))
-			{
-				final byte[] obj = toBytes(o);
-				outs2.get(i % outs2.size()).write(obj);
-				if (o instanceof Exception)
-				{
-					HRDBMSWorker.logger.debug("", (Exception)o);
-					throw (Exception)o;
-				}
-				// count++;
-				i++;
-				o = child.next(this);
+				// child.start();
+				Object o = child.next(this);
 				if (o instanceof DataEndMarker)
 				{
 					demReceived = true;
@@ -314,9 +322,30 @@ public final class NetworkSendRROperator extends NetworkSendOperator
 				{
 					received.getAndIncrement();
 				}
+				while (!(o instanceof DataEndMarker))
+				{
+					c.get(i % outs2.size()).acquire(1, outs2.get(i % outs2.size()));
+					writeRow(outs2.get(i % outs2.size()), o);
+					if (o instanceof Exception)
+					{
+						HRDBMSWorker.logger.debug("", (Exception)o);
+						throw (Exception)o;
+					}
+					// count++;
+					i++;
+					o = child.next(this);
+					if (o instanceof DataEndMarker)
+					{
+						demReceived = true;
+					}
+					else
+					{
+						received.getAndIncrement();
+					}
+				}
 			}
 
-			final byte[] obj = toBytes(o);
+			final byte[] obj = toBytes(new DataEndMarker());
 			for (final OutputStream out : outs2)
 			{
 				out.write(obj);
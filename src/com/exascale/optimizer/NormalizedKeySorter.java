@@ -0,0 +1,388 @@
+package com.exascale.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.ResourceManager;
+import com.exascale.misc.MyDate;
+import com.exascale.threads.ThreadPoolThread;
+
+/**
+ * Sorts rows on binary comparable keys. The sort columns of a row are encoded
+ * once into a byte[] whose unsigned lexicographic order is the order of the
+ * rows, descending columns are stored inverted. The rows are then radix
+ * sorted on the first 8 bytes of their keys, and only rows whose first 8
+ * bytes tie are compared on the rest of the key.
+ *
+ * Ints, longs and dates are big endian with the sign bit flipped. Doubles use
+ * the usual flip so that the order matches Double.compareTo(). Strings are
+ * written as UTF-16 code units with 0x0000 as the terminator, code units 0
+ * and 1 are escaped so the encoding stays prefix free.
+ */
+final class NormalizedKeySorter
+{
+	private final int[] sortPos;
+	private final boolean[] orders;
+
+	public NormalizedKeySorter(final int[] sortPos, final boolean[] orders)
+	{
+		this.sortPos = sortPos;
+		this.orders = orders;
+	}
+
+	public static int compare(final byte[] lhs, final byte[] rhs)
+	{
+		return compare(lhs, rhs, 0);
+	}
+
+	/** First 8 bytes of the key as an unsigned long, zero padded */
+	public static long prefix(final byte[] key)
+	{
+		long retval = 0;
+		int i = 0;
+		while (i < 8)
+		{
+			retval <<= 8;
+			if (i < key.length)
+			{
+				retval |= (key[i] & 0xff);
+			}
+
+			i++;
+		}
+
+		return retval;
+	}
+
+	private static int compare(final byte[] lhs, final byte[] rhs, final int start)
+	{
+		final int limit = Math.min(lhs.length, rhs.length);
+		int i = start;
+		while (i < limit)
+		{
+			final int l = lhs[i] & 0xff;
+			final int r = rhs[i] & 0xff;
+			if (l != r)
+			{
+				return l < r ? -1 : 1;
+			}
+
+			i++;
+		}
+
+		return lhs.length - rhs.length;
+	}
+
+	private static int put(final byte[] key, final int off, final long val, final int bytes, final boolean asc)
+	{
+		int i = bytes - 1;
+		while (i >= 0)
+		{
+			final byte b = (byte)(val >>> (i << 3));
+			key[off + bytes - 1 - i] = asc ? b : (byte)~b;
+			i--;
+		}
+
+		return off + bytes;
+	}
+
+	/** Returns null if a sort column holds a value that can't be encoded */
+	public byte[] encode(final ArrayList<Object> row)
+	{
+		int size = 0;
+		for (final int pos : sortPos)
+		{
+			final Object o = row.get(pos);
+			if (o instanceof Integer || o instanceof MyDate)
+			{
+				size += 4;
+			}
+			else if (o instanceof Long || o instanceof Double)
+			{
+				size += 8;
+			}
+			else if (o instanceof String)
+			{
+				final String s = (String)o;
+				size += ((s.length() + 1) << 1);
+				int j = 0;
+				while (j < s.length())
+				{
+					if (s.charAt(j++) < 2)
+					{
+						size++;
+					}
+				}
+			}
+			else
+			{
+				return null;
+			}
+		}
+
+		final byte[] key = new byte[size];
+		int off = 0;
+		int i = 0;
+		for (final int pos : sortPos)
+		{
+			final Object o = row.get(pos);
+			final boolean asc = orders[i++];
+			if (o instanceof Integer)
+			{
+				off = put(key, off, ((Integer)o) ^ 0x80000000, 4, asc);
+			}
+			else if (o instanceof Long)
+			{
+				off = put(key, off, ((Long)o) ^ 0x8000000000000000L, 8, asc);
+			}
+			else if (o instanceof Double)
+			{
+				final long bits = Double.doubleToLongBits((Double)o);
+				off = put(key, off, bits < 0 ? ~bits : bits ^ 0x8000000000000000L, 8, asc);
+			}
+			else if (o instanceof MyDate)
+			{
+				off = put(key, off, ((MyDate)o).getTime() ^ 0x80000000, 4, asc);
+			}
+			else
+			{
+				final String s = (String)o;
+				int j = 0;
+				while (j < s.length())
+				{
+					final char c = s.charAt(j++);
+					if (c < 2)
+					{
+						off = put(key, off, 1, 2, asc);
+						off = put(key, off, c, 1, asc);
+					}
+					else
+					{
+						off = put(key, off, c, 2, asc);
+					}
+				}
+
+				off = put(key, off, 0, 2, asc);
+			}
+		}
+
+		return key;
+	}
+
+	/**
+	 * Sorts the rows in place, the sort is stable. Returns false and leaves
+	 * the rows alone if some row can't be encoded.
+	 */
+	public boolean sort(final ArrayList<ArrayList<Object>> rows, final boolean parallel) throws Exception
+	{
+		final int n = rows.size();
+		if (n < 2)
+		{
+			return true;
+		}
+
+		final byte[][] keys = new byte[n][];
+		if (parallel && n >= ResourceManager.cpus)
+		{
+			final EncodeThread[] threads = new EncodeThread[ResourceManager.cpus];
+			final int per = n / threads.length + 1;
+			int i = 0;
+			while (i < threads.length)
+			{
+				threads[i] = new EncodeThread(rows, keys, i * per, Math.min(n, (i + 1) * per));
+				threads[i].start();
+				i++;
+			}
+
+			boolean ok = true;
+			for (final EncodeThread thread : threads)
+			{
+				thread.join();
+				ok &= thread.ok;
+			}
+
+			if (!ok)
+			{
+				return false;
+			}
+		}
+		else if (!encode(rows, keys, 0, n))
+		{
+			return false;
+		}
+
+		final long[] prefixes = new long[n];
+		int[] idx = new int[n];
+		int i = 0;
+		while (i < n)
+		{
+			prefixes[i] = prefix(keys[i]);
+			idx[i] = i;
+			i++;
+		}
+
+		idx = radixSort(prefixes, idx);
+		breakTies(prefixes, idx, keys);
+
+		final Object[] sorted = new Object[n];
+		i = 0;
+		while (i < n)
+		{
+			sorted[i] = rows.get(idx[i]);
+			i++;
+		}
+
+		i = 0;
+		while (i < n)
+		{
+			rows.set(i, (ArrayList<Object>)sorted[i]);
+			i++;
+		}
+
+		return true;
+	}
+
+	/** Orders runs of rows that share a prefix on the rest of their keys */
+	private void breakTies(final long[] prefixes, final int[] idx, final byte[][] keys)
+	{
+		final int n = idx.length;
+		int start = 0;
+		while (start < n)
+		{
+			final long p = prefixes[idx[start]];
+			int end = start + 1;
+			boolean longer = keys[idx[start]].length > 8;
+			while (end < n && prefixes[idx[end]] == p)
+			{
+				longer |= keys[idx[end]].length > 8;
+				end++;
+			}
+
+			if (end - start > 1 && longer)
+			{
+				final Integer[] run = new Integer[end - start];
+				int i = 0;
+				while (i < run.length)
+				{
+					run[i] = idx[start + i];
+					i++;
+				}
+
+				// stable, so rows with equal keys keep their input order
+				Arrays.sort(run, new Comparator<Integer>()
+				{
+					@Override
+					public int compare(final Integer l, final Integer r)
+					{
+						return NormalizedKeySorter.compare(keys[l], keys[r], 8);
+					}
+				});
+
+				i = 0;
+				while (i < run.length)
+				{
+					idx[start + i] = run[i];
+					i++;
+				}
+			}
+
+			start = end;
+		}
+	}
+
+	private boolean encode(final ArrayList<ArrayList<Object>> rows, final byte[][] keys, final int start, final int end)
+	{
+		int i = start;
+		while (i < end)
+		{
+			final byte[] key = encode(rows.get(i));
+			if (key == null)
+			{
+				return false;
+			}
+
+			keys[i++] = key;
+		}
+
+		return true;
+	}
+
+	/**
+	 * LSD radix sort of the indexes by unsigned prefix, one byte per pass.
+	 * Passes where every prefix has the same byte are skipped.
+	 */
+	private int[] radixSort(final long[] prefixes, int[] idx)
+	{
+		final int n = idx.length;
+		int[] temp = new int[n];
+		final int[] counts = new int[256];
+		int shift = 0;
+		while (shift < 64)
+		{
+			Arrays.fill(counts, 0);
+			for (final int i : idx)
+			{
+				counts[(int)(prefixes[i] >>> shift) & 0xff]++;
+			}
+
+			if (counts[(int)(prefixes[idx[0]] >>> shift) & 0xff] == n)
+			{
+				shift += 8;
+				continue;
+			}
+
+			int sum = 0;
+			int b = 0;
+			while (b < 256)
+			{
+				final int c = counts[b];
+				counts[b++] = sum;
+				sum += c;
+			}
+
+			for (final int i : idx)
+			{
+				temp[counts[(int)(prefixes[i] >>> shift) & 0xff]++] = i;
+			}
+
+			final int[] swap = idx;
+			idx = temp;
+			temp = swap;
+			shift += 8;
+		}
+
+		return idx;
+	}
+
+	private final class EncodeThread extends ThreadPoolThread
+	{
+		private final ArrayList<ArrayList<Object>> rows;
+		private final byte[][] keys;
+		private final int start;
+		private final int end;
+		private boolean ok = true;
+
+		public EncodeThread(final ArrayList<ArrayList<Object>> rows, final byte[][] keys, final int start, final int end)
+		{
+			this.rows = rows;
+			this.keys = keys;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				ok = encode(rows, keys, start, end);
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("", e);
+				ok = false;
+			}
+		}
+	}
+}
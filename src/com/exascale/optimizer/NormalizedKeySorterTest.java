@@ -0,0 +1,137 @@
+package com.exascale.optimizer;
+
+import java.util.ArrayList;
+import java.util.Random;
+import com.exascale.misc.MyDate;
+
+/**
+ * Checks that the byte order of NormalizedKeySorter keys agrees with the
+ * column by column compareTo() order the merge comparators use, including
+ * descending columns, negative numbers, NaN, -0.0, and strings with the
+ * escaped code units 0 and 1 or that are prefixes of each other. Then checks
+ * that sort(), serial and parallel, orders the rows the same way and is
+ * stable.
+ */
+public class NormalizedKeySorterTest
+{
+	private static final int ROWS = 20000;
+	private static final double[] DOUBLES = { Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -0.0, 0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1.5, -1.5 };
+	private static final String[] STRINGS = { "", "a", "ab", "a\u0000", "a\u0001", "a\u0002", "\u0000", "\u0001", "\uffff", "b", "\u00e9t\u00e9" };
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(3);
+		final int[] sortPos = { 0, 1, 2, 3, 4 };
+		int round = 0;
+		while (round < 4)
+		{
+			final boolean[] orders = new boolean[sortPos.length];
+			int i = 0;
+			while (i < orders.length)
+			{
+				orders[i] = ((round + i) & 1) == 0;
+				i++;
+			}
+
+			final NormalizedKeySorter sorter = new NormalizedKeySorter(sortPos, orders);
+			final ArrayList<ArrayList<Object>> rows = new ArrayList<ArrayList<Object>>();
+			i = 0;
+			while (i < ROWS)
+			{
+				final ArrayList<Object> row = new ArrayList<Object>();
+				// few distinct values per column, so later columns decide
+				row.add(random.nextInt(7) - 3 + (random.nextInt(20) == 0 ? Integer.MIN_VALUE : 0));
+				row.add(STRINGS[random.nextInt(STRINGS.length)]);
+				row.add(DOUBLES[random.nextInt(DOUBLES.length)]);
+				row.add(random.nextInt(3) == 0 ? Long.MIN_VALUE + random.nextInt(3) : random.nextLong() % 5);
+				row.add(new MyDate(2000 + random.nextInt(3), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+				// input position, to check stability
+				row.add(i);
+				rows.add(row);
+				i++;
+			}
+
+			i = 0;
+			while (i < 100000)
+			{
+				final ArrayList<Object> l = rows.get(random.nextInt(ROWS));
+				final ArrayList<Object> r = rows.get(random.nextInt(ROWS));
+				final int expected = Integer.signum(compare(l, r, sortPos, orders));
+				final int actual = Integer.signum(NormalizedKeySorter.compare(sorter.encode(l), sorter.encode(r)));
+				check(expected == actual, l + " vs " + r + " is " + actual + " expected " + expected);
+				i++;
+			}
+
+			check(sorter.sort(rows, round >= 2), "sort refused the rows");
+			i = 1;
+			while (i < ROWS)
+			{
+				final ArrayList<Object> l = rows.get(i - 1);
+				final ArrayList<Object> r = rows.get(i);
+				final int cmp = compare(l, r, sortPos, orders);
+				check(cmp < 0 || (cmp == 0 && (Integer)l.get(5) < (Integer)r.get(5)), "sorted rows out of order at " + i + ": " + l + " " + r);
+				i++;
+			}
+
+			round++;
+		}
+
+		final ArrayList<Object> row = new ArrayList<Object>();
+		row.add(null);
+		row.add("a");
+		row.add(1.0);
+		row.add(1L);
+		row.add(new MyDate(1));
+		check(new NormalizedKeySorter(sortPos, new boolean[5]).encode(row) == null, "null column encoded");
+		System.out.println("NormalizedKeySorterTest passed");
+	}
+
+	private static void check(final boolean ok, final String what) throws Exception
+	{
+		if (!ok)
+		{
+			throw new Exception("NormalizedKeySorterTest failed: " + what);
+		}
+	}
+
+	/** Same order as MergeComparator in the merge receive operators */
+	private static int compare(final ArrayList<Object> lhs, final ArrayList<Object> rhs, final int[] sortPos, final boolean[] orders)
+	{
+		int i = 0;
+		for (final int pos : sortPos)
+		{
+			final Object lField = lhs.get(pos);
+			final Object rField = rhs.get(pos);
+			int result;
+			if (lField instanceof Integer)
+			{
+				result = ((Integer)lField).compareTo((Integer)rField);
+			}
+			else if (lField instanceof Long)
+			{
+				result = ((Long)lField).compareTo((Long)rField);
+			}
+			else if (lField instanceof Double)
+			{
+				result = ((Double)lField).compareTo((Double)rField);
+			}
+			else if (lField instanceof String)
+			{
+				result = ((String)lField).compareTo((String)rField);
+			}
+			else
+			{
+				result = ((MyDate)lField).compareTo(rField);
+			}
+
+			if (result != 0)
+			{
+				return orders[i] ? result : -result;
+			}
+
+			i++;
+		}
+
+		return 0;
+	}
+}
@@ -180,6 +180,8 @@ public class OperatorUtils
 				return MinOperator.deserialize(in, prev);
 			case SUM:
 				return SumOperator.deserialize(in, prev);
+			case APPROXCOUNTDISTINCT:
+				return ApproxCountDistinctOperator.deserialize(in, prev);
 			default:
 				throw new Exception("Unknown type in deserializeAgOp(): " + type);
 		}
@@ -1134,6 +1136,8 @@ public class OperatorUtils
 				return SubstringOperator.deserialize(in, prev);
 			case TOP:
 				return TopOperator.deserialize(in, prev);
+			case TOPN:
+				return TopNOperator.deserialize(in, prev);
 			case UNION:
 				return UnionOperator.deserialize(in, prev);
 			case YEAR:
@@ -802,6 +802,7 @@ public final class Phase3
 		hjop.removeChild(l);
 
 		MultiOperator newOp = new MultiOperator(mop.clone().getOps(), group1, meta, false);
+		newOp.changeApproxToPartial();
 		HRDBMSWorker.logger.debug("Group1 is " + group1);
 		HRDBMSWorker.logger.debug("Group2 is " + group2);
 		HRDBMSWorker.logger.debug("Input cols are " + mop.getRealInputCols());
@@ -831,6 +832,7 @@ public final class Phase3
 		if (r.getCols2Pos().keySet().containsAll(group2) && l.getCols2Pos().keySet().containsAll(mop.getRealInputCols()))
 		{
 			newOp = new MultiOperator(mop.clone().getOps(), group2, meta, false);
+			newOp.changeApproxToPartial();
 			final long prev = card(r);
 			newOp.add(r);
 			final long newCard = card(newOp);
@@ -1825,6 +1827,7 @@ public final class Phase3
 		for (final Map.Entry entry : send2Child.entrySet())
 		{
 			pClone = parent.clone();
+			pClone.changeApproxToPartial();
 			while (pClone.hasAvg())
 			{
 				final String avgCol = pClone.getAvgCol();
@@ -19,6 +19,7 @@ public final class Phase4
 	private static final int MAX_LOCAL_LEFT_HASH = 2;
 	private static final int MAX_LOCAL_SORT = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("max_local_sort")); // 1000000
 	private static final int MAX_RR = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("max_rr"));
+	private static final long MAX_BROADCAST = Long.parseLong(HRDBMSWorker.getHParms().getProperty("max_broadcast_rows"));
 	public static AtomicInteger id = new AtomicInteger(0);
 	private final RootOperator root;
 	private final MetaData meta;
@@ -366,6 +367,140 @@ public final class Phase4
 		}
 	}
 
+	/**
+	 * Sends every fragment of the small side of a hash join to every node the
+	 * large side is on and joins each fragment of the large side where it is.
+	 * Each small side fragment is sent once to each node by a
+	 * NetworkSendMultipleOperator and the large side is never moved.
+	 */
+	private boolean broadcastHash(final NetworkReceiveOperator receive) throws Exception
+	{
+		final Operator parent = receive.parent();
+		final Operator grandParent = parent.parent();
+		final Operator left = parent.children().get(0);
+		final Operator right = parent.children().get(1);
+		final boolean leftIsLarge = card(left) >= card(right);
+		final Operator large = leftIsLarge ? left : right;
+		final Operator small = leftIsLarge ? right : left;
+		HRDBMSWorker.logger.debug("Broadcasting " + card(small) + " rows to " + large.children().size() + " nodes for a hash join");
+
+		parent.removeChild(left);
+		parent.removeChild(right);
+		grandParent.removeChild(parent);
+		final int ID = id.getAndIncrement();
+		final ArrayList<NetworkSendMultipleOperator> sends = new ArrayList<NetworkSendMultipleOperator>(small.children().size());
+		for (final Operator child : (ArrayList<Operator>)small.children().clone())
+		{
+			final Operator grandChild = child.children().get(0);
+			CNFFilter cnf = null;
+			if (grandChild instanceof TableScanOperator)
+			{
+				cnf = ((TableScanOperator)grandChild).getCNFForParent(child);
+			}
+			child.removeChild(grandChild);
+
+			final NetworkSendMultipleOperator send = new NetworkSendMultipleOperator(ID, meta);
+			try
+			{
+				send.add(grandChild);
+				if (cnf != null)
+				{
+					((TableScanOperator)grandChild).setCNFForParent(send, cnf);
+				}
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				throw e;
+			}
+			send.setNode(child.getNode());
+			sends.add(send);
+		}
+
+		final ArrayList<NetworkSendOperator> sends2 = new ArrayList<NetworkSendOperator>(large.children().size());
+		for (final Operator child : (ArrayList<Operator>)large.children().clone())
+		{
+			final int node = child.getNode();
+			final Operator grandChild = child.children().get(0);
+			CNFFilter cnf = null;
+			if (grandChild instanceof TableScanOperator)
+			{
+				cnf = ((TableScanOperator)grandChild).getCNFForParent(child);
+			}
+			child.removeChild(grandChild);
+
+			final NetworkHashReceiveOperator receive2 = new NetworkHashReceiveOperator(ID, meta);
+			receive2.setNode(node);
+			final Operator clone = parent.clone();
+			clone.setNode(node);
+			final NetworkSendOperator send2 = new NetworkSendOperator(node, meta);
+			try
+			{
+				for (final NetworkSendMultipleOperator send : sends)
+				{
+					receive2.add(send);
+				}
+
+				// the sides keep their positions
+				clone.add(leftIsLarge ? grandChild : receive2);
+				clone.add(leftIsLarge ? receive2 : grandChild);
+				if (cnf != null)
+				{
+					((TableScanOperator)grandChild).setCNFForParent(clone, cnf);
+				}
+
+				send2.add(clone);
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				throw e;
+			}
+
+			sends2.add(send2);
+		}
+
+		final NetworkReceiveOperator r = new NetworkReceiveOperator(meta);
+		r.setNode(grandParent.getNode());
+		try
+		{
+			for (final NetworkSendOperator send : sends2)
+			{
+				r.add(send);
+			}
+
+			grandParent.add(r);
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.error("", e);
+			throw e;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A hash join is broadcast when one side is at most max_broadcast_rows
+	 * and sending it to every fragment of the other side moves fewer rows
+	 * than hashing both sides. Both sides have to be plain receives with one
+	 * fragment per node, since sends and receives are registered per node.
+	 */
+	private boolean canBroadcast(final Operator op) throws Exception
+	{
+		final long l = card(op.children().get(0));
+		final long r = card(op.children().get(1));
+		final Operator large = l >= r ? op.children().get(0) : op.children().get(1);
+		final Operator small = l >= r ? op.children().get(1) : op.children().get(0);
+		final long smallCard = Math.min(l, r);
+		if (smallCard > MAX_BROADCAST || !isPlainReceive(large) || !isPlainReceive(small))
+		{
+			return false;
+		}
+
+		return smallCard * large.children().size() < l + r;
+	}
+
 	private long cardHJO(final Operator op) throws Exception
 	{
 		final HashSet<HashMap<Filter, Filter>> hshm = ((HashJoinOperator)op).getHSHM();
@@ -1974,6 +2109,7 @@ public final class Phase4
 		for (final Map.Entry entry : send2Child.entrySet())
 		{
 			pClone = parent.clone();
+			pClone.changeApproxToPartial();
 			if (pClone.getOutputCols().size() == 0)
 			{
 				pClone.addCount("_Q" + colSuffix++);
@@ -2421,6 +2557,26 @@ public final class Phase4
 		}
 	}
 
+	/** A receive from plain sends that each have one child and their own worker node */
+	private boolean isPlainReceive(final Operator op)
+	{
+		if (!op.getClass().equals(NetworkReceiveOperator.class))
+		{
+			return false;
+		}
+
+		final HashSet<Integer> nodes = new HashSet<Integer>();
+		for (final Operator child : op.children())
+		{
+			if (!child.getClass().equals(NetworkSendOperator.class) || child.children().size() != 1 || child.getNode() < 0 || !nodes.add(child.getNode()))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	private void makeHierarchical(final NetworkReceiveOperator receive) throws Exception
 	{
 		if ((receive instanceof NetworkHashReceiveAndMergeOperator) || (receive instanceof NetworkHashReceiveOperator))
@@ -2925,7 +3081,14 @@ public final class Phase4
 						continue;
 					}
 
-					if (!redistributeHash(receive))
+					if (canBroadcast(op))
+					{
+						if (!broadcastHash(receive))
+						{
+							completed.add(receive);
+						}
+					}
+					else if (!redistributeHash(receive))
 					{
 						completed.add(receive);
 					}
@@ -3741,6 +3904,13 @@ public final class Phase4
 							// + current);
 						}
 
+						if (NetworkHashReceiveOperator.splitsHotKeys(up))
+						{
+							// rows with hot join keys are spread over all
+							// nodes
+							current.clear();
+						}
+
 						if (up instanceof MultiOperator)
 						{
 							// take things out of current except for ones that
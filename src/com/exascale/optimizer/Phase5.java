@@ -1708,7 +1708,7 @@ public final class Phase5
 		}
 	}
 
-	private void sortLimit(final Operator op, final HashSet<Operator> touched)
+	private void sortLimit(final Operator op, final HashSet<Operator> touched) throws Exception
 	{
 		if (op instanceof NetworkSendOperator)
 		{
@@ -1732,15 +1732,18 @@ public final class Phase5
 
 		if (op instanceof TopOperator)
 		{
-			if (op.children().get(0) instanceof SortOperator)
+			final TopOperator top = (TopOperator)op;
+			final long limit = top.getRemaining();
+			if (limit < ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")) / 2)
 			{
-				final SortOperator sop = (SortOperator)op.children().get(0);
-				final TopOperator top = (TopOperator)op;
-				final long limit = top.getRemaining();
-
-				if (limit < ResourceManager.QUEUE_SIZE * Double.parseDouble(HRDBMSWorker.getHParms().getProperty("hash_external_factor")) / 2)
+				final Operator child = op.children().get(0);
+				if (child instanceof SortOperator)
 				{
-					sop.setLimit(limit);
+					replaceWithTopN((SortOperator)child, limit);
+				}
+				else if (child instanceof NetworkReceiveAndMergeOperator)
+				{
+					pushTopN(child, limit);
 				}
 			}
 		}
@@ -1751,6 +1754,71 @@ public final class Phase5
 		}
 	}
 
+	/**
+	 * The sorted streams merged by the receive only need their first limit
+	 * rows, so the sort under each send becomes a TopNOperator and each
+	 * worker ships at most limit rows
+	 */
+	private void pushTopN(final Operator receive, final long limit) throws Exception
+	{
+		for (final Operator send : (ArrayList<Operator>)receive.children().clone())
+		{
+			final Operator o = send.children().get(0);
+			if (o instanceof SortOperator)
+			{
+				replaceWithTopN((SortOperator)o, limit);
+			}
+			else if (o instanceof NetworkReceiveAndMergeOperator)
+			{
+				pushTopN(o, limit);
+			}
+		}
+	}
+
+	private void replaceWithTopN(final SortOperator sort, final long limit) throws Exception
+	{
+		final Operator parent = sort.parent();
+		final Operator child = sort.children().get(0);
+		final ArrayList<String> cols = new ArrayList<String>();
+		for (final int pos : sort.getSortPos())
+		{
+			cols.add(child.getPos2Col().get(pos));
+		}
+
+		final ArrayList<Boolean> orders = sort.getOrders();
+		final boolean[] orders2 = new boolean[orders.size()];
+		int i = 0;
+		for (final boolean b : orders)
+		{
+			orders2[i++] = b;
+		}
+
+		CNFFilter cnf = null;
+		if (child instanceof TableScanOperator)
+		{
+			cnf = ((TableScanOperator)child).getCNFForParent(sort);
+		}
+
+		final TopNOperator topN = new TopNOperator(cols, orders2, limit, meta);
+		try
+		{
+			parent.removeChild(sort);
+			sort.removeChild(child);
+			topN.add(child);
+			topN.setNode(sort.getNode());
+			if (cnf != null)
+			{
+				((TableScanOperator)child).setCNFForParent(topN, cnf);
+			}
+			parent.add(topN);
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.error("", e);
+			throw e;
+		}
+	}
+
 	private void turnOffDistinctUnion(final Operator op, boolean seenIntersect, final HashSet<Operator> touched)
 	{
 		if (op instanceof NetworkSendOperator)
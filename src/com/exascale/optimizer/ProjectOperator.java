@@ -16,7 +16,7 @@ import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
 import com.exascale.tables.Plan;
 
-public final class ProjectOperator implements Operator, Serializable
+public final class ProjectOperator implements BatchOperator, Serializable
 {
 	private static sun.misc.Unsafe unsafe;
 
@@ -44,6 +44,7 @@ public final class ProjectOperator implements Operator, Serializable
 	private int node;
 
 	private transient ArrayList<Integer> pos2Get;
+	private transient volatile int[] batchPoses;
 
 	private volatile boolean startDone = false;
 	private transient AtomicLong received;
@@ -222,6 +223,34 @@ public final class ProjectOperator implements Operator, Serializable
 		return retval;
 	}
 
+	@Override
+	public Object nextBatch(final Operator op) throws Exception
+	{
+		final Object o = ColumnBatch.next(child, this);
+		if (o instanceof DataEndMarker)
+		{
+			demReceived = true;
+			return o;
+		}
+
+		final ColumnBatch batch = (ColumnBatch)o;
+		received.getAndAdd(batch.count());
+		int[] poses = batchPoses;
+		if (poses == null)
+		{
+			poses = new int[pos2Get.size()];
+			int i = 0;
+			for (final int pos : pos2Get)
+			{
+				poses[i++] = pos;
+			}
+
+			batchPoses = poses;
+		}
+
+		return batch.project(poses);
+	}
+
 	@Override
 	public void nextAll(final Operator op) throws Exception
 	{
@@ -0,0 +1,100 @@
+package com.exascale.optimizer;
+
+import com.exascale.managers.BufferManager;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.IOScheduler;
+
+/**
+ * Read-ahead window of one table scan, in pages. The scan asks for more
+ * pages whenever it is fewer than window() pages from the last one it asked
+ * for.
+ *
+ * Once per request the window is sized to what the scan gets through while
+ * the device reads a request, twice over, from the scan's own rate and the
+ * device's time per block from IOScheduler. A scan that had to wait for a
+ * page since the last resize at least doubles its window. The window stays
+ * between min and max, and never goes over the scan's share of its buffer
+ * pool, which shrinks as more scans share the pool. With
+ * adaptive_read_ahead=false it stays where it started.
+ */
+final class ReadAhead
+{
+	private static final boolean ADAPTIVE = HRDBMSWorker.getHParms().getProperty("adaptive_read_ahead").equals("true");
+	private static final double ALPHA = 0.3;
+	private final String file;
+	private final int request;
+	private final int min;
+	private final int max;
+	private int window;
+	private int limit;
+	private int lastPage = -1;
+	private long lastTime;
+	private boolean stalled = false;
+	// moving average of the time the scan spends on a page, -1 until measured
+	private double nanosPerPage = -1;
+
+	public ReadAhead(final String file, final int request, final int initial, final int min, final int max)
+	{
+		this.file = file;
+		this.request = request;
+		this.min = min;
+		this.max = Math.max(min, max);
+		window = initial;
+		limit = initial;
+	}
+
+	/** Called when the scan had to wait for the page it was on */
+	public void stalled()
+	{
+		stalled = true;
+	}
+
+	/** The window for the scan being on onPage */
+	public int window(final int onPage)
+	{
+		if (!ADAPTIVE)
+		{
+			return window;
+		}
+
+		final long now = System.nanoTime();
+		if (lastPage == -1)
+		{
+			lastPage = onPage;
+			lastTime = now;
+			limit = Math.max(min, Math.min(window, BufferManager.readAheadLimit(file)));
+			return limit;
+		}
+
+		if (onPage - lastPage < request)
+		{
+			return limit;
+		}
+
+		if (!stalled)
+		{
+			// pages the scan waited for would understate its rate
+			final double sample = (now - lastTime) * 1.0 / (onPage - lastPage);
+			nanosPerPage = nanosPerPage < 0 ? sample : ALPHA * sample + (1 - ALPHA) * nanosPerPage;
+		}
+
+		final double nanosPerBlock = IOScheduler.nanosPerBlock(file);
+		int target = window;
+		if (nanosPerPage > 0 && nanosPerBlock > 0)
+		{
+			target = (int)Math.ceil(2 * request * nanosPerBlock / nanosPerPage);
+		}
+
+		if (stalled)
+		{
+			target = Math.max(target, window * 2);
+		}
+
+		window = Math.max(min, Math.min(max, target));
+		limit = Math.max(min, Math.min(window, BufferManager.readAheadLimit(file)));
+		lastPage = onPage;
+		lastTime = now;
+		stalled = false;
+		return limit;
+	}
+}
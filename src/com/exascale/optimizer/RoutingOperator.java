@@ -27,6 +27,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import com.exascale.compression.CompressedInputStream;
 import com.exascale.compression.CompressedOutputStream;
 import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.LinkMonitor;
 import com.exascale.managers.ResourceManager;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.HrdbmsType;
@@ -273,7 +274,7 @@ public final class RoutingOperator implements Operator
 		}
 		try
 		{
-			outs[fromNode] = new BufferedOutputStream(sock.getOutputStream());
+			outs[fromNode] = new BufferedOutputStream(LinkMonitor.timed(sock.getOutputStream(), fromNode));
 		}
 		catch (final IOException e)
 		{
@@ -677,51 +678,15 @@ public final class RoutingOperator implements Operator
 
 						final int finalDest = (int)(starting + ((0x7FFFFFFFFFFFFFFFL & hash(key)) % numNodes));
 						final ArrayList<Integer> route = ResourceManager.getRoute(node, finalDest);
+						obj = toBytes((ArrayList<Object>)o, route);
 						int nextHop = route.get(0);
 						if (route.size() >= 2)
 						{
 							final int twoHops = route.get(1);
 							final ArrayList<Integer> alternatives = ResourceManager.getAlternateMiddlemen(node, twoHops, nextHop);
-							AtomicLong primaryUsage = usage.get(nextHop);
-							if (primaryUsage == null)
-							{
-								primaryUsage = new AtomicLong(0);
-								usage.put(nextHop, primaryUsage);
-							}
-
-							final long pu = primaryUsage.get();
-							long bestAltUsage = Long.MAX_VALUE;
-							int bestAlt = -1;
-							for (final int alt : alternatives)
-							{
-								AtomicLong altUsage = usage.get(alt);
-								if (altUsage == null)
-								{
-									altUsage = new AtomicLong(0);
-									usage.put(alt, altUsage);
-								}
-
-								final long au = altUsage.get();
-								if (au < bestAltUsage)
-								{
-									bestAltUsage = au;
-									bestAlt = alt;
-								}
-							}
-
-							if (bestAltUsage < pu)
-							{
-								nextHop = bestAlt;
-								usage.get(bestAlt).incrementAndGet();
-							}
-							else
-							{
-								primaryUsage.incrementAndGet();
-							}
+							nextHop = LinkMonitor.pick(nextHop, alternatives, usage, obj.length);
 						}
-						final OutputStream out = outs2[nextHop];
-						obj = toBytes((ArrayList<Object>)o, route);
-						out.write(obj);
+						outs2[nextHop].write(obj);
 
 						o = child.next(this);
 						if (o instanceof DataEndMarker)
@@ -1295,42 +1260,7 @@ public final class RoutingOperator implements Operator
 					{
 						final int twoHops = bb.getInt(size - 4);
 						final ArrayList<Integer> alternatives = ResourceManager.getAlternateMiddlemen(node, twoHops, nextHop);
-						AtomicLong primaryUsage = usage.get(nextHop);
-						if (primaryUsage == null)
-						{
-							primaryUsage = new AtomicLong(0);
-							usage.put(nextHop, primaryUsage);
-						}
-
-						final long pu = primaryUsage.get();
-						long bestAltUsage = Long.MAX_VALUE;
-						int bestAlt = -1;
-						for (final int alt : alternatives)
-						{
-							AtomicLong altUsage = usage.get(alt);
-							if (altUsage == null)
-							{
-								altUsage = new AtomicLong(0);
-								usage.put(alt, altUsage);
-							}
-
-							final long au = altUsage.get();
-							if (au < bestAltUsage)
-							{
-								bestAltUsage = au;
-								bestAlt = alt;
-							}
-						}
-
-						if (bestAltUsage < pu)
-						{
-							nextHop = bestAlt;
-							usage.get(bestAlt).incrementAndGet();
-						}
-						else
-						{
-							primaryUsage.incrementAndGet();
-						}
+						nextHop = LinkMonitor.pick(nextHop, alternatives, usage, size);
 					}
 
 					route(data, size, nextHop);
@@ -0,0 +1,174 @@
+package com.exascale.optimizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.misc.BloomFilter;
+import com.exascale.misc.MurmurHash;
+
+/**
+ * Bloom filter over the join key of a hash join's build side. It is handed to
+ * the operators producing the probe side so that rows which can't match are
+ * dropped before they are queued or sent over the network. Only used for
+ * inner and semi joins, an anti join needs the rows that don't match.
+ */
+public final class RuntimeFilter
+{
+	private static boolean enabled;
+	private static long maxBytes;
+
+	static
+	{
+		try
+		{
+			enabled = HRDBMSWorker.getHParms().getProperty("runtime_filters").equals("true");
+			maxBytes = Long.parseLong(HRDBMSWorker.getHParms().getProperty("runtime_filter_max_bytes"));
+		}
+		catch (final Exception e)
+		{
+			enabled = false;
+		}
+	}
+
+	private final ArrayList<String> cols;
+	private final BloomFilter filter;
+	private volatile Binding binding;
+
+	public RuntimeFilter(final ArrayList<String> cols, final BloomFilter filter)
+	{
+		this.cols = cols;
+		this.filter = filter;
+	}
+
+	/** Returns a filter sized for the expected build side, or null if runtime filters are off or it would be too big */
+	public static BloomFilter create(final long expected)
+	{
+		if (!enabled)
+		{
+			return null;
+		}
+
+		final BloomFilter retval = new BloomFilter(expected);
+		if (retval.size() > maxBytes)
+		{
+			return null;
+		}
+
+		return retval;
+	}
+
+	public static RuntimeFilter fromBytes(final byte[] data)
+	{
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final int numCols = bb.getInt();
+		final ArrayList<String> cols = new ArrayList<String>(numCols);
+		int i = 0;
+		while (i < numCols)
+		{
+			final byte[] temp = new byte[bb.getInt()];
+			bb.get(temp);
+			cols.add(new String(temp, StandardCharsets.UTF_8));
+			i++;
+		}
+
+		return new RuntimeFilter(cols, BloomFilter.fromBytes(bb));
+	}
+
+	public static long hash(final ArrayList<Object> key)
+	{
+		final byte[] data = HashJoinOperator.toBytesForHash(key);
+		return 0x7FFFFFFFFFFFFFFFL & MurmurHash.hash64(data, data.length);
+	}
+
+	public ArrayList<String> getCols()
+	{
+		return cols;
+	}
+
+	public BloomFilter getFilter()
+	{
+		return filter;
+	}
+
+	/** For callers that already hashed the same columns in the same order */
+	public boolean passes(final long hash)
+	{
+		return filter.passes(hash);
+	}
+
+	/** Rows that don't have all of the key columns always pass */
+	public boolean passes(final ArrayList<Object> row, final HashMap<String, Integer> cols2Pos)
+	{
+		Binding b = binding;
+		if (b == null || b.cols2Pos != cols2Pos)
+		{
+			b = new Binding(cols2Pos);
+			binding = b;
+		}
+
+		final int[] p = b.poses;
+		if (p == null)
+		{
+			return true;
+		}
+
+		final ArrayList<Object> key = new ArrayList<Object>(p.length);
+		for (final int pos : p)
+		{
+			key.add(row.get(pos));
+		}
+
+		return filter.passes(hash(key));
+	}
+
+	public byte[] toBytes()
+	{
+		final ArrayList<byte[]> names = new ArrayList<byte[]>(cols.size());
+		int size = 4 + filter.size();
+		for (final String col : cols)
+		{
+			final byte[] temp = col.getBytes(StandardCharsets.UTF_8);
+			names.add(temp);
+			size += (4 + temp.length);
+		}
+
+		final ByteBuffer bb = ByteBuffer.allocate(size);
+		bb.putInt(names.size());
+		for (final byte[] name : names)
+		{
+			bb.putInt(name.length);
+			bb.put(name);
+		}
+
+		filter.toBytes(bb);
+		return bb.array();
+	}
+
+	private final class Binding
+	{
+		private final HashMap<String, Integer> cols2Pos;
+		private final int[] poses;
+
+		private Binding(final HashMap<String, Integer> cols2Pos)
+		{
+			this.cols2Pos = cols2Pos;
+			int[] p = new int[cols.size()];
+			int i = 0;
+			for (final String col : cols)
+			{
+				final Integer pos = cols2Pos.get(col);
+				if (pos == null)
+				{
+					p = null;
+					break;
+				}
+
+				p[i++] = pos;
+			}
+
+			poses = p;
+		}
+	}
+}
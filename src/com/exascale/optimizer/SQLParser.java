@@ -2821,6 +2821,52 @@ public class SQLParser
 					throw new ParseException("COUNT() requires 1 argument that is a column");
 				}
 			}
+			else if (method.equals("APPROX_COUNT_DISTINCT"))
+			{
+				final ArrayList<Expression> args = f.getArgs();
+				if (args.size() != 1)
+				{
+					throw new ParseException("APPROX_COUNT_DISTINCT() requires only 1 argument");
+				}
+				final Expression arg = args.get(0);
+				if (arg.isColumn())
+				{
+					final Column input = arg.getColumn();
+					String inputColumn = "";
+					if (input.getTable() != null)
+					{
+						inputColumn += (input.getTable() + ".");
+					}
+					else
+					{
+						inputColumn += ".";
+					}
+					String end = input.getColumn();
+					if (end.contains("."))
+					{
+						end = end.substring(end.indexOf('.') + 1);
+					}
+					inputColumn += end;
+					if (name != null)
+					{
+						String sgetName = name;
+						if (!sgetName.contains("."))
+						{
+							sgetName = "." + sgetName;
+						}
+						return new OperatorTypeAndName(new ApproxCountDistinctOperator(inputColumn, sgetName, meta), TYPE_GROUPBY, sgetName, -1);
+					}
+					else
+					{
+						name = "._E" + suffix++;
+						return new OperatorTypeAndName(new ApproxCountDistinctOperator(inputColumn, name, meta), TYPE_GROUPBY, name, -1);
+					}
+				}
+				else
+				{
+					throw new ParseException("APPROX_COUNT_DISTINCT() requires 1 argument that is a column");
+				}
+			}
 			else if (method.equals("DATE"))
 			{
 				final ArrayList<Expression> args = f.getArgs();
@@ -4401,7 +4447,7 @@ public class SQLParser
 						}
 					}
 				}
-				else if (agop instanceof CountDistinctOperator)
+				else if (agop instanceof CountDistinctOperator || agop instanceof ApproxCountDistinctOperator)
 				{
 					if (!agop.getInputColumn().equals(agop.outputColumn()))
 					{
@@ -9388,7 +9434,7 @@ public class SQLParser
 		else if (exp.isFunction())
 		{
 			final Function f = exp.getFunction();
-			if (f.getName().equals("AVG") || f.getName().equals("COUNT") || f.getName().equals("MAX") || f.getName().equals("MIN") || f.getName().equals("SUM"))
+			if (f.getName().equals("AVG") || f.getName().equals("COUNT") || f.getName().equals("MAX") || f.getName().equals("MIN") || f.getName().equals("SUM") || f.getName().equals("APPROX_COUNT_DISTINCT"))
 			{
 				return true;
 			}
@@ -10450,7 +10496,7 @@ public class SQLParser
 		{
 			final Function f = exp.getFunction();
 			final String method = f.getName();
-			if (method.equals("AVG") || method.equals("COUNT") || method.equals("MAX") || method.equals("MIN") || method.equals("SUM"))
+			if (method.equals("AVG") || method.equals("COUNT") || method.equals("MAX") || method.equals("MIN") || method.equals("SUM") || method.equals("APPROX_COUNT_DISTINCT"))
 			{
 				return true;
 			}
@@ -10503,7 +10549,7 @@ public class SQLParser
 			{
 				final Function f = exp.getFunction();
 				final String method = f.getName();
-				if (method.equals("AVG") || method.equals("COUNT") || method.equals("MAX") || method.equals("MIN") || method.equals("SUM"))
+				if (method.equals("AVG") || method.equals("COUNT") || method.equals("MAX") || method.equals("MIN") || method.equals("SUM") || method.equals("APPROX_COUNT_DISTINCT"))
 				{
 					return true;
 				}
@@ -10922,7 +10968,7 @@ public class SQLParser
 		{
 			final Function f = e.getFunction();
 			final String name = f.getName();
-			if (name.equals("AVG") || name.equals("SUM") || name.equals("COUNT") || name.equals("MAX") || name.equals("MIN"))
+			if (name.equals("AVG") || name.equals("SUM") || name.equals("COUNT") || name.equals("MAX") || name.equals("MIN") || name.equals("APPROX_COUNT_DISTINCT"))
 			{
 				// see if complex has a row for this expression, if not add one
 				boolean ok = false;
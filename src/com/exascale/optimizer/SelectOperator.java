@@ -15,7 +15,7 @@ import com.exascale.misc.HrdbmsType;
 import com.exascale.tables.Plan;
 import com.exascale.tables.Transaction;
 
-public final class SelectOperator implements Operator, Cloneable, Serializable
+public final class SelectOperator implements BatchOperator, Cloneable, Serializable
 {
 	private static int HASH_THRESHOLD = 10;
 	private static sun.misc.Unsafe unsafe;
@@ -52,6 +52,8 @@ public final class SelectOperator implements Operator, Cloneable, Serializable
 	private String hashCol = null;
 
 	private int hashPos;
+	// planned on the first batch, batches of a stream keep their column types
+	private transient volatile ColumnBatch.Predicate[] preds;
 	private transient AtomicLong received;
 	private transient volatile boolean demReceived;
 
@@ -392,6 +394,48 @@ public final class SelectOperator implements Operator, Cloneable, Serializable
 		return o;
 	}
 
+	@Override
+	public Object nextBatch(final Operator op) throws Exception
+	{
+		while (true)
+		{
+			final Object o = ColumnBatch.next(child, this);
+			if (o instanceof DataEndMarker)
+			{
+				demReceived = true;
+				return o;
+			}
+
+			final ColumnBatch batch = (ColumnBatch)o;
+			received.getAndAdd(batch.count());
+			if (always)
+			{
+				return batch;
+			}
+
+			if (hash)
+			{
+				batch.filter(hashPos, hashSet);
+			}
+			else
+			{
+				ColumnBatch.Predicate[] p = preds;
+				if (p == null)
+				{
+					p = batch.predicates(filters, cols2Pos);
+					preds = p;
+				}
+
+				batch.filter(p, cols2Pos);
+			}
+
+			if (batch.count() > 0)
+			{
+				return batch;
+			}
+		}
+	}
+
 	@Override
 	public void nextAll(final Operator op) throws Exception
 	{
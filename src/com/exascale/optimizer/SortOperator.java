@@ -33,6 +33,7 @@ import com.exascale.threads.ThreadPoolThread;
 public final class SortOperator implements Operator, Serializable
 {
 	static final int PARALLEL_SORT_MIN_NUM_ROWS = Integer.parseInt(HRDBMSWorker.getHParms().getProperty("parallel_sort_min_rows")); // 50000
+	private static final boolean NORMALIZED_SORT = HRDBMSWorker.getHParms().getProperty("normalized_sort").equals("true");
 
 	private static sun.misc.Unsafe unsafe;
 	private static long edOff;
@@ -312,6 +313,11 @@ public final class SortOperator implements Operator, Serializable
 		return retval;
 	}
 
+	public int[] getSortPos()
+	{
+		return sortPos;
+	}
+
 	@Override
 	public TreeMap<Integer, String> getPos2Col()
 	{
@@ -618,11 +624,20 @@ public final class SortOperator implements Operator, Serializable
 	{
 		private final ArrayList<Object> alo;
 		private final Object op;
+		private final byte[] key;
 
 		public ALOO(final ArrayList<Object> alo, final Object op)
 		{
 			this.alo = alo;
 			this.op = op;
+			key = null;
+		}
+
+		public ALOO(final ArrayList<Object> alo, final Object op, final byte[] key)
+		{
+			this.alo = alo;
+			this.op = op;
+			this.key = key;
 		}
 
 		@Override
@@ -642,6 +657,30 @@ public final class SortOperator implements Operator, Serializable
 		}
 	}
 
+	/** Compares on normalized keys, rows that couldn't be encoded use MergeComparator */
+	private class KeyComparator implements Comparator<Object>
+	{
+		private final MergeComparator fallback = new MergeComparator();
+
+		@Override
+		public int compare(final Object l2, final Object r2)
+		{
+			final ALOO l = (ALOO)l2;
+			final ALOO r = (ALOO)r2;
+			if (l == r)
+			{
+				return 0;
+			}
+
+			if (l.key == null || r.key == null)
+			{
+				return fallback.compare(l, r);
+			}
+
+			return NormalizedKeySorter.compare(l.key, r.key);
+		}
+	}
+
 	private class MergeComparator implements Comparator<Object>
 	{
 		@Override
@@ -868,7 +907,7 @@ public final class SortOperator implements Operator, Serializable
 					i++;
 				}
 
-				if (result.size() > 0)
+				if (result.size() > 0 && !(NORMALIZED_SORT && new NormalizedKeySorter(sortPos, orders).sort(result, result.size() >= PARALLEL_SORT_MIN_NUM_ROWS)))
 				{
 					// ResourceManager.NO_OFFLOAD.getAndIncrement();
 					// ResourceManager.waitForSync();
@@ -1003,7 +1042,18 @@ public final class SortOperator implements Operator, Serializable
 					break;
 				}
 
-				if (result.size() < PARALLEL_SORT_MIN_NUM_ROWS)
+				boolean sorted = false;
+				try
+				{
+					sorted = NORMALIZED_SORT && new NormalizedKeySorter(sortPos, orders).sort(result, result.size() >= PARALLEL_SORT_MIN_NUM_ROWS);
+				}
+				catch (final Exception e)
+				{
+					readBuffer.put(e);
+					return;
+				}
+
+				if (!sorted && result.size() < PARALLEL_SORT_MIN_NUM_ROWS)
 				{
 					try
 					{
@@ -1016,7 +1066,7 @@ public final class SortOperator implements Operator, Serializable
 						return;
 					}
 				}
-				else
+				else if (!sorted)
 				{
 					// final ParallelSortThread t = doParallelSort(0,
 					// result.size() - 1);
@@ -1334,7 +1384,9 @@ public final class SortOperator implements Operator, Serializable
 
 		private void mergeIntoResult(final Collection<HRDBMSThread> readThreads)
 		{
-			final AuxPairingHeap<ALOO> rows = new AuxPairingHeap<ALOO>(new MergeComparator());
+			// each row is encoded once as it comes off its run
+			final NormalizedKeySorter encoder = NORMALIZED_SORT ? new NormalizedKeySorter(sortPos, orders) : null;
+			final AuxPairingHeap<ALOO> rows = new AuxPairingHeap<ALOO>(encoder == null ? new MergeComparator() : new KeyComparator());
 			ALOO minEntry;
 			for (final HRDBMSThread op : readThreads)
 			{
@@ -1343,7 +1395,7 @@ public final class SortOperator implements Operator, Serializable
 					final ArrayList<Object> row = ((ReadDataThread)op).readRow();
 					if (row != null)
 					{
-						rows.insert(new ALOO(row, op));
+						rows.insert(new ALOO(row, op, encoder == null ? null : encoder.encode(row)));
 					}
 				}
 				catch (final Exception e)
@@ -1380,7 +1432,7 @@ public final class SortOperator implements Operator, Serializable
 					final ArrayList<Object> row = ((ReadDataThread)minEntry.getOp()).readRow();
 					if (row != null)
 					{
-						rows.insert(new ALOO(row, minEntry.getOp()));
+						rows.insert(new ALOO(row, minEntry.getOp(), encoder == null ? null : encoder.encode(row)));
 					}
 				}
 				catch (final Exception e)
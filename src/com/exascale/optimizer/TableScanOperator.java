@@ -39,6 +39,7 @@ import org.sosy_lab.java_smt.api.RationalFormulaManager;
 import org.sosy_lab.java_smt.api.SolverContext;
 import org.sosy_lab.java_smt.api.SolverException;
 import com.exascale.filesystem.Block;
+import com.exascale.filesystem.Page;
 import com.exascale.filesystem.RID;
 import com.exascale.managers.BufferManager;
 import com.exascale.managers.BufferManager.RequestPagesThread;
@@ -224,6 +225,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 	protected transient volatile HashMap<Operator, BufferedLinkedBlockingQueue> readBuffers;
 	protected boolean startDone = false;
 	protected transient boolean optimize;
+	private transient volatile RuntimeFilter runtimeFilter;
 	protected transient HashMap<Operator, HashSet<HashMap<Filter, Filter>>> filters = new HashMap<Operator, HashSet<HashMap<Filter, Filter>>>();
 	protected ArrayList<Integer> neededPos;
 	protected ArrayList<Integer> fetchPos;
@@ -1366,11 +1368,31 @@ public class TableScanOperator extends AbstractTableScanOperator
 		OperatorUtils.writeInt(tType, out);
 	}
 
+	/** Only used when the scan feeds a single parent, that parent must be the one handing in the filter */
+	public void setRuntimeFilter(final Operator op, final RuntimeFilter rf)
+	{
+		if (parents.size() == 1 && parents.get(0) == op)
+		{
+			runtimeFilter = rf;
+		}
+	}
+
 	public void setChildForDevice(final int device, final Operator child)
 	{
 		device2Child.put(device, child);
 	}
 
+	private void putRow(final Object row)
+	{
+		final RuntimeFilter rf = runtimeFilter;
+		if (rf != null && !rf.passes((ArrayList<Object>)row, cols2Pos))
+		{
+			return;
+		}
+
+		readBuffer.put(row);
+	}
+
 	public void setCNFForParent(final Operator op, final CNFFilter filter)
 	{
 		orderedFilters.put(op, filter);
@@ -1940,7 +1962,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 					{
 						PREFETCH_REQUEST_SIZE = layout.size() * 2;
 					}
-					final int MAX_PAGES_IN_ADVANCE = PREFETCH_REQUEST_SIZE * 2;
+					final ReadAhead readAhead = new ReadAhead(in, PREFETCH_REQUEST_SIZE, PREFETCH_REQUEST_SIZE * 2, layout.size() * 2, PREFETCH_REQUEST_SIZE * 8);
 
 					RequestPagesThread raThread = null;
 					final ArrayList<Integer> skipped = new ArrayList<Integer>();
@@ -1969,7 +1991,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 
 					while (onPage < numBlocks)
 					{
-						if (lastRequested - onPage < MAX_PAGES_IN_ADVANCE)
+						if (lastRequested - onPage < readAhead.window(onPage))
 						{
 							if (raThread != null)
 							{
@@ -2179,7 +2201,11 @@ public class TableScanOperator extends AbstractTableScanOperator
 							}
 						}
 
-						tx.read(new Block(in, onPage), sch, cols, true);
+						if (tx.read(thisBlock, sch, cols, true))
+						{
+							readAhead.stalled();
+						}
+
 						Iterator rit = null;
 						if (!getRID)
 						{
@@ -2309,7 +2335,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 											}
 											if (!forceDone)
 											{
-												readBuffer.put(newRow);
+												putRow(newRow);
 											}
 											else
 											{
@@ -2323,7 +2349,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 										{
 											if (!forceDone)
 											{
-												readBuffer.put(row);
+												putRow(row);
 												row = new ArrayList<Object>(fetchPos.size());
 											}
 											else
@@ -2347,7 +2373,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 									// }
 									if (!forceDone)
 									{
-										readBuffer.put(row);
+										putRow(row);
 										row = new ArrayList<Object>(fetchPos.size());
 									}
 									else
@@ -2667,7 +2693,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 											}
 											if (!forceDone)
 											{
-												readBuffer.put(newRow);
+												putRow(newRow);
 											}
 											else
 											{
@@ -2679,7 +2705,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 										{
 											if (!forceDone)
 											{
-												readBuffer.put(row);
+												putRow(row);
 												row = new ArrayList<Object>(fetchPos.size());
 											}
 											else
@@ -2694,7 +2720,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 								{
 									if (!forceDone)
 									{
-										readBuffer.put(row);
+										putRow(row);
 										row = new ArrayList<Object>(fetchPos.size());
 									}
 									else
@@ -2729,7 +2755,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 
 							if (!forceDone)
 							{
-								readBuffer.put(row2);
+								putRow(row2);
 							}
 							else
 							{
@@ -2893,6 +2919,9 @@ public class TableScanOperator extends AbstractTableScanOperator
 					PREFETCH_REQUEST_SIZE = PREFETCH_REQUEST_SIZE_STATIC;
 					PAGES_IN_ADVANCE = PAGES_IN_ADVANCE_STATIC;
 					final Schema[] schemas = new Schema[PREFETCH_REQUEST_SIZE * 4];
+					// schemas are reused after four requests, so the window can't
+					// be more than two
+					final ReadAhead readAhead = new ReadAhead(in, PREFETCH_REQUEST_SIZE, PAGES_IN_ADVANCE, Math.max(1, PREFETCH_REQUEST_SIZE / 4), PREFETCH_REQUEST_SIZE * 2);
 					int g = 0;
 					while (g < schemas.length)
 					{
@@ -2924,7 +2953,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 
 					while (onPage < numBlocks)
 					{
-						if (lastRequested - onPage < PAGES_IN_ADVANCE)
+						if (lastRequested - onPage < readAhead.window(onPage))
 						{
 							BufferManager.updateProgress(this, onPage);
 							if (!sample)
@@ -3064,6 +3093,11 @@ public class TableScanOperator extends AbstractTableScanOperator
 						if (!getRID)
 						{
 							sch = schemaMap.get(onPage);
+							if (sch == null)
+							{
+								readAhead.stalled();
+							}
+
 							while (sch == null)
 							{
 								LockSupport.parkNanos(500);
@@ -3237,7 +3271,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 											}
 											if (!forceDone)
 											{
-												readBuffer.put(newRow);
+												putRow(newRow);
 											}
 											else
 											{
@@ -3251,7 +3285,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 										{
 											if (!forceDone)
 											{
-												readBuffer.put(row);
+												putRow(row);
 												row = new ArrayList<Object>(fetchPos.size());
 											}
 											else
@@ -3274,7 +3308,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 									// }
 									if (!forceDone)
 									{
-										readBuffer.put(row);
+										putRow(row);
 										row = new ArrayList<Object>(fetchPos.size());
 									}
 									else
@@ -3507,7 +3541,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 											}
 											if (!forceDone)
 											{
-												readBuffer.put(newRow);
+												putRow(newRow);
 											}
 											else
 											{
@@ -3519,7 +3553,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 										{
 											if (!forceDone)
 											{
-												readBuffer.put(row);
+												putRow(row);
 												row = new ArrayList<Object>(fetchPos.size());
 											}
 											else
@@ -3540,7 +3574,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 									// }
 									if (!forceDone)
 									{
-										readBuffer.put(row);
+										putRow(row);
 										row = new ArrayList<Object>(fetchPos.size());
 									}
 									else
@@ -3575,7 +3609,7 @@ public class TableScanOperator extends AbstractTableScanOperator
 
 							if (!forceDone)
 							{
-								readBuffer.put(row2);
+								putRow(row2);
 							}
 							else
 							{
@@ -3620,10 +3654,10 @@ public class TableScanOperator extends AbstractTableScanOperator
                     CNFFilter filter = orderedFilters.get(parents.get(0));
                     if (filter != null) {
                         if (filter.passes((ArrayList<Object>) row)) {
-                            readBuffer.put(row);
+                            putRow(row);
                         }
                     } else {
-                        readBuffer.put(row);
+                        putRow(row);
                     }
                 } while (true);
             } catch (final Exception e)  {
@@ -0,0 +1,555 @@
+package com.exascale.optimizer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.ResourceManager;
+import com.exascale.misc.BufferedLinkedBlockingQueue;
+import com.exascale.misc.DataEndMarker;
+import com.exascale.misc.HrdbmsType;
+import com.exascale.misc.MyDate;
+import com.exascale.tables.Plan;
+import com.exascale.threads.ThreadPoolThread;
+
+/**
+ * ORDER BY with FETCH FIRST n. Every reader thread keeps the best n rows it
+ * has seen in a bounded max heap, so a row is only compared against the
+ * worst kept row unless it makes the cut. The partial heaps are merged and
+ * the first n rows are returned in sort order.
+ */
+public final class TopNOperator implements Operator, Serializable
+{
+	private static sun.misc.Unsafe unsafe;
+
+	static
+	{
+		try
+		{
+			final Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (sun.misc.Unsafe)f.get(null);
+		}
+		catch (final Exception e)
+		{
+			unsafe = null;
+		}
+	}
+	private Operator child;
+	private Operator parent;
+	private HashMap<String, String> cols2Types;
+	private HashMap<String, Integer> cols2Pos;
+	private TreeMap<Integer, String> pos2Col;
+	private transient final MetaData meta;
+	private ArrayList<String> sortCols;
+	private boolean[] orders;
+	private int[] sortPos;
+	private long limit;
+	private int node;
+	private boolean startDone = false;
+	private transient volatile BufferedLinkedBlockingQueue readBuffer;
+	private transient AtomicLong received;
+	private transient volatile boolean demReceived;
+
+	public TopNOperator(final ArrayList<String> sortCols, final boolean[] orders, final long limit, final MetaData meta)
+	{
+		this.sortCols = sortCols;
+		this.orders = orders;
+		this.limit = limit;
+		this.meta = meta;
+		received = new AtomicLong(0);
+	}
+
+	public static TopNOperator deserialize(final InputStream in, final HashMap<Long, Object> prev) throws Exception
+	{
+		final TopNOperator value = (TopNOperator)unsafe.allocateInstance(TopNOperator.class);
+		prev.put(OperatorUtils.readLong(in), value);
+		value.child = OperatorUtils.deserializeOperator(in, prev);
+		value.parent = OperatorUtils.deserializeOperator(in, prev);
+		value.cols2Types = OperatorUtils.deserializeStringHM(in, prev);
+		value.cols2Pos = OperatorUtils.deserializeStringIntHM(in, prev);
+		value.pos2Col = OperatorUtils.deserializeTM(in, prev);
+		value.sortCols = OperatorUtils.deserializeALS(in, prev);
+		value.orders = OperatorUtils.deserializeBoolArray(in, prev);
+		value.sortPos = OperatorUtils.deserializeIntArray(in, prev);
+		value.limit = OperatorUtils.readLong(in);
+		value.node = OperatorUtils.readInt(in);
+		value.startDone = OperatorUtils.readBool(in);
+		value.received = new AtomicLong(0);
+		value.demReceived = false;
+		return value;
+	}
+
+	@Override
+	public void add(final Operator op) throws Exception
+	{
+		if (child == null)
+		{
+			child = op;
+			op.registerParent(this);
+			cols2Types = child.getCols2Types();
+			cols2Pos = child.getCols2Pos();
+			pos2Col = child.getPos2Col();
+			sortPos = new int[sortCols.size()];
+			int i = 0;
+			for (final String sortCol : sortCols)
+			{
+				final Integer pos = cols2Pos.get(sortCol);
+				if (pos == null)
+				{
+					HRDBMSWorker.logger.debug("Could not find " + sortCol + " in " + cols2Pos);
+					throw new Exception("Could not find " + sortCol + " in TopNOperator input");
+				}
+
+				sortPos[i++] = pos;
+			}
+		}
+		else
+		{
+			throw new Exception("TopNOperator only supports 1 child.");
+		}
+	}
+
+	@Override
+	public ArrayList<Operator> children()
+	{
+		final ArrayList<Operator> retval = new ArrayList<Operator>(1);
+		retval.add(child);
+		return retval;
+	}
+
+	@Override
+	public TopNOperator clone()
+	{
+		final TopNOperator retval = new TopNOperator((ArrayList<String>)sortCols.clone(), orders.clone(), limit, meta);
+		retval.node = node;
+		return retval;
+	}
+
+	@Override
+	public void close() throws Exception
+	{
+		child.close();
+		if (readBuffer != null)
+		{
+			readBuffer.close();
+		}
+
+		cols2Pos = null;
+		cols2Types = null;
+		pos2Col = null;
+	}
+
+	@Override
+	public int getChildPos()
+	{
+		return 0;
+	}
+
+	@Override
+	public HashMap<String, Integer> getCols2Pos()
+	{
+		return cols2Pos;
+	}
+
+	@Override
+	public HashMap<String, String> getCols2Types()
+	{
+		return cols2Types;
+	}
+
+	public long getLimit()
+	{
+		return limit;
+	}
+
+	@Override
+	public MetaData getMeta()
+	{
+		return meta;
+	}
+
+	@Override
+	public int getNode()
+	{
+		return node;
+	}
+
+	@Override
+	public TreeMap<Integer, String> getPos2Col()
+	{
+		return pos2Col;
+	}
+
+	@Override
+	public ArrayList<String> getReferences()
+	{
+		return new ArrayList<String>(sortCols);
+	}
+
+	@Override
+	public Object next(final Operator op) throws Exception
+	{
+		Object o = readBuffer.take();
+		if (o instanceof DataEndMarker)
+		{
+			o = readBuffer.peek();
+			readBuffer.put(new DataEndMarker());
+			if (o == null)
+			{
+				return new DataEndMarker();
+			}
+
+			return o;
+		}
+
+		if (o instanceof Exception)
+		{
+			throw (Exception)o;
+		}
+
+		return o;
+	}
+
+	@Override
+	public void nextAll(final Operator op) throws Exception
+	{
+		Object o = next(op);
+		while (!(o instanceof DataEndMarker) && !(o instanceof Exception))
+		{
+			o = next(op);
+		}
+	}
+
+	@Override
+	public long numRecsReceived()
+	{
+		return received.get();
+	}
+
+	@Override
+	public Operator parent()
+	{
+		return parent;
+	}
+
+	@Override
+	public boolean receivedDEM()
+	{
+		return demReceived;
+	}
+
+	@Override
+	public void registerParent(final Operator op) throws Exception
+	{
+		if (parent == null)
+		{
+			parent = op;
+		}
+		else
+		{
+			throw new Exception("TopNOperator only supports 1 parent.");
+		}
+	}
+
+	@Override
+	public void removeChild(final Operator op)
+	{
+		if (op == child)
+		{
+			child = null;
+			op.removeParent(this);
+		}
+	}
+
+	@Override
+	public void removeParent(final Operator op)
+	{
+		parent = null;
+	}
+
+	@Override
+	public void reset() throws Exception
+	{
+		if (!startDone)
+		{
+			start();
+		}
+		else
+		{
+			child.reset();
+			readBuffer.clear();
+			new TopNThread().start();
+		}
+	}
+
+	@Override
+	public void serialize(final OutputStream out, final IdentityHashMap<Object, Long> prev) throws Exception
+	{
+		final Long id = prev.get(this);
+		if (id != null)
+		{
+			OperatorUtils.serializeReference(id, out);
+			return;
+		}
+
+		OperatorUtils.writeType(HrdbmsType.TOPN, out);
+		prev.put(this, OperatorUtils.writeID(out));
+		child.serialize(out, prev);
+		parent.serialize(out, prev);
+		OperatorUtils.serializeStringHM(cols2Types, out, prev);
+		OperatorUtils.serializeStringIntHM(cols2Pos, out, prev);
+		OperatorUtils.serializeTM(pos2Col, out, prev);
+		OperatorUtils.serializeALS(sortCols, out, prev);
+		OperatorUtils.serializeBoolArray(orders, out, prev);
+		OperatorUtils.serializeIntArray(sortPos, out, prev);
+		OperatorUtils.writeLong(limit, out);
+		OperatorUtils.writeInt(node, out);
+		OperatorUtils.writeBool(startDone, out);
+	}
+
+	@Override
+	public void setChildPos(final int pos)
+	{
+	}
+
+	@Override
+	public void setNode(final int node)
+	{
+		this.node = node;
+	}
+
+	@Override
+	public void setPlan(final Plan plan)
+	{
+	}
+
+	@Override
+	public void start() throws Exception
+	{
+		startDone = true;
+		child.start();
+		readBuffer = new BufferedLinkedBlockingQueue(ResourceManager.QUEUE_SIZE);
+		new TopNThread().start();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TopNOperator(" + limit + ") " + sortCols;
+	}
+
+	private int compare(final ArrayList<Object> lhs, final ArrayList<Object> rhs)
+	{
+		int i = 0;
+		for (final int pos : sortPos)
+		{
+			final Object lField = lhs.get(pos);
+			final Object rField = rhs.get(pos);
+			int result;
+			if (lField instanceof Integer)
+			{
+				result = ((Integer)lField).compareTo((Integer)rField);
+			}
+			else if (lField instanceof Long)
+			{
+				result = ((Long)lField).compareTo((Long)rField);
+			}
+			else if (lField instanceof Double)
+			{
+				result = ((Double)lField).compareTo((Double)rField);
+			}
+			else if (lField instanceof String)
+			{
+				result = ((String)lField).compareTo((String)rField);
+			}
+			else
+			{
+				result = ((MyDate)lField).compareTo(rField);
+			}
+
+			if (result != 0)
+			{
+				return orders[i] ? result : -result;
+			}
+
+			i++;
+		}
+
+		return 0;
+	}
+
+	private final class HeapThread extends ThreadPoolThread
+	{
+		// max heap on sort order, the root is the worst row kept. It starts
+		// small and doubles up to the limit, most threads never fill it.
+		private final int cap = (int)Math.min(limit, Integer.MAX_VALUE - 8);
+		private ArrayList<Object>[] heap = new ArrayList[Math.min(cap, 1024)];
+		private int size = 0;
+		private boolean ok = true;
+		private Exception e;
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				Object o = child.next(TopNOperator.this);
+				while (!(o instanceof DataEndMarker))
+				{
+					if (o instanceof Exception)
+					{
+						throw (Exception)o;
+					}
+
+					received.getAndIncrement();
+					offer((ArrayList<Object>)o);
+					o = child.next(TopNOperator.this);
+				}
+
+				demReceived = true;
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("", e);
+				ok = false;
+				this.e = e;
+			}
+		}
+
+		private void offer(final ArrayList<Object> row)
+		{
+			if (size < cap)
+			{
+				if (size == heap.length)
+				{
+					heap = Arrays.copyOf(heap, (int)Math.min((long)cap, heap.length * 2L));
+				}
+
+				int i = size++;
+				while (i > 0)
+				{
+					final int p = (i - 1) >>> 1;
+					if (compare(heap[p], row) >= 0)
+					{
+						break;
+					}
+
+					heap[i] = heap[p];
+					i = p;
+				}
+
+				heap[i] = row;
+				return;
+			}
+
+			if (compare(row, heap[0]) >= 0)
+			{
+				return;
+			}
+
+			int i = 0;
+			while (true)
+			{
+				int c = (i << 1) + 1;
+				if (c >= size)
+				{
+					break;
+				}
+
+				if (c + 1 < size && compare(heap[c + 1], heap[c]) > 0)
+				{
+					c++;
+				}
+
+				if (compare(heap[c], row) <= 0)
+				{
+					break;
+				}
+
+				heap[i] = heap[c];
+				i = c;
+			}
+
+			heap[i] = row;
+		}
+	}
+
+	private final class TopNThread extends ThreadPoolThread
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				if (limit <= 0)
+				{
+					child.nextAll(TopNOperator.this);
+					readBuffer.put(new DataEndMarker());
+					return;
+				}
+
+				final HeapThread[] threads = new HeapThread[ResourceManager.cpus];
+				int i = 0;
+				while (i < threads.length)
+				{
+					threads[i] = new HeapThread();
+					threads[i].start();
+					i++;
+				}
+
+				final ArrayList<ArrayList<Object>> rows = new ArrayList<ArrayList<Object>>();
+				for (final HeapThread thread : threads)
+				{
+					thread.join();
+					if (!thread.ok)
+					{
+						readBuffer.put(thread.e);
+						return;
+					}
+
+					i = 0;
+					while (i < thread.size)
+					{
+						rows.add(thread.heap[i++]);
+					}
+				}
+
+				if (!new NormalizedKeySorter(sortPos, orders).sort(rows, false))
+				{
+					Collections.sort(rows, new Comparator<ArrayList<Object>>()
+					{
+						@Override
+						public int compare(final ArrayList<Object> l, final ArrayList<Object> r)
+						{
+							return TopNOperator.this.compare(l, r);
+						}
+					});
+				}
+
+				final int num = (int)Math.min(limit, rows.size());
+				i = 0;
+				while (i < num)
+				{
+					readBuffer.put(rows.get(i++));
+				}
+
+				readBuffer.put(new DataEndMarker());
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.error("", e);
+				readBuffer.put(e);
+			}
+		}
+	}
+}
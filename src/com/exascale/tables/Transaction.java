@@ -452,8 +452,13 @@ public class Transaction implements Serializable
 		}
 	}
 
-	public void read(final Block b, final Schema schema, final ArrayList<Integer> cols, final boolean forIter) throws Exception
+	/**
+	 * Returns true if a page wasn't in the buffer pool or still being read
+	 * when it was asked for
+	 */
+	public boolean read(final Block b, final Schema schema, final ArrayList<Integer> cols, final boolean forIter) throws Exception
 	{
+		boolean waited = false;
 		if (!reorder)
 		{
 			for (final int col : cols)
@@ -463,7 +468,17 @@ public class Transaction implements Serializable
 				{
 					LockManager.sLock(b2, txnum);
 				}
-				final Page p = this.getPage(b2);
+				Page p = BufferManager.getPage(b2, txnum);
+				if (p == null)
+				{
+					waited = true;
+					p = this.getPage(b2);
+				}
+				else if (!p.isReady())
+				{
+					waited = true;
+				}
+
 				schema.add(col, p);
 			}
 		}
@@ -492,7 +507,17 @@ public class Transaction implements Serializable
 				{
 					LockManager.sLock(b2, txnum);
 				}
-				final Page p = this.getPage(b2);
+				Page p = BufferManager.getPage(b2, txnum);
+				if (p == null)
+				{
+					waited = true;
+					p = this.getPage(b2);
+				}
+				else if (!p.isReady())
+				{
+					waited = true;
+				}
+
 				schema.add(col, p);
 			}
 		}
@@ -505,6 +530,8 @@ public class Transaction implements Serializable
 		{
 			schema.read(this);
 		}
+
+		return waited;
 	}
 
 	public void read(final Block b, final Schema schema, final ArrayList<Integer> cols, final boolean forIter, final boolean lock) throws Exception
@@ -58,12 +58,14 @@ import com.exascale.managers.BufferManager;
 import com.exascale.managers.BufferManager.RequestPagesThread;
 import com.exascale.managers.FileManager;
 import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.LinkMonitor;
 import com.exascale.managers.LockManager;
 import com.exascale.managers.LogManager;
 import com.exascale.managers.ResourceManager;
 import com.exascale.managers.XAManager;
 import com.exascale.misc.BufferedFileChannel;
 import com.exascale.misc.CompressedBitSet;
+import com.exascale.misc.ConnectionPool;
 import com.exascale.misc.DataEndMarker;
 import com.exascale.misc.FastStringTokenizer;
 import com.exascale.misc.HJOMultiHashMap;
@@ -83,6 +85,7 @@ import com.exascale.optimizer.InsertOperator;
 import com.exascale.optimizer.LoadMetaData;
 import com.exascale.optimizer.MetaData;
 import com.exascale.optimizer.PartitionMetaData;
+import com.exascale.optimizer.NetworkHashAndSendOperator;
 import com.exascale.optimizer.NetworkReceiveOperator;
 import com.exascale.optimizer.NetworkSendOperator;
 import com.exascale.optimizer.Operator;
@@ -149,6 +152,9 @@ public class ConnectionWorker extends HRDBMSThread
 	private Transaction tx = null;
 	private XAWorker worker;
 	private final Random random = new Random();
+	// the send operator whose rows go out on this connection, for CREDITS
+	private NetworkSendOperator creditsTo;
+	private int creditsFrom;
 	// private final CharsetDecoder scd = scs.newDecoder();
 
 	private final CharsetEncoder sce = scs.newEncoder();
@@ -1505,7 +1511,7 @@ public class ConnectionWorker extends HRDBMSThread
 				final String command = new String(cmd, StandardCharsets.UTF_8);
 				// HRDBMSWorker.logger.debug("Received " + num + " bytes");
 
-				if (command.equals("EXECUTEU") || command.equals("INSERT  ") || command.equals("UPDATE  ") || command.equals("DELETE  ") || command.equals("PACING  ") || command.equals("REMOTTRE"))
+				if (command.equals("EXECUTEU") || command.equals("INSERT  ") || command.equals("UPDATE  ") || command.equals("DELETE  ") || command.equals("PACING  ") || command.equals("REMOTTRE") || command.equals("CREDITS ") || command.equals("TEST    "))
 				{
 				}
 				else
@@ -1612,6 +1618,17 @@ public class ConnectionWorker extends HRDBMSThread
 						returnException(e.toString());
 					}
 				}
+				else if (command.equals("GETLINKS"))
+				{
+					try
+					{
+						respond(from, to, LinkMonitor.matrix());
+					}
+					catch (final Exception e)
+					{
+						returnException(e.toString());
+					}
+				}
 				else if (command.equals("REMOTTRE"))
 				{
 					// final ObjectInputStream objIn = new
@@ -1629,14 +1646,52 @@ public class ConnectionWorker extends HRDBMSThread
 					}
 					op.startChildren();
 					ResourceManager.registerOperator(op);
-					op.start();
-					try
+					// keep reading this connection for credits while the rows go out
+					creditsTo = op;
+					creditsFrom = -1;
+					new SendOperatorThread(op, -1, sock).start();
+				}
+				else if (command.equals("CREDITS "))
+				{
+					final byte[] rowsBytes = new byte[4];
+					readNonCoord(rowsBytes, in);
+					if (creditsTo != null)
 					{
-						op.close();
-						ResourceManager.deregisterOperator(op);
+						creditsTo.addCredits(creditsFrom, bytesToInt(rowsBytes));
 					}
-					catch (final Exception e)
+				}
+				else if (command.equals("RTFILTER"))
+				{
+					final byte[] idBytes = new byte[4];
+					readNonCoord(idBytes, in);
+					final int id = bytesToInt(idBytes);
+					final byte[] lenBytes = new byte[4];
+					readNonCoord(lenBytes, in);
+					final byte[] data = new byte[bytesToInt(lenBytes)];
+					readNonCoord(data, in);
+
+					// the sender may already be done, the filter is only an
+					// optimization
+					final Operator send = sends.get(id);
+					if (send instanceof NetworkHashAndSendOperator)
 					{
+						((NetworkHashAndSendOperator)send).addRuntimeFilter(from, data);
+					}
+				}
+				else if (command.equals("SKEWKEYS"))
+				{
+					final byte[] idBytes = new byte[4];
+					readNonCoord(idBytes, in);
+					final int id = bytesToInt(idBytes);
+					final byte[] lenBytes = new byte[4];
+					readNonCoord(lenBytes, in);
+					final byte[] data = new byte[bytesToInt(lenBytes)];
+					readNonCoord(data, in);
+
+					final Operator send = sends.get(id);
+					if (send instanceof NetworkHashAndSendOperator)
+					{
+						((NetworkHashAndSendOperator)send).addSkewKeys(data);
 					}
 				}
 				else if (command.equals("SNDRMTT2"))
@@ -1660,6 +1715,8 @@ public class ConnectionWorker extends HRDBMSThread
 					if (send instanceof NetworkSendOperator)
 					{
 						((NetworkSendOperator)send).addConnection(from, sock);
+						creditsTo = (NetworkSendOperator)send;
+						creditsFrom = from;
 					}
 					else
 					{
@@ -1673,19 +1730,11 @@ public class ConnectionWorker extends HRDBMSThread
 					{
 						if (send instanceof NetworkSendOperator)
 						{
-							if (((NetworkSendOperator)send).notStarted() && ((NetworkSendOperator)send).hasAllConnections())
+							if (((NetworkSendOperator)send).hasAllConnections() && ((NetworkSendOperator)send).claimStart())
 							{
+								// every connection worker of the operator keeps reading credits
 								ResourceManager.registerOperator(send);
-								send.start();
-								try
-								{
-									send.close();
-									ResourceManager.deregisterOperator(send);
-								}
-								catch (final Exception e)
-								{
-								}
-								sends.remove(id);
+								new SendOperatorThread((NetworkSendOperator)send, id, null).start();
 							}
 						}
 						else
@@ -1739,6 +1788,8 @@ public class ConnectionWorker extends HRDBMSThread
 					if (send instanceof NetworkSendOperator)
 					{
 						((NetworkSendOperator)send).addConnection(from, sock);
+						creditsTo = (NetworkSendOperator)send;
+						creditsFrom = from;
 					}
 					else
 					{
@@ -1752,19 +1803,11 @@ public class ConnectionWorker extends HRDBMSThread
 					{
 						if (send instanceof NetworkSendOperator)
 						{
-							if (((NetworkSendOperator)send).notStarted() && ((NetworkSendOperator)send).hasAllConnections())
+							if (((NetworkSendOperator)send).hasAllConnections() && ((NetworkSendOperator)send).claimStart())
 							{
+								// every connection worker of the operator keeps reading credits
 								ResourceManager.registerOperator(send);
-								send.start();
-								try
-								{
-									send.close();
-									ResourceManager.deregisterOperator(send);
-								}
-								catch (final Exception e)
-								{
-								}
-								sends.remove(id);
+								new SendOperatorThread((NetworkSendOperator)send, id, null).start();
 							}
 						}
 						else
@@ -1807,6 +1850,8 @@ public class ConnectionWorker extends HRDBMSThread
 					if (send instanceof NetworkSendOperator)
 					{
 						((NetworkSendOperator)send).addConnection(from, sock);
+						// routing operators don't give credits back
+						((NetworkSendOperator)send).addCredits(from, Integer.MAX_VALUE);
 					}
 					else
 					{
@@ -1886,6 +1931,8 @@ public class ConnectionWorker extends HRDBMSThread
 					if (send instanceof NetworkSendOperator)
 					{
 						((NetworkSendOperator)send).addConnection(from, sock);
+						// routing operators don't give credits back
+						((NetworkSendOperator)send).addCredits(from, Integer.MAX_VALUE);
 					}
 					else
 					{
@@ -9001,12 +9048,7 @@ public class ConnectionWorker extends HRDBMSThread
 				Socket sock = null;
 				try
 				{
-					// sock = new Socket((String)o,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress((String)o, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get((String)o);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "CHECKPNT        ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -9025,8 +9067,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release((String)o, sock);
 				}
 				catch (final Exception e)
 				{
@@ -9047,12 +9088,7 @@ public class ConnectionWorker extends HRDBMSThread
 				final String hostname = (String)obj2;
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get(hostname);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "PREPARE         ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -9069,8 +9105,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release(hostname, sock);
 				}
 				catch (final Exception e)
 				{
@@ -9107,12 +9142,7 @@ public class ConnectionWorker extends HRDBMSThread
 				Socket sock = null;
 				try
 				{
-					// sock = new Socket((String)o,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress((String)o, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get((String)o);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "LCOMMIT         ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -9132,8 +9162,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release((String)o, sock);
 				}
 				catch (final Exception e)
 				{
@@ -9155,12 +9184,7 @@ public class ConnectionWorker extends HRDBMSThread
 				final String hostname = (String)obj2;
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get(hostname);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "LCOMMIT         ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -9178,8 +9202,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release(hostname, sock);
 				}
 				catch (final Exception e)
 				{
@@ -10232,6 +10255,61 @@ public class ConnectionWorker extends HRDBMSThread
 		}
 	}
 
+	/**
+	 * Runs a send operator, so the connection worker that started it can go
+	 * back to reading commands such as CREDITS from its connection
+	 */
+	private static class SendOperatorThread extends HRDBMSThread
+	{
+		private final NetworkSendOperator op;
+		private final int id;
+		private final Socket sock;
+
+		public SendOperatorThread(final NetworkSendOperator op, final int id, final Socket sock)
+		{
+			this.op = op;
+			this.id = id;
+			this.sock = sock;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				op.start();
+			}
+			catch (final Exception e)
+			{
+				HRDBMSWorker.logger.debug("", e);
+				if (sock != null)
+				{
+					try
+					{
+						sock.close();
+					}
+					catch (final Exception f)
+					{
+					}
+				}
+			}
+
+			try
+			{
+				op.close();
+				ResourceManager.deregisterOperator(op);
+			}
+			catch (final Exception e)
+			{
+			}
+
+			if (id != -1)
+			{
+				sends.remove(id);
+			}
+		}
+	}
+
 	private static class SendPrepareThread extends HRDBMSThread
 	{
 		private final Object o;
@@ -10256,12 +10334,7 @@ public class ConnectionWorker extends HRDBMSThread
 				Socket sock = null;
 				try
 				{
-					// sock = new Socket((String)o,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress((String)o, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get((String)o);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "PREPARE         ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -10283,8 +10356,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release((String)o, sock);
 				}
 				catch (final Exception e)
 				{
@@ -10305,12 +10377,7 @@ public class ConnectionWorker extends HRDBMSThread
 				final String hostname = (String)obj2;
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get(hostname);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "PREPARE         ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -10330,8 +10397,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release(hostname, sock);
 				}
 				catch (final Exception e)
 				{
@@ -10777,12 +10843,7 @@ public class ConnectionWorker extends HRDBMSThread
 				Socket sock = null;
 				try
 				{
-					// sock = new Socket((String)o,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress((String)o, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get((String)o);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "LROLLBCK        ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -10802,8 +10863,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release((String)o, sock);
 				}
 				catch (final Exception e)
 				{
@@ -10825,12 +10885,7 @@ public class ConnectionWorker extends HRDBMSThread
 				final String hostname = (String)obj2;
 				try
 				{
-					// sock = new Socket(hostname,
-					// Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number")));
-					sock = new Socket();
-					sock.setReceiveBufferSize(4194304);
-					sock.setSendBufferSize(4194304);
-					sock.connect(new InetSocketAddress(hostname, Integer.parseInt(HRDBMSWorker.getHParms().getProperty("port_number"))));
+					sock = ConnectionPool.get(hostname);
 					final OutputStream out = sock.getOutputStream();
 					final byte[] outMsg = "LROLLBCK        ".getBytes(StandardCharsets.UTF_8);
 					outMsg[8] = 0;
@@ -10848,8 +10903,7 @@ public class ConnectionWorker extends HRDBMSThread
 					objOut.flush();
 					out.flush();
 					getConfirmation(sock);
-					objOut.close();
-					sock.close();
+					ConnectionPool.release(hostname, sock);
 				}
 				catch (final Exception e)
 				{
@@ -9,10 +9,11 @@ import com.exascale.filesystem.Page;
 import com.exascale.filesystem.SparseCompressedFileChannel2;
 import com.exascale.managers.FileManager;
 import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.IOScheduler;
 import com.exascale.tables.Schema;
 import com.exascale.tables.Transaction;
 
-public class Read3Thread extends HRDBMSThread
+public class Read3Thread extends HRDBMSThread implements IOScheduler.Request
 {
 	private Page p;
 	private Page p2;
@@ -84,11 +85,97 @@ public class Read3Thread extends HRDBMSThread
 		this.fetchPos = fetchPos;
 	}
 
+	@Override
+	public ByteBuffer[] buffers()
+	{
+		if (rThreads != null || cols != null)
+		{
+			return null;
+		}
+
+		return new ByteBuffer[] { bb, bb2, bb3 };
+	}
+
+	@Override
+	public String file()
+	{
+		return b.fileName();
+	}
+
+	@Override
+	public void finish()
+	{
+		try
+		{
+			p.setReady();
+			p2.setReady();
+			p3.setReady();
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.warn("I/O error occurred trying to read file: " + b.fileName() + ":" + b.number(), e);
+			ok = false;
+		}
+	}
+
+	@Override
+	public int first()
+	{
+		return b.number();
+	}
+
 	public boolean getOK()
 	{
 		return ok;
 	}
 
+	@Override
+	public void parse()
+	{
+		if (!ok)
+		{
+			return;
+		}
+
+		try
+		{
+			synchronized (schema1)
+			{
+				tx.read2(p.block(), schema1, p);
+			}
+
+			schemaMap.put(p.block().number(), schema1);
+			schema1.prepRowIter(fetchPos);
+
+			synchronized (schema2)
+			{
+				tx.read2(p2.block(), schema2, p2);
+			}
+
+			schemaMap.put(p2.block().number(), schema2);
+			schema2.prepRowIter(fetchPos);
+
+			synchronized (schema3)
+			{
+				tx.read2(p3.block(), schema3, p3);
+			}
+
+			schemaMap.put(p3.block().number(), schema3);
+			schema3.prepRowIter(fetchPos);
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.warn("Error occurred trying to parse file: " + b.fileName() + ":" + b.number(), e);
+			ok = false;
+		}
+	}
+
+	@Override
+	public boolean parses()
+	{
+		return schema1 != null;
+	}
+
 	@Override
 	public void run()
 	{
@@ -131,47 +218,13 @@ public class Read3Thread extends HRDBMSThread
 
 			if (cols == null)
 			{
-				((SparseCompressedFileChannel2)fc).read3(bb, bb2, bb3, ((long)b.number()) * bb.capacity());
+				// one read for the three blocks
+				((SparseCompressedFileChannel2)fc).read(buffers(), ((long)b.number()) * bb.capacity());
 			}
 			else
 			{
 				((SparseCompressedFileChannel2)fc).read3(bb, bb2, bb3, ((long)b.number()) * bb.capacity(), cols, layoutSize);
 			}
-			p.setReady();
-			p2.setReady();
-			p3.setReady();
-
-			if (schema1 != null)
-			{
-				synchronized (schema1)
-				{
-					tx.read2(p.block(), schema1, p);
-				}
-
-				schemaMap.put(p.block().number(), schema1);
-				schema1.prepRowIter(fetchPos);
-
-				synchronized (schema2)
-				{
-					tx.read2(p2.block(), schema2, p2);
-				}
-
-				schemaMap.put(p2.block().number(), schema2);
-				schema2.prepRowIter(fetchPos);
-
-				synchronized (schema3)
-				{
-					tx.read2(p3.block(), schema3, p3);
-				}
-
-				schemaMap.put(p3.block().number(), schema3);
-				schema3.prepRowIter(fetchPos);
-				// HRDBMSWorker.logger.debug("Long Read3Thread ending");
-			}
-			else
-			{
-				// HRDBMSWorker.logger.debug("Short Read3Thread ending");
-			}
 			// this.terminate();
 		}
 		catch (final Exception e)
@@ -181,7 +234,8 @@ public class Read3Thread extends HRDBMSThread
 			// this.terminate();
 			return;
 		}
-		return;
+
+		finish();
 	}
 
 	public void setRank(final int rank)
@@ -9,10 +9,11 @@ import com.exascale.filesystem.Page;
 import com.exascale.filesystem.SparseCompressedFileChannel2;
 import com.exascale.managers.FileManager;
 import com.exascale.managers.HRDBMSWorker;
+import com.exascale.managers.IOScheduler;
 import com.exascale.tables.Schema;
 import com.exascale.tables.Transaction;
 
-public class ReadThread extends HRDBMSThread
+public class ReadThread extends HRDBMSThread implements IOScheduler.Request
 {
 	private Page p;
 	private Block b;
@@ -77,11 +78,105 @@ public class ReadThread extends HRDBMSThread
 		this.consecutive = true;
 	}
 
+	@Override
+	public ByteBuffer[] buffers()
+	{
+		if (subThreads != null || cols != null)
+		{
+			return null;
+		}
+
+		if (!consecutive)
+		{
+			return new ByteBuffer[] { bb };
+		}
+
+		final ByteBuffer[] retval = new ByteBuffer[num];
+		retval[0] = p.buffer();
+		int i = 1;
+		while (i < num)
+		{
+			retval[i] = bp[indexes.get(i)].buffer();
+			i++;
+		}
+
+		return retval;
+	}
+
+	@Override
+	public String file()
+	{
+		return consecutive ? p.block().fileName() : b.fileName();
+	}
+
+	@Override
+	public void finish()
+	{
+		try
+		{
+			if (consecutive)
+			{
+				int i = 0;
+				while (i < num)
+				{
+					bp[indexes.get(i)].setReady();
+					i++;
+				}
+
+				return;
+			}
+
+			p.setReady();
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.warn("I/O error occurred trying to read file: " + file() + ":" + first(), e);
+			ok = false;
+		}
+	}
+
+	@Override
+	public int first()
+	{
+		return consecutive ? p.block().number() : b.number();
+	}
+
 	public boolean getOK()
 	{
 		return ok;
 	}
 
+	@Override
+	public void parse()
+	{
+		if (!ok)
+		{
+			return;
+		}
+
+		try
+		{
+			synchronized (schema)
+			{
+				tx.read2(p.block(), schema, p);
+			}
+
+			schemaMap.put(p.block().number(), schema);
+			schema.prepRowIter(fetchPos);
+		}
+		catch (final Exception e)
+		{
+			HRDBMSWorker.logger.warn("Error occurred trying to parse file: " + file() + ":" + first(), e);
+			ok = false;
+		}
+	}
+
+	@Override
+	public boolean parses()
+	{
+		return schema != null;
+	}
+
 	@Override
 	public void run()
 	{
@@ -120,76 +215,47 @@ public class ReadThread extends HRDBMSThread
 				b = p.block();
 				bb = p.buffer();
 				final FileChannel fc = FileManager.getFile(b.fileName());
-				final ByteBuffer[] bbs = new ByteBuffer[num];
-				bbs[0] = bb;
-				int i = 1;
-				while (i < num)
-				{
-					bbs[i] = bp[indexes.get(i)].buffer();
-					i++;
-				}
-
-				((SparseCompressedFileChannel2)fc).read(bbs, ((long)b.number()) * bb.capacity());
-
-				i = 0;
-				while (i < num)
-				{
-					bp[indexes.get(i)].setReady();
-					i++;
-				}
-
-				// this.terminate();
-				return;
-			}
-
-			// if (rank > 0 && rankSize > 1)
-			// {
-			// try
-			// {
-			// double pos = 1.0 - (((rank-1) * 1.0) / ((rankSize-1) * 1.0));
-			// int pri = (int)(pos * (Thread.MAX_PRIORITY -
-			// Thread.NORM_PRIORITY) + Thread.NORM_PRIORITY);
-			// Thread.currentThread().setPriority(pri);
-			// }
-			// catch(Exception f)
-			// {
-			// HRDBMSWorker.logger.debug("Error setting priority: Rank is " +
-			// rank + " RankSize is " + rankSize);
-			// throw f;
-			// }
-			// }
-
-			bb.clear();
-			bb.position(0);
-
-			final FileChannel fc = FileManager.getFile(b.fileName());
-			// if (b.number() * bb.capacity() >= fc.size())
-			// {
-			// HRDBMSWorker.logger.debug("Tried to read from " + b.fileName() +
-			// " at block = " + b.number() +
-			// " but it was past the range of the file");
-			// ok = false;
-			// }
-
-			if (cols != null)
-			{
-				((SparseCompressedFileChannel2)fc).read(bb, ((long)b.number()) * bb.capacity(), cols, layoutSize);
+				((SparseCompressedFileChannel2)fc).read(buffers(), ((long)b.number()) * bb.capacity());
 			}
 			else
 			{
-				fc.read(bb, ((long)b.number()) * bb.capacity());
-			}
-			p.setReady();
+				// if (rank > 0 && rankSize > 1)
+				// {
+				// try
+				// {
+				// double pos = 1.0 - (((rank-1) * 1.0) / ((rankSize-1) * 1.0));
+				// int pri = (int)(pos * (Thread.MAX_PRIORITY -
+				// Thread.NORM_PRIORITY) + Thread.NORM_PRIORITY);
+				// Thread.currentThread().setPriority(pri);
+				// }
+				// catch(Exception f)
+				// {
+				// HRDBMSWorker.logger.debug("Error setting priority: Rank is " +
+				// rank + " RankSize is " + rankSize);
+				// throw f;
+				// }
+				// }
 
-			if (schema != null)
-			{
-				synchronized (schema)
+				bb.clear();
+				bb.position(0);
+
+				final FileChannel fc = FileManager.getFile(b.fileName());
+				// if (b.number() * bb.capacity() >= fc.size())
+				// {
+				// HRDBMSWorker.logger.debug("Tried to read from " + b.fileName() +
+				// " at block = " + b.number() +
+				// " but it was past the range of the file");
+				// ok = false;
+				// }
+
+				if (cols != null)
 				{
-					tx.read2(p.block(), schema, p);
+					((SparseCompressedFileChannel2)fc).read(bb, ((long)b.number()) * bb.capacity(), cols, layoutSize);
+				}
+				else
+				{
+					fc.read(bb, ((long)b.number()) * bb.capacity());
 				}
-
-				schemaMap.put(p.block().number(), schema);
-				schema.prepRowIter(fetchPos);
 			}
 			// this.terminate();
 		}
@@ -200,7 +266,8 @@ public class ReadThread extends HRDBMSThread
 			// this.terminate();
 			return;
 		}
-		return;
+
+		finish();
 	}
 
 	public void setRank(final int rank)
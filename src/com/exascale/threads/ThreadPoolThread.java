@@ -55,6 +55,13 @@ public abstract class ThreadPoolThread implements Runnable
 		forJoin.cancel(true);
 	}
 
+	/** For a thread that is run by something other than the pool, like IOScheduler */
+	public void setFuture(final Future forJoin)
+	{
+		this.forJoin = forJoin;
+		started = true;
+	}
+
 	public void start()
 	{
 		if (!started)